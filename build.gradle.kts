@@ -27,5 +27,18 @@ java {
 }
 
 tasks.test {
-    useJUnitPlatform()
+    useJUnitPlatform {
+        excludeTags("benchmark")
+    }
+}
+
+// замеры памяти и скорости зависят от JVM и машины, поэтому запускаются отдельно: gradle benchmark
+val benchmark by tasks.registering(Test::class) {
+    description = "Runs benchmark tests."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+import exceptions.NullVirtualFSException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Индекс файлов VFS по размеру и дате последней модификации для запросов по диапазонам
+ * Размер и дата файла обновляются при закрытии файла, открытого на запись, при переименовании
+ * и при откате транзакции. Файл удаляется из индекса при удалении, при перемещении остаётся в нём.
+ * Сохраняются только размеры файлов, даты модификации загружаются вместе с файлами.
+ */
+class VirtualAttributeIndex {
+    private static final int SIZE = 0;
+    private static final int MODIFIED_AT = 1;
+
+    // размер и дата модификации, под которыми файл записан в индексе
+    private final Map<VirtualFile, long[]> keys = new IdentityHashMap<>();
+    private final TreeMap<Long, Set<VirtualFile>> bySize = new TreeMap<>();
+    private final TreeMap<Long, Set<VirtualFile>> byModifiedAt = new TreeMap<>();
+
+    VirtualAttributeIndex() {
+    }
+
+    /**
+     * Индекс, загруженный из сохранённых метаданных
+     *
+     * @param sizes файлы по размерам
+     */
+    VirtualAttributeIndex(@NotNull Map<Long, VirtualFile[]> sizes) {
+        sizes.forEach((size, files) -> {
+            for (VirtualFile file : files) {
+                update(file, size, file.getModifiedAt().getTime());
+            }
+        });
+    }
+
+    /**
+     * Построение индекса по всем файлам директории и её поддиректорий, директория уже заблокирована на чтение
+     * Размер файла, которого нет в памяти, читается из его первого блока
+     */
+    static VirtualAttributeIndex build(@NotNull VirtualDirectory directory) throws IOException, NullVirtualFSException {
+        VirtualAttributeIndex index = new VirtualAttributeIndex();
+        List<VirtualFile> files = new ArrayList<>();
+        VirtualFS.collectFiles(directory, files);
+        for (VirtualFile file : files) {
+            index.update(file, file.readLengthLocked(), file.getModifiedAt().getTime());
+        }
+        return index;
+    }
+
+    private static Set<VirtualFile> newSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * Добавление файла, если его ещё нет в индексе
+     * Размер файла без данных - 0, размер файла с данными берётся из памяти или читается из его первого блока
+     */
+    synchronized void add(@NotNull VirtualFile file) {
+        if (keys.containsKey(file)) {
+            return;
+        }
+        try {
+            update(file, file.readLengthLocked(), file.getModifiedAt().getTime());
+        } catch (IOException | NullVirtualFSException e) {
+            // файл, размер которого не удалось прочитать, попадёт в индекс при следующем закрытии
+        }
+    }
+
+    /**
+     * Запись файла с размером size и датой модификации modifiedAt вместо прежних значений
+     */
+    synchronized void update(@NotNull VirtualFile file, long size, long modifiedAt) {
+        remove(file);
+        keys.put(file, new long[]{size, modifiedAt});
+        bySize.computeIfAbsent(size, key -> newSet()).add(file);
+        byModifiedAt.computeIfAbsent(modifiedAt, key -> newSet()).add(file);
+    }
+
+    /**
+     * Обновление даты модификации файла, размер не меняется
+     */
+    synchronized void touch(@NotNull VirtualFile file) {
+        long[] key = keys.get(file);
+        if (key != null) {
+            update(file, key[SIZE], file.getModifiedAt().getTime());
+        }
+    }
+
+    synchronized void remove(@NotNull VirtualFile file) {
+        long[] key = keys.remove(file);
+        if (key != null) {
+            remove(bySize, key[SIZE], file);
+            remove(byModifiedAt, key[MODIFIED_AT], file);
+        }
+    }
+
+    private static void remove(@NotNull TreeMap<Long, Set<VirtualFile>> map, long key, @NotNull VirtualFile file) {
+        Set<VirtualFile> set = map.get(key);
+        if (set != null && set.remove(file) && set.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * Размер файла, записанный в индексе, -1 если файла в индексе нет
+     */
+    synchronized long size(@NotNull VirtualFile file) {
+        long[] key = keys.get(file);
+        return key == null ? -1 : key[SIZE];
+    }
+
+    /**
+     * Файлы с размером больше size
+     *
+     * @param root root директория VFS, файлы вне неё не возвращаются
+     */
+    List<VirtualFile> findLargerThan(long size, @NotNull VirtualDirectory root) {
+        if (size == Long.MAX_VALUE) {
+            return new ArrayList<>();
+        }
+        return find(bySize, size + 1, root);
+    }
+
+    /**
+     * Файлы, изменённые позже modifiedAt
+     *
+     * @param root root директория VFS, файлы вне неё не возвращаются
+     */
+    List<VirtualFile> findModifiedAfter(long modifiedAt, @NotNull VirtualDirectory root) {
+        if (modifiedAt == Long.MAX_VALUE) {
+            return new ArrayList<>();
+        }
+        return find(byModifiedAt, modifiedAt + 1, root);
+    }
+
+    private List<VirtualFile> find(@NotNull TreeMap<Long, Set<VirtualFile>> map, long from,
+                                   @NotNull VirtualDirectory root) {
+        List<VirtualFile> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Set<VirtualFile> set : map.tailMap(from, true).values()) {
+                candidates.addAll(set);
+            }
+        }
+        candidates.removeIf(file -> !file.isInside(root));
+        return candidates;
+    }
+
+    /**
+     * Файлы по размерам для сохранения, удалённые и перенесённые в другую VFS файлы не сохраняются
+     *
+     * @param root root директория VFS
+     */
+    synchronized HashMap<Long, VirtualFile[]> snapshot(@NotNull VirtualDirectory root) {
+        HashMap<Long, VirtualFile[]> snapshot = new HashMap<>();
+        bySize.forEach((size, set) -> {
+            VirtualFile[] files = set.stream().filter(file -> file.isInside(root)).toArray(VirtualFile[]::new);
+            if (files.length > 0) {
+                snapshot.put(size, files);
+            }
+        });
+        return snapshot;
+    }
+}
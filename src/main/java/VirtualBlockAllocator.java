@@ -0,0 +1,109 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeSet;
+
+/**
+ * Распределитель блоков физического файла, общий для всех VFS контейнера
+ * Свободные блоки находятся одним проходом по физическому файлу при первом выделении,
+ * дальше выделенные и освобождённые блоки учитываются в памяти. Выданный блок больше не выдаётся,
+ * пока его не освободят, поэтому VFS одного контейнера не получают один и тот же блок.
+ * Блок, занятый в обход распределителя, отбрасывается тем, кто его получил, после проверки под блокировкой файла.
+ */
+class VirtualBlockAllocator {
+    private final File sourceFile;
+    private final TreeSet<Long> freeBlocks = new TreeSet<>();
+    private long slotSize;
+    // конец выделенных блоков, блоки после него свободны
+    private long end = -1;
+
+    VirtualBlockAllocator(@NotNull File sourceFile) {
+        this.sourceFile = sourceFile;
+    }
+
+    /**
+     * Выделение первого свободного блока
+     *
+     * @return позиция блока, блок может находиться за концом физического файла
+     */
+    synchronized long allocate() throws IOException {
+        scan();
+        Long position = freeBlocks.pollFirst();
+        if (position != null) {
+            return position;
+        }
+        position = end;
+        end += slotSize;
+        return position;
+    }
+
+    /**
+     * Выделение блока в позиции position, если он свободен
+     */
+    synchronized boolean claim(long position) throws IOException {
+        scan();
+        if (freeBlocks.remove(position)) {
+            return true;
+        }
+        if (position < end) {
+            return false;
+        }
+        for (long free = end; free < position; free += slotSize) {
+            freeBlocks.add(free);
+        }
+        end = position + slotSize;
+        return true;
+    }
+
+    /**
+     * Возврат блока, который помечен удалённым или так и не был записан
+     */
+    synchronized void free(long position) {
+        if (end != -1 && position < end) {
+            freeBlocks.add(position);
+        }
+    }
+
+    /**
+     * Проверка на то, что все выделенные блоки уже записаны в физический файл
+     * и конец физического файла можно обрезать
+     */
+    synchronized boolean isWritten(long length) {
+        return end == -1 || end <= length;
+    }
+
+    /**
+     * Учёт обрезания физического файла до длины length
+     */
+    synchronized void truncate(long length) {
+        if (end == -1) {
+            return;
+        }
+        freeBlocks.tailSet(length).clear();
+        end = Math.min(end, length);
+    }
+
+    /**
+     * Поиск свободных блоков физического файла при первом обращении
+     */
+    private void scan() throws IOException {
+        if (end != -1) {
+            return;
+        }
+        slotSize = VirtualRandomAccessFile.getBlockSize() + VirtualRandomAccessFile.BLOCK_HEADER_SIZE;
+        try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            end = 8 + Math.max(0, channel.size() - 8) / slotSize * slotSize;
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            for (long position = 8; position < end; position += slotSize) {
+                buffer.clear();
+                if (channel.read(buffer, position) == 8 && buffer.getLong(0) == -2) {
+                    freeBlocks.add(position);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Индекс блоков физического файла по содержимому для дедупликации
+ * Ключ блока - хэш его данных и позиция следующего блока, поэтому найденный блок можно подставить
+ * в цепочку вместо своего только вместе с уже общим продолжением цепочки.
+ * Блок удаляется из индекса перед любым изменением на месте и при удалении.
+ */
+class VirtualBlockIndex {
+    private final HashMap<Key, Long> blocks;
+    private final HashMap<Long, Key> keys = new HashMap<>();
+    private volatile boolean isEnabled;
+    // статистика
+    private long hashedBlocks;
+    private long deduplicatedBlocks;
+    private long passes;
+    private long passesNanos;
+
+    VirtualBlockIndex() {
+        this(new HashMap<>());
+    }
+
+    VirtualBlockIndex(@NotNull Map<Key, Long> blocks) {
+        this.blocks = new HashMap<>(blocks);
+        this.blocks.forEach((key, position) -> keys.put(position, key));
+    }
+
+    /**
+     * Проверка блока-кандидата на совпадение с блоком, который ищется в индексе
+     */
+    interface Matcher {
+        boolean matches(long position) throws IOException;
+    }
+
+    boolean isEnabled() {
+        return isEnabled;
+    }
+
+    void setEnabled(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+    }
+
+    /**
+     * Поиск блока с таким же ключом
+     * Если найденный блок совпадает, то на него добавляется ссылка, иначе в индекс добавляется блок position
+     *
+     * @return позиция блока, который нужно использовать вместо блока position
+     */
+    synchronized long share(
+            @NotNull Key key,
+            long position,
+            @NotNull Matcher matcher,
+            @NotNull VirtualBlockReferences references
+    ) throws IOException {
+        hashedBlocks++;
+        Long candidate = blocks.get(key);
+        if (candidate != null && candidate != position && matcher.matches(candidate)) {
+            references.retain(candidate);
+            deduplicatedBlocks++;
+            return candidate;
+        }
+        remove(position);
+        if (candidate != null) {
+            keys.remove(candidate);
+        }
+        blocks.put(key, position);
+        keys.put(position, key);
+        return position;
+    }
+
+    /**
+     * Удаление блока из индекса перед изменением блока на месте
+     *
+     * @return true, если блок принадлежит только одной цепочке и его можно изменять на месте
+     */
+    synchronized boolean detach(long position, @NotNull VirtualBlockReferences references) {
+        remove(position);
+        return !references.isShared(position);
+    }
+
+    /**
+     * Удаление блока из индекса
+     */
+    synchronized void remove(long position) {
+        Key key = keys.remove(position);
+        if (key != null) {
+            blocks.remove(key);
+        }
+    }
+
+    /**
+     * Учёт времени одного прохода дедупликации при закрытии файла
+     */
+    synchronized void addPass(long nanos) {
+        passes++;
+        passesNanos += nanos;
+    }
+
+    synchronized VirtualFSDeduplicationStats stats() {
+        return new VirtualFSDeduplicationStats(blocks.size(), hashedBlocks, deduplicatedBlocks, passes, passesNanos);
+    }
+
+    /**
+     * Копия индекса для сохранения
+     */
+    synchronized HashMap<Key, Long> snapshot() {
+        return new HashMap<>(blocks);
+    }
+
+    /**
+     * Ключ блока: хэш данных, позиция следующего блока и размер файла для первых блоков (-1 для остальных)
+     */
+    static class Key implements Serializable {
+        private final byte[] hash;
+        private final long nextBlockPosition;
+        private final long fileSize;
+
+        Key(@NotNull byte[] hash, long nextBlockPosition, long fileSize) {
+            this.hash = hash;
+            this.nextBlockPosition = nextBlockPosition;
+            this.fileSize = fileSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return nextBlockPosition == key.nextBlockPosition && fileSize == key.fileSize
+                    && Arrays.equals(hash, key.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(hash);
+            result = 31 * result + Long.hashCode(nextBlockPosition);
+            result = 31 * result + Long.hashCode(fileSize);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Счётчики ссылок на блоки физического файла
+ * Хранятся только счётчики больше единицы, у остальных занятых блоков ровно одна ссылка:
+ * из другого блока цепочки или из файла. Блок с несколькими ссылками и все блоки после него
+ * общие для нескольких файлов, при записи такие блоки копируются.
+ */
+class VirtualBlockReferences {
+    private final HashMap<Long, Integer> counts;
+
+    VirtualBlockReferences() {
+        this(new HashMap<>());
+    }
+
+    VirtualBlockReferences(Map<Long, Integer> counts) {
+        this.counts = new HashMap<>(counts);
+    }
+
+    /**
+     * Добавление ссылки на блок
+     */
+    synchronized void retain(long position) {
+        counts.merge(position, 2, (count, ignored) -> count + 1);
+    }
+
+    /**
+     * Удаление ссылки на блок
+     *
+     * @return true, если ссылок на блок не осталось и блок можно удалить
+     */
+    synchronized boolean release(long position) {
+        Integer count = counts.get(position);
+        if (count == null) {
+            return true;
+        }
+        if (count == 2) {
+            counts.remove(position);
+        } else {
+            counts.put(position, count - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Проверка на то, что на блок ссылается больше одного файла или блока
+     */
+    synchronized boolean isShared(long position) {
+        return counts.containsKey(position);
+    }
+
+    /**
+     * Копия счётчиков для сохранения и проверки
+     */
+    synchronized HashMap<Long, Integer> snapshot() {
+        return new HashMap<>(counts);
+    }
+}
@@ -0,0 +1,380 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатый виртуальный файл
+ * Данные делятся на куски фиксированного размера, каждый кусок сжимается Deflate отдельно,
+ * поэтому для чтения в произвольной позиции распаковывается только один кусок.
+ * В цепочке блоков хранятся заголовок (размер данных, позиция индекса, размер куска, число кусков),
+ * сжатые куски и индекс кусков (позиция и длина каждого куска).
+ * Кусок, который после изменения не помещается на старое место, дописывается в конец сжатых данных,
+ * место старого куска освобождается при закрытии, если таких мест больше половины.
+ */
+class VirtualCompressedRandomAccessFile extends VirtualRandomAccessFile {
+    static final int CHUNK_SIZE = 16 * 1024;
+    // заголовок: размер данных, позиция индекса, размер куска, число кусков
+    static final int HEADER_SIZE = 8 * 2 + 4 * 2;
+    // запись индекса: позиция куска, длина сжатого куска
+    private static final int INDEX_ENTRY_SIZE = 8 + 4;
+    private final Deflater deflater = new Deflater();
+    private final Inflater inflater = new Inflater();
+    private final int chunkSize;
+    private long[] chunkOffsets = new long[0];
+    private int[] chunkLengths = new int[0];
+    private int chunksCount;
+    // конец сжатых данных, после него записывается индекс
+    private long dataEnd = HEADER_SIZE;
+    // байты сжатых данных, которые больше не принадлежат ни одному куску
+    private long garbage;
+    private boolean isIndexModified;
+    // распакованный текущий кусок
+    private final byte[] chunk;
+    private int chunkIndex = -1;
+    private boolean isChunkModified;
+    // размер и позиция в распакованных данных
+    private long size;
+    private long position;
+
+    VirtualCompressedRandomAccessFile(
+            @NotNull File file,
+            @NotNull String mode,
+            long position,
+            VirtualRandomAccessFileListener onClose,
+            boolean verifyChecksums,
+            VirtualBlockReferences references,
+            VirtualBlockIndex blockIndex,
+            VirtualBlockAllocator allocator
+    ) throws IOException {
+        super(file, mode, position, onClose, verifyChecksums, references, blockIndex, allocator);
+
+        try {
+            if (super.length() >= HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.wrap(readRaw(0, HEADER_SIZE));
+                size = header.getLong();
+                dataEnd = header.getLong();
+                chunkSize = header.getInt();
+                chunksCount = header.getInt();
+
+                chunkOffsets = new long[chunksCount];
+                chunkLengths = new int[chunksCount];
+                ByteBuffer index = ByteBuffer.wrap(readRaw(dataEnd, chunksCount * INDEX_ENTRY_SIZE));
+                garbage = dataEnd - HEADER_SIZE;
+                for (int i = 0; i < chunksCount; i++) {
+                    chunkOffsets[i] = index.getLong();
+                    chunkLengths[i] = index.getInt();
+                    garbage -= chunkLengths[i];
+                }
+            } else {
+                chunkSize = CHUNK_SIZE;
+            }
+            chunk = new byte[chunkSize];
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * @return длина распакованных данных файла
+     */
+    @Override
+    public long length() {
+        return size;
+    }
+
+    /**
+     * @return текущая позиция в распакованных данных
+     */
+    @Override
+    public long getFilePointer() {
+        return position;
+    }
+
+    /**
+     * Перемещение в позицию pos распакованных данных
+     */
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos < 0) throw new IOException();
+        position = Math.min(pos, size);
+    }
+
+    @Override
+    public int readNextByte() throws IOException {
+        return read();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        loadChunk((int) (position / chunkSize));
+        return chunk[(int) (position++ % chunkSize)] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= size) {
+            return len == 0 ? 0 : -1;
+        }
+        int count = (int) Math.min(len, size - position);
+        for (int done = 0; done < count; ) {
+            loadChunk((int) (position / chunkSize));
+            int chunkPosition = (int) (position % chunkSize);
+            int n = Math.min(count - done, chunkSize - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, b, off + done, n);
+            done += n;
+            position += n;
+        }
+        return count;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        loadChunk((int) (position / chunkSize));
+        chunk[(int) (position++ % chunkSize)] = (byte) b;
+        isChunkModified = true;
+        size = Math.max(size, position);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        for (int done = 0; done < len; ) {
+            loadChunk((int) (position / chunkSize));
+            int chunkPosition = (int) (position % chunkSize);
+            int n = Math.min(len - done, chunkSize - chunkPosition);
+            System.arraycopy(b, off + done, chunk, chunkPosition, n);
+            isChunkModified = true;
+            done += n;
+            position += n;
+            size = Math.max(size, position);
+        }
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Изменение длины распакованных данных, при увеличении в конец дописываются нулевые байты
+     */
+    @Override
+    public void setLength(long newLength) throws IOException {
+        if (newLength < 0) throw new IOException();
+        if (newLength > size) {
+            position = size;
+            while (position < newLength) {
+                loadChunk((int) (position / chunkSize));
+                int chunkPosition = (int) (position % chunkSize);
+                int n = (int) Math.min(newLength - position, chunkSize - chunkPosition);
+                Arrays.fill(chunk, chunkPosition, chunkPosition + n, (byte) 0);
+                isChunkModified = true;
+                position += n;
+                size = position;
+            }
+        } else if (newLength < size) {
+            int count = (int) ((newLength + chunkSize - 1) / chunkSize);
+            if (chunkIndex >= count) {
+                chunkIndex = -1;
+                isChunkModified = false;
+            }
+            for (int i = count; i < chunksCount; i++) {
+                garbage += chunkLengths[i];
+            }
+            chunksCount = Math.min(chunksCount, count);
+            isIndexModified = true;
+            size = newLength;
+
+            // хвост последнего куска обнуляется, чтобы при увеличении длины не появились старые данные
+            int tail = (int) (newLength % chunkSize);
+            if (tail != 0) {
+                loadChunk(count - 1);
+                Arrays.fill(chunk, tail, chunkSize, (byte) 0);
+                isChunkModified = true;
+            }
+        }
+        position = size;
+    }
+
+    /**
+     * Запись текущего куска, индекса и заголовка в блоки файла
+     */
+    @Override
+    public void flush() throws IOException {
+        storeChunk();
+        if (isIndexModified) {
+            if (size == 0) {
+                super.setLength(0);
+                chunksCount = 0;
+                dataEnd = HEADER_SIZE;
+                garbage = 0;
+            } else {
+                if (garbage > (dataEnd - HEADER_SIZE) / 2) {
+                    pack();
+                }
+                ByteBuffer index = ByteBuffer.allocate(chunksCount * INDEX_ENTRY_SIZE);
+                for (int i = 0; i < chunksCount; i++) {
+                    index.putLong(chunkOffsets[i]);
+                    index.putInt(chunkLengths[i]);
+                }
+                writeRaw(dataEnd, index.array());
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putLong(size);
+                header.putLong(dataEnd);
+                header.putInt(chunkSize);
+                header.putInt(chunksCount);
+                writeRaw(0, header.array());
+
+                long rawLength = dataEnd + (long) chunksCount * INDEX_ENTRY_SIZE;
+                if (super.length() > rawLength) {
+                    super.setLength(rawLength);
+                }
+            }
+            isIndexModified = false;
+        }
+        super.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            // блокировки файла снимаются в super.close, даже если записать данные не удалось
+            deflater.end();
+            inflater.end();
+            super.close();
+        }
+    }
+
+    /**
+     * Распаковка куска index в буфер текущего куска, изменённый текущий кусок перед этим записывается
+     * Кусок за концом данных - нулевые байты
+     */
+    private void loadChunk(int index) throws IOException {
+        if (index == chunkIndex) {
+            return;
+        }
+        storeChunk();
+        Arrays.fill(chunk, (byte) 0);
+        if (index < chunksCount) {
+            inflater.reset();
+            inflater.setInput(readRaw(chunkOffsets[index], chunkLengths[index]));
+            try {
+                int length = 0;
+                while (!inflater.finished() && length < chunkSize) {
+                    int n = inflater.inflate(chunk, length, chunkSize - length);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Corrupted compressed chunk " + index);
+                    }
+                    length += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted compressed chunk " + index, e);
+            }
+        }
+        chunkIndex = index;
+    }
+
+    /**
+     * Сжатие и запись изменённого текущего куска
+     * Если сжатый кусок больше старого, то он дописывается в конец сжатых данных
+     */
+    private void storeChunk() throws IOException {
+        if (!isChunkModified) {
+            return;
+        }
+        int length = (int) Math.min(chunkSize, size - (long) chunkIndex * chunkSize);
+        byte[] data = compress(length);
+
+        if (chunkIndex < chunksCount && data.length <= chunkLengths[chunkIndex]) {
+            writeRaw(chunkOffsets[chunkIndex], data);
+            garbage += chunkLengths[chunkIndex] - data.length;
+        } else {
+            if (chunkIndex < chunksCount) {
+                garbage += chunkLengths[chunkIndex];
+            } else {
+                chunksCount = chunkIndex + 1;
+                if (chunkOffsets.length < chunksCount) {
+                    chunkOffsets = Arrays.copyOf(chunkOffsets, Math.max(chunksCount, chunkOffsets.length * 2));
+                    chunkLengths = Arrays.copyOf(chunkLengths, chunkOffsets.length);
+                }
+            }
+            chunkOffsets[chunkIndex] = dataEnd;
+            writeRaw(dataEnd, data);
+            dataEnd += data.length;
+        }
+        chunkLengths[chunkIndex] = data.length;
+        isChunkModified = false;
+        isIndexModified = true;
+    }
+
+    private byte[] compress(int length) {
+        deflater.reset();
+        deflater.setInput(chunk, 0, length);
+        deflater.finish();
+        byte[] data = new byte[length / 2 + 64];
+        int dataLength = 0;
+        while (!deflater.finished()) {
+            if (dataLength == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            dataLength += deflater.deflate(data, dataLength, data.length - dataLength);
+        }
+        return Arrays.copyOf(data, dataLength);
+    }
+
+    /**
+     * Перенос кусков в начало сжатых данных без промежутков
+     */
+    private void pack() throws IOException {
+        int[] order = IntStream.range(0, chunksCount).boxed()
+                .sorted(Comparator.comparingLong(i -> chunkOffsets[i]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        long offset = HEADER_SIZE;
+        for (int i : order) {
+            if (chunkOffsets[i] != offset) {
+                writeRaw(offset, readRaw(chunkOffsets[i], chunkLengths[i]));
+                chunkOffsets[i] = offset;
+            }
+            offset += chunkLengths[i];
+        }
+        dataEnd = offset;
+        garbage = 0;
+    }
+
+    private byte[] readRaw(long rawPosition, int length) throws IOException {
+        byte[] data = new byte[length];
+        super.seek(rawPosition);
+        super.read(data);
+        return data;
+    }
+
+    private void writeRaw(long rawPosition, byte[] data) throws IOException {
+        long rawLength = super.length();
+        if (rawLength < rawPosition) {
+            super.seek(rawLength);
+            super.write(new byte[(int) (rawPosition - rawLength)]);
+        }
+        super.seek(rawPosition);
+        super.write(data);
+    }
+}
@@ -5,20 +5,40 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.attribute.FileTime;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class VirtualDirectory extends VirtualFSNode implements Serializable {
-    transient AtomicBoolean isModifying = new AtomicBoolean(false);
+    private static final long serialVersionUID = 1L;
+
+    transient private volatile boolean isModifying;
     private List<VirtualDirectory> directories;
     private List<VirtualFile> files;
+    // упорядоченные по имени индексы дочерних узлов, изменяются вместе со списками под теми же блокировками,
+    // создаются при первой вставке, у пустых директорий их нет
+    transient private TreeMap<String, VirtualDirectory> directoriesByName;
+    transient private TreeMap<String, VirtualFile> filesByName;
+    // неизменяемые снимки списков для чтения без блокировок, после изменения списка снимок помечается
+    // устаревшим и пересоздаётся при следующем чтении
+    transient private volatile List<VirtualDirectory> directoriesSnapshot;
+    transient private volatile List<VirtualFile> filesSnapshot;
+    transient private volatile boolean isDirectoriesSnapshotStale;
+    transient private volatile boolean isFilesSnapshotStale;
+    // новые файлы директории создаются сжатыми
+    private boolean isCompressed;
 
-    transient private ReentrantReadWriteLock directoriesReadWriteLock = new ReentrantReadWriteLock();
-    transient private ReentrantReadWriteLock filesReadWriteLock = new ReentrantReadWriteLock();
-    transient private ReentrantReadWriteLock nameLock = new ReentrantReadWriteLock();
+    /**
+     * Блокировки создаются при первом обращении, большинство директорий никогда не блокируются
+     */
+    transient private volatile ReentrantReadWriteLock directoriesReadWriteLock;
+    transient private volatile ReentrantReadWriteLock filesReadWriteLock;
+    transient private volatile ReentrantReadWriteLock nameLock;
+    transient private volatile VirtualIntentionLock subtreeLock;
 
     public VirtualDirectory(String name) throws EmptyNodeNameException {
         this(name, null);
@@ -33,20 +53,147 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
         super(name, rootDirectory);
         this.directories = new ArrayList<>();
         this.files = new ArrayList<>();
+        this.directoriesSnapshot = List.of();
+        this.filesSnapshot = List.of();
         this.virtualFS = virtualFS;
+        this.isCompressed = rootDirectory != null && rootDirectory.isCompressed();
     }
 
     boolean isModifying() {
-        return isModifying.get();
+        return isModifying;
+    }
+
+    void setModifying(boolean isModifying) {
+        this.isModifying = isModifying;
+    }
+
+    /**
+     * Проверка на то, что новые файлы и директории в директории создаются сжатыми
+     */
+    public boolean isCompressed() {
+        return isCompressed;
+    }
+
+    /**
+     * Включение или выключение сжатия для всех файлов и поддиректорий директории
+     * Данные уже записанных файлов перезаписываются, новые файлы наследуют сжатие от директории
+     */
+    public void setCompressed(boolean isCompressed) throws LockedVirtualFSNodeException, IOException,
+            NullVirtualFSException {
+        List<Lock> locks = tryWriteLockDown();
+        try {
+            setCompressedLocked(isCompressed);
+        } finally {
+            locks.forEach(Lock::unlock);
+            save();
+        }
+    }
+
+    /**
+     * Поддерево обходится без рекурсии, см. VirtualTreeWalker
+     */
+    private void setCompressedLocked(boolean isCompressed) throws IOException, NullVirtualFSException {
+        VirtualFSVisitor visitor = new VirtualFSVisitor() {
+            @Override
+            public Result preVisitDirectory(@NotNull VirtualDirectory directory, int depth) {
+                directory.isCompressed = isCompressed;
+                return Result.CONTINUE;
+            }
+
+            @Override
+            public Result visitFile(@NotNull VirtualFile file, int depth) throws VFSException, IOException {
+                file.setCompressedLocked(isCompressed);
+                return Result.CONTINUE;
+            }
+        };
+
+        try {
+            walkTree(visitor);
+        } catch (NullVirtualFSException e) {
+            throw e;
+        } catch (VFSException e) {
+            // обработчик бросает только перечисленные исключения
+            throw new IllegalStateException(e);
+        }
     }
 
     private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
         inputStream.defaultReadObject();
-        directoriesReadWriteLock = new ReentrantReadWriteLock();
-        filesReadWriteLock = new ReentrantReadWriteLock();
-        nameLock = new ReentrantReadWriteLock();
         isDeleted = false;
-        isModifying = new AtomicBoolean(false);
+        for (VirtualDirectory directory : directories) {
+            indexDirectory(directory);
+        }
+        for (VirtualFile file : files) {
+            indexFile(file);
+        }
+    }
+
+    /**
+     * Получение блокировки списка директорий, создание блокировки при первом обращении
+     */
+    private ReentrantReadWriteLock directoriesReadWriteLock() {
+        ReentrantReadWriteLock lock = directoriesReadWriteLock;
+        if (lock == null) {
+            synchronized (this) {
+                lock = directoriesReadWriteLock;
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock(lockPolicy().isFair());
+                    directoriesReadWriteLock = lock;
+                }
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Получение блокировки списка файлов, создание блокировки при первом обращении
+     */
+    private ReentrantReadWriteLock filesReadWriteLock() {
+        ReentrantReadWriteLock lock = filesReadWriteLock;
+        if (lock == null) {
+            synchronized (this) {
+                lock = filesReadWriteLock;
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock(lockPolicy().isFair());
+                    filesReadWriteLock = lock;
+                }
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Получение блокировки имени директории, создание блокировки при первом обращении
+     */
+    private ReentrantReadWriteLock nameLock() {
+        ReentrantReadWriteLock lock = nameLock;
+        if (lock == null) {
+            synchronized (this) {
+                lock = nameLock;
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock(lockPolicy().isFair());
+                    nameLock = lock;
+                }
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Получение блокировки поддерева директории, создание блокировки при первом обращении
+     */
+    private VirtualIntentionLock subtreeLock() {
+        VirtualIntentionLock lock = subtreeLock;
+        if (lock == null) {
+            synchronized (this) {
+                lock = subtreeLock;
+                if (lock == null) {
+                    lock = new VirtualIntentionLock(lockPolicy().isFair());
+                    subtreeLock = lock;
+                }
+            }
+        }
+        return lock;
     }
 
     /**
@@ -55,47 +202,193 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
     @Override
     public void rename(@NotNull String name) throws LockedVirtualFSNodeException, VirtualFSNodeIsDeletedException,
             NotUniqueNameException, EmptyNodeNameException {
-        List<Lock> locks = new ArrayList<>();
-        try {
-            locks.add(tryLockNameWrite());
-            if (rootDirectory != null) locks.add(rootDirectory.tryWriteLockDirectories());
-        } catch (LockedVirtualFSNodeException e) {
-            locks.forEach(Lock::unlock);
-            throw e;
-        }
-        isModifying.set(true);
+        List<Lock> locks = new VirtualLockOrder().nameWrite(this).directoriesWrite(rootDirectory).lock();
+        setModifying(true);
         if (rootDirectory != null && !rootDirectory.checkForUniqueDirectoryName(this, name)) {
-            isModifying.set(false);
+            setModifying(false);
             locks.forEach(Lock::unlock);
             throw new NotUniqueNameException();
         }
+        String oldName = this.name;
         try {
             super.rename(name);
         } finally {
             locks.forEach(Lock::unlock);
             save();
-            isModifying.set(false);
+            setModifying(false);
         }
+        publish(VirtualFSWatchEvent.Kind.RENAME, rootDirectory, rootDirectory, oldName);
     }
 
     /**
      * Получение списка директорий в текущей директории
+     * Возвращается неизменяемый снимок списка, последующие изменения директории на него не влияют.
+     * Снимок строится заново после изменения списка и не ждёт блокировок директории, поэтому не мешает изменениям.
      */
     public List<VirtualDirectory> getDirectories() throws LockedVirtualFSNodeException {
-        Lock lock = tryReadLockDirectories();
-        List<VirtualDirectory> directories = this.directories;
-        lock.unlock();
-        save();
-        return directories;
+        return directoriesSnapshot();
+    }
+
+    /**
+     * Неизменяемый снимок списка директорий, снимок строится заново после изменения списка
+     */
+    List<VirtualDirectory> directoriesSnapshot() {
+        boolean isStale = isDirectoriesSnapshotStale;
+        List<VirtualDirectory> snapshot = directoriesSnapshot;
+        if (snapshot != null && !isStale) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (!isDirectoriesSnapshotStale && directoriesSnapshot != null) {
+                return directoriesSnapshot;
+            }
+            snapshot = List.copyOf(directories);
+            directoriesSnapshot = snapshot;
+            isDirectoriesSnapshotStale = false;
+            return snapshot;
+        }
     }
 
     /**
      * Получение списка файлов в текущей директории
+     * Возвращается неизменяемый снимок списка, последующие изменения директории на него не влияют.
+     * Снимок строится заново после изменения списка и не ждёт блокировок директории, поэтому не мешает изменениям.
      */
     public List<VirtualFile> getFiles() throws LockedVirtualFSNodeException {
+        return filesSnapshot();
+    }
+
+    /**
+     * Неизменяемый снимок списка файлов, снимок строится заново после изменения списка
+     */
+    List<VirtualFile> filesSnapshot() {
+        boolean isStale = isFilesSnapshotStale;
+        List<VirtualFile> snapshot = filesSnapshot;
+        if (snapshot != null && !isStale) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (!isFilesSnapshotStale && filesSnapshot != null) {
+                return filesSnapshot;
+            }
+            snapshot = List.copyOf(files);
+            filesSnapshot = snapshot;
+            isFilesSnapshotStale = false;
+            return snapshot;
+        }
+    }
+
+    /**
+     * Получение страницы поддиректорий в порядке имён
+     *
+     * @param fromName имя последней директории предыдущей страницы, null для первой страницы
+     * @param limit    наибольшее число директорий на странице
+     */
+    public List<VirtualDirectory> listDirectories(String fromName, int limit) throws LockedVirtualFSNodeException {
+        return listDirectories("", fromName, limit);
+    }
+
+    /**
+     * Получение страницы поддиректорий, имена которых начинаются с prefix, в порядке имён
+     *
+     * @param fromName имя последней директории предыдущей страницы, null для первой страницы
+     * @param limit    наибольшее число директорий на странице
+     */
+    public List<VirtualDirectory> listDirectories(@NotNull String prefix, String fromName, int limit)
+            throws LockedVirtualFSNodeException {
+        Lock lock = tryReadLockDirectories();
+        try {
+            return page(directoriesByName, prefix, fromName, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Получение страницы файлов в порядке имён
+     *
+     * @param fromName имя последнего файла предыдущей страницы, null для первой страницы
+     * @param limit    наибольшее число файлов на странице
+     */
+    public List<VirtualFile> listFiles(String fromName, int limit) throws LockedVirtualFSNodeException {
+        return listFiles("", fromName, limit);
+    }
+
+    /**
+     * Получение страницы файлов, имена которых начинаются с prefix, в порядке имён
+     *
+     * @param fromName имя последнего файла предыдущей страницы, null для первой страницы
+     * @param limit    наибольшее число файлов на странице
+     */
+    public List<VirtualFile> listFiles(@NotNull String prefix, String fromName, int limit)
+            throws LockedVirtualFSNodeException {
+        Lock lock = tryReadLockFiles();
+        try {
+            return page(filesByName, prefix, fromName, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Обход индекса с первого имени после fromName, не меньшего prefix, пока имена начинаются с prefix
+     */
+    private static <T> List<T> page(TreeMap<String, T> index, @NotNull String prefix, String fromName, int limit) {
+        List<T> page = new ArrayList<>();
+        if (index == null || limit <= 0) {
+            return page;
+        }
+        SortedMap<String, T> tail = fromName != null && fromName.compareTo(prefix) >= 0
+                ? index.tailMap(fromName, false)
+                : index.tailMap(prefix, true);
+        for (Map.Entry<String, T> entry : tail.entrySet()) {
+            if (page.size() == limit || !entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            page.add(entry.getValue());
+        }
+        return page;
+    }
+
+    /**
+     * Получение дочерней директории по имени
+     *
+     * @return директория или null, если директории с таким именем нет
+     */
+    public VirtualDirectory getDirectory(@NotNull String name) throws LockedVirtualFSNodeException {
+        Lock lock = tryReadLockDirectories();
+        try {
+            return directoryByName(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Получение файла текущей директории по имени
+     *
+     * @return файл или null, если файла с таким именем нет
+     */
+    public VirtualFile getFile(@NotNull String name) throws LockedVirtualFSNodeException {
         Lock lock = tryReadLockFiles();
-        List<VirtualFile> files = this.files;
-        lock.unlock();
+        try {
+            return fileByName(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Получение списка директорий без блокировки, вызывающий уже держит блокировку
+     */
+    List<VirtualDirectory> getDirectoriesLocked() {
+        return directories;
+    }
+
+    /**
+     * Получение списка файлов без блокировки, вызывающий уже держит блокировку
+     */
+    List<VirtualFile> getFilesLocked() {
         return files;
     }
 
@@ -107,22 +400,23 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      */
     public VirtualDirectory mkdir(@NotNull String name) throws LockedVirtualFSNodeException,
             NotUniqueNameException, EmptyNodeNameException {
-        Lock lock = tryWriteLockDirectories();
-        isModifying.set(true);
+        List<Lock> locks = new VirtualLockOrder().directoriesWrite(this).lock();
+        setModifying(true);
         if (checkForUniqueDirectoryName(this, name)) {
             VirtualDirectory newDirectory;
             try {
                 newDirectory = new VirtualDirectory(name, this);
-                directories.add(newDirectory);
+                paste(newDirectory);
             } finally {
-                isModifying.set(false);
-                lock.unlock();
+                setModifying(false);
+                locks.forEach(Lock::unlock);
                 save();
             }
+            newDirectory.publish(VirtualFSWatchEvent.Kind.CREATE, this);
             return newDirectory;
         } else {
-            isModifying.set(false);
-            lock.unlock();
+            setModifying(false);
+            locks.forEach(Lock::unlock);
             throw new NotUniqueNameException();
         }
     }
@@ -135,22 +429,23 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      */
     public VirtualFile touch(@NotNull String name) throws LockedVirtualFSNodeException,
             NotUniqueNameException, EmptyNodeNameException {
-        Lock lock = tryWriteLockFiles();
-        isModifying.set(true);
+        List<Lock> locks = new VirtualLockOrder().filesWrite(this).lock();
+        setModifying(true);
         if (checkForUniqueFileName(name)) {
             VirtualFile newFile;
             try {
                 newFile = new VirtualFile(name, this);
-                files.add(newFile);
+                paste(newFile);
             } finally {
-                isModifying.set(false);
-                lock.unlock();
+                setModifying(false);
+                locks.forEach(Lock::unlock);
                 save();
             }
+            newFile.publish(VirtualFSWatchEvent.Kind.CREATE, this);
             return newFile;
         } else {
-            isModifying.set(false);
-            lock.unlock();
+            setModifying(false);
+            locks.forEach(Lock::unlock);
             throw new NotUniqueNameException();
         }
     }
@@ -178,15 +473,9 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
         super.remove();
         List<Lock> locks = new ArrayList<>();
         if (!isLocked) {
-            locks = tryWriteLockDown();
-            try {
-                locks.add(rootDirectory.tryWriteLockDirectories());
-            } catch (LockedVirtualFSNodeException e) {
-                locks.forEach(Lock::unlock);
-                throw e;
-            }
+            locks = new VirtualLockOrder().writeDown(this).directoriesWrite(rootDirectory).lock();
         }
-        isModifying.set(true);
+        setModifying(true);
         for (VirtualDirectory directory : this.directories) {
             directory.remove(true, false);
         }
@@ -194,49 +483,267 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
             file.remove(true, false);
         }
 
-        directories = new ArrayList<>();
-        files = new ArrayList<>();
+        Lock lock = beginChange();
+        try {
+            synchronized (this) {
+                directories = new ArrayList<>();
+                files = new ArrayList<>();
+                isDirectoriesSnapshotStale = true;
+                isFilesSnapshotStale = true;
+            }
+            directoriesByName = null;
+            filesByName = null;
+        } finally {
+            endChange(lock);
+        }
 
         locks.forEach(Lock::unlock);
 
+        VirtualUsageIndex usageIndex = usageIndex();
+        VirtualDirectory parent = rootDirectory;
         if (deleteFromRoot) {
             rootDirectory.remove(this);
         }
+        if (usageIndex != null) usageIndex.discard(this);
         this.isDeleted = true;
-        isModifying.set(false);
+        setModifying(false);
         save();
+        if (deleteFromRoot) {
+            // одно событие на всё поддерево
+            publish(VirtualFSWatchEvent.Kind.DELETE, parent);
+        }
     }
 
     /**
      * Удаление файла file из текущей директории
      */
     void remove(@NotNull VirtualFile file) {
-        files.remove(file);
-        file.rootDirectory = null;
+        Lock lock = beginChange();
+        try {
+            synchronized (this) {
+                files.remove(file);
+                isFilesSnapshotStale = true;
+                if (filesByName != null) filesByName.remove(file.name, file);
+            }
+            VirtualNameIndex nameIndex = nameIndex();
+            if (nameIndex != null) nameIndex.remove(file);
+            VirtualUsageIndex usageIndex = usageIndex();
+            if (usageIndex != null) usageIndex.removeFile(this, lengthOf(file));
+            file.rootDirectory = null;
+        } finally {
+            endChange(lock);
+        }
     }
 
     /**
      * Удаление директории directory из текущей директории
      */
     void remove(@NotNull VirtualDirectory directory) {
-        directories.remove(directory);
-        directory.rootDirectory = null;
+        Lock lock = beginChange();
+        try {
+            invalidatePath(directory.getPath());
+            synchronized (this) {
+                directories.remove(directory);
+                isDirectoriesSnapshotStale = true;
+            }
+            if (directoriesByName != null) directoriesByName.remove(directory.name, directory);
+            VirtualUsageIndex usageIndex = usageIndex();
+            if (usageIndex != null) usageIndex.removeDirectory(this, directory);
+            directory.rootDirectory = null;
+        } finally {
+            endChange(lock);
+        }
+    }
+
+    /**
+     * Обновление индекса по имени после переименования дочернего узла
+     */
+    void onRename(@NotNull VirtualFSNode node, @NotNull String oldName) {
+        if (node instanceof VirtualFile) {
+            synchronized (this) {
+                if (filesByName != null && filesByName.remove(oldName, node)) {
+                    indexFile((VirtualFile) node);
+                }
+            }
+            VirtualNameIndex nameIndex = nameIndex();
+            if (nameIndex != null) nameIndex.rename((VirtualFile) node, oldName);
+        } else if (directoriesByName != null && directoriesByName.remove(oldName, node)) {
+            String path = getPath();
+            invalidatePath(path.equals("/") ? path + oldName : path + "/" + oldName);
+            indexDirectory((VirtualDirectory) node);
+        }
+    }
+
+    /**
+     * Удаление из кэша путей VFS пути path и всех путей внутри него
+     */
+    private void invalidatePath(@NotNull String path) {
+        try {
+            getVirtualFS().getPathCache().invalidate(path);
+        } catch (NullVirtualFSException e) {
+            // директория не находится в VFS, путей в кэше нет
+        }
+    }
+
+    private VirtualDirectory directoryByName(@NotNull String name) {
+        TreeMap<String, VirtualDirectory> directoriesByName = this.directoriesByName;
+        return directoriesByName == null ? null : directoriesByName.get(name);
+    }
+
+    private VirtualFile fileByName(@NotNull String name) {
+        TreeMap<String, VirtualFile> filesByName = this.filesByName;
+        return filesByName == null ? null : filesByName.get(name);
+    }
+
+    private void indexDirectory(@NotNull VirtualDirectory directory) {
+        if (directoriesByName == null) {
+            directoriesByName = new TreeMap<>();
+        }
+        // имена директорий уникальны, проверка - у вызывающего; уже записанная директория не теряется из индекса
+        directoriesByName.putIfAbsent(directory.name, directory);
+    }
+
+    /**
+     * Добавление файла в индексы имён, размеров и дат модификации и в итоги директорий VFS, если они включены
+     */
+    private void addToIndexes(@NotNull VirtualFile file) {
+        VirtualNameIndex nameIndex = nameIndex();
+        if (nameIndex != null) {
+            nameIndex.add(file);
+        }
+        VirtualAttributeIndex attributeIndex = attributeIndex();
+        if (attributeIndex != null) {
+            attributeIndex.add(file);
+        }
+        VirtualUsageIndex usageIndex = usageIndex();
+        if (usageIndex != null) {
+            usageIndex.addFile(this, lengthOf(file));
+        }
+    }
+
+    /**
+     * Добавление вставленной директории в итоги директорий VFS, если они включены
+     */
+    private void addToUsage(@NotNull VirtualDirectory directory) {
+        VirtualUsageIndex usageIndex = usageIndex();
+        if (usageIndex != null) {
+            try {
+                usageIndex.addDirectory(this, directory);
+            } catch (IOException | NullVirtualFSException e) {
+                // поддерево, размер файлов которого не удалось прочитать, остаётся без итогов
+            }
+        }
+    }
+
+    /**
+     * Размер данных файла для итогов директорий, 0 если размер не удалось прочитать
+     */
+    private static long lengthOf(@NotNull VirtualFile file) {
+        try {
+            return file.readLengthLocked();
+        } catch (IOException | NullVirtualFSException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Проверка на то, что файл вставлен в текущую директорию
+     */
+    synchronized boolean contains(@NotNull VirtualFile file) {
+        return fileByName(file.name) == file;
+    }
+
+    private void indexFile(@NotNull VirtualFile file) {
+        if (filesByName == null) {
+            filesByName = new TreeMap<>();
+        }
+        filesByName.put(file.name, file);
     }
 
     /**
      * Вставка директории virtualDirectory в текущую диреторию
      */
     void paste(@NotNull VirtualDirectory virtualDirectory) {
-        directories.add(virtualDirectory);
-        virtualDirectory.rootDirectory = this;
+        Lock lock = beginChange();
+        try {
+            synchronized (this) {
+                directories.add(virtualDirectory);
+                isDirectoriesSnapshotStale = true;
+            }
+            indexDirectory(virtualDirectory);
+            virtualDirectory.rootDirectory = this;
+            addToUsage(virtualDirectory);
+        } finally {
+            endChange(lock);
+        }
+    }
+
+    /**
+     * Вставка директории virtualDirectory в текущую диреторию на позицию index
+     */
+    void paste(@NotNull VirtualDirectory virtualDirectory, int index) {
+        Lock lock = beginChange();
+        try {
+            synchronized (this) {
+                directories.add(index, virtualDirectory);
+                isDirectoriesSnapshotStale = true;
+            }
+            indexDirectory(virtualDirectory);
+            virtualDirectory.rootDirectory = this;
+            addToUsage(virtualDirectory);
+        } finally {
+            endChange(lock);
+        }
     }
 
     /**
      * Вставка файла virtualFile в текущую диреторию
      */
     void paste(@NotNull VirtualFile virtualFile) {
-        files.add(virtualFile);
-        virtualFile.rootDirectory = this;
+        Lock lock = beginChange();
+        try {
+            synchronized (this) {
+                files.add(virtualFile);
+                isFilesSnapshotStale = true;
+                indexFile(virtualFile);
+            }
+            virtualFile.rootDirectory = this;
+            addToIndexes(virtualFile);
+        } finally {
+            endChange(lock);
+        }
+    }
+
+    /**
+     * Вставка файла virtualFile в текущую диреторию на позицию index
+     */
+    void paste(@NotNull VirtualFile virtualFile, int index) {
+        Lock lock = beginChange();
+        try {
+            synchronized (this) {
+                files.add(index, virtualFile);
+                isFilesSnapshotStale = true;
+                indexFile(virtualFile);
+            }
+            virtualFile.rootDirectory = this;
+            addToIndexes(virtualFile);
+        } finally {
+            endChange(lock);
+        }
+    }
+
+    /**
+     * Позиция директории в списке дочерних директорий
+     */
+    int indexOf(@NotNull VirtualDirectory virtualDirectory) {
+        return directories.indexOf(virtualDirectory);
+    }
+
+    /**
+     * Позиция файла в списке дочерних файлов
+     */
+    int indexOf(@NotNull VirtualFile virtualFile) {
+        return files.indexOf(virtualFile);
     }
 
     /**
@@ -248,43 +755,92 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
         if (rootDirectory == null) {
             throw new UnremovableVirtualNodeException();
         }
-        List<Lock> locks = tryWriteLockDown();
-        try {
-            locks.add(rootDirectory.tryWriteLockDirectories());
-            locks.add(destinationDirectory.tryWriteLockDirectories());
-        } catch (LockedVirtualFSNodeException e) {
+        List<Lock> locks = new VirtualLockOrder()
+                .directoriesWrite(rootDirectory)
+                .directoriesWrite(destinationDirectory)
+                .writeDown(this)
+                .lock();
+        // пока путь до destinationDirectory заблокирован, директорию нельзя перенести под неё
+        if (hasInSubtree(destinationDirectory)) {
             locks.forEach(Lock::unlock);
-            throw e;
+            throw new IllegalArgumentException("Directory cannot be moved into itself");
         }
-        rootDirectory.isModifying.set(true);
+        rootDirectory.setModifying(true);
         if (!destinationDirectory.checkForUniqueDirectoryName(this)) {
             locks.forEach(Lock::unlock);
-            rootDirectory.isModifying.set(false);
+            rootDirectory.setModifying(false);
             throw new NotUniqueNameException();
         }
-        rootDirectory.remove(this);
+        VirtualDirectory sourceDirectory = rootDirectory;
+        sourceDirectory.remove(this);
         destinationDirectory.paste(this);
-        rootDirectory.isModifying.set(false);
+        sourceDirectory.setModifying(false);
         locks.forEach(Lock::unlock);
         save();
+        publish(VirtualFSWatchEvent.Kind.MOVE, destinationDirectory, sourceDirectory, name);
+    }
+
+    /**
+     * Проверка на то, что directory - эта директория или одна из её поддиректорий
+     */
+    boolean hasInSubtree(@NotNull VirtualDirectory directory) {
+        for (VirtualDirectory current = directory; current != null; current = current.getRootDirectory()) {
+            if (current == this) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Создание клона директории с указанием destinationDirectory в качетсве root директории
+     * Поддерево обходится без рекурсии, см. VirtualTreeWalker
      */
     VirtualDirectory clone(@NotNull VirtualDirectory destinationDirectory) throws NullVirtualFSException,
             LockedVirtualFSNodeException, OverlappingVirtualFileLockException, IOException,
             VirtualFSNodeIsDeletedException, EmptyNodeNameException {
-        VirtualDirectory clonedDirectory = new VirtualDirectory(name, destinationDirectory);
+        VirtualDirectory[] clonedDirectory = new VirtualDirectory[1];
+        // клоны директорий на пути от данной директории до обходимой
+        Deque<VirtualDirectory> clonedDirectories = new ArrayDeque<>();
+        VirtualFSVisitor visitor = new VirtualFSVisitor() {
+            @Override
+            public Result preVisitDirectory(@NotNull VirtualDirectory directory, int depth) throws VFSException {
+                VirtualDirectory parent = depth == 0 ? destinationDirectory : clonedDirectories.peek();
+                VirtualDirectory clone = new VirtualDirectory(directory.name, parent);
+                clone.isCompressed = directory.isCompressed;
+                if (depth == 0) {
+                    clonedDirectory[0] = clone;
+                } else {
+                    parent.paste(clone);
+                }
+                clonedDirectories.push(clone);
+                return Result.CONTINUE;
+            }
 
-        for (VirtualDirectory directory : directories) {
-            clonedDirectory.paste(directory.clone(clonedDirectory));
-        }
-        for (VirtualFile file : files) {
-            clonedDirectory.paste(file.clone(clonedDirectory));
-        }
+            @Override
+            public Result visitFile(@NotNull VirtualFile file, int depth) throws VFSException, IOException {
+                VirtualDirectory parent = clonedDirectories.peek();
+                parent.paste(file.clone(parent));
+                return Result.CONTINUE;
+            }
 
-        return clonedDirectory;
+            @Override
+            public Result postVisitDirectory(@NotNull VirtualDirectory directory, int depth) {
+                clonedDirectories.pop();
+                return Result.CONTINUE;
+            }
+        };
+
+        try {
+            walkTree(visitor);
+        } catch (NullVirtualFSException | LockedVirtualFSNodeException | OverlappingVirtualFileLockException
+                 | VirtualFSNodeIsDeletedException | EmptyNodeNameException e) {
+            throw e;
+        } catch (VFSException e) {
+            // обработчик бросает только перечисленные исключения
+            throw new IllegalStateException(e);
+        }
+        return clonedDirectory[0];
     }
 
     /**
@@ -292,23 +848,27 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      */
     public VirtualDirectory copy(@NotNull VirtualDirectory destinationDirectory) throws LockedVirtualFSNodeException,
             NullVirtualFSException, OverlappingVirtualFileLockException, IOException, VirtualFSNodeIsDeletedException,
-            EmptyNodeNameException {
-        List<Lock> locks = tryReadLockDown();
-        destinationDirectory.isModifying.set(true);
-        try {
-            locks.add(tryLockNameRead());
-            locks.add(rootDirectory.tryReadLockDirectories());
-            locks.add(destinationDirectory.tryWriteLockDirectories());
-        } catch (LockedVirtualFSNodeException e) {
-            destinationDirectory.isModifying.set(false);
+            EmptyNodeNameException, NotUniqueNameException {
+        VirtualLockOrder lockOrder = new VirtualLockOrder().readDown(this).directoriesWrite(destinationDirectory);
+        if (rootDirectory != destinationDirectory) {
+            lockOrder.directoriesRead(rootDirectory);
+        }
+        List<Lock> locks = lockOrder.lock();
+        if (hasInSubtree(destinationDirectory)) {
             locks.forEach(Lock::unlock);
-            throw e;
+            throw new IllegalArgumentException("Directory cannot be copied into itself");
         }
+        if (!destinationDirectory.checkForUniqueDirectoryName(name)) {
+            locks.forEach(Lock::unlock);
+            throw new NotUniqueNameException();
+        }
+        destinationDirectory.setModifying(true);
         VirtualDirectory copiedDirectory = clone(destinationDirectory);
         destinationDirectory.paste(copiedDirectory);
         locks.forEach(Lock::unlock);
         save();
-        destinationDirectory.isModifying.set(false);
+        destinationDirectory.setModifying(false);
+        copiedDirectory.publish(VirtualFSWatchEvent.Kind.CREATE, destinationDirectory);
         return copiedDirectory;
     }
 
@@ -353,15 +913,92 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
         return find(pattern, false);
     }
 
+    /**
+     * Поиск файлов по glob с путём относительно данной директории, например "**&#47;logs/*.gz"
+     * Обход не заходит в поддиректории, которые не подходят под glob, см. VirtualGlob
+     *
+     * @return найденные файлы, файлы директории идут раньше файлов её поддиректорий
+     * @throws IllegalArgumentException если glob записан с ошибкой
+     */
+    public List<VirtualFile> glob(@NotNull String glob) throws LockedVirtualFSNodeException {
+        return new VirtualGlob(glob).find(this);
+    }
+
+    /**
+     * Обход данной директории и всех её поддиректорий без рекурсии, см. VirtualFSVisitor
+     */
+    public void walkTree(@NotNull VirtualFSVisitor visitor) throws VFSException, IOException {
+        walkTree(visitor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Обход данной директории и её поддиректорий не глубже maxDepth без рекурсии, см. VirtualFSVisitor
+     * Файлы директории на глубине maxDepth не посещаются, maxDepth = 0 - посещается только данная директория
+     */
+    public void walkTree(@NotNull VirtualFSVisitor visitor, int maxDepth) throws VFSException, IOException {
+        new VirtualTreeWalker(visitor, maxDepth).walk(this);
+    }
+
+    /**
+     * Поток файлов данной директории
+     * Поток строится по снимкам списков и делится по поддеревьям, поэтому подходит для parallel()
+     *
+     * @param isRecursive флаг, указывающий на обход всех поддиректорий
+     */
+    public Stream<VirtualFile> stream(boolean isRecursive) {
+        return StreamSupport.stream(new VirtualFileSpliterator(this, isRecursive), false);
+    }
+
+    /**
+     * Получение размера данных, числа файлов и числа директорий всего поддерева данной директории
+     * При включённых итогах директорий (VirtualFS.setUsageIndexEnabled) поддерево не обходится,
+     * иначе размер каждого файла читается под его блокировкой на чтение
+     */
+    public VirtualDirectoryUsage getUsage() throws IOException, LockedVirtualFSNodeException,
+            NullVirtualFSException {
+        VirtualUsageIndex usageIndex = usageIndex();
+        VirtualDirectoryUsage usage = usageIndex == null ? null : usageIndex.usage(this);
+        return usage != null ? usage : VirtualUsageIndex.measure(this);
+    }
+
+    /**
+     * Параллельный рекурсивный поиск файлов по паттерну в общем ForkJoinPool
+     *
+     * @return найденные файлы в произвольном порядке
+     */
+    public List<VirtualFile> findParallel(@NotNull Pattern pattern) {
+        return findParallel((VirtualFile file) -> pattern.matcher(file.getName()).matches());
+    }
+
+    /**
+     * Параллельный рекурсивный поиск файлов, подходящих под match, в общем ForkJoinPool
+     *
+     * @return найденные файлы в произвольном порядке
+     */
+    public List<VirtualFile> findParallel(@NotNull Predicate<VirtualFile> match) {
+        return findParallel(ForkJoinPool.commonPool(), match, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Параллельный рекурсивный поиск файлов, подходящих под match, в пуле pool
+     * match вызывается одновременно из нескольких потоков
+     *
+     * @param limit наибольшее число найденных файлов, после него поиск останавливается
+     * @return найденные файлы в произвольном порядке
+     */
+    public List<VirtualFile> findParallel(@NotNull ForkJoinPool pool, @NotNull Predicate<VirtualFile> match, int limit) {
+        return new VirtualFileFinder(pool, match, limit).find(this);
+    }
+
     /**
      * Блокировка на запись списка директорий
      */
     Lock tryWriteLockDirectories() throws LockedVirtualFSNodeException {
-        if (directoriesReadWriteLock.isWriteLockedByCurrentThread()) {
+        if (directoriesReadWriteLock().isWriteLockedByCurrentThread()) {
             throw new LockedVirtualFSNodeException();
         }
-        Lock lock = directoriesReadWriteLock.writeLock();
-        if (!lock.tryLock()) {
+        Lock lock = directoriesReadWriteLock().writeLock();
+        if (!lockPolicy().acquire(lock)) {
             throw new LockedVirtualFSNodeException();
         }
         return lock;
@@ -371,11 +1008,11 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      * Блокировка на чтение списка директорий
      */
     Lock tryReadLockDirectories() throws LockedVirtualFSNodeException {
-        if (directoriesReadWriteLock.isWriteLockedByCurrentThread()) {
+        if (directoriesReadWriteLock().isWriteLockedByCurrentThread()) {
             throw new LockedVirtualFSNodeException();
         }
-        Lock lock = directoriesReadWriteLock.readLock();
-        if (!lock.tryLock()) {
+        Lock lock = directoriesReadWriteLock().readLock();
+        if (!lockPolicy().acquire(lock)) {
             throw new LockedVirtualFSNodeException();
         }
         return lock;
@@ -385,11 +1022,11 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      * Блокировка на запись списка файлов
      */
     Lock tryWriteLockFiles() throws LockedVirtualFSNodeException {
-        if (filesReadWriteLock.isWriteLockedByCurrentThread()) {
+        if (filesReadWriteLock().isWriteLockedByCurrentThread()) {
             throw new LockedVirtualFSNodeException();
         }
-        Lock lock = filesReadWriteLock.writeLock();
-        if (!lock.tryLock()) {
+        Lock lock = filesReadWriteLock().writeLock();
+        if (!lockPolicy().acquire(lock)) {
             throw new LockedVirtualFSNodeException();
         }
         return lock;
@@ -399,124 +1036,54 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      * Блокировка на чтение списка файлов
      */
     Lock tryReadLockFiles() throws LockedVirtualFSNodeException {
-        if (filesReadWriteLock.isWriteLockedByCurrentThread()) {
+        if (filesReadWriteLock().isWriteLockedByCurrentThread()) {
             throw new LockedVirtualFSNodeException();
         }
-        Lock lock = filesReadWriteLock.readLock();
-        if (!lock.tryLock()) {
+        Lock lock = filesReadWriteLock().readLock();
+        if (!lockPolicy().acquire(lock)) {
             throw new LockedVirtualFSNodeException();
         }
         return lock;
     }
 
     /**
-     * Блокировка на запись списков директорий и файлов, имени директории
-     */
-    List<Lock> tryWriteLock() throws LockedVirtualFSNodeException {
-        List<Lock> locks = new ArrayList<>();
-        if (nameLock.isWriteLockedByCurrentThread()) {
-            throw new LockedVirtualFSNodeException();
-        }
-
-        try {
-            locks.add(tryLockNameWrite());
-            locks.add(tryWriteLockFiles());
-            locks.add(tryWriteLockDirectories());
-        } catch (LockedVirtualFSNodeException e) {
-            locks.forEach(Lock::unlock);
-            throw e;
-        }
-
-        return locks;
-    }
-
-    /**
-     * Блокировка на чтение списков директорий и файлов, имени директории
+     * Блокировка поддерева директории в режиме mode для владельца owner
      */
-    List<Lock> tryReadLock() throws LockedVirtualFSNodeException {
-        List<Lock> locks = new ArrayList<>();
-
-        if (nameLock.isWriteLockedByCurrentThread()) {
+    Lock tryLockSubtree(@NotNull VirtualIntentionLock.Mode mode, Object owner) throws LockedVirtualFSNodeException {
+        Lock lock = subtreeLock().lock(mode, owner);
+        if (!lockPolicy().acquire(lock)) {
             throw new LockedVirtualFSNodeException();
         }
-
-        try {
-            locks.add(tryLockNameRead());
-            locks.add(tryReadLockFiles());
-            locks.add(tryReadLockDirectories());
-        } catch (LockedVirtualFSNodeException e) {
-            locks.forEach(Lock::unlock);
-            throw e;
-        }
-
-        return locks;
+        return lock;
     }
 
     /**
-     * Блокировка на запись текущей директории, рекурсивная блокировка на запись всех поддиректорий и файлов
+     * Блокировка на запись текущей директории со всеми поддиректориями и файлами
+     * Блокируются только директория и намерения на пути до неё, вложенные узлы не блокируются
      */
     List<Lock> tryWriteLockDown() throws LockedVirtualFSNodeException {
-        return tryWriteLockDown(new ArrayList<>());
-    }
-
-    /**
-     * Блокировка на запись текущей директории, рекурсивная блокировка на запись всех поддиректорий и файлов
-     */
-    List<Lock> tryWriteLockDown(List<Lock> locks) throws LockedVirtualFSNodeException {
-        try {
-            locks.addAll(tryWriteLock());
-        } catch (LockedVirtualFSNodeException e) {
-            locks.forEach(Lock::unlock);
-            throw e;
-        }
-
-        for (VirtualDirectory directory : directories) {
-            locks = directory.tryWriteLockDown(locks);
-        }
-
-        for (VirtualFile file : files) {
-            try {
-                locks.add(file.tryWriteLock());
-            } catch (LockedVirtualFSNodeException e) {
-                locks.forEach(Lock::unlock);
-                throw e;
-            }
-        }
-
-        return locks;
+        return new VirtualLockOrder().writeDown(this).lock();
     }
 
     /**
-     * Блокировка на чтение текущей директории, рекурсивная блокировка на чтение всех поддиректорий и файлов
+     * Блокировка на чтение текущей директории со всеми поддиректориями и файлами
+     * Блокируются только директория и намерения на пути до неё, вложенные узлы не блокируются
      */
     List<Lock> tryReadLockDown() throws LockedVirtualFSNodeException {
-        return tryReadLockDown(new ArrayList<>());
+        return new VirtualLockOrder().readDown(this).lock();
     }
 
     /**
-     * Блокировка на чтение текущей директории, рекурсивная блокировка на чтение всех поддиректорий и файлов
+     * Блокировка на чтение текущей директории со всеми поддиректориями и файлами, блокировки добавляются в locks
+     * При ошибке блокировки locks снимаются
      */
     List<Lock> tryReadLockDown(@NotNull List<Lock> locks) throws LockedVirtualFSNodeException {
         try {
-            locks.addAll(tryReadLock());
+            locks.addAll(tryReadLockDown());
         } catch (LockedVirtualFSNodeException e) {
             locks.forEach(Lock::unlock);
             throw e;
         }
-
-        for (VirtualDirectory directory : directories) {
-            locks = directory.tryReadLockDown(locks);
-        }
-
-        for (VirtualFile file : files) {
-            try {
-                locks.add(file.tryReadLock());
-            } catch (LockedVirtualFSNodeException e) {
-                locks.forEach(Lock::unlock);
-                throw e;
-            }
-        }
-
         return locks;
     }
 
@@ -524,9 +1091,9 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      * Блокировка на запись имени директории
      */
     Lock tryLockNameWrite() throws LockedVirtualFSNodeException {
-        Lock lock = nameLock.writeLock();
+        Lock lock = nameLock().writeLock();
 
-        if (!lock.tryLock()) {
+        if (!lockPolicy().acquire(lock)) {
             throw new LockedVirtualFSNodeException();
         }
 
@@ -537,61 +1104,43 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      * Блокировка на чтение имени директории
      */
     Lock tryLockNameRead() throws LockedVirtualFSNodeException {
-        Lock lock = nameLock.readLock();
+        Lock lock = nameLock().readLock();
 
-        if (!lock.tryLock()) {
+        if (!lockPolicy().acquire(lock)) {
             throw new LockedVirtualFSNodeException();
         }
 
         return lock;
     }
 
-    /**
-     * Блокировка на запись списка директорий и файлов
-     */
-    List<Lock> tryLockWriteFilesDirectories(@NotNull List<Lock> locks) throws LockedVirtualFSNodeException {
-        try {
-            locks.add(tryWriteLockDirectories());
-        } catch (LockedVirtualFSNodeException e) {
-            locks.forEach(Lock::unlock);
-            throw e;
-        }
-
-        try {
-            locks.add(tryWriteLockFiles());
-        } catch (LockedVirtualFSNodeException e) {
-            locks.forEach(Lock::unlock);
-            throw e;
-        }
-
-        return locks;
-    }
-
     /**
      * импорт данных из виртульной директории
      */
     public void importContent(@NotNull VirtualDirectory originalDirectory) throws LockedVirtualFSNodeException,
             NullVirtualFSException, OverlappingVirtualFileLockException, IOException, VirtualFSNodeIsDeletedException,
             NotUniqueNameException, EmptyNodeNameException {
-        List<Lock> locks = originalDirectory.tryReadLockDown();
-        locks = tryLockWriteFilesDirectories(locks);
+        List<Lock> locks = new VirtualLockOrder()
+                .readDown(originalDirectory)
+                .filesWrite(this)
+                .directoriesWrite(this)
+                .lock();
 
         for (VirtualDirectory directory : originalDirectory.directories) {
-            if (checkForUniqueDirectoryName(directory.getName())) {
-                paste(directory.clone(this));
+            VirtualDirectory virtualDirectory = directoryByName(directory.getName());
+            if (virtualDirectory == null) {
+                VirtualDirectory clonedDirectory = directory.clone(this);
+                paste(clonedDirectory);
+                clonedDirectory.publish(VirtualFSWatchEvent.Kind.CREATE, this);
             } else {
-                for (VirtualDirectory virtualDirectory : directories) {
-                    if (virtualDirectory.getName().equals(directory.getName())) {
-                        virtualDirectory.importContent(directory);
-                        break;
-                    }
-                }
+                virtualDirectory.importContent(directory);
             }
         }
 
         for (VirtualFile virtualFile : originalDirectory.files) {
             if (checkForUniqueFileName(virtualFile.getName())) {
-                paste(virtualFile.clone(this));
+                VirtualFile clonedFile = virtualFile.clone(this);
+                paste(clonedFile);
+                clonedFile.publish(VirtualFSWatchEvent.Kind.CREATE, this);
             } else {
                 locks.forEach(Lock::unlock);
                 throw new NotUniqueNameException();
@@ -609,21 +1158,15 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
         if (!folder.isDirectory()) {
             throw new InvalidObjectException(String.format("File is not a directory: %s", folder.getAbsolutePath()));
         }
-        List<Lock> locks = new ArrayList<>();
-        locks = tryLockWriteFilesDirectories(locks);
+        List<Lock> locks = new VirtualLockOrder().filesWrite(this).directoriesWrite(this).lock();
 
         for (final File fileEntry : Objects.requireNonNull(folder.listFiles())) {
             if (fileEntry.isDirectory()) {
-                VirtualDirectory directory = new VirtualDirectory(fileEntry.getName());
-                if (checkForUniqueDirectoryName(fileEntry.getName())) {
+                VirtualDirectory directory = directoryByName(fileEntry.getName());
+                if (directory == null) {
+                    directory = new VirtualDirectory(fileEntry.getName());
                     paste(directory);
-                } else {
-                    for (VirtualDirectory virtualDirectory : directories) {
-                        if (virtualDirectory.getName().equals(fileEntry.getName())) {
-                            directory = virtualDirectory;
-                            break;
-                        }
-                    }
+                    directory.publish(VirtualFSWatchEvent.Kind.CREATE, this);
                 }
                 directory.importContent(fileEntry);
             } else {
@@ -651,20 +1194,21 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
         if (!file.isFile()) {
             throw new InvalidObjectException(String.format("File is not a file: %s", file.getAbsolutePath()));
         }
-        Lock lock = null;
+        List<Lock> locks = new ArrayList<>();
         if(!isLocked) {
-            lock = tryWriteLockFiles();
+            locks = new VirtualLockOrder().filesWrite(this).lock();
         }
 
         if (!checkForUniqueFileName(file.getName())) {
-            if(lock != null) lock.unlock();
+            locks.forEach(Lock::unlock);
             throw new NotUniqueNameException();
         }
 
-        Date createdAt = new Date(((FileTime) Files.getAttribute(file.toPath(), "creationTime")).toMillis());
-        Date modifiedAt = new Date(((FileTime) Files.getAttribute(file.toPath(), "lastModifiedTime")).toMillis());
+        long createdAt = ((FileTime) Files.getAttribute(file.toPath(), "creationTime")).toMillis();
+        long modifiedAt = ((FileTime) Files.getAttribute(file.toPath(), "lastModifiedTime")).toMillis();
         VirtualFile virtualFile = new VirtualFile(file.getName(), this, -1, createdAt, modifiedAt);
         paste(virtualFile);
+        virtualFile.publish(VirtualFSWatchEvent.Kind.CREATE, this);
         VirtualRandomAccessFile virtualRandomAccessFile = virtualFile.open("rw");
         RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
         byte[] b = new byte[(int) randomAccessFile.length()];
@@ -673,40 +1217,63 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
         virtualRandomAccessFile.write(b);
         virtualRandomAccessFile.close();
 
-        if(lock != null) lock.unlock();
+        locks.forEach(Lock::unlock);
         save();
     }
 
     /**
      * Экспорт данных в физическую папку
+     * Поддерево обходится без рекурсии, см. VirtualTreeWalker
      */
     public void exportContent(@NotNull File folder) throws IOException, LockedVirtualFSNodeException, NullVirtualFSException, OverlappingVirtualFileLockException {
         if (!folder.isDirectory()) {
             throw new InvalidObjectException(String.format("File is not a directory: %s", folder.getAbsolutePath()));
         }
 
-        List<Lock> locks = new ArrayList<>();
-        locks = tryReadLockDown(locks);
+        // физические папки на пути от folder до папки обходимой директории
+        Deque<File> folders = new ArrayDeque<>();
+        VirtualFSVisitor visitor = new VirtualFSVisitor() {
+            @Override
+            public Result preVisitDirectory(@NotNull VirtualDirectory directory, int depth) {
+                File newDirectory = depth == 0 ? folder : new File(folders.peek(), directory.getName());
+                if (depth > 0 && !newDirectory.isDirectory() && !newDirectory.mkdir()) {
+                    return Result.SKIP_SUBTREE;
+                }
+                folders.push(newDirectory);
+                return Result.CONTINUE;
+            }
 
-        for (VirtualDirectory directory : directories) {
-            File newDirectory = new File(folder, directory.getName());
-            if (newDirectory.isDirectory() || newDirectory.mkdir()) {
-                directory.exportContent(newDirectory);
+            @Override
+            public Result visitFile(@NotNull VirtualFile file, int depth) throws VFSException, IOException {
+                File newFile = new File(folders.peek(), file.getName());
+                OutputStream out = new FileOutputStream(newFile);
+                VirtualRandomAccessFile virtualRandomAccessFile = file.open("r");
+                byte[] b = new byte[(int) virtualRandomAccessFile.length()];
+                virtualRandomAccessFile.read(b);
+                virtualRandomAccessFile.close();
+                out.write(b);
+                out.close();
+                return Result.CONTINUE;
             }
-        }
 
-        for (VirtualFile file : files) {
-            File newFile = new File(folder, file.getName());
-            OutputStream out = new FileOutputStream(newFile);
-            VirtualRandomAccessFile virtualRandomAccessFile = file.open("r");
-            byte[] b = new byte[(int) virtualRandomAccessFile.length()];
-            virtualRandomAccessFile.read(b);
-            virtualRandomAccessFile.close();
-            out.write(b);
-            out.close();
-        }
+            @Override
+            public Result postVisitDirectory(@NotNull VirtualDirectory directory, int depth) {
+                folders.pop();
+                return Result.CONTINUE;
+            }
+        };
 
-        locks.forEach(Lock::unlock);
+        List<Lock> locks = tryReadLockDown();
+        try {
+            walkTree(visitor);
+        } catch (LockedVirtualFSNodeException | NullVirtualFSException | OverlappingVirtualFileLockException e) {
+            throw e;
+        } catch (VFSException e) {
+            // обработчик бросает только перечисленные исключения
+            throw new IllegalStateException(e);
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
     }
 
     /**
@@ -722,11 +1289,7 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
                 return;
             }
 
-            List<Lock> locks = tryReadLockDown();
-
             getVirtualFS().save();
-
-            locks.forEach(Lock::unlock);
         } catch (Throwable throwable) {
             return;
         }
@@ -736,24 +1299,15 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      * Проверка на то, что название директории не повторяется в списке дочерних директорий
      */
     boolean checkForUniqueDirectoryName(@NotNull String name) {
-        for (VirtualDirectory directory : directories) {
-            if (Objects.equals(directory.getName(), name)) {
-                return false;
-            }
-        }
-        return true;
+        return directoryByName(name) == null;
     }
 
     /**
      * Проверка на то, что название директории не повторяется в списке дочерних директорий
      */
     boolean checkForUniqueDirectoryName(@NotNull VirtualDirectory virtualDirectory, @NotNull String name) {
-        for (VirtualDirectory directory : directories) {
-            if (directory != virtualDirectory && Objects.equals(directory.getName(), name)) {
-                return false;
-            }
-        }
-        return true;
+        VirtualDirectory directory = directoryByName(name);
+        return directory == null || directory == virtualDirectory;
     }
 
     /**
@@ -767,23 +1321,14 @@ public class VirtualDirectory extends VirtualFSNode implements Serializable {
      * Проверка на то, что название файла не повторяется в списке дочерних файлов
      */
     boolean checkForUniqueFileName(@NotNull String name) {
-        for (VirtualFile file : files) {
-            if (Objects.equals(file.getName(), name)) {
-                return false;
-            }
-        }
-        return true;
+        return fileByName(name) == null;
     }
 
     /**
      * Проверка на то, что название файла не повторяется в списке дочерних файлов
      */
     boolean checkForUniqueFileName(@NotNull VirtualFile virtualFile, @NotNull String name) {
-        for (VirtualFile file : files) {
-            if (file != virtualFile && Objects.equals(file.getName(), name)) {
-                return false;
-            }
-        }
-        return true;
+        VirtualFile file = fileByName(name);
+        return file == null || file == virtualFile;
     }
 }
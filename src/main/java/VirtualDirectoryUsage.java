@@ -0,0 +1,35 @@
+/**
+ * Итоги поддерева директории: размер данных всех файлов, число файлов и число директорий
+ */
+public class VirtualDirectoryUsage {
+    private final long size;
+    private final long fileCount;
+    private final long directoryCount;
+
+    VirtualDirectoryUsage(long size, long fileCount, long directoryCount) {
+        this.size = size;
+        this.fileCount = fileCount;
+        this.directoryCount = directoryCount;
+    }
+
+    /**
+     * Получение суммарного размера данных файлов поддерева в байтах
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Получение числа файлов поддерева
+     */
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Получение числа директорий поддерева без самой директории
+     */
+    public long getDirectoryCount() {
+        return directoryCount;
+    }
+}
@@ -2,15 +2,55 @@ import exceptions.*;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class VirtualFS {
     private final VirtualRandomAccessFile virtualRandomAccessFile;
+    // блокировка цепочки блоков метаданных на время сохранения и уплотнения
+    final Object metadataLock = new Object();
+    // изменения структуры дерева берут общую блокировку и не ждут друг друга,
+    // сохранение берёт исключительную блокировку только на время сериализации в память
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private static final long CHECKPOINT_RETRY_NANOS = 50_000;
+    // сохранение ждёт окончания изменений структуры не дольше этого времени
+    static final long CHECKPOINT_TIMEOUT_NANOS = 100_000_000;
+    // метаданные изменились, но не сохранены: сохранение после записи не дождалось блокировки снимка
+    private volatile boolean isDirty = false;
+    // номер последнего снимка метаданных и номер снимка, записанного в файл
+    private long checkpointNumber;
+    private long savedCheckpointNumber;
     File sourceFile;
     private VirtualDirectory rootDirectory;
+    private VirtualBlockReferences blockReferences = new VirtualBlockReferences();
+    private VirtualBlockIndex blockIndex = new VirtualBlockIndex();
+    // индекс имён файлов, null если индекс выключен
+    private volatile VirtualNameIndex nameIndex;
+    // индекс файлов по размеру и дате модификации, null если индекс выключен
+    private volatile VirtualAttributeIndex attributeIndex;
+    // итоги директорий, null если итоги выключены
+    private volatile VirtualUsageIndex usageIndex;
+    private VirtualFSCompactor compactor;
+    // контейнер и общий распределитель блоков, null для VFS, которая занимает физический файл одна
+    private final VirtualFSContainer container;
+    private final VirtualBlockAllocator blockAllocator;
+    static final int PATH_CACHE_SIZE = 10_000;
+    private final VirtualPathCache pathCache = new VirtualPathCache(PATH_CACHE_SIZE);
+    private volatile VirtualFSLockPolicy lockPolicy = VirtualFSLockPolicy.FAIL_FAST;
+    // политика, заданная для операций текущего потока
+    private final ThreadLocal<VirtualFSLockPolicy> threadLockPolicy = new ThreadLocal<>();
+    static final int WATCH_CAPACITY = 1024;
+    // наблюдатели за изменениями, без наблюдателей изменения не создают событий
+    private final List<VirtualFSWatcher> watchers = new CopyOnWriteArrayList<>();
+    private static final Runnable NO_EVENT = () -> {
+    };
 
     public VirtualFS(@NotNull File sourceFile) throws IOException, ClassNotFoundException,
             EmptyNodeNameException, LockedVirtualFSNodeException {
@@ -21,43 +61,161 @@ public class VirtualFS {
             @NotNull File sourceFile,
             long position)
             throws IOException, ClassNotFoundException, EmptyNodeNameException, LockedVirtualFSNodeException {
+        this(sourceFile, position, null);
+    }
+
+    /**
+     * VFS пространства имён контейнера
+     *
+     * @param position  первый блок метаданных, -1 для создания новой VFS
+     * @param container контейнер, блоки выделяются его общим распределителем
+     */
+    VirtualFS(
+            @NotNull File sourceFile,
+            long position,
+            VirtualFSContainer container)
+            throws IOException, ClassNotFoundException, EmptyNodeNameException, LockedVirtualFSNodeException {
         this.sourceFile = sourceFile;
-        if (sourceFile.length() < 8) {
+        this.container = container;
+        this.blockAllocator = container != null ? container.getBlockAllocator() : null;
+        if (sourceFile.length() < 8 || position == -1) {
             this.rootDirectory = new VirtualDirectory("root", null, this);
-            this.virtualRandomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw");
+            this.virtualRandomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw", -1, null, true,
+                    null, null, blockAllocator);
             this.save();
         } else {
-            this.virtualRandomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw", position);
+            this.virtualRandomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw", position, null, true,
+                    null, null, blockAllocator);
             load();
         }
     }
 
     /**
-     * Сохранение данных в файл, если что-либо открыто на запись, то выдаётся ошибка LockedVirtualFSNodeException
+     * Сохранение данных в файл
+     * Блокировки файлов и директорий не берутся, сохраняется состояние дерева между изменениями структуры,
+     * поэтому открытые на запись файлы не мешают сохранению. Если текущий поток сам изменяет структуру
+     * (например, внутри транзакции), то выдаётся ошибка LockedVirtualFSNodeException
      */
     public void save() throws IOException, LockedVirtualFSNodeException {
-        List<Lock> locks = rootDirectory.tryReadLockDown();
+        Lock lock;
+        try {
+            lock = lockCheckpoint();
+        } catch (LockedVirtualFSNodeException e) {
+            isDirty = true;
+            throw e;
+        }
+        save(lock);
+    }
+
+    /**
+     * Сохранение после записи в файл: блокировка снимка берётся одной попыткой без ожидания
+     * Если идёт изменение структуры (например, транзакция), метаданные помечаются несохранёнными и записываются
+     * следующим сохранением или при закрытии VFS, а запись в файл продолжается без ожидания
+     */
+    void trySave() {
+        Lock lock = checkpointLock.writeLock();
+        if (checkpointLock.getReadHoldCount() > 0 || !lock.tryLock()) {
+            isDirty = true;
+            return;
+        }
+        try {
+            save(lock);
+        } catch (IOException e) {
+            isDirty = true;
+        }
+    }
+
+    /**
+     * Сохранение, если метаданные помечены несохранёнными
+     */
+    void saveIfDirty() throws IOException, LockedVirtualFSNodeException {
+        if (isDirty) {
+            save();
+        }
+    }
+
+    boolean isDirty() {
+        return isDirty;
+    }
+
+    /**
+     * Снимок метаданных под полученной блокировкой снимка lock и его запись в файл
+     */
+    private void save(@NotNull Lock lock) throws IOException {
+        long number;
+        byte[] bytes;
         try {
+            // изменения после снимка снова пометят метаданные
+            isDirty = false;
+            number = ++checkpointNumber;
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
             ObjectOutputStream out;
 
             out = new ObjectOutputStream(bos);
             out.writeObject(this.rootDirectory);
+            out.writeObject(this.blockReferences.snapshot());
+            out.writeObject(this.blockIndex.snapshot());
+            out.writeObject(nameIndex == null ? null : nameIndex.snapshot());
+            out.writeObject(attributeIndex == null ? null : attributeIndex.snapshot(rootDirectory));
+            out.writeObject(usageIndex == null ? null : usageIndex.snapshot(rootDirectory));
             out.flush();
-            byte[] bytes = bos.toByteArray();
+            bytes = bos.toByteArray();
             bos.close();
+        } finally {
+            lock.unlock();
+        }
 
-            if (virtualRandomAccessFile.length() < bytes.length) {
-                this.virtualRandomAccessFile.setLength(bytes.length);
+        synchronized (metadataLock) {
+            // более новый снимок уже записан другим потоком
+            if (number < savedCheckpointNumber) {
+                return;
             }
-            this.virtualRandomAccessFile.seek(0);
-            this.virtualRandomAccessFile.write(bytes);
-            this.virtualRandomAccessFile.flush();
-        } finally {
-            locks.forEach(Lock::unlock);
+            try {
+                if (virtualRandomAccessFile.length() < bytes.length) {
+                    this.virtualRandomAccessFile.setLength(bytes.length);
+                }
+                this.virtualRandomAccessFile.seek(0);
+                this.virtualRandomAccessFile.write(bytes);
+                this.virtualRandomAccessFile.flush();
+            } catch (IOException e) {
+                // снимок не записан, метаданные запишет следующее сохранение
+                isDirty = true;
+                throw e;
+            }
+            savedCheckpointNumber = number;
         }
     }
 
+    /**
+     * Получение исключительной блокировки снимка
+     * Сохранение не встаёт в очередь блокировки, чтобы изменения структуры не ждали его, а повторяет попытки,
+     * пока идущие изменения не закончатся, но не дольше CHECKPOINT_TIMEOUT_NANOS: транзакция держит
+     * блокировку изменения до своего конца
+     */
+    private Lock lockCheckpoint() throws LockedVirtualFSNodeException {
+        if (checkpointLock.getReadHoldCount() > 0) {
+            throw new LockedVirtualFSNodeException();
+        }
+        Lock lock = checkpointLock.writeLock();
+        long deadline = System.nanoTime() + CHECKPOINT_TIMEOUT_NANOS;
+        while (!lock.tryLock()) {
+            if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                throw new LockedVirtualFSNodeException();
+            }
+            LockSupport.parkNanos(CHECKPOINT_RETRY_NANOS);
+        }
+        return lock;
+    }
+
+    /**
+     * Начало изменения структуры дерева, сохранение ждёт снятия полученной блокировки
+     */
+    Lock beginChange() {
+        Lock lock = checkpointLock.readLock();
+        lock.lock();
+        return lock;
+    }
+
     /**
      * Загрузка данных о VFS из файла
      */
@@ -69,6 +227,258 @@ public class VirtualFS {
 
         rootDirectory = (VirtualDirectory) in.readObject();
         rootDirectory.virtualFS = this;
+        blockReferences = new VirtualBlockReferences(readMap(in));
+        blockIndex = new VirtualBlockIndex(readMap(in));
+        Map<Long, VirtualFile[]> names = readIndex(in);
+        nameIndex = names == null ? null : new VirtualNameIndex(names);
+        Map<Long, VirtualFile[]> sizes = readIndex(in);
+        attributeIndex = sizes == null ? null : new VirtualAttributeIndex(sizes);
+        Map<VirtualDirectory, long[]> usages = readIndex(in);
+        usageIndex = usages == null ? null : new VirtualUsageIndex(usages);
+    }
+
+    /**
+     * Чтение счётчиков ссылок на блоки или индекса дедупликации, сохранённых после root директории
+     * В файлах, сохранённых до их появления, их нет
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Map<K, V> readMap(@NotNull ObjectInputStream in) throws ClassNotFoundException {
+        try {
+            return (Map<K, V>) in.readObject();
+        } catch (IOException | ClassCastException e) {
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Чтение индексов, итогов директорий или размеров файлов, сохранённых после индекса дедупликации
+     * Выключенный индекс сохраняется как null, в файлах, сохранённых до его появления, его нет
+     *
+     * @return значения индекса по ключам, null если индекс выключен
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Map<K, V> readIndex(@NotNull ObjectInputStream in) throws ClassNotFoundException {
+        try {
+            return (Map<K, V>) in.readObject();
+        } catch (IOException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Получение счётчиков ссылок на блоки физического файла
+     */
+    VirtualBlockReferences getBlockReferences() {
+        return blockReferences;
+    }
+
+    /**
+     * Получение распределителя блоков контейнера, null если VFS не входит в контейнер
+     */
+    VirtualBlockAllocator getBlockAllocator() {
+        return blockAllocator;
+    }
+
+    /**
+     * Получение индекса блоков по содержимому
+     */
+    VirtualBlockIndex getBlockIndex() {
+        return blockIndex;
+    }
+
+    /**
+     * Включение или выключение индекса имён файлов
+     * При включённом индексе find по всей VFS проверяет только файлы, в имени которых есть все тройки
+     * символов искомой строки или обязательных частей паттерна. Индекс строится по всему дереву при включении,
+     * затем изменяется вместе с файлами и сохраняется вместе с VFS
+     */
+    public void setNameIndexEnabled(boolean isEnabled) throws IOException, LockedVirtualFSNodeException {
+        Lock lock = lockCheckpoint();
+        try {
+            if (!isEnabled) {
+                nameIndex = null;
+            } else if (nameIndex == null) {
+                nameIndex = VirtualNameIndex.build(rootDirectory);
+            }
+        } finally {
+            lock.unlock();
+        }
+        save();
+    }
+
+    public boolean isNameIndexEnabled() {
+        return nameIndex != null;
+    }
+
+    /**
+     * Получение индекса имён файлов, null если индекс выключен
+     */
+    VirtualNameIndex getNameIndex() {
+        return nameIndex;
+    }
+
+    /**
+     * Включение или выключение индекса файлов по размеру и дате модификации
+     * При включённом индексе findLargerThan и findModifiedAfter не перебирают файлы. Индекс строится
+     * при включении чтением размера каждого файла, пока он строится, файлы нельзя открыть на запись.
+     * Размер и дата модификации файла попадают в индекс при закрытии файла, открытого на запись
+     */
+    public void setAttributeIndexEnabled(boolean isEnabled) throws IOException, LockedVirtualFSNodeException,
+            NullVirtualFSException {
+        List<Lock> locks = new VirtualLockOrder().readDown(rootDirectory).lock();
+        try {
+            Lock lock = lockCheckpoint();
+            try {
+                if (!isEnabled) {
+                    attributeIndex = null;
+                } else if (attributeIndex == null) {
+                    attributeIndex = VirtualAttributeIndex.build(rootDirectory);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+        save();
+    }
+
+    public boolean isAttributeIndexEnabled() {
+        return attributeIndex != null;
+    }
+
+    /**
+     * Получение индекса файлов по размеру и дате модификации, null если индекс выключен
+     */
+    VirtualAttributeIndex getAttributeIndex() {
+        return attributeIndex;
+    }
+
+    /**
+     * Включение или выключение итогов директорий
+     * При включённых итогах VirtualDirectory.getUsage не обходит поддерево. Итоги строятся при включении
+     * чтением размера каждого файла, пока они строятся, файлы нельзя открыть на запись. Затем итоги меняются
+     * вместе с деревом и файлами и сохраняются вместе с VFS
+     */
+    public void setUsageIndexEnabled(boolean isEnabled) throws IOException, LockedVirtualFSNodeException,
+            NullVirtualFSException {
+        List<Lock> locks = new VirtualLockOrder().readDown(rootDirectory).lock();
+        try {
+            Lock lock = lockCheckpoint();
+            try {
+                if (!isEnabled) {
+                    usageIndex = null;
+                } else if (usageIndex == null) {
+                    usageIndex = VirtualUsageIndex.build(rootDirectory);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+        save();
+    }
+
+    public boolean isUsageIndexEnabled() {
+        return usageIndex != null;
+    }
+
+    /**
+     * Получение итогов директорий, null если итоги выключены
+     */
+    VirtualUsageIndex getUsageIndex() {
+        return usageIndex;
+    }
+
+    /**
+     * Включение или выключение дедупликации блоков
+     * При включённой дедупликации блоки, записанные в файл, при закрытии файла ищутся среди уже записанных,
+     * совпавшие блоки становятся общими. Индекс блоков сохраняется вместе с VFS, режим - нет
+     */
+    public void setDeduplicationEnabled(boolean isEnabled) {
+        blockIndex.setEnabled(isEnabled);
+    }
+
+    public boolean isDeduplicationEnabled() {
+        return blockIndex.isEnabled();
+    }
+
+    /**
+     * Получение статистики дедупликации с момента открытия VFS
+     */
+    public VirtualFSDeduplicationStats getDeduplicationStats() {
+        return blockIndex.stats();
+    }
+
+    /**
+     * Наблюдение за изменениями в директории с буфером на WATCH_CAPACITY событий
+     *
+     * @param isRecursive наблюдать ли за всеми поддиректориями
+     * @param kinds       виды событий, которые нужны наблюдателю
+     */
+    public VirtualFSWatcher watch(@NotNull VirtualDirectory directory, boolean isRecursive,
+                                  @NotNull Set<VirtualFSWatchEvent.Kind> kinds) {
+        return watch(directory, isRecursive, kinds, WATCH_CAPACITY);
+    }
+
+    /**
+     * Наблюдение за изменениями в директории
+     * События публикуются после изменения потоком, который его сделал, и читаются через VirtualFSWatcher.poll.
+     * Изменения внутри транзакции публикуются при её фиксации, изменения отменённой транзакции - нет
+     *
+     * @param isRecursive наблюдать ли за всеми поддиректориями
+     * @param kinds       виды событий, которые нужны наблюдателю
+     * @param capacity    размер буфера событий, при переполнении события теряются
+     */
+    public VirtualFSWatcher watch(@NotNull VirtualDirectory directory, boolean isRecursive,
+                                  @NotNull Set<VirtualFSWatchEvent.Kind> kinds, int capacity) {
+        if (!directory.isInside(rootDirectory)) {
+            throw new IllegalArgumentException("Directory is not inside this VFS");
+        }
+        VirtualFSWatcher watcher = new VirtualFSWatcher(this, directory, isRecursive, kinds, capacity);
+        watchers.add(watcher);
+        return watcher;
+    }
+
+    void unwatch(@NotNull VirtualFSWatcher watcher) {
+        watchers.remove(watcher);
+    }
+
+    /**
+     * Подготовка события для наблюдателей директорий parent и oldParent
+     * Наблюдатели и пути определяются по дереву в момент вызова, событие попадает в их буферы при вызове run,
+     * так транзакция публикует при фиксации события, которые описывают дерево в момент каждой операции
+     *
+     * @param parent    директория узла после изменения, для удалённого узла - директория до удаления
+     * @param oldParent директория узла до перемещения, для остальных событий совпадает с parent
+     * @param oldName   имя узла до переименования
+     */
+    Runnable prepareEvent(@NotNull VirtualFSWatchEvent.Kind kind, @NotNull VirtualFSNode node,
+                          VirtualDirectory parent, VirtualDirectory oldParent, @NotNull String oldName) {
+        if (watchers.isEmpty()) {
+            return NO_EVENT;
+        }
+        List<VirtualFSWatcher> accepted = new ArrayList<>();
+        for (VirtualFSWatcher watcher : watchers) {
+            if (watcher.accepts(kind, parent) || oldParent != parent && watcher.accepts(kind, oldParent)) {
+                accepted.add(watcher);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return NO_EVENT;
+        }
+        VirtualFSWatchEvent event = new VirtualFSWatchEvent(kind, node, childPath(parent, node.getName()),
+                childPath(oldParent, oldName));
+        return () -> accepted.forEach(watcher -> watcher.offer(event));
+    }
+
+    private static String childPath(VirtualDirectory parent, @NotNull String name) {
+        if (parent == null) {
+            return "/";
+        }
+        String path = parent.getPath();
+        return path.equals("/") ? path + name : path + "/" + name;
     }
 
     /**
@@ -78,7 +488,31 @@ public class VirtualFS {
      */
     public void close() throws IOException, LockedVirtualFSNodeException {
         rootDirectory.tryWriteLockDown();
+        saveIfDirty();
+        pathCache.clear();
         virtualRandomAccessFile.close();
+        if (container != null) container.onClose(this);
+    }
+
+    /**
+     * Удаление данных всех файлов и метаданных VFS из физического файла
+     * После удаления VFS закрыта, если что-либо открыто на чтение или запись, то будет выдана ошибка
+     */
+    void destroy() throws IOException, LockedVirtualFSNodeException, NullVirtualFSException {
+        List<Lock> locks = rootDirectory.tryWriteLockDown();
+        try {
+            List<VirtualFile> files = new ArrayList<>();
+            collectFiles(rootDirectory, files);
+            for (VirtualFile file : files) {
+                file.deleteContent();
+            }
+            synchronized (metadataLock) {
+                virtualRandomAccessFile.setLength(0);
+                virtualRandomAccessFile.close();
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
     }
 
     @Override
@@ -91,6 +525,93 @@ public class VirtualFS {
         super.finalize();
     }
 
+    /**
+     * Выполнение нескольких операций над VFS как одной транзакции
+     * Все изменения применяются атомарно и сохраняются одной записью,
+     * при ошибке изменения откатываются и ошибка пробрасывается дальше
+     *
+     * @param body операции транзакции
+     */
+    public void transaction(@NotNull VirtualFSTransaction.Body body) throws VFSException, IOException {
+        VirtualFSTransaction transaction = new VirtualFSTransaction(this);
+        try {
+            body.apply(transaction);
+        } catch (Throwable throwable) {
+            transaction.rollback();
+            // записи других потоков, не сохранённые во время транзакции
+            if (isDirty) trySave();
+            throw throwable;
+        }
+        transaction.commit();
+    }
+
+    /**
+     * Проверка целостности физического файла VFS в общем ForkJoinPool
+     * На время проверки вся VFS блокируется на чтение, найденные проблемы не исправляются
+     *
+     * @param verifyChecksums проверять ли контрольные суммы данных блоков
+     * @return найденные проблемы и план их исправления
+     */
+    public VirtualFSCheckReport check(boolean verifyChecksums) throws IOException, LockedVirtualFSNodeException {
+        return check(ForkJoinPool.commonPool(), verifyChecksums);
+    }
+
+    /**
+     * Проверка целостности физического файла VFS в пуле pool
+     *
+     * @param pool            пул потоков для проверки
+     * @param verifyChecksums проверять ли контрольные суммы данных блоков
+     * @return найденные проблемы и план их исправления
+     */
+    public VirtualFSCheckReport check(@NotNull ForkJoinPool pool, boolean verifyChecksums)
+            throws IOException, LockedVirtualFSNodeException {
+        if (container != null) {
+            // блоки других пространств имён иначе выглядят потерянными
+            return container.check(pool, verifyChecksums);
+        }
+        List<Lock> locks = rootDirectory.tryReadLockDown();
+        try {
+            List<VirtualFile> files = new ArrayList<>();
+            collectFiles(rootDirectory, files);
+            synchronized (metadataLock) {
+                return new VirtualFSChecker(sourceFile, pool, verifyChecksums, blockReferences.snapshot())
+                        .check(getMetadataPosition(), files);
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * Получение уплотнителя физического файла VFS для пошагового уплотнения
+     * Уплотнитель один на VFS, он хранит блоки, которые освобождаются после следующего сохранения
+     */
+    public synchronized VirtualFSCompactor compactor() {
+        if (compactor == null) {
+            compactor = new VirtualFSCompactor(this);
+        }
+        return compactor;
+    }
+
+    /**
+     * Уплотнение физического файла VFS без пауз между шагами
+     * Файлы, открытые на чтение или запись, остаются на своих местах
+     */
+    public void compact() throws IOException {
+        compactor().run(Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * Получение позиции первого блока метаданных VFS
+     */
+    long getMetadataPosition() {
+        return virtualRandomAccessFile.getFirstBlockPosition();
+    }
+
+    static void collectFiles(@NotNull VirtualDirectory directory, @NotNull List<VirtualFile> files) {
+        new VirtualFileSpliterator(directory, true).forEachRemaining(files::add);
+    }
+
     /**
      * Создание в root директории новой директории
      *
@@ -120,6 +641,124 @@ public class VirtualFS {
         return this.rootDirectory;
     }
 
+    /**
+     * Установка политики блокировок для всех операций VFS
+     * Порядок очереди действует для блокировок, которые создаются после установки политики
+     */
+    public void setLockPolicy(@NotNull VirtualFSLockPolicy lockPolicy) {
+        this.lockPolicy = lockPolicy;
+    }
+
+    /**
+     * Получение политики блокировок, действующей в текущем потоке
+     */
+    public VirtualFSLockPolicy getLockPolicy() {
+        VirtualFSLockPolicy policy = threadLockPolicy.get();
+        return policy != null ? policy : lockPolicy;
+    }
+
+    /**
+     * Выполнение действия в текущем потоке с политикой блокировок lockPolicy
+     */
+    public <T> T withLockPolicy(@NotNull VirtualFSLockPolicy lockPolicy, @NotNull VirtualFSLockPolicy.Action<T> action)
+            throws VFSException, IOException {
+        VirtualFSLockPolicy previous = threadLockPolicy.get();
+        threadLockPolicy.set(lockPolicy);
+        try {
+            return action.run();
+        } finally {
+            if (previous != null) {
+                threadLockPolicy.set(previous);
+            } else {
+                threadLockPolicy.remove();
+            }
+        }
+    }
+
+    VirtualPathCache getPathCache() {
+        return pathCache;
+    }
+
+    /**
+     * Получение файла или директории по пути от root директории, например "/a/b/c.txt"
+     * Если в директории есть и файл, и директория с таким именем, то возвращается директория
+     *
+     * @param path путь, разделитель - "/"
+     * @return найденный файл или директория
+     */
+    public VirtualFSNode resolve(@NotNull String path) throws PathNotFoundException, LockedVirtualFSNodeException {
+        path = normalizePath(path);
+        if (path.equals("/")) {
+            return rootDirectory;
+        }
+        int index = path.lastIndexOf('/');
+        VirtualDirectory directory = resolveDirectory(index == 0 ? "/" : path.substring(0, index));
+        String name = path.substring(index + 1);
+        VirtualFSNode node = directory.getDirectory(name);
+        if (node == null) {
+            node = directory.getFile(name);
+        }
+        if (node == null) {
+            throw new PathNotFoundException(path);
+        }
+        return node;
+    }
+
+    /**
+     * Открытие файла по пути от root директории
+     *
+     * @param path путь к файлу, разделитель - "/"
+     * @param mode режим открытия, как в VirtualFile.open
+     */
+    public VirtualRandomAccessFile openPath(@NotNull String path, @NotNull String mode) throws PathNotFoundException,
+            IOException, OverlappingVirtualFileLockException, NullVirtualFSException, LockedVirtualFSNodeException {
+        path = normalizePath(path);
+        int index = path.lastIndexOf('/');
+        VirtualFile file = path.equals("/") ? null
+                : resolveDirectory(index == 0 ? "/" : path.substring(0, index)).getFile(path.substring(index + 1));
+        if (file == null) {
+            throw new PathNotFoundException(path);
+        }
+        return file.open(mode);
+    }
+
+    /**
+     * Поиск директории по нормализованному пути, найденные директории запоминаются в кэше путей
+     */
+    private VirtualDirectory resolveDirectory(@NotNull String path) throws PathNotFoundException,
+            LockedVirtualFSNodeException {
+        if (path.equals("/")) {
+            return rootDirectory;
+        }
+        VirtualDirectory directory = pathCache.get(path);
+        if (directory != null) {
+            return directory;
+        }
+
+        // номер берётся до поиска, путь, который изменился во время поиска, не запоминается
+        long version = pathCache.getVersion();
+        int index = path.lastIndexOf('/');
+        directory = resolveDirectory(index == 0 ? "/" : path.substring(0, index)).getDirectory(path.substring(index + 1));
+        if (directory == null) {
+            throw new PathNotFoundException(path);
+        }
+        pathCache.put(path, directory, version);
+        return directory;
+    }
+
+    /**
+     * Приведение пути к виду "/a/b": без пустых частей и "/" в конце
+     */
+    private static String normalizePath(@NotNull String path) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : path.split("/")) {
+            if (!name.isEmpty()) {
+                builder.append('/').append(name);
+            }
+        }
+        return builder.length() == 0 ? "/" : builder.toString();
+    }
+
     /**
      * Получение файлов в root диектории
      *
@@ -191,35 +830,127 @@ public class VirtualFS {
             @NotNull VirtualDirectory virtualDirectory,
             @NotNull VirtualDirectory destinationDirectory)
             throws LockedVirtualFSNodeException, NullVirtualFSException,
-            OverlappingVirtualFileLockException, IOException, VirtualFSNodeIsDeletedException, EmptyNodeNameException {
+            OverlappingVirtualFileLockException, IOException, VirtualFSNodeIsDeletedException, EmptyNodeNameException,
+            NotUniqueNameException {
         return virtualDirectory.copy(destinationDirectory);
     }
 
     public VirtualDirectory copy(
             @NotNull VirtualDirectory virtualDirectory)
             throws LockedVirtualFSNodeException, NullVirtualFSException,
-            OverlappingVirtualFileLockException, IOException, VirtualFSNodeIsDeletedException, EmptyNodeNameException {
+            OverlappingVirtualFileLockException, IOException, VirtualFSNodeIsDeletedException, EmptyNodeNameException,
+            NotUniqueNameException {
         return virtualDirectory.copy(this.rootDirectory);
     }
 
     /**
      * Поиск файлов по имени во всей VFS
+     * При включённом индексе имён файлы находятся по индексу в произвольном порядке
      *
      * @param subName строка, которая должна содержаться в имени
      */
     public Iterator<VirtualFile> find(@NotNull String subName) {
+        VirtualNameIndex index = nameIndex;
+        if (index != null && subName.length() >= VirtualNameIndex.GRAM_LENGTH) {
+            return index.find(Collections.singletonList(subName), file -> true, rootDirectory).iterator();
+        }
         return this.rootDirectory.find(subName, true);
     }
 
     /**
      * Поиск файлов по паттерну во всей VFS
+     * При включённом индексе имён и паттерне с обязательными частями не короче трёх символов
+     * файлы находятся по индексу в произвольном порядке
      *
      * @param pattern паттерн для поиска файлов
      */
     public Iterator<VirtualFile> find(@NotNull Pattern pattern) {
+        VirtualNameIndex index = nameIndex;
+        List<String> literals = index != null ? VirtualNameIndex.literals(pattern) : Collections.emptyList();
+        if (!literals.isEmpty()) {
+            return index.find(literals, file -> pattern.matcher(file.getName()).matches(), rootDirectory).iterator();
+        }
         return this.rootDirectory.find(pattern, true);
     }
 
+    /**
+     * Поиск файлов по glob с путём от корня VFS, например "/data/2026-*&#47;part-*" или "**&#47;logs/*.gz"
+     * Обход не заходит в директории, которые не подходят под glob
+     *
+     * @return найденные файлы, файлы директории идут раньше файлов её поддиректорий
+     * @throws IllegalArgumentException если glob записан с ошибкой
+     */
+    public List<VirtualFile> glob(@NotNull String glob) throws LockedVirtualFSNodeException {
+        return this.rootDirectory.glob(glob);
+    }
+
+    /**
+     * Обход всего дерева VFS без рекурсии, см. VirtualFSVisitor
+     */
+    public void walkTree(@NotNull VirtualFSVisitor visitor) throws VFSException, IOException {
+        this.rootDirectory.walkTree(visitor);
+    }
+
+    /**
+     * Обход дерева VFS не глубже maxDepth без рекурсии, глубина root директории 0
+     */
+    public void walkTree(@NotNull VirtualFSVisitor visitor, int maxDepth) throws VFSException, IOException {
+        this.rootDirectory.walkTree(visitor, maxDepth);
+    }
+
+    /**
+     * Поток всех файлов VFS, подходит для parallel()
+     */
+    public Stream<VirtualFile> walk() {
+        return this.rootDirectory.stream(true);
+    }
+
+    /**
+     * Поиск файлов во всей VFS, изменённых позже date
+     * Без индекса размеров и дат модификации перебираются все файлы
+     *
+     * @return найденные файлы в произвольном порядке
+     */
+    public List<VirtualFile> findModifiedAfter(@NotNull Date date) {
+        VirtualAttributeIndex index = attributeIndex;
+        if (index != null) {
+            return index.findModifiedAfter(date.getTime(), rootDirectory);
+        }
+        return walk().filter(file -> file.getModifiedAt().after(date)).collect(Collectors.toList());
+    }
+
+    /**
+     * Поиск файлов во всей VFS с размером данных больше size байт
+     * Без индекса размеров и дат модификации размер каждого файла читается под его блокировкой на чтение
+     *
+     * @return найденные файлы в произвольном порядке
+     */
+    public List<VirtualFile> findLargerThan(long size) throws IOException, LockedVirtualFSNodeException,
+            NullVirtualFSException {
+        VirtualAttributeIndex index = attributeIndex;
+        if (index != null) {
+            return index.findLargerThan(size, rootDirectory);
+        }
+        List<VirtualFile> found = new ArrayList<>();
+        for (Iterator<VirtualFile> iterator = walk().iterator(); iterator.hasNext(); ) {
+            VirtualFile file = iterator.next();
+            if (file.length() > size) {
+                found.add(file);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Параллельный поиск файлов по паттерну во всей VFS в общем ForkJoinPool
+     *
+     * @param pattern паттерн для поиска файлов
+     * @return найденные файлы в произвольном порядке
+     */
+    public List<VirtualFile> findParallel(@NotNull Pattern pattern) {
+        return this.rootDirectory.findParallel(pattern);
+    }
+
     /**
      * импорт данных из физической папки
      *
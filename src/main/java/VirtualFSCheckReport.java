@@ -0,0 +1,149 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Результат проверки целостности VFS: найденные проблемы и план исправления
+ */
+public class VirtualFSCheckReport {
+    private final List<Problem> problems;
+    private final List<RepairAction> repairPlan;
+
+    VirtualFSCheckReport(@NotNull List<Problem> problems, @NotNull List<RepairAction> repairPlan) {
+        this.problems = Collections.unmodifiableList(problems);
+        this.repairPlan = Collections.unmodifiableList(repairPlan);
+    }
+
+    /**
+     * Проверка на то, что проблем не найдено
+     */
+    public boolean isConsistent() {
+        return problems.isEmpty();
+    }
+
+    /**
+     * Получение списка найденных проблем
+     */
+    public List<Problem> getProblems() {
+        return problems;
+    }
+
+    /**
+     * Получение плана исправления найденных проблем
+     */
+    public List<RepairAction> getRepairPlan() {
+        return repairPlan;
+    }
+
+    public enum ProblemType {
+        // ссылка на блок не указывает на начало блока внутри физического файла
+        INVALID_POINTER,
+        // цепочка блоков файла проходит через удалённый блок
+        FREE_BLOCK_IN_CHAIN,
+        // цепочка блоков файла зациклена
+        CYCLE,
+        // блок входит в цепочки нескольких файлов
+        CROSS_LINKED_BLOCK,
+        // размер файла не соответствует длине цепочки блоков
+        SIZE_MISMATCH,
+        // ссылка на последний блок в мета информации не совпадает с концом цепочки
+        LAST_BLOCK_MISMATCH,
+        // контрольная сумма данных блока не совпадает
+        CHECKSUM_MISMATCH,
+        // занятый блок не входит ни в одну цепочку
+        ORPHANED_BLOCK,
+        // в конце физического файла лежит неполный блок
+        TRAILING_GARBAGE,
+        // сохранённое число ссылок на общий блок не совпадает с числом цепочек, проходящих через него
+        REFERENCE_COUNT_MISMATCH
+    }
+
+    public enum RepairType {
+        // отвязать данные от файла, файл станет пустым
+        DETACH_CONTENT,
+        // закончить цепочку на блоке blockPosition
+        TRUNCATE_CHAIN,
+        // записать размер value в мета информацию файла
+        SET_SIZE,
+        // записать ссылку на последний блок value в мета информацию файла
+        SET_LAST_BLOCK,
+        // пометить блок blockPosition удалённым
+        FREE_BLOCK,
+        // обрезать физический файл до длины value
+        TRUNCATE_CONTAINER,
+        // записать число ссылок value на блок blockPosition
+        SET_REFERENCE_COUNT
+    }
+
+    /**
+     * Найденная проблема
+     * file равен null для цепочки блоков с метаданными VFS и для блоков вне цепочек
+     */
+    public static class Problem {
+        private final ProblemType type;
+        private final VirtualFile file;
+        private final long blockPosition;
+
+        Problem(@NotNull ProblemType type, VirtualFile file, long blockPosition) {
+            this.type = type;
+            this.file = file;
+            this.blockPosition = blockPosition;
+        }
+
+        public ProblemType getType() {
+            return type;
+        }
+
+        public VirtualFile getFile() {
+            return file;
+        }
+
+        public long getBlockPosition() {
+            return blockPosition;
+        }
+
+        @Override
+        public String toString() {
+            return type + " at " + blockPosition + (file != null ? " in " + file.getName() : "");
+        }
+    }
+
+    /**
+     * Шаг плана исправления
+     */
+    public static class RepairAction {
+        private final RepairType type;
+        private final VirtualFile file;
+        private final long blockPosition;
+        private final long value;
+
+        RepairAction(@NotNull RepairType type, VirtualFile file, long blockPosition, long value) {
+            this.type = type;
+            this.file = file;
+            this.blockPosition = blockPosition;
+            this.value = value;
+        }
+
+        public RepairType getType() {
+            return type;
+        }
+
+        public VirtualFile getFile() {
+            return file;
+        }
+
+        public long getBlockPosition() {
+            return blockPosition;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + blockPosition + " " + value + (file != null ? " in " + file.getName() : "");
+        }
+    }
+}
@@ -0,0 +1,348 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Проверка целостности физического файла VFS
+ * Первая фаза обходит цепочки блоков всех файлов, вторая сверяет результат с пометками удалённых блоков.
+ * Обе фазы выполняются параллельно в ForkJoinPool, физический файл только читается.
+ * Общие блоки копий файлов входят в несколько цепочек, их число ссылок сверяется с сохранёнными счётчиками.
+ */
+class VirtualFSChecker {
+    private static final int CHAINS_THRESHOLD = 16;
+    private static final int BLOCKS_THRESHOLD = 4096;
+
+    private final File sourceFile;
+    private final ForkJoinPool pool;
+    private final boolean verifyChecksums;
+    private final Map<Long, Integer> referenceCounts;
+    private final ConcurrentHashMap<Long, Integer> owners = new ConcurrentHashMap<>();
+    // число ссылок на блок из файлов и из других блоков и следующий блок для уже учтённых ссылок
+    private final ConcurrentHashMap<Long, Integer> references = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Long> nextBlocks = new ConcurrentHashMap<>();
+    private final Queue<VirtualFSCheckReport.Problem> problems = new ConcurrentLinkedQueue<>();
+    private final Queue<VirtualFSCheckReport.RepairAction> repairPlan = new ConcurrentLinkedQueue<>();
+    private FileChannel channel;
+    private long blockSize;
+    private long slotSize;
+    private long length;
+
+    /**
+     * @param referenceCounts сохранённые счётчики ссылок на общие блоки
+     */
+    VirtualFSChecker(
+            @NotNull File sourceFile,
+            @NotNull ForkJoinPool pool,
+            boolean verifyChecksums,
+            @NotNull Map<Long, Integer> referenceCounts
+    ) {
+        this.sourceFile = sourceFile;
+        this.pool = pool;
+        this.verifyChecksums = verifyChecksums;
+        this.referenceCounts = referenceCounts;
+    }
+
+    /**
+     * Проверка цепочки метаданных VFS и цепочек блоков файлов
+     *
+     * @param metadataPosition первый блок метаданных VFS
+     * @param files            файлы VFS, VFS должна быть заблокирована на время проверки
+     */
+    VirtualFSCheckReport check(long metadataPosition, @NotNull List<VirtualFile> files) throws IOException {
+        return check(Collections.singletonList(metadataPosition), files);
+    }
+
+    /**
+     * Проверка нескольких цепочек метаданных (суперблока и VFS контейнера) и цепочек блоков файлов
+     *
+     * @param metadataPositions первые блоки цепочек метаданных
+     * @param files             файлы всех VFS, VFS должны быть заблокированы на время проверки
+     */
+    VirtualFSCheckReport check(@NotNull List<Long> metadataPositions, @NotNull List<VirtualFile> files) throws IOException {
+        List<Chain> chains = new ArrayList<>();
+        for (long metadataPosition : metadataPositions) {
+            chains.add(new Chain(chains.size(), null, metadataPosition));
+        }
+        for (VirtualFile file : files) {
+            if (file.getContentPosition() != -1) {
+                chains.add(new Chain(chains.size(), file, file.getContentPosition()));
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            this.channel = channel;
+            this.length = channel.size();
+            this.blockSize = VirtualRandomAccessFile.blockSize(readLong(0));
+            this.slotSize = blockSize + VirtualRandomAccessFile.BLOCK_HEADER_SIZE;
+
+            // Фаза 1: обход цепочек, затем поиск блоков, попавших в несколько цепочек
+            runParallel(chains.size(), CHAINS_THRESHOLD, index -> walk(chains.get(index)));
+            runParallel(chains.size(), CHAINS_THRESHOLD, index -> finish(chains.get(index)));
+
+            // Фаза 2: сверка блоков с пометками удалённых блоков
+            long blocksCount = (length - 8) / slotSize;
+            runParallel((int) blocksCount, BLOCKS_THRESHOLD, index -> reconcile(8 + index * slotSize));
+            if ((length - 8) % slotSize != 0) {
+                long alignedLength = 8 + blocksCount * slotSize;
+                addProblem(VirtualFSCheckReport.ProblemType.TRAILING_GARBAGE, null, alignedLength);
+                addRepair(VirtualFSCheckReport.RepairType.TRUNCATE_CONTAINER, null, alignedLength, alignedLength);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        List<VirtualFSCheckReport.Problem> sortedProblems = new ArrayList<>(problems);
+        sortedProblems.sort(Comparator.comparingLong(VirtualFSCheckReport.Problem::getBlockPosition)
+                .thenComparing(VirtualFSCheckReport.Problem::getType));
+        List<VirtualFSCheckReport.RepairAction> sortedRepairPlan = new ArrayList<>(repairPlan);
+        sortedRepairPlan.sort(Comparator.comparing(VirtualFSCheckReport.RepairAction::getType)
+                .thenComparingLong(VirtualFSCheckReport.RepairAction::getBlockPosition));
+        return new VirtualFSCheckReport(sortedProblems, sortedRepairPlan);
+    }
+
+    /**
+     * Обход цепочки блоков одного файла
+     */
+    private void walk(@NotNull Chain chain) {
+        if (!isBlockPosition(chain.head)) {
+            addProblem(VirtualFSCheckReport.ProblemType.INVALID_POINTER, chain.file, chain.head);
+            addRepair(VirtualFSCheckReport.RepairType.DETACH_CONTENT, chain.file, chain.head, -1);
+            return;
+        }
+
+        long size = readLong(chain.head + VirtualRandomAccessFile.BLOCK_HEADER_SIZE);
+        long lastBlockPosition = readLong(chain.head + VirtualRandomAccessFile.BLOCK_HEADER_SIZE + 8);
+        Set<Long> visited = new HashSet<>();
+        long previous = -1;
+        long position = chain.head;
+
+        while (position != -1) {
+            VirtualFSCheckReport.ProblemType problem = null;
+            if (!isBlockPosition(position)) {
+                problem = VirtualFSCheckReport.ProblemType.INVALID_POINTER;
+            } else if (readLong(position) == -2) {
+                problem = VirtualFSCheckReport.ProblemType.FREE_BLOCK_IN_CHAIN;
+            } else if (!visited.add(position)) {
+                problem = VirtualFSCheckReport.ProblemType.CYCLE;
+            }
+            if (problem != null) {
+                addProblem(problem, chain.file, position);
+                chain.cut(chain.count - 1);
+                break;
+            }
+
+            chain.add(position);
+            owners.merge(position, chain.index, Math::min);
+            if (verifyChecksums) {
+                verifyChecksum(chain, position, previous == -1);
+            }
+            previous = position;
+            position = readLong(position + 8);
+        }
+
+        if (chain.count == 0) {
+            return;
+        }
+        // размер и последний блок сверяются с оставшейся частью цепочки
+        long firstBlockCapacity = blockSize - VirtualRandomAccessFile.META_INFORMATION_SIZE;
+        long capacity = firstBlockCapacity + (chain.count - 1) * blockSize;
+        long neededBlocks = size <= firstBlockCapacity ? 1 : 1 + (size - firstBlockCapacity + blockSize - 1) / blockSize;
+        if (size < 0 || size > capacity) {
+            addProblem(VirtualFSCheckReport.ProblemType.SIZE_MISMATCH, chain.file, chain.head);
+            addRepair(VirtualFSCheckReport.RepairType.SET_SIZE, chain.file, chain.head, Math.max(0, capacity));
+        } else if (neededBlocks < chain.count) {
+            addProblem(VirtualFSCheckReport.ProblemType.SIZE_MISMATCH, chain.file, chain.head);
+            chain.cut((int) neededBlocks - 1);
+            return;
+        }
+        if (lastBlockPosition != previous) {
+            addProblem(VirtualFSCheckReport.ProblemType.LAST_BLOCK_MISMATCH, chain.file, chain.head);
+            addRepair(VirtualFSCheckReport.RepairType.SET_LAST_BLOCK, chain.file, chain.head, previous);
+        }
+    }
+
+    /**
+     * Поиск блоков цепочки, которые принадлежат цепочке с меньшим номером, и построение плана обрезания цепочки
+     * Выполняется после обхода всех цепочек, когда владельцы блоков уже известны
+     */
+    private void finish(@NotNull Chain chain) {
+        // общие блоки и блоки после них входят в цепочки других файлов
+        for (int i = 0; i < chain.count && !referenceCounts.containsKey(chain.blocks[i]); i++) {
+            if (owners.get(chain.blocks[i]) != chain.index) {
+                addProblem(VirtualFSCheckReport.ProblemType.CROSS_LINKED_BLOCK, chain.file, chain.blocks[i]);
+                chain.cut(i - 1);
+                break;
+            }
+        }
+        if (chain.isCut) {
+            cutChain(chain, chain.cutIndex);
+        }
+
+        int lastIndex = chain.isCut ? chain.cutIndex : chain.count - 1;
+        for (int i = 0; i <= lastIndex; i++) {
+            // ссылка из блока учитывается один раз, даже если блок входит в несколько цепочек
+            if (i == 0 || nextBlocks.putIfAbsent(chain.blocks[i - 1], chain.blocks[i]) == null) {
+                references.merge(chain.blocks[i], 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Сверка блока с цепочками: занятый блок должен входить в какую-либо цепочку
+     */
+    private void reconcile(long position) {
+        int expectedCount = references.getOrDefault(position, 0);
+        if (expectedCount > 1 || referenceCounts.containsKey(position)) {
+            if (referenceCounts.getOrDefault(position, 1) != expectedCount) {
+                addProblem(VirtualFSCheckReport.ProblemType.REFERENCE_COUNT_MISMATCH, null, position);
+                addRepair(VirtualFSCheckReport.RepairType.SET_REFERENCE_COUNT, null, position, expectedCount);
+            }
+        }
+        if (owners.containsKey(position) || readLong(position) == -2) {
+            return;
+        }
+        addProblem(VirtualFSCheckReport.ProblemType.ORPHANED_BLOCK, null, position);
+        addRepair(VirtualFSCheckReport.RepairType.FREE_BLOCK, null, position, -1);
+    }
+
+    private void verifyChecksum(@NotNull Chain chain, long position, boolean isFirstBlock) {
+        int offset = isFirstBlock ? VirtualRandomAccessFile.META_INFORMATION_SIZE : 0;
+        ByteBuffer data = read(position + VirtualRandomAccessFile.BLOCK_HEADER_SIZE + offset, (int) blockSize - offset);
+        CRC32C checksum = new CRC32C();
+        checksum.update(data);
+        if (checksum.getValue() != readLong(position + 8 * 2)) {
+            addProblem(VirtualFSCheckReport.ProblemType.CHECKSUM_MISMATCH, chain.file, position);
+        }
+    }
+
+    /**
+     * Цепочка заканчивается на блоке с номером lastIndex, оставшиеся блоки цепочки освобождаются
+     */
+    private void cutChain(@NotNull Chain chain, int lastIndex) {
+        if (lastIndex < 0) {
+            addRepair(VirtualFSCheckReport.RepairType.DETACH_CONTENT, chain.file, chain.head, -1);
+        } else {
+            addRepair(VirtualFSCheckReport.RepairType.TRUNCATE_CHAIN, chain.file, chain.blocks[lastIndex], -1);
+        }
+        for (int i = Math.max(0, lastIndex + 1); i < chain.count; i++) {
+            long position = chain.blocks[i];
+            if (referenceCounts.containsKey(position)) {
+                // общий блок остаётся в других цепочках, у него уменьшается число ссылок
+                break;
+            }
+            if (Objects.equals(owners.get(position), chain.index)) {
+                addRepair(VirtualFSCheckReport.RepairType.FREE_BLOCK, chain.file, position, -1);
+            }
+        }
+    }
+
+    private boolean isBlockPosition(long position) {
+        return position >= 8 && (position - 8) % slotSize == 0 && position + slotSize <= length;
+    }
+
+    private void addProblem(@NotNull VirtualFSCheckReport.ProblemType type, VirtualFile file, long position) {
+        problems.add(new VirtualFSCheckReport.Problem(type, file, position));
+    }
+
+    private void addRepair(@NotNull VirtualFSCheckReport.RepairType type, VirtualFile file, long position, long value) {
+        repairPlan.add(new VirtualFSCheckReport.RepairAction(type, file, position, value));
+    }
+
+    private long readLong(long position) {
+        return read(position, 8).getLong();
+    }
+
+    private ByteBuffer read(long position, int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void runParallel(int count, int threshold, @NotNull IntConsumer action) {
+        pool.invoke(new RangeAction(0, count, threshold, action));
+    }
+
+    /**
+     * Разбиение диапазона номеров на части для ForkJoinPool
+     */
+    private static class RangeAction extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final IntConsumer action;
+
+        RangeAction(int from, int to, int threshold, @NotNull IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                for (int i = from; i < to; i++) {
+                    action.accept(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeAction(from, middle, threshold, action), new RangeAction(middle, to, threshold, action));
+        }
+    }
+
+    /**
+     * Цепочка блоков одного файла
+     */
+    private static class Chain {
+        private final int index;
+        private final VirtualFile file;
+        private final long head;
+        private long[] blocks = new long[4];
+        private int count;
+        private boolean isCut;
+        private int cutIndex;
+
+        Chain(int index, VirtualFile file, long head) {
+            this.index = index;
+            this.file = file;
+            this.head = head;
+        }
+
+        void add(long position) {
+            if (count == blocks.length) {
+                blocks = Arrays.copyOf(blocks, count * 2);
+            }
+            blocks[count++] = position;
+        }
+
+        /**
+         * Цепочка должна заканчиваться на блоке с номером lastIndex
+         */
+        void cut(int lastIndex) {
+            cutIndex = isCut ? Math.min(cutIndex, lastIndex) : lastIndex;
+            isCut = true;
+        }
+    }
+}
@@ -0,0 +1,527 @@
+import exceptions.LockedVirtualFSNodeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Пошаговое уплотнение физического файла VFS
+ * Блоки файлов переносятся в начало физического файла так, чтобы цепочка каждого файла шла подряд,
+ * после прохода по всем файлам свободные блоки в конце физического файла обрезаются.
+ * Файлы, открытые на чтение или запись, не переносятся, их блоки остаются на месте.
+ * Если у файла переносится первый блок, то старые блоки файла освобождаются только после сохранения VFS,
+ * до этого сохранённые метаданные продолжают ссылаться на целую старую цепочку. Если такой блок нужен
+ * для размещения, то VFS сохраняется посреди шага.
+ * Общие для нескольких файлов блоки и блоки после них остаются на месте.
+ */
+public class VirtualFSCompactor {
+    private final VirtualFS virtualFS;
+    private final long slotSize;
+    // владельцы блоков, найденные в начале прохода, перед переносом проверяются по цепочке владельца
+    private final Map<Long, VirtualFile> owners = new HashMap<>();
+    private final Deque<VirtualFile> queue = new ArrayDeque<>();
+    private final Set<VirtualFile> unsavedFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Long> pendingBlocks = new HashSet<>();
+    private FileChannel channel;
+    private boolean isPassStarted;
+    private boolean isMetadataPlaced;
+    // позиция, с которой размещается следующая цепочка
+    private long chainStartPosition;
+    private long cursor;
+    private long freeBlockHint;
+    private int budget;
+    private boolean isSaveNeeded;
+    private boolean isSaveFailed;
+    private long movedBlocks;
+
+    VirtualFSCompactor(@NotNull VirtualFS virtualFS) {
+        this.virtualFS = virtualFS;
+        this.slotSize = VirtualRandomAccessFile.getBlockSize() + VirtualRandomAccessFile.BLOCK_HEADER_SIZE;
+    }
+
+    /**
+     * Уплотнение с паузой между шагами
+     * При прерывании потока уплотнение останавливается после текущего шага
+     *
+     * @param blocksPerStep максимальное число переносимых блоков за шаг
+     * @param pauseMillis   пауза между шагами в миллисекундах
+     */
+    public void run(int blocksPerStep, long pauseMillis) throws IOException {
+        while (step(blocksPerStep)) {
+            if (pauseMillis > 0) {
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Один шаг уплотнения
+     *
+     * @param maxBlocks максимальное число переносимых блоков за шаг
+     * @return true, если проход по файлам ещё не закончен
+     */
+    public synchronized boolean step(int maxBlocks) throws IOException {
+        try (FileChannel channel = FileChannel.open(virtualFS.sourceFile.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.channel = channel;
+            this.budget = maxBlocks;
+            this.isSaveFailed = false;
+            if (!isPassStarted) {
+                startPass();
+            }
+            boolean isFinished = placeChains();
+            releasePendingBlocks();
+            if (isFinished) {
+                truncateTail();
+                isPassStarted = false;
+            }
+            return !isFinished;
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Получение числа перенесённых блоков за всё время работы
+     */
+    public long getMovedBlocks() {
+        return movedBlocks;
+    }
+
+    /**
+     * Начало прохода: очередь файлов по позиции первого блока и владельцы блоков
+     */
+    private void startPass() throws IOException {
+        List<VirtualFile> files = new ArrayList<>();
+        VirtualFS.collectFiles(virtualFS.getRootDirectory(), files);
+
+        owners.clear();
+        queue.clear();
+        Map<VirtualFile, Long> heads = new IdentityHashMap<>();
+        for (VirtualFile file : files) {
+            List<Lock> locks;
+            try {
+                locks = new VirtualLockOrder().write(file).lock();
+            } catch (LockedVirtualFSNodeException e) {
+                continue;
+            }
+            try {
+                if (file.isDeleted || file.getContentPosition() == -1) {
+                    continue;
+                }
+                Chain chain = readChain(file, file.getContentPosition());
+                if (chain == null || chain.count == 0) {
+                    continue;
+                }
+                for (int i = 0; i < chain.count; i++) {
+                    owners.put(chain.blocks[i], file);
+                }
+                heads.put(file, chain.blocks[0]);
+            } finally {
+                locks.forEach(Lock::unlock);
+            }
+        }
+
+        List<VirtualFile> orderedFiles = new ArrayList<>(heads.keySet());
+        orderedFiles.sort(Comparator.comparingLong(heads::get));
+        queue.addAll(orderedFiles);
+
+        isPassStarted = true;
+        isMetadataPlaced = false;
+        freeBlockHint = 8;
+    }
+
+    /**
+     * Размещение цепочек метаданных и файлов подряд, начиная с начала физического файла
+     *
+     * @return true, если все цепочки размещены
+     */
+    private boolean placeChains() throws IOException {
+        while (!isMetadataPlaced) {
+            cursor = 8;
+            boolean isPlaced;
+            synchronized (virtualFS.metadataLock) {
+                Chain chain = readChain(null, virtualFS.getMetadataPosition());
+                isPlaced = chain == null || placeChain(chain);
+            }
+            if (!isPlaced) {
+                if (!isSaveNeeded) {
+                    return false;
+                }
+                isSaveNeeded = false;
+                releasePendingBlocks();
+                continue;
+            }
+            isMetadataPlaced = true;
+            chainStartPosition = cursor;
+        }
+
+        while (!queue.isEmpty()) {
+            VirtualFile file = queue.peek();
+            cursor = chainStartPosition;
+            List<Lock> locks;
+            try {
+                locks = new VirtualLockOrder().write(file).lock();
+            } catch (LockedVirtualFSNodeException e) {
+                // файл открыт, его блоки остаются на месте
+                queue.poll();
+                continue;
+            }
+            boolean isPlaced = true;
+            try {
+                if (!file.isDeleted && file.getContentPosition() != -1) {
+                    Chain chain = readChain(file, file.getContentPosition());
+                    isPlaced = chain == null || placeChain(chain);
+                }
+            } finally {
+                locks.forEach(Lock::unlock);
+            }
+            if (!isPlaced) {
+                if (!isSaveNeeded) {
+                    return false;
+                }
+                // блоки файла размещаются заново после сохранения VFS
+                isSaveNeeded = false;
+                releasePendingBlocks();
+                continue;
+            }
+            queue.poll();
+            chainStartPosition = cursor;
+        }
+        return true;
+    }
+
+    /**
+     * Размещение блоков цепочки подряд, начиная с cursor
+     * Блоки других файлов на нужных местах переносятся дальше, занятые открытыми файлами места пропускаются
+     *
+     * @return false, если закончился лимит переносов шага или нужно сохранить VFS
+     */
+    private boolean placeChain(@NotNull Chain chain) throws IOException {
+        int index = 0;
+        while (index < chain.count) {
+            long position = chain.blocks[index];
+            if (position == cursor) {
+                index++;
+                cursor += slotSize;
+                continue;
+            }
+            if (position < cursor || (index == 0 && (chain.file == null || isSaveFailed))) {
+                // первый блок метаданных всегда остаётся на месте,
+                // первые блоки файлов не переносятся, пока VFS не удаётся сохранить
+                index++;
+                continue;
+            }
+            if (budget <= 0) {
+                return false;
+            }
+            if (!isFreeBlock(cursor) && !pendingBlocks.contains(cursor) && !evict(chain, cursor)) {
+                cursor += slotSize;
+                continue;
+            }
+            if (pendingBlocks.contains(cursor)) {
+                // блок старой цепочки освобождается только после сохранения VFS
+                if (isSaveFailed) {
+                    cursor += slotSize;
+                    continue;
+                }
+                isSaveNeeded = true;
+                return false;
+            }
+            if (!moveBlock(chain, index, cursor)) {
+                cursor += slotSize;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Перенос блока, занимающего позицию position, в свободный блок дальше по физическому файлу
+     */
+    private boolean evict(@NotNull Chain chain, long position) throws IOException {
+        int index = chain.indexOf(position);
+        if (index > 0) {
+            return moveBlock(chain, index, findFreeBlock(position + slotSize));
+        }
+
+        VirtualFile owner = owners.get(position);
+        if (owner == null || owner == chain.file) {
+            return false;
+        }
+        List<Lock> locks;
+        try {
+            locks = new VirtualLockOrder().write(owner).lock();
+        } catch (LockedVirtualFSNodeException e) {
+            return false;
+        }
+        try {
+            if (owner.isDeleted || owner.getContentPosition() == -1) {
+                return false;
+            }
+            Chain ownerChain = readChain(owner, owner.getContentPosition());
+            if (ownerChain == null) {
+                return false;
+            }
+            int ownerIndex = ownerChain.indexOf(position);
+            if (ownerIndex < 0 || (ownerIndex == 0 && isSaveFailed)) {
+                return false;
+            }
+            return moveBlock(ownerChain, ownerIndex, findFreeBlock(position + slotSize));
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * Перенос блока цепочки с номером index в свободный блок target
+     * Сначала копируются данные, затем меняется ссылка на блок, старый блок освобождается последним
+     */
+    private boolean moveBlock(@NotNull Chain chain, int index, long target) throws IOException {
+        long source = chain.blocks[index];
+        // блок убирается из индекса дедупликации, пока на него не появилась ссылка из другой цепочки
+        if (!virtualFS.getBlockIndex().detach(source, virtualFS.getBlockReferences())) {
+            return false;
+        }
+        if (index > 0) {
+            virtualFS.getBlockIndex().remove(chain.blocks[index - 1]);
+        }
+        VirtualBlockAllocator allocator = virtualFS.getBlockAllocator();
+        if (allocator != null && !allocator.claim(target)) {
+            return false;
+        }
+        FileLock lock = tryLock(target, slotSize);
+        if (lock == null) {
+            if (allocator != null) allocator.free(target);
+            return false;
+        }
+        try {
+            if (!isFreeBlock(target)) {
+                return false;
+            }
+            ByteBuffer block = read(source, (int) slotSize);
+            // ссылка на конец данных в блоке абсолютная
+            block.putLong(0, block.getLong(0) - source + target);
+            write(block, target);
+        } finally {
+            lock.release();
+        }
+
+        if (index == 0) {
+            chain.file.setContentPosition(target);
+            unsavedFiles.add(chain.file);
+        } else {
+            writeLong(chain.blocks[index - 1] + 8, target);
+        }
+        chain.blocks[index] = target;
+        if (index == chain.count - 1 && !chain.isTailShared) {
+            writeLong(chain.blocks[0] + VirtualRandomAccessFile.BLOCK_HEADER_SIZE + 8, target);
+        }
+
+        if (chain.file != null) {
+            owners.remove(source);
+            owners.put(target, chain.file);
+        }
+        if (chain.file != null && unsavedFiles.contains(chain.file)) {
+            pendingBlocks.add(source);
+        } else {
+            freeBlock(source);
+        }
+        budget--;
+        movedBlocks++;
+        return true;
+    }
+
+    /**
+     * Сохранение VFS с новыми позициями первых блоков и освобождение старых блоков
+     * Если сохранить не удалось, то блоки освобождаются на следующем шаге, а до конца шага пропускаются
+     */
+    private void releasePendingBlocks() throws IOException {
+        if (!unsavedFiles.isEmpty()) {
+            try {
+                virtualFS.save();
+            } catch (LockedVirtualFSNodeException e) {
+                isSaveFailed = true;
+                return;
+            }
+            unsavedFiles.clear();
+        }
+        for (long position : pendingBlocks) {
+            freeBlock(position);
+        }
+        pendingBlocks.clear();
+    }
+
+    private void freeBlock(long position) throws IOException {
+        writeLong(position, -2);
+        VirtualBlockAllocator allocator = virtualFS.getBlockAllocator();
+        if (allocator != null) allocator.free(position);
+    }
+
+    /**
+     * Обрезание свободных блоков в конце физического файла
+     * В контейнере обрезание выполняется, только если все выданные распределителем блоки уже записаны
+     */
+    private void truncateTail() throws IOException {
+        VirtualBlockAllocator allocator = virtualFS.getBlockAllocator();
+        if (allocator == null) {
+            truncateFreeTail();
+            return;
+        }
+        synchronized (allocator) {
+            if (allocator.isWritten(channel.size())) {
+                allocator.truncate(truncateFreeTail());
+            }
+        }
+    }
+
+    /**
+     * @return новая длина физического файла
+     */
+    private long truncateFreeTail() throws IOException {
+        long length = alignedLength();
+        long newLength = length;
+        while (newLength - slotSize > 8 && readLong(newLength - slotSize) == -2) {
+            newLength -= slotSize;
+        }
+        if (newLength == channel.size()) {
+            return newLength;
+        }
+
+        FileLock lock = tryLock(newLength, Long.MAX_VALUE - newLength);
+        if (lock == null) {
+            return channel.size();
+        }
+        try {
+            // блоки могли быть заняты до блокировки
+            for (long position = newLength; position < alignedLength(); position += slotSize) {
+                if (readLong(position) != -2) {
+                    return channel.size();
+                }
+            }
+            channel.truncate(newLength);
+            return newLength;
+        } finally {
+            lock.release();
+        }
+    }
+
+    private long findFreeBlock(long from) throws IOException {
+        long position = Math.max(from, freeBlockHint);
+        long length = alignedLength();
+        while (position < length && readLong(position) != -2) {
+            position += slotSize;
+        }
+        freeBlockHint = position;
+        return position;
+    }
+
+    private boolean isFreeBlock(long position) throws IOException {
+        return position >= alignedLength() || readLong(position) == -2;
+    }
+
+    private long alignedLength() throws IOException {
+        return 8 + (channel.size() - 8) / slotSize * slotSize;
+    }
+
+    /**
+     * Чтение цепочки блоков, null если цепочка повреждена
+     * Цепочка заканчивается перед первым общим блоком, общие блоки не переносятся
+     */
+    private Chain readChain(VirtualFile file, long head) throws IOException {
+        Chain chain = new Chain(file);
+        Set<Long> visited = new HashSet<>();
+        VirtualBlockReferences references = virtualFS.getBlockReferences();
+        long length = alignedLength();
+        long position = head;
+        while (position != -1) {
+            if (position < 8 || (position - 8) % slotSize != 0 || position >= length || !visited.add(position)) {
+                return null;
+            }
+            if (references.isShared(position)) {
+                chain.isTailShared = true;
+                break;
+            }
+            chain.add(position);
+            position = readLong(position + 8);
+        }
+        return chain;
+    }
+
+    private FileLock tryLock(long position, long size) throws IOException {
+        try {
+            return channel.tryLock(position, size, false);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private long readLong(long position) throws IOException {
+        return read(position, 8).getLong();
+    }
+
+    private void writeLong(long position, long value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(value);
+        buffer.flip();
+        write(buffer, position);
+    }
+
+    private ByteBuffer read(long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void write(@NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Цепочка блоков файла, file равен null для цепочки метаданных
+     */
+    private static class Chain {
+        private final VirtualFile file;
+        private long[] blocks = new long[4];
+        private int count;
+        // цепочка продолжается общими блоками
+        private boolean isTailShared;
+
+        Chain(VirtualFile file) {
+            this.file = file;
+        }
+
+        void add(long position) {
+            if (count == blocks.length) {
+                blocks = Arrays.copyOf(blocks, count * 2);
+            }
+            blocks[count++] = position;
+        }
+
+        int indexOf(long position) {
+            for (int i = 0; i < count; i++) {
+                if (blocks[i] == position) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import exceptions.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Контейнер нескольких VFS (пространств имён) в одном физическом файле
+ * В первом блоке физического файла начинается суперблок - таблица пространств имён с первым блоком
+ * метаданных каждой VFS, поэтому VFS открывается по имени без поиска. Все VFS контейнера получают
+ * блоки из одного распределителя, свободные блоки одной VFS используются другими.
+ */
+public class VirtualFSContainer {
+    private static final long SUPERBLOCK_POSITION = 8;
+    private final File sourceFile;
+    private final VirtualBlockAllocator blockAllocator;
+    private final VirtualRandomAccessFile superblock;
+    private final HashMap<String, Long> namespaces;
+    private final HashMap<String, VirtualFS> openedNamespaces = new HashMap<>();
+
+    public VirtualFSContainer(@NotNull File sourceFile) throws IOException, ClassNotFoundException {
+        this.sourceFile = sourceFile;
+        this.blockAllocator = new VirtualBlockAllocator(sourceFile);
+        if (sourceFile.length() < 8) {
+            this.superblock = new VirtualRandomAccessFile(sourceFile, "rw", -1, null, true,
+                    null, null, blockAllocator);
+            this.namespaces = new HashMap<>();
+            save();
+        } else {
+            this.superblock = new VirtualRandomAccessFile(sourceFile, "rw", SUPERBLOCK_POSITION, null, true,
+                    null, null, blockAllocator);
+            this.namespaces = load();
+        }
+    }
+
+    /**
+     * Сохранение суперблока
+     */
+    private void save() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(namespaces);
+        out.flush();
+        byte[] bytes = bos.toByteArray();
+        bos.close();
+
+        if (superblock.length() < bytes.length) {
+            superblock.setLength(bytes.length);
+        }
+        superblock.seek(0);
+        superblock.write(bytes);
+        superblock.flush();
+    }
+
+    /**
+     * Загрузка суперблока
+     */
+    @SuppressWarnings("unchecked")
+    private HashMap<String, Long> load() throws IOException, ClassNotFoundException {
+        byte[] bytes = new byte[(int) superblock.length()];
+        superblock.read(bytes);
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        Object namespaces = in.readObject();
+        if (!(namespaces instanceof HashMap)) {
+            throw new IOException(sourceFile + " is not a VFS container");
+        }
+        return (HashMap<String, Long>) namespaces;
+    }
+
+    VirtualBlockAllocator getBlockAllocator() {
+        return blockAllocator;
+    }
+
+    /**
+     * Создание пространства имён
+     *
+     * @param name имя пространства имён
+     * @return VFS созданного пространства имён
+     */
+    public synchronized VirtualFS createNamespace(@NotNull String name) throws IOException, EmptyNodeNameException,
+            NotUniqueNameException, LockedVirtualFSNodeException {
+        if (name.isEmpty()) {
+            throw new EmptyNodeNameException();
+        }
+        if (namespaces.containsKey(name)) {
+            throw new NotUniqueNameException();
+        }
+        VirtualFS virtualFS = openNamespace(-1);
+        namespaces.put(name, virtualFS.getMetadataPosition());
+        openedNamespaces.put(name, virtualFS);
+        save();
+        return virtualFS;
+    }
+
+    /**
+     * Получение VFS пространства имён, VFS открывается при первом обращении и остаётся открытой
+     * до закрытия контейнера или самой VFS
+     */
+    public synchronized VirtualFS getNamespace(@NotNull String name) throws IOException, NamespaceNotFoundException,
+            LockedVirtualFSNodeException {
+        Long position = namespaces.get(name);
+        if (position == null) {
+            throw new NamespaceNotFoundException(name);
+        }
+        return getNamespace(name, position);
+    }
+
+    private VirtualFS getNamespace(@NotNull String name, long position) throws IOException, LockedVirtualFSNodeException {
+        VirtualFS virtualFS = openedNamespaces.get(name);
+        if (virtualFS == null) {
+            virtualFS = openNamespace(position);
+            openedNamespaces.put(name, virtualFS);
+        }
+        return virtualFS;
+    }
+
+    /**
+     * Получение имён всех пространств имён контейнера
+     */
+    public synchronized Set<String> getNamespaces() {
+        return new TreeSet<>(namespaces.keySet());
+    }
+
+    /**
+     * Удаление пространства имён вместе с данными всех его файлов
+     * Если что-либо в пространстве имён открыто на чтение или запись, то будет выдана ошибка LockedVirtualFSNodeException
+     */
+    public synchronized void removeNamespace(@NotNull String name) throws IOException, NamespaceNotFoundException,
+            LockedVirtualFSNodeException, NullVirtualFSException {
+        getNamespace(name).destroy();
+        openedNamespaces.remove(name);
+        namespaces.remove(name);
+        save();
+    }
+
+    private VirtualFS openNamespace(long position) throws IOException, LockedVirtualFSNodeException {
+        try {
+            return new VirtualFS(sourceFile, position, this);
+        } catch (ClassNotFoundException | EmptyNodeNameException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * VFS закрыта, при следующем обращении она открывается заново
+     */
+    synchronized void onClose(@NotNull VirtualFS virtualFS) {
+        openedNamespaces.values().remove(virtualFS);
+    }
+
+    /**
+     * Проверка целостности всего физического файла контейнера в общем ForkJoinPool
+     */
+    public VirtualFSCheckReport check(boolean verifyChecksums) throws IOException, LockedVirtualFSNodeException {
+        return check(ForkJoinPool.commonPool(), verifyChecksums);
+    }
+
+    /**
+     * Проверка целостности всего физического файла контейнера в пуле pool
+     * На время проверки все пространства имён блокируются на чтение
+     */
+    public synchronized VirtualFSCheckReport check(@NotNull ForkJoinPool pool, boolean verifyChecksums)
+            throws IOException, LockedVirtualFSNodeException {
+        List<VirtualFS> virtualFSs = new ArrayList<>();
+        for (Map.Entry<String, Long> namespace : namespaces.entrySet()) {
+            virtualFSs.add(getNamespace(namespace.getKey(), namespace.getValue()));
+        }
+
+        // при ошибке блокировки уже полученные блокировки снимаются
+        List<Lock> locks = new ArrayList<>();
+        for (VirtualFS virtualFS : virtualFSs) {
+            locks = virtualFS.getRootDirectory().tryReadLockDown(locks);
+        }
+        try {
+            return check(pool, verifyChecksums, virtualFSs, 0);
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * Проверка с блокировкой цепочек метаданных всех VFS, начиная с VFS с номером index
+     */
+    private VirtualFSCheckReport check(
+            @NotNull ForkJoinPool pool,
+            boolean verifyChecksums,
+            @NotNull List<VirtualFS> virtualFSs,
+            int index
+    ) throws IOException {
+        if (index < virtualFSs.size()) {
+            synchronized (virtualFSs.get(index).metadataLock) {
+                return check(pool, verifyChecksums, virtualFSs, index + 1);
+            }
+        }
+
+        List<Long> metadataPositions = new ArrayList<>();
+        metadataPositions.add(superblock.getFirstBlockPosition());
+        List<VirtualFile> files = new ArrayList<>();
+        Map<Long, Integer> referenceCounts = new HashMap<>();
+        for (VirtualFS virtualFS : virtualFSs) {
+            metadataPositions.add(virtualFS.getMetadataPosition());
+            VirtualFS.collectFiles(virtualFS.getRootDirectory(), files);
+            referenceCounts.putAll(virtualFS.getBlockReferences().snapshot());
+        }
+        return new VirtualFSChecker(sourceFile, pool, verifyChecksums, referenceCounts)
+                .check(metadataPositions, files);
+    }
+
+    /**
+     * Закрытие всех открытых VFS и контейнера
+     * Если что-либо открыто на чтение или запись, то будет выдана ошибка LockedVirtualFSNodeException
+     */
+    public synchronized void close() throws IOException, LockedVirtualFSNodeException {
+        for (VirtualFS virtualFS : new ArrayList<>(openedNamespaces.values())) {
+            virtualFS.close();
+        }
+        superblock.close();
+    }
+}
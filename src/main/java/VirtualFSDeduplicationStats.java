@@ -0,0 +1,66 @@
+/**
+ * Статистика дедупликации блоков VFS
+ */
+public class VirtualFSDeduplicationStats {
+    private final long indexedBlocks;
+    private final long hashedBlocks;
+    private final long deduplicatedBlocks;
+    private final long passes;
+    private final long passesNanos;
+
+    VirtualFSDeduplicationStats(long indexedBlocks, long hashedBlocks, long deduplicatedBlocks, long passes, long passesNanos) {
+        this.indexedBlocks = indexedBlocks;
+        this.hashedBlocks = hashedBlocks;
+        this.deduplicatedBlocks = deduplicatedBlocks;
+        this.passes = passes;
+        this.passesNanos = passesNanos;
+    }
+
+    /**
+     * Получение числа блоков в индексе
+     */
+    public long getIndexedBlocks() {
+        return indexedBlocks;
+    }
+
+    /**
+     * Получение числа блоков, которые искались в индексе
+     */
+    public long getHashedBlocks() {
+        return hashedBlocks;
+    }
+
+    /**
+     * Получение числа блоков, которые заменены уже записанными блоками
+     */
+    public long getDeduplicatedBlocks() {
+        return deduplicatedBlocks;
+    }
+
+    /**
+     * Получение доли заменённых блоков среди проверенных
+     */
+    public double getDeduplicationRatio() {
+        return hashedBlocks == 0 ? 0 : (double) deduplicatedBlocks / hashedBlocks;
+    }
+
+    /**
+     * Получение числа проходов дедупликации, проход выполняется при закрытии изменённого файла
+     */
+    public long getPasses() {
+        return passes;
+    }
+
+    /**
+     * Получение среднего времени, добавленного к закрытию файла, в наносекундах
+     */
+    public long getAveragePassNanos() {
+        return passes == 0 ? 0 : passesNanos / passes;
+    }
+
+    @Override
+    public String toString() {
+        return "deduplicated " + deduplicatedBlocks + " of " + hashedBlocks + " blocks, "
+                + indexedBlocks + " indexed, " + getAveragePassNanos() + " ns per pass";
+    }
+}
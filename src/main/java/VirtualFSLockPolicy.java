@@ -0,0 +1,69 @@
+import exceptions.VFSException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Политика получения блокировок файлов и директорий VFS
+ * По умолчанию занятая блокировка сразу приводит к ошибке LockedVirtualFSNodeException.
+ * Политика с ожиданием ждёт освобождения блокировки не дольше заданного времени, ожидающие потоки
+ * получают блокировки в порядке очереди.
+ */
+public final class VirtualFSLockPolicy {
+    public static final VirtualFSLockPolicy FAIL_FAST = new VirtualFSLockPolicy(0, TimeUnit.MILLISECONDS, false);
+    private final long timeoutNanos;
+    private final boolean isFair;
+
+    /**
+     * @param timeout наибольшее время ожидания одной блокировки, 0 - без ожидания
+     * @param isFair  блокировки, созданные при этой политике, выдаются в порядке очереди
+     */
+    public VirtualFSLockPolicy(long timeout, @NotNull TimeUnit unit, boolean isFair) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout < 0");
+        }
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.isFair = isFair;
+    }
+
+    /**
+     * Политика с ожиданием в порядке очереди не дольше timeout
+     */
+    public static VirtualFSLockPolicy waiting(long timeout, @NotNull TimeUnit unit) {
+        return new VirtualFSLockPolicy(timeout, unit, true);
+    }
+
+    public long getTimeout(@NotNull TimeUnit unit) {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isFair() {
+        return isFair;
+    }
+
+    /**
+     * Получение блокировки lock по политике
+     *
+     * @return false, если блокировка не получена за время ожидания или поток прерван
+     */
+    boolean acquire(@NotNull Lock lock) {
+        if (timeoutNanos == 0) {
+            return lock.tryLock();
+        }
+        try {
+            return lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Действие, выполняемое с другой политикой блокировок
+     */
+    public interface Action<T> {
+        T run() throws VFSException, IOException;
+    }
+}
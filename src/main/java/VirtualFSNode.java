@@ -3,9 +3,16 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.concurrent.locks.Lock;
 
 public abstract class VirtualFSNode implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Имена хранятся в общей таблице строк, одинаковые имена в разных директориях не дублируются в памяти
+     */
     protected String name;
     protected VirtualDirectory rootDirectory;
     transient protected VirtualFS virtualFS;
@@ -17,10 +24,15 @@ public abstract class VirtualFSNode implements Serializable {
         if (name.equals("")) {
             throw new EmptyNodeNameException();
         }
-        this.name = name;
+        this.name = name.intern();
         this.rootDirectory = rootDirectory;
     }
 
+    private void readObject(@NotNull ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        name = name.intern();
+    }
+
     /**
      * Получение имени ноды
      */
@@ -33,10 +45,37 @@ public abstract class VirtualFSNode implements Serializable {
      */
     public void rename(@NotNull String name) throws LockedVirtualFSNodeException,
             VirtualFSNodeIsDeletedException, NotUniqueNameException, EmptyNodeNameException {
+        setName(name);
+    }
+
+    /**
+     * Установка имени ноды без блокировок и проверок на уникальность
+     */
+    void setName(@NotNull String name) throws EmptyNodeNameException {
         if (name.equals("")) {
             throw new EmptyNodeNameException();
         }
-        this.name = name;
+        Lock lock = beginChange();
+        try {
+            String oldName = this.name;
+            this.name = name.intern();
+            if (rootDirectory != null) {
+                rootDirectory.onRename(this, oldName);
+            }
+        } finally {
+            endChange(lock);
+        }
+    }
+
+    /**
+     * Получение пути ноды от корня VFS, путь корня - "/"
+     */
+    public String getPath() {
+        if (rootDirectory == null) {
+            return "/";
+        }
+        String path = rootDirectory.getPath();
+        return path.equals("/") ? path + name : path + "/" + name;
     }
 
     /**
@@ -71,6 +110,116 @@ public abstract class VirtualFSNode implements Serializable {
         return getVirtualFS().sourceFile;
     }
 
+    /**
+     * Начало изменения структуры дерева, сохранение VFS не увидит изменение наполовину
+     *
+     * @return блокировка, которая снимается endChange, null для узла вне VFS
+     */
+    Lock beginChange() {
+        try {
+            return getVirtualFS().beginChange();
+        } catch (NullVirtualFSException e) {
+            return null;
+        }
+    }
+
+    static void endChange(Lock lock) {
+        if (lock != null) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Получение политики блокировок VFS, узел вне VFS блокируется без ожидания
+     */
+    VirtualFSLockPolicy lockPolicy() {
+        try {
+            return getVirtualFS().getLockPolicy();
+        } catch (NullVirtualFSException e) {
+            return VirtualFSLockPolicy.FAIL_FAST;
+        }
+    }
+
+    /**
+     * Проверка на то, что узел не удалён и находится внутри директории root
+     */
+    boolean isInside(@NotNull VirtualDirectory root) {
+        VirtualFSNode node = this;
+        while (node != root) {
+            if (node == null || node.isDeleted) {
+                return false;
+            }
+            node = node.getRootDirectory();
+        }
+        return true;
+    }
+
+    /**
+     * Получение индекса размеров и дат модификации VFS, null если индекс выключен или узел вне VFS
+     */
+    VirtualAttributeIndex attributeIndex() {
+        try {
+            return getVirtualFS().getAttributeIndex();
+        } catch (NullVirtualFSException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Получение индекса имён VFS, null если индекс выключен или узел вне VFS
+     */
+    VirtualNameIndex nameIndex() {
+        try {
+            return getVirtualFS().getNameIndex();
+        } catch (NullVirtualFSException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Получение итогов директорий VFS, null если итоги выключены или узел вне VFS
+     */
+    VirtualUsageIndex usageIndex() {
+        try {
+            return getVirtualFS().getUsageIndex();
+        } catch (NullVirtualFSException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Публикация события об изменении узла в директории parent для наблюдателей VFS
+     */
+    void publish(@NotNull VirtualFSWatchEvent.Kind kind, VirtualDirectory parent) {
+        prepareEvent(kind, parent, parent, name).run();
+    }
+
+    /**
+     * Публикация события о перемещении или переименовании узла для наблюдателей VFS
+     */
+    void publish(@NotNull VirtualFSWatchEvent.Kind kind, VirtualDirectory parent, VirtualDirectory oldParent,
+                 @NotNull String oldName) {
+        prepareEvent(kind, parent, oldParent, oldName).run();
+    }
+
+    /**
+     * Подготовка события для публикации позже, см. VirtualFS.prepareEvent
+     * VFS берётся у директории, так как удалённый узел уже не связан с деревом
+     */
+    Runnable prepareEvent(@NotNull VirtualFSWatchEvent.Kind kind, VirtualDirectory parent,
+                          VirtualDirectory oldParent, @NotNull String oldName) {
+        VirtualDirectory directory = parent != null ? parent : oldParent;
+        try {
+            if (directory != null) {
+                return directory.getVirtualFS().prepareEvent(kind, this, parent, oldParent, oldName);
+            }
+        } catch (NullVirtualFSException e) {
+            // у узла вне VFS нет наблюдателей
+        }
+        return () -> {
+        };
+    }
+
     /**
      * Поучение VFS в которой находится файл/директория
      */
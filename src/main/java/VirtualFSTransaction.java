@@ -0,0 +1,394 @@
+import exceptions.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Транзакция над VFS
+ * Блокировки на директории и файлы берутся один раз и держатся до конца транзакции,
+ * изменения применяются в памяти и сохраняются в файл одной записью при фиксации.
+ * При ошибке все изменения откатываются в памяти, данные удаляемых файлов не трогаются.
+ * Внутри транзакции нельзя вызывать обычные методы VFS над заблокированными нодами,
+ * они выдадут ошибку LockedVirtualFSNodeException.
+ */
+public class VirtualFSTransaction {
+    private final VirtualFS virtualFS;
+    private final List<Lock> locks = new ArrayList<>();
+    private final Set<VirtualDirectory> lockedDirectories = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<VirtualFile> lockedFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<VirtualDirectory> lockedSubtrees = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Deque<Runnable> undo = new ArrayDeque<>();
+    private final List<VirtualFSNode> removedNodes = new ArrayList<>();
+    // события для наблюдателей, подготовленные при операциях и публикуемые только при фиксации
+    private final List<Runnable> events = new ArrayList<>();
+    private boolean isFinished = false;
+
+    /**
+     * Тело транзакции
+     */
+    public interface Body {
+        void apply(@NotNull VirtualFSTransaction transaction) throws VFSException, IOException;
+    }
+
+    VirtualFSTransaction(@NotNull VirtualFS virtualFS) {
+        this.virtualFS = virtualFS;
+        // сохранение не видит изменений транзакции до её окончания
+        locks.add(virtualFS.beginChange());
+    }
+
+    /**
+     * Создание директории в root директории VFS
+     */
+    public VirtualDirectory mkdir(@NotNull String name) throws LockedVirtualFSNodeException,
+            NotUniqueNameException, EmptyNodeNameException, VirtualFSNodeIsDeletedException {
+        return mkdir(virtualFS.getRootDirectory(), name);
+    }
+
+    /**
+     * Создание директории в директории parent
+     */
+    public VirtualDirectory mkdir(@NotNull VirtualDirectory parent, @NotNull String name)
+            throws LockedVirtualFSNodeException, NotUniqueNameException, EmptyNodeNameException,
+            VirtualFSNodeIsDeletedException {
+        checkActive();
+        lockDirectory(parent);
+        if (!parent.checkForUniqueDirectoryName(name)) {
+            throw new NotUniqueNameException();
+        }
+        VirtualDirectory directory = new VirtualDirectory(name, parent);
+        parent.paste(directory);
+        undo.push(() -> parent.remove(directory));
+        events.add(directory.prepareEvent(VirtualFSWatchEvent.Kind.CREATE, parent, parent, name));
+        return directory;
+    }
+
+    /**
+     * Создание файла в root директории VFS
+     */
+    public VirtualFile touch(@NotNull String name) throws LockedVirtualFSNodeException,
+            NotUniqueNameException, EmptyNodeNameException, VirtualFSNodeIsDeletedException {
+        return touch(virtualFS.getRootDirectory(), name);
+    }
+
+    /**
+     * Создание файла в директории parent
+     */
+    public VirtualFile touch(@NotNull VirtualDirectory parent, @NotNull String name)
+            throws LockedVirtualFSNodeException, NotUniqueNameException, EmptyNodeNameException,
+            VirtualFSNodeIsDeletedException {
+        checkActive();
+        lockDirectory(parent);
+        if (!parent.checkForUniqueFileName(name)) {
+            throw new NotUniqueNameException();
+        }
+        VirtualFile file = new VirtualFile(name, parent);
+        parent.paste(file);
+        undo.push(() -> parent.remove(file));
+        events.add(file.prepareEvent(VirtualFSWatchEvent.Kind.CREATE, parent, parent, name));
+        return file;
+    }
+
+    /**
+     * Перемещение файла в destinationDirectory
+     */
+    public void move(@NotNull VirtualFile file, @NotNull VirtualDirectory destinationDirectory)
+            throws LockedVirtualFSNodeException, NotUniqueNameException, VirtualFSNodeIsDeletedException,
+            UnremovableVirtualNodeException {
+        checkActive();
+        VirtualDirectory sourceDirectory = file.getRootDirectory();
+        if (sourceDirectory == null) {
+            throw new UnremovableVirtualNodeException();
+        }
+        lockFile(file);
+        lockDirectory(sourceDirectory);
+        lockDirectory(destinationDirectory);
+        if (!destinationDirectory.checkForUniqueFileName(file, file.getName())) {
+            throw new NotUniqueNameException();
+        }
+        int index = sourceDirectory.indexOf(file);
+        sourceDirectory.remove(file);
+        destinationDirectory.paste(file);
+        undo.push(() -> {
+            destinationDirectory.remove(file);
+            sourceDirectory.paste(file, index);
+        });
+        events.add(file.prepareEvent(VirtualFSWatchEvent.Kind.MOVE, destinationDirectory, sourceDirectory,
+                file.getName()));
+    }
+
+    /**
+     * Перемещение директории в destinationDirectory
+     */
+    public void move(@NotNull VirtualDirectory directory, @NotNull VirtualDirectory destinationDirectory)
+            throws LockedVirtualFSNodeException, NotUniqueNameException, VirtualFSNodeIsDeletedException,
+            UnremovableVirtualNodeException {
+        checkActive();
+        VirtualDirectory sourceDirectory = directory.getRootDirectory();
+        if (sourceDirectory == null) {
+            throw new UnremovableVirtualNodeException();
+        }
+        if (directory.hasInSubtree(destinationDirectory)) {
+            throw new IllegalArgumentException("Directory cannot be moved into itself");
+        }
+        lockSubtree(directory);
+        lockDirectory(sourceDirectory);
+        lockDirectory(destinationDirectory);
+        if (!destinationDirectory.checkForUniqueDirectoryName(directory)) {
+            throw new NotUniqueNameException();
+        }
+        int index = sourceDirectory.indexOf(directory);
+        sourceDirectory.remove(directory);
+        destinationDirectory.paste(directory);
+        undo.push(() -> {
+            destinationDirectory.remove(directory);
+            sourceDirectory.paste(directory, index);
+        });
+        events.add(directory.prepareEvent(VirtualFSWatchEvent.Kind.MOVE, destinationDirectory, sourceDirectory,
+                directory.getName()));
+    }
+
+    /**
+     * Переименование файла
+     */
+    public void rename(@NotNull VirtualFile file, @NotNull String name) throws LockedVirtualFSNodeException,
+            NotUniqueNameException, EmptyNodeNameException, VirtualFSNodeIsDeletedException {
+        checkActive();
+        lockFile(file);
+        VirtualDirectory parent = file.getRootDirectory();
+        if (parent != null) {
+            lockDirectory(parent);
+            if (!parent.checkForUniqueFileName(file, name)) {
+                throw new NotUniqueNameException();
+            }
+        }
+        String oldName = file.getName();
+        long oldModifiedAt = file.getModifiedAt().getTime();
+        file.setName(name);
+        file.setModifiedAt(System.currentTimeMillis());
+        undo.push(() -> {
+            restoreName(file, oldName);
+            file.setModifiedAt(oldModifiedAt);
+        });
+        events.add(file.prepareEvent(VirtualFSWatchEvent.Kind.RENAME, parent, parent, oldName));
+    }
+
+    /**
+     * Переименование директории
+     */
+    public void rename(@NotNull VirtualDirectory directory, @NotNull String name) throws LockedVirtualFSNodeException,
+            NotUniqueNameException, EmptyNodeNameException, VirtualFSNodeIsDeletedException {
+        checkActive();
+        lockDirectory(directory);
+        VirtualDirectory parent = directory.getRootDirectory();
+        if (parent != null) {
+            lockDirectory(parent);
+            if (!parent.checkForUniqueDirectoryName(directory, name)) {
+                throw new NotUniqueNameException();
+            }
+        }
+        String oldName = directory.getName();
+        directory.setName(name);
+        undo.push(() -> restoreName(directory, oldName));
+        events.add(directory.prepareEvent(VirtualFSWatchEvent.Kind.RENAME, parent, parent, oldName));
+    }
+
+    /**
+     * Удаление файла
+     * Данные файла удаляются из физического файла только при фиксации транзакции
+     */
+    public void remove(@NotNull VirtualFile file) throws LockedVirtualFSNodeException,
+            UnremovableVirtualNodeException, VirtualFSNodeIsDeletedException {
+        checkActive();
+        VirtualDirectory parent = file.getRootDirectory();
+        if (parent == null) {
+            throw new UnremovableVirtualNodeException();
+        }
+        lockFile(file);
+        lockDirectory(parent);
+        int index = parent.indexOf(file);
+        parent.remove(file);
+        removedNodes.add(file);
+        undo.push(() -> {
+            removedNodes.remove(file);
+            parent.paste(file, index);
+        });
+        events.add(file.prepareEvent(VirtualFSWatchEvent.Kind.DELETE, parent, parent, file.getName()));
+    }
+
+    /**
+     * Рекурсивное удаление директории
+     * Данные файлов удаляются из физического файла только при фиксации транзакции
+     */
+    public void remove(@NotNull VirtualDirectory directory) throws LockedVirtualFSNodeException,
+            UnremovableVirtualNodeException, VirtualFSNodeIsDeletedException {
+        checkActive();
+        VirtualDirectory parent = directory.getRootDirectory();
+        if (parent == null) {
+            throw new UnremovableVirtualNodeException();
+        }
+        lockSubtree(directory);
+        lockDirectory(parent);
+        int index = parent.indexOf(directory);
+        parent.remove(directory);
+        removedNodes.add(directory);
+        undo.push(() -> {
+            removedNodes.remove(directory);
+            parent.paste(directory, index);
+        });
+        events.add(directory.prepareEvent(VirtualFSWatchEvent.Kind.DELETE, parent, parent, directory.getName()));
+    }
+
+    /**
+     * Фиксация транзакции: удаление данных удалённых файлов, снятие блокировок, одно сохранение VFS
+     * и публикация событий для наблюдателей
+     */
+    void commit() throws IOException, NullVirtualFSException {
+        checkActive();
+        isFinished = true;
+        try {
+            for (VirtualFSNode node : removedNodes) {
+                deleteContent(node);
+            }
+        } finally {
+            release();
+            try {
+                virtualFS.save();
+            } catch (LockedVirtualFSNodeException e) {
+                // метаданные остались помечены несохранёнными, их запишет следующее сохранение
+            } finally {
+                events.forEach(Runnable::run);
+            }
+        }
+    }
+
+    /**
+     * Откат всех изменений транзакции в памяти
+     */
+    void rollback() {
+        isFinished = true;
+        while (!undo.isEmpty()) {
+            undo.pop().run();
+        }
+        events.clear();
+        release();
+    }
+
+    /**
+     * Удаление данных узла, для директории - всех файлов её поддерева, поддерево обходится без рекурсии
+     */
+    private void deleteContent(@NotNull VirtualFSNode node) throws IOException, NullVirtualFSException {
+        if (node instanceof VirtualFile) {
+            deleteContent((VirtualFile) node);
+            return;
+        }
+        VirtualFSVisitor visitor = new VirtualFSVisitor() {
+            @Override
+            public Result preVisitDirectory(@NotNull VirtualDirectory directory, int depth) {
+                directory.virtualFS = virtualFS;
+                directory.isDeleted = true;
+                VirtualUsageIndex usageIndex = virtualFS.getUsageIndex();
+                if (usageIndex != null) usageIndex.discard(directory);
+                return Result.CONTINUE;
+            }
+
+            @Override
+            public Result visitFile(@NotNull VirtualFile file, int depth) throws VFSException, IOException {
+                deleteContent(file);
+                return Result.CONTINUE;
+            }
+        };
+
+        try {
+            ((VirtualDirectory) node).walkTree(visitor);
+        } catch (NullVirtualFSException e) {
+            throw e;
+        } catch (VFSException e) {
+            // обработчик бросает только перечисленные исключения
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void deleteContent(@NotNull VirtualFile file) throws IOException, NullVirtualFSException {
+        file.virtualFS = virtualFS;
+        file.isDeleted = true;
+        file.deleteContent();
+        VirtualNameIndex nameIndex = virtualFS.getNameIndex();
+        if (nameIndex != null) nameIndex.remove(file);
+        VirtualAttributeIndex attributeIndex = virtualFS.getAttributeIndex();
+        if (attributeIndex != null) attributeIndex.remove(file);
+    }
+
+    private void restoreName(@NotNull VirtualFSNode node, @NotNull String name) {
+        try {
+            node.setName(name);
+        } catch (EmptyNodeNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void release() {
+        locks.forEach(Lock::unlock);
+        locks.clear();
+        lockedDirectories.forEach(directory -> directory.setModifying(false));
+        lockedDirectories.clear();
+        lockedFiles.clear();
+        lockedSubtrees.clear();
+    }
+
+    private void checkActive() {
+        if (isFinished) {
+            throw new IllegalStateException("Transaction is already finished");
+        }
+    }
+
+    /**
+     * Блокировка директории на запись, если она ещё не заблокирована в этой транзакции
+     */
+    private void lockDirectory(@NotNull VirtualDirectory directory) throws LockedVirtualFSNodeException,
+            VirtualFSNodeIsDeletedException {
+        if (directory.isDeleted) {
+            throw new VirtualFSNodeIsDeletedException();
+        }
+        if (lockedDirectories.contains(directory)) {
+            return;
+        }
+        locks.addAll(new VirtualLockOrder(this)
+                .nameWrite(directory)
+                .filesWrite(directory)
+                .directoriesWrite(directory)
+                .lock());
+        lockedDirectories.add(directory);
+        directory.setModifying(true);
+    }
+
+    /**
+     * Блокировка файла на запись, если он ещё не заблокирован в этой транзакции
+     */
+    private void lockFile(@NotNull VirtualFile file) throws LockedVirtualFSNodeException,
+            VirtualFSNodeIsDeletedException {
+        if (file.isDeleted) {
+            throw new VirtualFSNodeIsDeletedException();
+        }
+        if (lockedFiles.contains(file)) {
+            return;
+        }
+        locks.addAll(new VirtualLockOrder(this).write(file).lock());
+        lockedFiles.add(file);
+    }
+
+    /**
+     * Блокировка на запись директории и всех поддиректорий и файлов
+     * Блокируется только директория, её собственные блокировки транзакции не мешают
+     */
+    private void lockSubtree(@NotNull VirtualDirectory directory) throws LockedVirtualFSNodeException,
+            VirtualFSNodeIsDeletedException {
+        lockDirectory(directory);
+        if (lockedSubtrees.contains(directory)) {
+            return;
+        }
+        locks.addAll(new VirtualLockOrder(this).writeDown(directory).lock());
+        lockedSubtrees.add(directory);
+    }
+}
@@ -0,0 +1,35 @@
+import exceptions.VFSException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Обработчик обхода дерева VFS, см. VirtualFS.walkTree
+ * Для директории сначала вызывается preVisitDirectory, затем visitFile для её файлов, затем обходятся
+ * поддиректории, затем вызывается postVisitDirectory. depth - глубина узла, у директории, с которой начат обход, 0.
+ */
+public interface VirtualFSVisitor {
+    enum Result {
+        // продолжить обход
+        CONTINUE,
+        // не заходить в директорию, postVisitDirectory для неё не вызывается, для файла - то же, что CONTINUE
+        SKIP_SUBTREE,
+        // остановить обход
+        TERMINATE
+    }
+
+    default Result preVisitDirectory(@NotNull VirtualDirectory directory, int depth) throws VFSException, IOException {
+        return Result.CONTINUE;
+    }
+
+    default Result visitFile(@NotNull VirtualFile file, int depth) throws VFSException, IOException {
+        return Result.CONTINUE;
+    }
+
+    /**
+     * Вызывается после обхода всех файлов и поддиректорий директории
+     */
+    default Result postVisitDirectory(@NotNull VirtualDirectory directory, int depth) throws VFSException, IOException {
+        return Result.CONTINUE;
+    }
+}
@@ -0,0 +1,67 @@
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Событие изменения узла VFS, получаемое через VirtualFSWatcher
+ */
+public class VirtualFSWatchEvent {
+    /**
+     * Вид события
+     */
+    public enum Kind {
+        // узел создан: mkdir, touch, копирование, импорт
+        CREATE,
+        // узел удалён, для директории - одно событие на всё поддерево
+        DELETE,
+        // файл, открытый на запись, изменён и закрыт
+        MODIFY,
+        // узел перемещён в другую директорию
+        MOVE,
+        // узел переименован
+        RENAME,
+        // часть событий потеряна из-за переполнения буфера наблюдателя
+        OVERFLOW
+    }
+
+    private final Kind kind;
+    private final VirtualFSNode node;
+    private final String path;
+    private final String oldPath;
+
+    VirtualFSWatchEvent(@NotNull Kind kind, @NotNull VirtualFSNode node, @NotNull String path,
+                        @NotNull String oldPath) {
+        this.kind = kind;
+        this.node = node;
+        this.path = path;
+        this.oldPath = oldPath;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Узел события, для OVERFLOW - наблюдаемая директория
+     */
+    public VirtualFSNode getNode() {
+        return node;
+    }
+
+    /**
+     * Путь узла в момент события, для удалённого узла - путь до удаления
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Путь узла до перемещения или переименования, для остальных событий совпадает с getPath
+     */
+    public String getOldPath() {
+        return oldPath;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + (path.equals(oldPath) ? path : oldPath + " -> " + path);
+    }
+}
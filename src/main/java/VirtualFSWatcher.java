@@ -0,0 +1,188 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Наблюдатель за изменениями в директории VFS, создаётся VirtualFS.watch
+ * События складываются в ограниченный кольцевой буфер без блокировок: потоки, меняющие VFS, не ждут
+ * наблюдателя и друг друга. Повторные MODIFY одного файла, ещё не прочитанные наблюдателем, склеиваются в одно.
+ * Если буфер заполнен, новые события отбрасываются, а следующий poll возвращает событие OVERFLOW.
+ */
+public class VirtualFSWatcher implements AutoCloseable {
+    private final VirtualFS virtualFS;
+    private final VirtualDirectory directory;
+    private final boolean isRecursive;
+    private final Set<VirtualFSWatchEvent.Kind> kinds;
+
+    // кольцевой буфер: ячейка с номером sequence свободна для записи события с тем же номером
+    // и готова к чтению события с номером sequence - 1
+    private final AtomicReferenceArray<VirtualFSWatchEvent> events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    // файлы, MODIFY которых уже лежит в буфере
+    private final Set<VirtualFSNode> pendingModifications = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean isOverflowed = new AtomicBoolean();
+    private final AtomicLong lostEvents = new AtomicLong();
+    private volatile boolean isClosed = false;
+
+    /**
+     * @param capacity размер буфера, округляется вверх до степени двойки
+     */
+    VirtualFSWatcher(@NotNull VirtualFS virtualFS, @NotNull VirtualDirectory directory, boolean isRecursive,
+                     @NotNull Set<VirtualFSWatchEvent.Kind> kinds, int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Illegal capacity " + capacity);
+        }
+        this.virtualFS = virtualFS;
+        this.directory = directory;
+        this.isRecursive = isRecursive;
+        this.kinds = kinds.isEmpty() ? EnumSet.noneOf(VirtualFSWatchEvent.Kind.class) : EnumSet.copyOf(kinds);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        events = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Наблюдаемая директория
+     */
+    public VirtualDirectory getDirectory() {
+        return directory;
+    }
+
+    public boolean isRecursive() {
+        return isRecursive;
+    }
+
+    /**
+     * Число событий, отброшенных из-за переполнения буфера с момента создания наблюдателя
+     */
+    public long getLostEvents() {
+        return lostEvents.get();
+    }
+
+    /**
+     * Проверка на то, что событие kind для узла в директории parent нужно наблюдателю
+     */
+    boolean accepts(@NotNull VirtualFSWatchEvent.Kind kind, VirtualDirectory parent) {
+        if (parent == null || !kinds.contains(kind)) {
+            return false;
+        }
+        return parent == directory || isRecursive && parent.isInside(directory);
+    }
+
+    /**
+     * Добавление события в буфер, поток, меняющий VFS, не блокируется
+     */
+    void offer(@NotNull VirtualFSWatchEvent event) {
+        if (isClosed) {
+            return;
+        }
+        boolean isModification = event.getKind() == VirtualFSWatchEvent.Kind.MODIFY;
+        if (isModification && !pendingModifications.add(event.getNode())) {
+            return;
+        }
+        if (!push(event)) {
+            if (isModification) pendingModifications.remove(event.getNode());
+            lostEvents.incrementAndGet();
+            isOverflowed.set(true);
+        }
+    }
+
+    private boolean push(@NotNull VirtualFSWatchEvent event) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events.set(index, event);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // ячейка ещё не прочитана, буфер заполнен
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private VirtualFSWatchEvent pop() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    VirtualFSWatchEvent event = events.get(index);
+                    if (event.getKind() == VirtualFSWatchEvent.Kind.MODIFY) {
+                        // отметка снимается до освобождения ячейки и до возврата события: изменение файла
+                        // после этого снова попадёт в буфер, а отброшенное раньше увидит читатель события
+                        pendingModifications.remove(event.getNode());
+                    }
+                    events.set(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return event;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // событие ещё не записано, буфер пуст
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Получение следующего события без ожидания
+     * После переполнения буфера первым возвращается OVERFLOW: часть изменений потеряна,
+     * и наблюдаемую директорию нужно перечитать
+     *
+     * @return событие, null если событий нет
+     */
+    public VirtualFSWatchEvent poll() {
+        if (isOverflowed.get() && isOverflowed.compareAndSet(true, false)) {
+            String path = directory.getPath();
+            return new VirtualFSWatchEvent(VirtualFSWatchEvent.Kind.OVERFLOW, directory, path, path);
+        }
+        return pop();
+    }
+
+    /**
+     * Получение всех накопленных событий без ожидания
+     */
+    public List<VirtualFSWatchEvent> pollEvents() {
+        List<VirtualFSWatchEvent> result = new ArrayList<>();
+        for (VirtualFSWatchEvent event = poll(); event != null; event = poll()) {
+            result.add(event);
+        }
+        return result;
+    }
+
+    /**
+     * Отключение наблюдателя от VFS, накопленные события остаются доступны
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        virtualFS.unwatch(this);
+    }
+}
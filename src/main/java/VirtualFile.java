@@ -11,11 +11,22 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class VirtualFile extends VirtualFSNode implements Serializable {
-    final private Date createdAt;
-    private Date modifiedAt;
+    private static final long serialVersionUID = 1L;
+
+    final private long createdAt;
+    private long modifiedAt;
     private long contentPosition;
+    // размер данных файла, -1 пока он не прочитан из первого блока; сохраняется вместе с узлом
+    private volatile long contentLength = -1;
+    // число блоков данных файла, хранится так же, как размер: у сжатого файла оно не следует из размера
+    private volatile int contentBlockCount = -1;
+    // данные файла хранятся сжатыми кусками
+    private boolean isCompressed;
 
-    transient private ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    /**
+     * Блокировка создаётся при первом обращении, большинство файлов никогда не блокируются
+     */
+    transient private volatile ReentrantReadWriteLock readWriteLock;
 
     public VirtualFile(@NotNull String name) throws EmptyNodeNameException {
         this(name, null, -1);
@@ -28,30 +39,48 @@ public class VirtualFile extends VirtualFSNode implements Serializable {
     protected VirtualFile(@NotNull String name, VirtualDirectory rootDirectory, long contentPosition) throws EmptyNodeNameException {
         super(name, rootDirectory);
         this.contentPosition = contentPosition;
-        this.createdAt = new Date();
+        this.createdAt = System.currentTimeMillis();
         this.modifiedAt = this.createdAt;
+        this.isCompressed = rootDirectory != null && rootDirectory.isCompressed();
     }
 
-    protected VirtualFile(@NotNull String name, VirtualDirectory rootDirectory, long contentPosition, @NotNull Date createdAt, @NotNull Date modifiedAt) throws EmptyNodeNameException {
+    protected VirtualFile(@NotNull String name, VirtualDirectory rootDirectory, long contentPosition, long createdAt, long modifiedAt) throws EmptyNodeNameException {
         super(name, rootDirectory);
         this.contentPosition = contentPosition;
         this.createdAt = createdAt;
         this.modifiedAt = modifiedAt;
+        this.isCompressed = rootDirectory != null && rootDirectory.isCompressed();
     }
 
     private void readObject(@NotNull ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
         inputStream.defaultReadObject();
-        readWriteLock = new ReentrantReadWriteLock();
         isDeleted = false;
     }
 
+    /**
+     * Получение блокировки файла, создание блокировки при первом обращении
+     */
+    private ReentrantReadWriteLock readWriteLock() {
+        ReentrantReadWriteLock lock = readWriteLock;
+        if (lock == null) {
+            synchronized (this) {
+                lock = readWriteLock;
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock(lockPolicy().isFair());
+                    readWriteLock = lock;
+                }
+            }
+        }
+        return lock;
+    }
+
     /**
      * Получение даты создания файла
      *
      * @return дата создания файла
      */
     public Date getCreatedAt() {
-        return createdAt;
+        return new Date(createdAt);
     }
 
     /**
@@ -60,7 +89,7 @@ public class VirtualFile extends VirtualFSNode implements Serializable {
      * @return дата последней модификации файла
      */
     public Date getModifiedAt() {
-        return modifiedAt;
+        return new Date(modifiedAt);
     }
 
     /**
@@ -71,30 +100,32 @@ public class VirtualFile extends VirtualFSNode implements Serializable {
     @Override
     public void rename(@NotNull String name) throws VirtualFSNodeIsDeletedException, NotUniqueNameException, EmptyNodeNameException, LockedVirtualFSNodeException {
         if (isDeleted) throw new VirtualFSNodeIsDeletedException();
-        List<Lock> locks = new ArrayList<>();
+        List<Lock> locks;
+        if (rootDirectory != null) {
+            rootDirectory.setModifying(true);
+        }
         try {
-            locks.add(tryWriteLock());
-            if (rootDirectory != null) {
-                rootDirectory.isModifying.set(true);
-                locks.add(rootDirectory.tryWriteLockFiles());
-            }
+            locks = new VirtualLockOrder().filesWrite(rootDirectory).write(this).lock();
         } catch (LockedVirtualFSNodeException e) {
             if (rootDirectory != null) {
-                rootDirectory.isModifying.set(false);
+                rootDirectory.setModifying(false);
             }
-            locks.forEach(Lock::unlock);
             throw e;
         }
         if (rootDirectory != null && !rootDirectory.checkForUniqueFileName(this, name)) {
-            rootDirectory.isModifying.set(false);
+            rootDirectory.setModifying(false);
             locks.forEach(Lock::unlock);
             throw new NotUniqueNameException();
         }
+        String oldName = this.name;
         super.rename(name);
-        modifiedAt = new Date();
+        modifiedAt = System.currentTimeMillis();
+        VirtualAttributeIndex attributeIndex = attributeIndex();
+        if (attributeIndex != null) attributeIndex.touch(this);
         locks.forEach(Lock::unlock);
-        if (rootDirectory != null) rootDirectory.isModifying.set(false);
+        if (rootDirectory != null) rootDirectory.setModifying(false);
         if (rootDirectory != null) rootDirectory.save();
+        publish(VirtualFSWatchEvent.Kind.RENAME, rootDirectory, rootDirectory, oldName);
     }
 
     /**
@@ -114,69 +145,266 @@ public class VirtualFile extends VirtualFSNode implements Serializable {
         super.remove();
         List<Lock> locks = new ArrayList<>();
         if (!isLocked) {
-            locks.add(tryWriteLock());
-            try {
-                locks.add(rootDirectory.tryWriteLockFiles());
-            } catch (LockedVirtualFSNodeException e) {
-                locks.forEach(Lock::unlock);
-                throw e;
-            }
+            locks = new VirtualLockOrder().filesWrite(rootDirectory).write(this).lock();
         }
-        if (rootDirectory != null) rootDirectory.isModifying.set(true);
-        VirtualRandomAccessFile randomAccessFile = openLocked("rw");
-        randomAccessFile.setLength(0);
-        randomAccessFile.close();
+        if (rootDirectory != null) rootDirectory.setModifying(true);
+        VirtualDirectory parent = rootDirectory;
+        deleteContent();
+        VirtualAttributeIndex attributeIndex = attributeIndex();
+        if (attributeIndex != null) attributeIndex.remove(this);
         if (deleteFromRoot) {
             rootDirectory.remove(this);
+        } else {
+            VirtualNameIndex nameIndex = nameIndex();
+            if (nameIndex != null) nameIndex.remove(this);
         }
         isDeleted = true;
         locks.forEach(Lock::unlock);
-        if (rootDirectory != null) rootDirectory.isModifying.set(false);
+        if (rootDirectory != null) rootDirectory.setModifying(false);
+        if (rootDirectory != null) rootDirectory.save();
+        if (deleteFromRoot) publish(VirtualFSWatchEvent.Kind.DELETE, parent);
+    }
+
+    /**
+     * Удаление данных файла из физического файла, файл уже заблокирован
+     */
+    void deleteContent() throws IOException, NullVirtualFSException {
+        VirtualRandomAccessFile randomAccessFile = openLocked("rw", contentPosition, false);
+        randomAccessFile.setLength(0);
+        randomAccessFile.close();
+    }
+
+    /**
+     * Получение позиции первого блока данных файла в физическом файле, -1 если данных нет
+     */
+    long getContentPosition() {
+        return contentPosition;
+    }
+
+    /**
+     * Установка позиции первого блока данных, файл уже заблокирован
+     */
+    void setContentPosition(long contentPosition) {
+        this.contentPosition = contentPosition;
+    }
+
+    /**
+     * Проверка на то, что данные файла хранятся сжатыми
+     */
+    public boolean isCompressed() {
+        return isCompressed;
+    }
+
+    /**
+     * Включение или выключение сжатия данных файла, уже записанные данные перезаписываются
+     */
+    public void setCompressed(boolean isCompressed) throws VirtualFSNodeIsDeletedException, LockedVirtualFSNodeException,
+            IOException, NullVirtualFSException {
+        if (isDeleted) throw new VirtualFSNodeIsDeletedException();
+        List<Lock> locks = new VirtualLockOrder().write(this).lock();
+        try {
+            setCompressedLocked(isCompressed);
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
         if (rootDirectory != null) rootDirectory.save();
     }
 
+    /**
+     * Включение или выключение сжатия, файл уже заблокирован
+     * Данные переписываются в новую цепочку блоков, старая цепочка удаляется
+     */
+    void setCompressedLocked(boolean isCompressed) throws IOException, NullVirtualFSException {
+        if (this.isCompressed == isCompressed) {
+            return;
+        }
+        if (contentPosition == -1) {
+            this.isCompressed = isCompressed;
+            return;
+        }
+
+        VirtualRandomAccessFile source = openLocked("r", contentPosition, this.isCompressed);
+        VirtualRandomAccessFile target = openLocked("rw", -1, isCompressed);
+        byte[] bytes = new byte[VirtualCompressedRandomAccessFile.CHUNK_SIZE];
+        for (long remaining = source.length(); remaining > 0; remaining -= bytes.length) {
+            if (remaining < bytes.length) {
+                bytes = new byte[(int) remaining];
+            }
+            source.read(bytes);
+            target.write(bytes);
+        }
+        source.close();
+        deleteContent();
+        target.close();
+        this.isCompressed = isCompressed;
+    }
+
+    /**
+     * Установка даты последней модификации файла
+     */
+    void setModifiedAt(long modifiedAt) {
+        this.modifiedAt = modifiedAt;
+        VirtualAttributeIndex attributeIndex = attributeIndex();
+        if (attributeIndex != null) attributeIndex.touch(this);
+    }
+
+    /**
+     * Получение размера данных файла
+     * Размер хранится в узле и обновляется при закрытии файла. Из первого блока он читается под блокировкой
+     * файла на чтение, только если файл ещё не открывался после загрузки VFS, сохранённой без размеров
+     */
+    public long length() throws IOException, NullVirtualFSException, LockedVirtualFSNodeException {
+        if (contentPosition == -1) {
+            return 0;
+        }
+        long size = contentLength;
+        if (size != -1) {
+            return size;
+        }
+        List<Lock> locks = new VirtualLockOrder().read(this).lock();
+        try {
+            return readLengthLocked();
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * Получение числа блоков, которые занимают данные файла в физическом файле
+     * Общие с копиями блоки считаются у каждого файла. Число блоков хранится в узле вместе с размером
+     * и, как и размер, читается из первого блока, только если файл ещё не открывался
+     */
+    public long blockCount() throws IOException, NullVirtualFSException, LockedVirtualFSNodeException {
+        if (contentPosition == -1) {
+            return 0;
+        }
+        int blockCount = contentBlockCount;
+        // у файла с данными есть хотя бы один блок, 0 - узел загружен из метаданных без числа блоков
+        if (blockCount > 0) {
+            return blockCount;
+        }
+        List<Lock> locks = new VirtualLockOrder().read(this).lock();
+        try {
+            if (contentPosition == -1) {
+                return 0;
+            }
+            VirtualRandomAccessFile randomAccessFile = openLocked("r", contentPosition, isCompressed);
+            try {
+                return randomAccessFile.blockCount();
+            } finally {
+                randomAccessFile.close();
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * Получение размера данных файла, файл уже заблокирован
+     * Если размера нет в памяти, он читается из первого блока и запоминается при закрытии
+     */
+    long readLengthLocked() throws IOException, NullVirtualFSException {
+        if (contentPosition == -1) {
+            return 0;
+        }
+        long size = contentLength;
+        if (size != -1) {
+            return size;
+        }
+        VirtualRandomAccessFile randomAccessFile = openLocked("r", contentPosition, isCompressed);
+        try {
+            return randomAccessFile.length();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Сохранение метаданных после записи в файл без ожидания изменений структуры, см. VirtualFS.trySave
+     */
+    private void saveAfterWrite() {
+        try {
+            getVirtualFS().trySave();
+        } catch (NullVirtualFSException e) {
+            // файл вне VFS не может быть открыт
+        }
+    }
+
+    /**
+     * Запись размера и даты модификации файла в индексы после закрытия файла, открытого на запись
+     * Файл, который ещё не вставлен в директорию (например, копия), попадает в итоги директорий при вставке
+     *
+     * @param openedSize размер данных при открытии файла
+     * @return изменились ли индекс размеров или итоги директорий, которые нужно сохранить
+     */
+    private boolean onWritten(long openedSize, long size) {
+        boolean isChanged = false;
+        VirtualAttributeIndex attributeIndex = attributeIndex();
+        if (attributeIndex != null) {
+            attributeIndex.update(this, size, modifiedAt);
+            isChanged = true;
+        }
+        VirtualUsageIndex usageIndex = usageIndex();
+        if (usageIndex != null && size != openedSize && rootDirectory != null && rootDirectory.contains(this)) {
+            usageIndex.resize(rootDirectory, size - openedSize);
+            isChanged = true;
+        }
+        return isChanged;
+    }
+
     /**
      * Перемещение файла в destinationDirectory
      */
     @Override
     public void move(@NotNull VirtualDirectory destinationDirectory) throws LockedVirtualFSNodeException, VirtualFSNodeIsDeletedException, NotUniqueNameException {
         if (isDeleted) throw new VirtualFSNodeIsDeletedException();
-        Lock lock = tryWriteLock();
-        Lock directoryLock;
-        try {
-            directoryLock = destinationDirectory.tryWriteLockFiles();
-        } catch (LockedVirtualFSNodeException e) {
-            lock.unlock();
-            throw e;
-        }
-        destinationDirectory.isModifying.set(true);
+        List<Lock> locks = new VirtualLockOrder()
+                .filesWrite(rootDirectory)
+                .filesWrite(destinationDirectory)
+                .write(this)
+                .lock();
+        destinationDirectory.setModifying(true);
         if (rootDirectory != null) {
-            rootDirectory.isModifying.set(true);
+            rootDirectory.setModifying(true);
             if (!destinationDirectory.checkForUniqueFileName(name)) {
-                rootDirectory.isModifying.set(false);
-                destinationDirectory.isModifying.set(false);
-                lock.unlock();
-                directoryLock.unlock();
+                rootDirectory.setModifying(false);
+                destinationDirectory.setModifying(false);
+                locks.forEach(Lock::unlock);
                 throw new NotUniqueNameException();
             }
         }
+        VirtualDirectory sourceDirectory = rootDirectory;
         if (rootDirectory != null) rootDirectory.remove(this);
         destinationDirectory.paste(this);
-        lock.unlock();
-        directoryLock.unlock();
-        if (rootDirectory != null) rootDirectory.isModifying.set(false);
-        destinationDirectory.isModifying.set(false);
+        locks.forEach(Lock::unlock);
+        if (rootDirectory != null) rootDirectory.setModifying(false);
+        destinationDirectory.setModifying(false);
         if (rootDirectory != null) rootDirectory.save();
+        publish(VirtualFSWatchEvent.Kind.MOVE, destinationDirectory, sourceDirectory, name);
     }
 
     /**
      * Создание клона файла с указанием destinationDirectory в качетсве root директории
+     * Внутри одной VFS клон ссылается на те же блоки, блок копируется при первой записи в него
      */
     VirtualFile clone(@NotNull VirtualDirectory destinationDirectory) throws NullVirtualFSException, LockedVirtualFSNodeException, OverlappingVirtualFileLockException, IOException, VirtualFSNodeIsDeletedException, EmptyNodeNameException {
         if (isDeleted) throw new VirtualFSNodeIsDeletedException();
         VirtualFile clonedFile = new VirtualFile(this.name, destinationDirectory, -1, createdAt, modifiedAt);
+        // общие блоки читаются так же, как у исходного файла
+        clonedFile.isCompressed = isCompressed;
 
-        if (contentPosition != -1) {
+        if (contentPosition != -1 && getVirtualFS() == clonedFile.getVirtualFS()) {
+            Lock lock = tryReadLock();
+            clonedFile.contentPosition = contentPosition;
+            getVirtualFS().getBlockReferences().retain(contentPosition);
+            lock.unlock();
+            // клон с теми же блоками имеет тот же размер, его не нужно читать при вставке
+            clonedFile.contentBlockCount = contentBlockCount;
+            clonedFile.contentLength = contentLength;
+            VirtualAttributeIndex attributeIndex = attributeIndex();
+            long size = attributeIndex != null ? attributeIndex.size(this) : -1;
+            if (size != -1) attributeIndex.update(clonedFile, size, modifiedAt);
+        } else if (contentPosition != -1) {
             VirtualRandomAccessFile randomAccessFile = this.open("r");
             byte[] bytes = new byte[(int) randomAccessFile.length()];
             randomAccessFile.read(bytes);
@@ -196,26 +424,19 @@ public class VirtualFile extends VirtualFSNode implements Serializable {
      * @return скопированный файл
      */
     public VirtualFile copy(@NotNull VirtualDirectory destinationDirectory) throws NullVirtualFSException, LockedVirtualFSNodeException, OverlappingVirtualFileLockException, IOException, VirtualFSNodeIsDeletedException, NotUniqueNameException, EmptyNodeNameException {
-        Lock lock = tryReadLock();
-        Lock directoryLock;
-        try {
-            directoryLock = destinationDirectory.tryWriteLockFiles();
-        } catch (LockedVirtualFSNodeException e) {
-            lock.unlock();
-            throw e;
-        }
-        destinationDirectory.isModifying.set(true);
+        List<Lock> locks = new VirtualLockOrder().read(this).filesWrite(destinationDirectory).lock();
+        destinationDirectory.setModifying(true);
         if (!destinationDirectory.checkForUniqueFileName(name)) {
-            lock.unlock();
-            destinationDirectory.isModifying.set(false);
+            locks.forEach(Lock::unlock);
+            destinationDirectory.setModifying(false);
             throw new NotUniqueNameException();
         }
         VirtualFile copiedFile = this.clone(destinationDirectory);
         destinationDirectory.paste(copiedFile);
-        lock.unlock();
-        directoryLock.unlock();
-        destinationDirectory.isModifying.set(false);
+        locks.forEach(Lock::unlock);
+        destinationDirectory.setModifying(false);
         if (rootDirectory != null) rootDirectory.save();
+        copiedFile.publish(VirtualFSWatchEvent.Kind.CREATE, destinationDirectory);
         return copiedFile;
     }
 
@@ -225,11 +446,12 @@ public class VirtualFile extends VirtualFSNode implements Serializable {
      * @return полученная блокировка
      */
     Lock tryWriteLock() throws LockedVirtualFSNodeException {
+        ReentrantReadWriteLock readWriteLock = readWriteLock();
         if (readWriteLock.isWriteLockedByCurrentThread()) {
             throw new LockedVirtualFSNodeException();
         }
         Lock lock = readWriteLock.writeLock();
-        boolean isLocked = lock.tryLock();
+        boolean isLocked = lockPolicy().acquire(lock);
         if (!isLocked) {
             throw new LockedVirtualFSNodeException();
         }
@@ -242,11 +464,12 @@ public class VirtualFile extends VirtualFSNode implements Serializable {
      * @return полученная блокировка
      */
     Lock tryReadLock() throws LockedVirtualFSNodeException {
+        ReentrantReadWriteLock readWriteLock = readWriteLock();
         if (readWriteLock.isWriteLockedByCurrentThread()) {
             throw new LockedVirtualFSNodeException();
         }
         Lock lock = readWriteLock.readLock();
-        boolean isLocked = lock.tryLock();
+        boolean isLocked = lockPolicy().acquire(lock);
         if (!isLocked) {
             throw new LockedVirtualFSNodeException();
         }
@@ -257,15 +480,25 @@ public class VirtualFile extends VirtualFSNode implements Serializable {
      * Открытие файла на чтение или чтение/запись
      */
     public VirtualRandomAccessFile open(@NotNull String mode) throws IOException, OverlappingVirtualFileLockException, NullVirtualFSException, LockedVirtualFSNodeException {
-        Lock lock;
+        return open(mode, true);
+    }
+
+    /**
+     * Открытие файла на чтение или чтение/запись
+     * Пока файл открыт, директории на пути до него заблокированы намерением чтения или записи
+     *
+     * @param verifyChecksums проверять ли контрольные суммы блоков при чтении
+     */
+    public VirtualRandomAccessFile open(@NotNull String mode, boolean verifyChecksums) throws IOException, OverlappingVirtualFileLockException, NullVirtualFSException, LockedVirtualFSNodeException {
+        List<Lock> locks;
 
         switch (mode) {
             case "r": {
-                lock = tryReadLock();
+                locks = new VirtualLockOrder().read(this).lock();
                 break;
             }
             case "rw": {
-                lock = tryWriteLock();
+                locks = new VirtualLockOrder().write(this).lock();
                 break;
             }
             default: {
@@ -273,58 +506,118 @@ public class VirtualFile extends VirtualFSNode implements Serializable {
             }
         }
 
+        // размер данных при открытии, итоги директорий при закрытии меняются на разницу
+        long[] openedSize = new long[1];
+        long openedPosition = contentPosition;
         VirtualRandomAccessFileListener onClose = new VirtualRandomAccessFileListener() {
+            private boolean isModified = false;
+
             @Override
-            public void onClose(long firstBlockPosition) {
-                lock.unlock();
+            public void onClose(long firstBlockPosition, long size, long blockCount) {
                 contentPosition = firstBlockPosition;
+                contentBlockCount = (int) blockCount;
+                contentLength = size;
+                locks.forEach(Lock::unlock);
                 if (mode.equals("rw")) {
-                    rootDirectory.isModifying.set(false);
+                    boolean isIndexChanged = onWritten(openedSize[0], size);
+                    // первая запись в копию переносит её на новый первый блок, без сохранения
+                    // после открытия VFS копия снова ссылалась бы на блоки исходного файла.
+                    // Без сохранения индекс размеров после открытия VFS хранил бы прежний размер, а итоги,
+                    // которые меняются на разницу размеров, уже не исправились бы
+                    if (firstBlockPosition != openedPosition || isIndexChanged) {
+                        saveAfterWrite();
+                    }
+                    rootDirectory.setModifying(false);
+                    if (isModified && rootDirectory.contains(VirtualFile.this)) {
+                        publish(VirtualFSWatchEvent.Kind.MODIFY, rootDirectory);
+                    }
                 }
             }
 
             @Override
             public void onModify() {
-                modifiedAt = new Date();
-                rootDirectory.save();
+                // событие MODIFY публикуется один раз при закрытии, а не на каждую запись
+                isModified = true;
+                modifiedAt = System.currentTimeMillis();
+                saveAfterWrite();
             }
         };
 
 
         if (mode.equals("rw")) {
-            rootDirectory.isModifying.set(true);
+            rootDirectory.setModifying(true);
         }
 
-        return new VirtualRandomAccessFile(getSourceFile(), mode, contentPosition, onClose);
+        VirtualRandomAccessFile randomAccessFile;
+        try {
+            randomAccessFile = newRandomAccessFile(mode, contentPosition, onClose, verifyChecksums, isCompressed);
+        } catch (IOException | NullVirtualFSException | RuntimeException e) {
+            // файл не открылся, и onClose не будет вызван: блокировки снимаются здесь
+            if (mode.equals("rw")) {
+                rootDirectory.setModifying(false);
+            }
+            locks.forEach(Lock::unlock);
+            throw e;
+        }
+        openedSize[0] = randomAccessFile.length();
+        return randomAccessFile;
+    }
+
+    /**
+     * Открытие данных файла, начинающихся с блока position, сжатые данные открываются через распаковку
+     */
+    private VirtualRandomAccessFile newRandomAccessFile(
+            @NotNull String mode,
+            long position,
+            VirtualRandomAccessFileListener onClose,
+            boolean verifyChecksums,
+            boolean isCompressed
+    ) throws IOException, NullVirtualFSException {
+        if (isCompressed) {
+            return new VirtualCompressedRandomAccessFile(getSourceFile(), mode, position, onClose, verifyChecksums,
+                    getVirtualFS().getBlockReferences(), getVirtualFS().getBlockIndex(), getVirtualFS().getBlockAllocator());
+        }
+        return new VirtualRandomAccessFile(getSourceFile(), mode, position, onClose, verifyChecksums,
+                getVirtualFS().getBlockReferences(), getVirtualFS().getBlockIndex(), getVirtualFS().getBlockAllocator());
     }
 
     /**
      * Открытие файла, файл уже заблокирован
+     *
+     * @param position     первый блок открываемых данных
+     * @param isCompressed открыть ли данные как сжатые
      */
-    private VirtualRandomAccessFile openLocked(@NotNull String mode) throws IOException, NullVirtualFSException {
+    private VirtualRandomAccessFile openLocked(@NotNull String mode, long position, boolean isCompressed)
+            throws IOException, NullVirtualFSException {
         if (!mode.equals("r") && !mode.equals("rw")) {
             throw new IllegalArgumentException("Illegal mode \"" + mode + "\" must be one of " + "\"r\", \"rw\"");
         }
 
+        long[] openedSize = new long[1];
         VirtualRandomAccessFileListener onClose = new VirtualRandomAccessFileListener() {
             @Override
-            public void onClose(long firstBlockPosition) {
+            public void onClose(long firstBlockPosition, long size, long blockCount) {
                 contentPosition = firstBlockPosition;
+                contentBlockCount = (int) blockCount;
+                contentLength = size;
                 if (mode.equals("rw")) {
-                    rootDirectory.isModifying.set(false);
+                    onWritten(openedSize[0], size);
+                    if (rootDirectory != null) rootDirectory.setModifying(false);
                 }
             }
 
             @Override
             public void onModify() {
-                modifiedAt = new Date();
+                modifiedAt = System.currentTimeMillis();
             }
         };
 
-        if (mode.equals("rw")) {
-            rootDirectory.isModifying.set(true);
+        if (mode.equals("rw") && rootDirectory != null) {
+            rootDirectory.setModifying(true);
         }
 
-        return new VirtualRandomAccessFile(getSourceFile(), mode, contentPosition, onClose);
+        VirtualRandomAccessFile randomAccessFile = newRandomAccessFile(mode, position, onClose, true, isCompressed);
+        openedSize[0] = randomAccessFile.length();
+        return randomAccessFile;
     }
 }
@@ -0,0 +1,116 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Параллельный поиск файлов в поддереве директории
+ * Каждая поддиректория обходится отдельной задачей ForkJoinPool, большие списки файлов проверяются частями.
+ * Обход идёт по снимкам списков, изменения директорий во время поиска не приводят к ошибкам.
+ * Поиск останавливается, когда найдено limit файлов.
+ */
+class VirtualFileFinder {
+    private static final int FILES_THRESHOLD = 1024;
+
+    private final ForkJoinPool pool;
+    private final Predicate<VirtualFile> match;
+    private final int limit;
+    private final Queue<VirtualFile> found = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger foundCount = new AtomicInteger();
+
+    /**
+     * @param limit наибольшее число найденных файлов
+     */
+    VirtualFileFinder(@NotNull ForkJoinPool pool, @NotNull Predicate<VirtualFile> match, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit < 0");
+        }
+        this.pool = pool;
+        this.match = match;
+        this.limit = limit;
+    }
+
+    /**
+     * Поиск файлов в директории и всех её поддиректориях
+     *
+     * @return найденные файлы в произвольном порядке
+     */
+    List<VirtualFile> find(@NotNull VirtualDirectory directory) {
+        if (limit > 0) {
+            pool.invoke(new DirectoryAction(directory));
+        }
+        return new ArrayList<>(found);
+    }
+
+    private boolean isFull() {
+        return foundCount.get() >= limit;
+    }
+
+    private void test(@NotNull VirtualFile file) {
+        if (match.test(file) && foundCount.getAndIncrement() < limit) {
+            found.add(file);
+        }
+    }
+
+    /**
+     * Поиск в файлах директории и запуск поиска в поддиректориях
+     */
+    private class DirectoryAction extends RecursiveAction {
+        private final VirtualDirectory directory;
+
+        DirectoryAction(@NotNull VirtualDirectory directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            if (isFull()) {
+                return;
+            }
+            List<VirtualFile> files = directory.filesSnapshot();
+            List<VirtualDirectory> directories = directory.directoriesSnapshot();
+
+            List<RecursiveAction> actions = new ArrayList<>(directories.size() + 1);
+            if (!files.isEmpty()) {
+                actions.add(new FilesAction(files, 0, files.size()));
+            }
+            for (VirtualDirectory child : directories) {
+                actions.add(new DirectoryAction(child));
+            }
+            invokeAll(actions);
+        }
+    }
+
+    /**
+     * Проверка части списка файлов с номерами от from до to
+     */
+    private class FilesAction extends RecursiveAction {
+        private final List<VirtualFile> files;
+        private final int from;
+        private final int to;
+
+        FilesAction(@NotNull List<VirtualFile> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FILES_THRESHOLD) {
+                for (int i = from; i < to && !isFull(); i++) {
+                    test(files.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new FilesAction(files, from, middle), new FilesAction(files, middle, to));
+        }
+    }
+}
@@ -1,21 +1,20 @@
-import exceptions.LockedVirtualFSNodeException;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
-class VirtualFileIterator implements Iterator<VirtualFile> {
+/**
+ * Обход файлов директории по неизменяемым снимкам списков файлов и поддиректорий
+ * Изменения директорий во время обхода не приводят к ошибкам, обход видит списки на момент их получения.
+ * Поддиректории обходятся через VirtualFileSpliterator без рекурсии, глубина дерева не ограничена стеком.
+ */
+class VirtualFileIterator implements Iterator<VirtualFile>, Consumer<VirtualFile> {
     private final Predicate<VirtualFile> match;
-    private final boolean isRecursive;
-    private final VirtualDirectory directory;
-    private final List<VirtualFile> files;
-    private List<VirtualDirectory> directories = null;
-    private int fileIdx;
-    private int directoryIdx;
-    private Iterator<VirtualFile> directoryIterator;
+    private final VirtualFileSpliterator files;
+    private VirtualFile next;
 
     public VirtualFileIterator(
             @NotNull Predicate<VirtualFile> match,
@@ -23,20 +22,7 @@ class VirtualFileIterator implements Iterator<VirtualFile> {
             @NotNull VirtualDirectory directory
     ) throws ConcurrentModificationException {
         this.match = match;
-        this.isRecursive = isRecursive;
-        fileIdx = 0;
-        directoryIdx = 0;
-        directoryIterator = null;
-
-        this.directory = directory;
-        try {
-            this.files = directory.getFiles();
-            if(isRecursive) {
-                this.directories = directory.getDirectories();
-            }
-        } catch (LockedVirtualFSNodeException e) {
-            throw new ConcurrentModificationException();
-        }
+        this.files = new VirtualFileSpliterator(directory, isRecursive);
     }
 
     /**
@@ -44,36 +30,10 @@ class VirtualFileIterator implements Iterator<VirtualFile> {
      */
     @Override
     public boolean hasNext() {
-        if (directory.isModifying()) {
-            throw new ConcurrentModificationException();
-        }
-        while (fileIdx < files.size()) {
-            if (match.test(files.get(fileIdx))) {
-                return true;
-            }
-            fileIdx++;
-        }
-
-        if (!isRecursive) {
-            return false;
-        }
-
-        if (directoryIterator != null) {
-            if (directoryIterator.hasNext()) {
-                return true;
-            }
-            directoryIdx++;
+        while (next == null && files.tryAdvance(this)) {
+            // файлы, не подходящие под маску, пропускаются
         }
-
-        while (directoryIdx < directories.size()) {
-            directoryIterator = directories.get(directoryIdx).find(match, isRecursive);
-            if (directoryIterator.hasNext()) {
-                return true;
-            }
-            directoryIdx++;
-        }
-
-        return false;
+        return next != null;
     }
 
     /**
@@ -81,13 +41,21 @@ class VirtualFileIterator implements Iterator<VirtualFile> {
      */
     @Override
     public VirtualFile next() {
-        if (hasNext()) {
-            if (fileIdx < files.size()) {
-                return files.get(fileIdx++);
-            }
-            return directoryIterator.next();
+        if (!hasNext()) {
+            throw new NoSuchElementException();
         }
+        VirtualFile file = next;
+        next = null;
+        return file;
+    }
 
-        throw new NoSuchElementException();
+    /**
+     * Проверка очередного файла обхода
+     */
+    @Override
+    public void accept(@NotNull VirtualFile file) {
+        if (match.test(file)) {
+            next = file;
+        }
     }
 }
@@ -0,0 +1,138 @@
+import exceptions.LockedVirtualFSNodeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Обход файлов директории для потоков по неизменяемым снимкам списков файлов и поддиректорий
+ * Обход идёт в том же порядке, что и VirtualFileIterator: файлы директории, затем поддиректории.
+ * При делении отдаётся половина ещё не начатых поддиректорий, большой список файлов делится пополам.
+ * Оценка размера - число файлов в текущей и ожидающих директориях, файлы глубже ещё не посчитаны.
+ */
+class VirtualFileSpliterator implements Spliterator<VirtualFile> {
+    private static final int FILES_THRESHOLD = 1024;
+
+    private final boolean isRecursive;
+    private List<VirtualFile> files = List.of();
+    private int fileIdx;
+    private int fileEnd;
+    // ожидающие директории со снимками их файлов, в порядке обхода
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private long pendingFiles;
+
+    private static class Pending {
+        private final VirtualDirectory directory;
+        private final List<VirtualFile> files;
+
+        private Pending(@NotNull VirtualDirectory directory) {
+            this.directory = directory;
+            try {
+                this.files = directory.getFiles();
+            } catch (LockedVirtualFSNodeException e) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    VirtualFileSpliterator(@NotNull VirtualDirectory directory, boolean isRecursive)
+            throws ConcurrentModificationException {
+        this.isRecursive = isRecursive;
+        open(new Pending(directory));
+    }
+
+    private VirtualFileSpliterator(boolean isRecursive) {
+        this.isRecursive = isRecursive;
+    }
+
+    /**
+     * Переход к файлам директории, её поддиректории становятся первыми в очереди
+     */
+    private void open(@NotNull Pending next) {
+        files = next.files;
+        fileIdx = 0;
+        fileEnd = files.size();
+        if (!isRecursive) {
+            return;
+        }
+
+        List<VirtualDirectory> directories;
+        try {
+            directories = next.directory.getDirectories();
+        } catch (LockedVirtualFSNodeException e) {
+            throw new ConcurrentModificationException();
+        }
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            Pending child = new Pending(directories.get(i));
+            pending.addFirst(child);
+            pendingFiles += child.files.size();
+        }
+    }
+
+    private Pending poll() {
+        Pending next = pending.pollFirst();
+        if (next != null) {
+            pendingFiles -= next.files.size();
+        }
+        return next;
+    }
+
+    @Override
+    public boolean tryAdvance(@NotNull Consumer<? super VirtualFile> action) {
+        while (fileIdx >= fileEnd) {
+            Pending next = poll();
+            if (next == null) {
+                return false;
+            }
+            open(next);
+        }
+        action.accept(files.get(fileIdx++));
+        return true;
+    }
+
+    @Override
+    public Spliterator<VirtualFile> trySplit() {
+        while (true) {
+            int remaining = fileEnd - fileIdx;
+            if (pending.size() > 1 || (!pending.isEmpty() && remaining > 0)) {
+                // вторая половина поддеревьев обходится отдельно
+                VirtualFileSpliterator split = new VirtualFileSpliterator(isRecursive);
+                for (int count = Math.max(pending.size() / 2, 1); count > 0; count--) {
+                    Pending last = pending.pollLast();
+                    pendingFiles -= last.files.size();
+                    split.pending.addFirst(last);
+                    split.pendingFiles += last.files.size();
+                }
+                return split;
+            }
+            if (remaining > FILES_THRESHOLD) {
+                VirtualFileSpliterator split = new VirtualFileSpliterator(isRecursive);
+                int middle = (fileIdx + fileEnd) >>> 1;
+                split.files = files;
+                split.fileIdx = fileIdx;
+                split.fileEnd = middle;
+                fileIdx = middle;
+                return split;
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+            // одна поддиректория без своих файлов - делится её содержимое
+            open(poll());
+        }
+    }
+
+    @Override
+    public long estimateSize() {
+        return fileEnd - fileIdx + pendingFiles;
+    }
+
+    @Override
+    public int characteristics() {
+        int characteristics = NONNULL | DISTINCT;
+        return isRecursive ? characteristics : characteristics | SIZED | SUBSIZED;
+    }
+}
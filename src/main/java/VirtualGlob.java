@@ -0,0 +1,254 @@
+import exceptions.LockedVirtualFSNodeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Поиск файлов по glob с путём
+ * Glob делится на части по "/", каждая часть сравнивается с именем одной директории, последняя - с именем файла.
+ * В части "*" - любые символы, "?" - один символ, "[abc]" и "[!abc]" - символ из набора или не из набора,
+ * "{a,b}" - одна из строк, "\" экранирует следующий символ. Часть "**" - любое число директорий, в том числе ноль.
+ * Обход заходит только в директории, которые подходят под очередную часть glob, директории по части без
+ * специальных символов находятся по имени без перебора.
+ */
+class VirtualGlob {
+    private static final String SPECIAL_CHARACTERS = "*?[{\\";
+
+    private final Segment[] segments;
+
+    /**
+     * Часть glob: строка без специальных символов, паттерн или "**"
+     */
+    private static class Segment {
+        private final String literal;
+        private final Pattern pattern;
+        private final boolean isAnyDepth;
+
+        private Segment(String literal, Pattern pattern, boolean isAnyDepth) {
+            this.literal = literal;
+            this.pattern = pattern;
+            this.isAnyDepth = isAnyDepth;
+        }
+
+        private boolean matches(@NotNull String name) {
+            if (isAnyDepth) return true;
+            if (literal != null) return literal.equals(name);
+            return pattern.matcher(name).matches();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException если в glob не закрыт набор символов или список строк
+     */
+    VirtualGlob(@NotNull String glob) {
+        List<Segment> segments = new ArrayList<>();
+        for (String part : glob.split("/")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (part.equals("**")) {
+                segments.add(new Segment(null, null, true));
+            } else if (isLiteral(part)) {
+                segments.add(new Segment(part, null, false));
+            } else {
+                segments.add(new Segment(null, Pattern.compile(toRegex(part)), false));
+            }
+        }
+        this.segments = segments.toArray(new Segment[0]);
+    }
+
+    private static boolean isLiteral(@NotNull String part) {
+        for (int i = 0; i < part.length(); i++) {
+            if (SPECIAL_CHARACTERS.indexOf(part.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Перевод части glob в регулярное выражение
+     */
+    private static String toRegex(@NotNull String part) {
+        StringBuilder regex = new StringBuilder();
+        boolean isGroup = false;
+        for (int i = 0; i < part.length(); i++) {
+            char c = part.charAt(i);
+            switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '\\':
+                    if (++i < part.length()) {
+                        regex.append(Pattern.quote(String.valueOf(part.charAt(i))));
+                    }
+                    break;
+                case '[': {
+                    int end = part.indexOf(']', i + 2);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed character class in glob \"" + part + "\"");
+                    }
+                    String set = part.substring(i + 1, end);
+                    regex.append('[');
+                    if (set.startsWith("!")) {
+                        regex.append('^');
+                        set = set.substring(1);
+                    }
+                    regex.append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = end;
+                    break;
+                }
+                case '{':
+                    if (isGroup) {
+                        throw new IllegalArgumentException("Nested group in glob \"" + part + "\"");
+                    }
+                    isGroup = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (isGroup) {
+                        isGroup = false;
+                        regex.append(')');
+                    } else {
+                        regex.append("\\}");
+                    }
+                    break;
+                case ',':
+                    regex.append(isGroup ? "|" : ",");
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        if (isGroup) {
+            throw new IllegalArgumentException("Unclosed group in glob \"" + part + "\"");
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Поиск файлов в директории directory и её поддиректориях
+     * Обход идёт по очереди директорий без рекурсии
+     *
+     * @return найденные файлы, файлы директории идут раньше файлов её поддиректорий
+     */
+    List<VirtualFile> find(@NotNull VirtualDirectory directory) throws LockedVirtualFSNodeException {
+        List<VirtualFile> found = new ArrayList<>();
+        if (segments.length == 0) {
+            return found;
+        }
+
+        BitSet start = new BitSet(segments.length);
+        start.set(0);
+        Deque<VirtualDirectory> directories = new ArrayDeque<>();
+        Deque<BitSet> states = new ArrayDeque<>();
+        directories.push(directory);
+        states.push(closure(start));
+
+        while (!directories.isEmpty()) {
+            VirtualDirectory current = directories.pop();
+            BitSet state = states.pop();
+            findFiles(current, state, found);
+
+            List<VirtualDirectory> children = new ArrayList<>();
+            List<BitSet> childStates = new ArrayList<>();
+            for (VirtualDirectory child : candidates(current, state)) {
+                BitSet next = next(state, child.getName());
+                if (!next.isEmpty()) {
+                    children.add(child);
+                    childStates.add(next);
+                }
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                directories.push(children.get(i));
+                states.push(childStates.get(i));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Добавление файлов директории, подходящих под последнюю часть glob
+     */
+    private void findFiles(@NotNull VirtualDirectory directory, @NotNull BitSet state, @NotNull List<VirtualFile> found)
+            throws LockedVirtualFSNodeException {
+        Segment last = segments[segments.length - 1];
+        if (!state.get(segments.length - 1)) {
+            return;
+        }
+        if (last.literal != null) {
+            VirtualFile file = directory.getFile(last.literal);
+            if (file != null) {
+                found.add(file);
+            }
+            return;
+        }
+        for (VirtualFile file : directory.getFiles()) {
+            if (last.matches(file.getName())) {
+                found.add(file);
+            }
+        }
+    }
+
+    /**
+     * Поддиректории, в которые может понадобиться зайти: по имени, если все части для директорий без
+     * специальных символов, иначе все поддиректории
+     */
+    private List<VirtualDirectory> candidates(@NotNull VirtualDirectory directory, @NotNull BitSet state)
+            throws LockedVirtualFSNodeException {
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = state.nextSetBit(0); i >= 0; i = state.nextSetBit(i + 1)) {
+            Segment segment = segments[i];
+            if (segment.isAnyDepth) {
+                return directory.getDirectories();
+            }
+            if (i == segments.length - 1) {
+                continue;
+            }
+            if (segment.literal == null) {
+                return directory.getDirectories();
+            }
+            names.add(segment.literal);
+        }
+
+        List<VirtualDirectory> candidates = new ArrayList<>();
+        for (String name : names) {
+            VirtualDirectory child = directory.getDirectory(name);
+            if (child != null) {
+                candidates.add(child);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Части glob, с которых продолжается сравнение внутри поддиректории с именем name
+     */
+    private BitSet next(@NotNull BitSet state, @NotNull String name) {
+        BitSet next = new BitSet(segments.length);
+        for (int i = state.nextSetBit(0); i >= 0; i = state.nextSetBit(i + 1)) {
+            if (segments[i].isAnyDepth) {
+                next.set(i);
+            } else if (i < segments.length - 1 && segments[i].matches(name)) {
+                next.set(i + 1);
+            }
+        }
+        return closure(next);
+    }
+
+    /**
+     * Добавление частей после "**", так как "**" может не совпадать ни с одной директорией
+     */
+    private BitSet closure(@NotNull BitSet state) {
+        for (int i = state.nextSetBit(0); i >= 0 && i < segments.length - 1; i = state.nextSetBit(i + 1)) {
+            if (segments[i].isAnyDepth) {
+                state.set(i + 1);
+            }
+        }
+        return state;
+    }
+}
@@ -0,0 +1,214 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Блокировка поддерева директории с намерениями
+ * IS и IX берутся на всех директориях от корня до читаемого или изменяемого узла, S и X - на корне поддерева,
+ * которое читается или изменяется целиком. Операция над поддеревом блокирует только его корень и путь до него,
+ * а операции внутри поддерева видят её по своим намерениям на этом корне.
+ * Блокировки одного владельца (транзакции) друг другу не мешают, блокировки без владельца не повторно входимые.
+ */
+class VirtualIntentionLock {
+    enum Mode {
+        IS, IX, S, X;
+
+        /**
+         * Наименьший режим, который даёт права обоих режимов
+         */
+        Mode combine(Mode mode) {
+            if (mode == null || mode == this) return this;
+            if (this == X || mode == X) return X;
+            if (this == IS) return mode;
+            if (mode == IS) return this;
+            // IX и S вместе
+            return X;
+        }
+    }
+
+    private static final boolean[][] COMPATIBLE = {
+            //         IS     IX     S      X
+            /* IS */ {true, true, true, false},
+            /* IX */ {true, true, false, false},
+            /* S  */ {true, false, true, false},
+            /* X  */ {false, false, false, false},
+    };
+
+    private final boolean isFair;
+    private final int[] counts = new int[Mode.values().length];
+    // блокировки по владельцам, создаются при первой блокировке с владельцем
+    private Map<Object, int[]> ownerCounts;
+    // ожидающие запросы в порядке очереди, при честной политике запрос выдаётся только первым в очереди
+    private ArrayDeque<Object> waiting;
+
+    VirtualIntentionLock(boolean isFair) {
+        this.isFair = isFair;
+    }
+
+    /**
+     * Получение блокировки в режиме mode для владельца owner
+     * Условия (Lock.newCondition) у полученной блокировки не поддерживаются
+     *
+     * @param owner владелец блокировки, null - блокировка без владельца
+     */
+    Lock lock(@NotNull Mode mode, Object owner) {
+        return new ModeLock(mode, owner);
+    }
+
+    /**
+     * Число удерживаемых блокировок в режиме mode
+     */
+    synchronized int getHoldCount(@NotNull Mode mode) {
+        return counts[mode.ordinal()];
+    }
+
+    private boolean isCompatible(@NotNull Mode mode, Object owner) {
+        int[] owned = owner == null || ownerCounts == null ? null : ownerCounts.get(owner);
+        for (Mode held : Mode.values()) {
+            int others = counts[held.ordinal()] - (owned == null ? 0 : owned[held.ordinal()]);
+            if (others > 0 && !COMPATIBLE[mode.ordinal()][held.ordinal()]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Получение блокировки, ожидание не дольше timeoutNanos, 0 - без ожидания и без очереди
+     */
+    private synchronized boolean acquire(@NotNull Mode mode, Object owner, long timeoutNanos)
+            throws InterruptedException {
+        boolean isQueued = waiting != null && !waiting.isEmpty();
+        if (isCompatible(mode, owner) && (timeoutNanos == 0 || !isFair || !isQueued)) {
+            hold(mode, owner);
+            return true;
+        }
+        if (timeoutNanos <= 0) {
+            return false;
+        }
+
+        if (waiting == null) {
+            waiting = new ArrayDeque<>();
+        }
+        Object request = new Object();
+        waiting.addLast(request);
+        long deadline = System.nanoTime() + timeoutNanos;
+        try {
+            while (!isCompatible(mode, owner) || (isFair && waiting.peekFirst() != request)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            hold(mode, owner);
+            return true;
+        } finally {
+            waiting.remove(request);
+            notifyAll();
+        }
+    }
+
+    private void hold(@NotNull Mode mode, Object owner) {
+        counts[mode.ordinal()]++;
+        if (owner != null) {
+            if (ownerCounts == null) {
+                ownerCounts = new IdentityHashMap<>();
+            }
+            ownerCounts.computeIfAbsent(owner, key -> new int[counts.length])[mode.ordinal()]++;
+        }
+    }
+
+    private synchronized void release(@NotNull Mode mode, Object owner) {
+        if (counts[mode.ordinal()] == 0) {
+            throw new IllegalMonitorStateException();
+        }
+        counts[mode.ordinal()]--;
+        if (owner != null) {
+            int[] owned = ownerCounts.get(owner);
+            owned[mode.ordinal()]--;
+            boolean isEmpty = true;
+            for (int count : owned) {
+                isEmpty &= count == 0;
+            }
+            if (isEmpty) {
+                ownerCounts.remove(owner);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Блокировка в одном режиме, снимается unlock
+     * Реализует Lock, чтобы сниматься вместе с остальными блокировками VirtualLockOrder, но условия
+     * не поддерживает: newCondition бросает UnsupportedOperationException
+     */
+    private class ModeLock implements Lock {
+        private final Mode mode;
+        private final Object owner;
+
+        private ModeLock(@NotNull Mode mode, Object owner) {
+            this.mode = mode;
+            this.owner = owner;
+        }
+
+        @Override
+        public void lock() {
+            boolean isInterrupted = false;
+            while (true) {
+                try {
+                    lockInterruptibly();
+                    break;
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            while (!acquire(mode, owner, Long.MAX_VALUE)) {
+                // ожидание без ограничения времени
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            try {
+                return acquire(mode, owner, 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean tryLock(long time, @NotNull TimeUnit unit) throws InterruptedException {
+            return acquire(mode, owner, Math.max(unit.toNanos(time), 0));
+        }
+
+        @Override
+        public void unlock() {
+            release(mode, owner);
+        }
+
+        /**
+         * Условия не поддерживаются: блокировка владельца не привязана к потоку, а блокировка без владельца
+         * не повторно входимая, поэтому ожидание условия не может снять и вернуть её так, как требует Condition
+         *
+         * @throws UnsupportedOperationException всегда
+         */
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("Intention locks do not support conditions");
+        }
+    }
+}
@@ -0,0 +1,276 @@
+import exceptions.LockedVirtualFSNodeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Получение нескольких блокировок в едином порядке
+ * Порядок - обход дерева от корня: сначала блокировка поддерева директории, затем её собственные блокировки
+ * (имя, список файлов, список директорий), затем поддиректории по именам, затем файлы по именам.
+ * Операции, которые блокируют несколько узлов в этом порядке, не ждут друг друга по кругу.
+ * Для каждого узла блокируются намерения на всех директориях от корня до узла, см. VirtualIntentionLock.
+ */
+class VirtualLockOrder {
+    private static final String NAME = "\0" + 0;
+    private static final String FILES = "\0" + 1;
+    private static final String DIRECTORIES = "\0" + 2;
+    // номера узлов с одинаковыми путями из разных деревьев, выдаются при первом совпадении путей, поэтому
+    // остальные узлы не становятся больше; узлы не переопределяют equals, и таблица сравнивает их по ссылке
+    private static final Map<VirtualFSNode, Long> SEQUENCES = new WeakHashMap<>();
+    private static long nextSequence = 0;
+    private final List<Step> steps = new ArrayList<>();
+    private final List<Intention> intentions = new ArrayList<>();
+    private final Object owner;
+
+    VirtualLockOrder() {
+        this(null);
+    }
+
+    /**
+     * @param owner владелец блокировок поддеревьев, его блокировки друг другу не мешают
+     */
+    VirtualLockOrder(Object owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Получение блокировки, при ошибке блокировки locks уже сняты
+     */
+    private interface Action {
+        void lock(@NotNull List<Lock> locks) throws LockedVirtualFSNodeException;
+    }
+
+    private static class Step {
+        private final VirtualFSNode node;
+        private final String lock;
+        private final Action action;
+        private List<String> key;
+
+        private Step(@NotNull VirtualFSNode node, String lock, @NotNull Action action) {
+            this.node = node;
+            this.lock = lock;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Намерение pathMode на предках узла и блокировка nodeMode самой директории
+     */
+    private static class Intention {
+        private final VirtualFSNode node;
+        private final VirtualIntentionLock.Mode pathMode;
+        private final VirtualIntentionLock.Mode nodeMode;
+        private List<VirtualDirectory> ancestors;
+
+        private Intention(@NotNull VirtualFSNode node, @NotNull VirtualIntentionLock.Mode pathMode,
+                          VirtualIntentionLock.Mode nodeMode) {
+            this.node = node;
+            this.pathMode = pathMode;
+            this.nodeMode = nodeMode;
+        }
+    }
+
+    VirtualLockOrder nameRead(@NotNull VirtualDirectory directory) {
+        return add(directory, NAME, locks -> add(locks, directory::tryLockNameRead));
+    }
+
+    VirtualLockOrder nameWrite(@NotNull VirtualDirectory directory) {
+        return add(directory, NAME, locks -> add(locks, directory::tryLockNameWrite));
+    }
+
+    VirtualLockOrder filesWrite(VirtualDirectory directory) {
+        if (directory == null) return this;
+        intend(directory, VirtualIntentionLock.Mode.IX, VirtualIntentionLock.Mode.IX);
+        return add(directory, FILES, locks -> add(locks, directory::tryWriteLockFiles));
+    }
+
+    VirtualLockOrder directoriesRead(VirtualDirectory directory) {
+        if (directory == null) return this;
+        intend(directory, VirtualIntentionLock.Mode.IS, VirtualIntentionLock.Mode.IS);
+        return add(directory, DIRECTORIES, locks -> add(locks, directory::tryReadLockDirectories));
+    }
+
+    VirtualLockOrder directoriesWrite(VirtualDirectory directory) {
+        if (directory == null) return this;
+        intend(directory, VirtualIntentionLock.Mode.IX, VirtualIntentionLock.Mode.IX);
+        return add(directory, DIRECTORIES, locks -> add(locks, directory::tryWriteLockDirectories));
+    }
+
+    VirtualLockOrder read(@NotNull VirtualFile file) {
+        intend(file, VirtualIntentionLock.Mode.IS, null);
+        return add(file, null, locks -> add(locks, file::tryReadLock));
+    }
+
+    VirtualLockOrder write(@NotNull VirtualFile file) {
+        intend(file, VirtualIntentionLock.Mode.IX, null);
+        return add(file, null, locks -> add(locks, file::tryWriteLock));
+    }
+
+    /**
+     * Блокировка на чтение директории со всеми поддиректориями и файлами
+     */
+    VirtualLockOrder readDown(@NotNull VirtualDirectory directory) {
+        return intend(directory, VirtualIntentionLock.Mode.IS, VirtualIntentionLock.Mode.S);
+    }
+
+    /**
+     * Блокировка на запись директории со всеми поддиректориями и файлами
+     */
+    VirtualLockOrder writeDown(@NotNull VirtualDirectory directory) {
+        return intend(directory, VirtualIntentionLock.Mode.IX, VirtualIntentionLock.Mode.X);
+    }
+
+    /**
+     * Получение всех блокировок в едином порядке, одинаковые блокировки одного узла берутся один раз,
+     * режимы блокировок одной директории объединяются
+     * Если пока блокировки брались, узел перенесли в другую директорию, блокировки берутся заново.
+     * При ошибке уже полученные блокировки снимаются
+     */
+    List<Lock> lock() throws LockedVirtualFSNodeException {
+        while (true) {
+            List<Step> order = new ArrayList<>(steps);
+            order.addAll(intentionSteps());
+            for (Step step : order) {
+                step.key = key(step.node, step.lock);
+            }
+            order.sort(VirtualLockOrder::compare);
+
+            List<Lock> locks = new ArrayList<>();
+            Step previous = null;
+            for (Step step : order) {
+                if (previous == null || previous.node != step.node || !Objects.equals(previous.lock, step.lock)) {
+                    step.action.lock(locks);
+                }
+                previous = step;
+            }
+
+            if (isPathUnchanged()) {
+                return locks;
+            }
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    private VirtualLockOrder add(@NotNull VirtualFSNode node, String lock, @NotNull Action action) {
+        steps.add(new Step(node, lock, action));
+        return this;
+    }
+
+    private VirtualLockOrder intend(@NotNull VirtualFSNode node, @NotNull VirtualIntentionLock.Mode pathMode,
+                                    VirtualIntentionLock.Mode nodeMode) {
+        intentions.add(new Intention(node, pathMode, nodeMode));
+        return this;
+    }
+
+    /**
+     * Блокировки поддеревьев всех директорий на путях узлов, по одной на директорию
+     */
+    private List<Step> intentionSteps() {
+        Map<VirtualDirectory, VirtualIntentionLock.Mode> modes = new IdentityHashMap<>();
+        for (Intention intention : intentions) {
+            intention.ancestors = ancestors(intention.node);
+            for (VirtualDirectory directory : intention.ancestors) {
+                modes.merge(directory, intention.pathMode, VirtualIntentionLock.Mode::combine);
+            }
+            if (intention.nodeMode != null) {
+                modes.merge((VirtualDirectory) intention.node, intention.nodeMode, VirtualIntentionLock.Mode::combine);
+            }
+        }
+
+        List<Step> steps = new ArrayList<>();
+        for (Map.Entry<VirtualDirectory, VirtualIntentionLock.Mode> entry : modes.entrySet()) {
+            VirtualDirectory directory = entry.getKey();
+            VirtualIntentionLock.Mode mode = entry.getValue();
+            steps.add(new Step(directory, null, locks -> add(locks, () -> directory.tryLockSubtree(mode, owner))));
+        }
+        return steps;
+    }
+
+    /**
+     * Проверка на то, что предки узлов не изменились после получения блокировок
+     */
+    private boolean isPathUnchanged() {
+        for (Intention intention : intentions) {
+            List<VirtualDirectory> ancestors = ancestors(intention.node);
+            if (ancestors.size() != intention.ancestors.size()) {
+                return false;
+            }
+            for (int i = 0; i < ancestors.size(); i++) {
+                if (ancestors.get(i) != intention.ancestors.get(i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static List<VirtualDirectory> ancestors(@NotNull VirtualFSNode node) {
+        List<VirtualDirectory> ancestors = new ArrayList<>();
+        for (VirtualDirectory current = node.rootDirectory; current != null; current = current.rootDirectory) {
+            ancestors.add(current);
+        }
+        return ancestors;
+    }
+
+    private interface LockSupplier {
+        Lock get() throws LockedVirtualFSNodeException;
+    }
+
+    private static void add(@NotNull List<Lock> locks, @NotNull LockSupplier supplier)
+            throws LockedVirtualFSNodeException {
+        try {
+            locks.add(supplier.get());
+        } catch (LockedVirtualFSNodeException e) {
+            locks.forEach(Lock::unlock);
+            throw e;
+        }
+    }
+
+    /**
+     * Ключ узла: путь от корня, директории обозначаются "d", файлы "f", чтобы поддиректории шли раньше файлов,
+     * собственная блокировка директории lock идёт раньше всех её поддиректорий и файлов
+     */
+    private static List<String> key(@NotNull VirtualFSNode node, String lock) {
+        LinkedList<String> key = new LinkedList<>();
+        if (lock != null) {
+            key.add(lock);
+        }
+        for (VirtualFSNode current = node; current.rootDirectory != null; current = current.rootDirectory) {
+            key.addFirst((current instanceof VirtualFile ? "f" : "d") + current.getName());
+        }
+        return key;
+    }
+
+    /**
+     * Уникальный номер узла, один и тот же, пока узел существует
+     */
+    private static long sequence(@NotNull VirtualFSNode node) {
+        synchronized (SEQUENCES) {
+            return SEQUENCES.computeIfAbsent(node, key -> nextSequence++);
+        }
+    }
+
+    /**
+     * Сравнение шагов по ключам, шаги с одинаковыми ключами из разных деревьев упорядочиваются по номерам узлов
+     */
+    private static int compare(@NotNull Step first, @NotNull Step second) {
+        for (int i = 0; i < Math.min(first.key.size(), second.key.size()); i++) {
+            int result = first.key.get(i).compareTo(second.key.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        int result = Integer.compare(first.key.size(), second.key.size());
+        if (result != 0 || first.node == second.node) {
+            return result;
+        }
+        return Long.compare(sequence(first.node), sequence(second.node));
+    }
+}
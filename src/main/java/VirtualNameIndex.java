@@ -0,0 +1,209 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Индекс имён файлов VFS по триграммам для поиска по подстроке и регулярному выражению
+ * Для каждой тройки подряд идущих символов хранится множество файлов, в имени которых она встречается.
+ * Поиск проверяет только файлы из самого короткого множества среди триграмм искомой строки.
+ * Индекс изменяется при вставке, удалении и переименовании файлов и сохраняется вместе с VFS,
+ * удалённые файлы отбрасываются при поиске и сохранении.
+ */
+class VirtualNameIndex {
+    static final int GRAM_LENGTH = 3;
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final HashMap<Long, Set<VirtualFile>> files = new HashMap<>();
+
+    VirtualNameIndex() {
+    }
+
+    /**
+     * Индекс, загруженный из сохранённых метаданных
+     */
+    VirtualNameIndex(@NotNull Map<Long, VirtualFile[]> files) {
+        files.forEach((gram, postings) -> {
+            Set<VirtualFile> set = newSet();
+            Collections.addAll(set, postings);
+            this.files.put(gram, set);
+        });
+    }
+
+    /**
+     * Построение индекса по всем файлам директории и её поддиректорий, директория не изменяется
+     */
+    static VirtualNameIndex build(@NotNull VirtualDirectory directory) {
+        VirtualNameIndex index = new VirtualNameIndex();
+        List<VirtualFile> files = new ArrayList<>();
+        VirtualFS.collectFiles(directory, files);
+        for (VirtualFile file : files) {
+            index.add(file);
+        }
+        return index;
+    }
+
+    private static Set<VirtualFile> newSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    synchronized void add(@NotNull VirtualFile file) {
+        add(file, file.getName());
+    }
+
+    synchronized void remove(@NotNull VirtualFile file) {
+        remove(file, file.getName());
+    }
+
+    /**
+     * Перенос файла с триграмм старого имени oldName на триграммы текущего имени
+     */
+    synchronized void rename(@NotNull VirtualFile file, @NotNull String oldName) {
+        remove(file, oldName);
+        add(file, file.getName());
+    }
+
+    private void add(@NotNull VirtualFile file, @NotNull String name) {
+        for (int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+            files.computeIfAbsent(gram(name, i), key -> newSet()).add(file);
+        }
+    }
+
+    private void remove(@NotNull VirtualFile file, @NotNull String name) {
+        for (int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+            long gram = gram(name, i);
+            Set<VirtualFile> set = files.get(gram);
+            if (set != null && set.remove(file) && set.isEmpty()) {
+                files.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Три символа строки, начиная с from, упакованные в одно число
+     */
+    private static long gram(@NotNull String name, int from) {
+        return ((long) name.charAt(from) << 32) | ((long) name.charAt(from + 1) << 16) | name.charAt(from + 2);
+    }
+
+    /**
+     * Поиск файлов, в имени которых есть все строки literals, и которые подходят под match
+     *
+     * @param literals строки не короче GRAM_LENGTH
+     * @param root     root директория VFS, файлы вне неё не возвращаются
+     * @return найденные файлы в произвольном порядке
+     */
+    List<VirtualFile> find(@NotNull List<String> literals, @NotNull Predicate<VirtualFile> match,
+                           @NotNull VirtualDirectory root) {
+        List<VirtualFile> candidates;
+        synchronized (this) {
+            Set<VirtualFile> smallest = null;
+            for (String literal : literals) {
+                for (int i = 0; i + GRAM_LENGTH <= literal.length(); i++) {
+                    Set<VirtualFile> set = files.get(gram(literal, i));
+                    if (set == null) {
+                        return new ArrayList<>();
+                    }
+                    if (smallest == null || set.size() < smallest.size()) {
+                        smallest = set;
+                    }
+                }
+            }
+            candidates = new ArrayList<>(smallest == null ? Collections.emptySet() : smallest);
+        }
+
+        List<VirtualFile> found = new ArrayList<>();
+        for (VirtualFile file : candidates) {
+            if (file.isInside(root) && literals.stream().allMatch(file.getName()::contains) && match.test(file)) {
+                found.add(file);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Копия индекса для сохранения, удалённые файлы не сохраняются
+     */
+    synchronized HashMap<Long, VirtualFile[]> snapshot() {
+        HashMap<Long, VirtualFile[]> snapshot = new HashMap<>();
+        files.forEach((gram, set) -> {
+            VirtualFile[] postings = set.stream().filter(file -> !file.isDeleted).toArray(VirtualFile[]::new);
+            if (postings.length > 0) {
+                snapshot.put(gram, postings);
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * Строки, которые обязательно входят в имя, подходящее под pattern, не короче GRAM_LENGTH
+     * Учитываются только последовательности обычных символов вне групп и классов,
+     * для выражений с альтернативой и флагами, в том числе внутри выражения, список пуст
+     */
+    static List<String> literals(@NotNull Pattern pattern) {
+        List<String> literals = new ArrayList<>();
+        String regex = pattern.pattern();
+        if (pattern.flags() != 0 || regex.contains("|") || regex.contains("\\Q") || regex.contains("(?")) {
+            return literals;
+        }
+
+        StringBuilder literal = new StringBuilder();
+        int depth = 0;
+        boolean isClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            Character next = null;
+            if (isClass) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == ']') {
+                    isClass = false;
+                }
+                continue;
+            }
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(++i);
+                if (!Character.isLetterOrDigit(escaped)) {
+                    next = escaped;
+                }
+            } else if (METACHARACTERS.indexOf(c) < 0) {
+                next = c;
+            } else if (c == '[') {
+                isClass = true;
+            } else if (c == '{') {
+                // тело квантификатора {n,m}
+                int end = regex.indexOf('}', i);
+                i = end < 0 ? regex.length() : end;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+
+            if (next == null || depth > 0) {
+                flush(literal, literals);
+                continue;
+            }
+            char quantifier = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+            if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+                // символ может отсутствовать или повторяться
+                flush(literal, literals);
+            } else if (quantifier == '+') {
+                literal.append(next);
+                flush(literal, literals);
+            } else {
+                literal.append(next);
+            }
+        }
+        flush(literal, literals);
+        return literals;
+    }
+
+    private static void flush(@NotNull StringBuilder literal, @NotNull List<String> literals) {
+        if (literal.length() >= GRAM_LENGTH) {
+            literals.add(literal.toString());
+        }
+        literal.setLength(0);
+    }
+}
@@ -0,0 +1,59 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш разрешённых путей директорий VFS с вытеснением давно не использованных путей
+ * При переименовании, перемещении и удалении директории из кэша удаляются её путь и пути всех
+ * её поддиректорий. Путь, найденный во время такого изменения, в кэш не попадает.
+ */
+class VirtualPathCache {
+    private final LinkedHashMap<String, VirtualDirectory> directories;
+    // номер изменения, увеличивается при каждом удалении путей из кэша
+    private long version;
+
+    VirtualPathCache(int capacity) {
+        this.directories = new LinkedHashMap<String, VirtualDirectory>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VirtualDirectory> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized VirtualDirectory get(@NotNull String path) {
+        return directories.get(path);
+    }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Добавление пути, если после получения номера version пути не удалялись
+     */
+    synchronized void put(@NotNull String path, @NotNull VirtualDirectory directory, long version) {
+        if (this.version == version) {
+            directories.put(path, directory);
+        }
+    }
+
+    /**
+     * Удаление пути path и всех путей внутри него
+     */
+    synchronized void invalidate(@NotNull String path) {
+        version++;
+        String prefix = path.endsWith("/") ? path : path + "/";
+        directories.keySet().removeIf(key -> key.equals(path) || key.startsWith(prefix));
+    }
+
+    synchronized void clear() {
+        version++;
+        directories.clear();
+    }
+
+    synchronized int size() {
+        return directories.size();
+    }
+}
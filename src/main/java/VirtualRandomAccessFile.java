@@ -1,3 +1,5 @@
+import exceptions.CorruptedVirtualBlockException;
+import exceptions.UnsupportedVirtualFSFormatException;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
@@ -7,19 +9,43 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32C;
 
 public class VirtualRandomAccessFile extends RandomAccessFile {
-    private static int BLOCK_SIZE = 1024;
+    // размер блока нового физического файла
+    static final int DEFAULT_BLOCK_SIZE = 1024;
+    private static int BLOCK_SIZE = DEFAULT_BLOCK_SIZE;
+    // версия формата физического файла, хранится в старших 4 байтах заголовка файла, в младших - размер блока
+    // 0 - блоки без контрольных сумм, 1 - контрольная сумма CRC32C в заголовке блока
+    static final int FORMAT_VERSION = 1;
+    // заголовок блока: конец данных в блоке, следующий блок, контрольная сумма CRC32C данных блока
+    static final int BLOCK_HEADER_SIZE = 8 * 3;
+    // мета информация в начале данных первого блока: размер файла, последний блок
+    static final int META_INFORMATION_SIZE = 8 * 2;
     private final RandomAccessFile sourceFile;
     private final VirtualRandomAccessFileListener onClose;
+    private final boolean verifyChecksums;
+    private final VirtualBlockReferences references;
+    private final VirtualBlockIndex blockIndex;
+    private final VirtualBlockAllocator allocator;
+    private final CRC32C checksum = new CRC32C();
+    // блоки, изменённые после открытия, при закрытии ищутся в индексе дедупликации
+    private final Set<Long> modifiedBlocks = new HashSet<>();
     // meta information
     private long size;
     // information about real file
     private long emptyBlockPosition = 8;
     // information for navigation in real file
+    private long previousBlockPosition;
     private long currentBlockPosition;
     private long nextBlockPosition;
     private long firstBlockPosition;
+    private long currentBlockChecksum;
+    // все блоки от первого до текущего принадлежат только этому файлу
+    private boolean isPathExclusive;
     private boolean isReadFirstBlockData;
     // positions in virtual file
     private long position;
@@ -32,15 +58,50 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
     private boolean isWriteData;
 
     /**
-     * @param file     - физический файл
-     * @param mode     - тип отрытия ("r" - для чтения, "rw" - для четния/записи)
-     * @param position - номер байта, с которого начинается первый блок
+     * @param file            - физический файл
+     * @param mode            - тип отрытия ("r" - для чтения, "rw" - для четния/записи)
+     * @param position        - номер байта, с которого начинается первый блок
+     * @param verifyChecksums - проверять ли контрольные суммы блоков при чтении
      */
     public VirtualRandomAccessFile(
             @NotNull File file,
             @NotNull String mode,
             long position,
-            VirtualRandomAccessFileListener onClose
+            VirtualRandomAccessFileListener onClose,
+            boolean verifyChecksums
+    ) throws IOException {
+        this(file, mode, position, onClose, verifyChecksums, null, null, null);
+    }
+
+    /**
+     * @param references - счётчики ссылок на общие блоки, общие блоки копируются перед записью
+     * @param blockIndex - индекс блоков по содержимому, изменённые блоки удаляются из него,
+     *                   при включённой дедупликации блоки файла ищутся в нём при закрытии
+     */
+    VirtualRandomAccessFile(
+            @NotNull File file,
+            @NotNull String mode,
+            long position,
+            VirtualRandomAccessFileListener onClose,
+            boolean verifyChecksums,
+            VirtualBlockReferences references,
+            VirtualBlockIndex blockIndex
+    ) throws IOException {
+        this(file, mode, position, onClose, verifyChecksums, references, blockIndex, null);
+    }
+
+    /**
+     * @param allocator - распределитель блоков контейнера, без него свободные блоки ищутся по физическому файлу
+     */
+    VirtualRandomAccessFile(
+            @NotNull File file,
+            @NotNull String mode,
+            long position,
+            VirtualRandomAccessFileListener onClose,
+            boolean verifyChecksums,
+            VirtualBlockReferences references,
+            VirtualBlockIndex blockIndex,
+            VirtualBlockAllocator allocator
     ) throws IOException {
         super(file, mode);
         this.sourceFile = new RandomAccessFile(file, mode);
@@ -48,9 +109,32 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         this.firstBlockPosition = position;
 
         this.onClose = onClose;
+        this.verifyChecksums = verifyChecksums;
+        this.references = references;
+        this.blockIndex = blockIndex;
+        this.allocator = allocator;
 
-        this.readFileInfo();
-        this.readFirstBlock();
+        try {
+            this.readFileInfo(file);
+            this.readFirstBlock();
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * @param file     - физический файл
+     * @param mode     - тип отрытия ("r" - для чтения, "rw" - для четния/записи)
+     * @param position - номер байта, с которого начинается первый блок
+     */
+    public VirtualRandomAccessFile(
+            @NotNull File file,
+            @NotNull String mode,
+            long position,
+            VirtualRandomAccessFileListener onClose
+    ) throws IOException {
+        this(file, mode, position, onClose, true);
     }
 
     /**
@@ -81,7 +165,25 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         return BLOCK_SIZE;
     }
 
-    private void readFileInfo() throws IOException {
+    /**
+     * Заголовок физического файла: версия формата и размер блока
+     */
+    static long fileHeader(int blockSize) {
+        return (long) FORMAT_VERSION << 32 | blockSize;
+    }
+
+    /**
+     * Размер блока из заголовка физического файла
+     */
+    static int blockSize(long fileHeader) {
+        return (int) fileHeader;
+    }
+
+    /**
+     * Чтение заголовка физического файла, файл другой версии формата не читается:
+     * заголовки его блоков другого размера, и его данные выглядели бы повреждёнными
+     */
+    private void readFileInfo(@NotNull File file) throws IOException {
         while (true) {
             if (sourceFile.length() < 8) {
                 FileChannel fileChannel = sourceFile.getChannel();
@@ -91,14 +193,21 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
                 } catch (OverlappingFileLockException exception) {
                     continue;
                 }
+                // размер блока не наследуется от последнего открытого файла
+                BLOCK_SIZE = DEFAULT_BLOCK_SIZE;
                 sourceFile.setLength(0);
                 sourceFile.seek(0);
-                sourceFile.writeLong(BLOCK_SIZE);
+                sourceFile.writeLong(fileHeader(BLOCK_SIZE));
 
                 lock.release();
             } else {
                 sourceFile.seek(0);
-                BLOCK_SIZE = (int) sourceFile.readLong();
+                long header = sourceFile.readLong();
+                int version = (int) (header >>> 32);
+                if (version != FORMAT_VERSION) {
+                    throw new UnsupportedVirtualFSFormatException(file, version, FORMAT_VERSION);
+                }
+                BLOCK_SIZE = blockSize(header);
             }
 
             break;
@@ -110,6 +219,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         VirtualBlockInfo blockInfo = new VirtualBlockInfo();
         blockInfo.lastByteInBlockPosition = sourceFile.readLong();
         blockInfo.nextBlockPosition = sourceFile.readLong();
+        blockInfo.checksum = sourceFile.readLong();
 
         return blockInfo;
     }
@@ -150,6 +260,10 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
      * Поиск первого свободного блока, в который можно записать информацию
      */
     private long findFirstEmptyBlock() throws IOException {
+        // физический файл мог быть обрезан после уплотнения
+        if (emptyBlockPosition > sourceFile.length()) {
+            emptyBlockPosition = sourceFile.length();
+        }
         sourceFile.seek(emptyBlockPosition);
 
         if (sourceFile.getFilePointer() >= sourceFile.length()) {
@@ -161,11 +275,11 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
                 return emptyBlockPosition;
             }
         } catch (IOException io) {
-            sourceFile.skipBytes(BLOCK_SIZE + 16);
+            sourceFile.skipBytes(BLOCK_SIZE + BLOCK_HEADER_SIZE);
         }
 
         while (true) {
-            sourceFile.skipBytes(BLOCK_SIZE + 8);
+            sourceFile.skipBytes(BLOCK_SIZE + BLOCK_HEADER_SIZE - 8);
             emptyBlockPosition = sourceFile.getFilePointer();
 
             if (sourceFile.getFilePointer() >= sourceFile.length()) {
@@ -182,6 +296,33 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         }
     }
 
+    /**
+     * Выделение свободного блока через распределитель контейнера или поиском по физическому файлу
+     */
+    private long allocateBlock() throws IOException {
+        return allocator != null ? allocator.allocate() : findFirstEmptyBlock();
+    }
+
+    /**
+     * Возврат выделенного блока, который не удалось заблокировать
+     */
+    private void cancelBlock(long position) {
+        if (allocator != null) allocator.free(position);
+    }
+
+    /**
+     * Проверка на то, что блок удалён или находится за концом физического файла
+     * Нулевой заголовок бывает у ещё не записанного блока, выделенного распределителем раньше следующих блоков
+     */
+    private boolean isEmptyBlock(long position) throws IOException {
+        if (position >= sourceFile.length()) {
+            return true;
+        }
+        sourceFile.seek(position);
+        long lastByte = sourceFile.readLong();
+        return lastByte == -2 || (allocator != null && lastByte == 0);
+    }
+
     /**
      * @return длина данных виртульного файла
      */
@@ -190,6 +331,20 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         return size;
     }
 
+    /**
+     * @return число блоков цепочки файла, все блоки, кроме последнего, заполнены, первый блок содержит мета информацию
+     */
+    long blockCount() {
+        return firstBlockPosition == -1 ? 0 : blockCount(size);
+    }
+
+    /**
+     * @return число блоков непустой цепочки с size байтами данных
+     */
+    static long blockCount(long size) {
+        return (META_INFORMATION_SIZE + size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
     /**
      * @return текущая позиция в виртульном файле
      */
@@ -207,6 +362,9 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         position = 0;
         isWriteData = false;
 
+        previousBlockPosition = -1;
+        isPathExclusive = !isSharedBlock(firstBlockPosition);
+
         // Проверка на существование виртуального файла в памяти
         if (firstBlockPosition == -1) {
             currentBlockPosition = -1;
@@ -218,6 +376,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
             VirtualFileMetaInformation metaInformation = readMetaInformation();
 
             nextBlockPosition = blockInfo.nextBlockPosition;
+            currentBlockChecksum = blockInfo.checksum;
 
             size = metaInformation.size;
 
@@ -243,7 +402,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
             target.put(longToByteArray(-1));
 
             size = 0;
-            bufferPosition = 8 * 2;
+            bufferPosition = META_INFORMATION_SIZE;
             bufferStartPosition = -1;
             return;
         }
@@ -258,12 +417,15 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         if (isReadFirstBlockData) {
             isReadFirstBlockData = false;
         } else {
+            previousBlockPosition = currentBlockPosition;
             currentBlockPosition = nextBlockPosition;
+            isPathExclusive = isPathExclusive && !isSharedBlock(currentBlockPosition);
         }
 
         if (currentBlockPosition != firstBlockPosition) {
             VirtualBlockInfo blockInfo = readBlockInfo(currentBlockPosition);
             nextBlockPosition = blockInfo.nextBlockPosition;
+            currentBlockChecksum = blockInfo.checksum;
         }
 
         bufferStartPosition = sourceFile.getFilePointer();
@@ -271,18 +433,30 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         if (currentBlockPosition != firstBlockPosition) {
             buffer = new byte[BLOCK_SIZE];
         } else {
-            buffer = new byte[BLOCK_SIZE - 8 * 2];
+            buffer = new byte[BLOCK_SIZE - META_INFORMATION_SIZE];
         }
 
         sourceFile.read(buffer);
         bufferPosition = 0;
 
+        if (verifyChecksums && computeChecksum(buffer, 0) != currentBlockChecksum) {
+            throw new CorruptedVirtualBlockException(currentBlockPosition);
+        }
+
         if (nextBlockPosition == -1) {
             isEOF = true;
         }
     }
 
     public int readNextByte() throws IOException {
+        return readBufferedByte();
+    }
+
+    /**
+     * Чтение байта в текущей позиции
+     * Внутренние вызовы не виртуальные, чтобы наследники могли использовать методы класса для доступа к блокам
+     */
+    private int readBufferedByte() throws IOException {
         if (position >= size) {
             return -1;
         }
@@ -293,7 +467,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
             }
         }
         readBlock();
-        return readNextByte();
+        return readBufferedByte();
     }
 
     /**
@@ -303,7 +477,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
      */
     @Override
     public int read() throws IOException {
-        return readNextByte();
+        return readBufferedByte();
     }
 
     /**
@@ -314,10 +488,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
             byte[] b,
             int off,
             int len) throws IOException {
-        for (int i = off; i < len; i++) {
-            b[i] = (byte) read();
-        }
-        return b.length;
+        return readBytes(b, off, len);
     }
 
     /**
@@ -325,13 +496,31 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
      */
     @Override
     public int read(byte[] b) throws IOException {
-        return read(b, 0, b.length);
+        return readBytes(b, 0, b.length);
+    }
+
+    private int readBytes(byte[] b, int off, int len) throws IOException {
+        for (int i = off; i < len; i++) {
+            b[i] = (byte) readBufferedByte();
+        }
+        return b.length;
+    }
+
+    /**
+     * Контрольная сумма CRC32C данных блока, начиная с позиции offset в буфере
+     */
+    private long computeChecksum(byte[] data, int offset) {
+        checksum.reset();
+        checksum.update(data, offset, data.length - offset);
+        return checksum.getValue();
     }
 
     /**
      * Запись буффера в физический файл
      */
     private void writeBlock() throws IOException {
+        prepareCurrentBlock();
+
         FileChannel fileChannel = sourceFile.getChannel();
         FileLock lockCurrentBlock;
         FileLock lockLastBlock = null;
@@ -350,7 +539,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
 
             if (isWriteNewBlock) {
                 try {
-                    writePosition = findFirstEmptyBlock();
+                    writePosition = allocateBlock();
                 } catch (OverlappingFileLockException exception) {
                     continue;
                 }
@@ -361,8 +550,17 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
             }
 
             try {
-                lockCurrentBlock = fileChannel.tryLock(writePosition, buffer.length + 8 * 2, false);
+                long lockPosition = isWriteNewBlock ? writePosition : currentBlockPosition;
+                lockCurrentBlock = fileChannel.tryLock(lockPosition, BLOCK_SIZE + BLOCK_HEADER_SIZE, false);
             } catch (OverlappingFileLockException exception) {
+                if (isWriteNewBlock) cancelBlock(writePosition);
+                if (isWriteFirstBlock) firstBlockPosition = -1;
+                continue;
+            }
+
+            // блок мог быть занят между поиском и блокировкой
+            if (isWriteNewBlock && !isEmptyBlock(writePosition)) {
+                if (lockCurrentBlock != null) lockCurrentBlock.release();
                 if (isWriteFirstBlock) firstBlockPosition = -1;
                 continue;
             }
@@ -370,10 +568,11 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
             try {
                 if (!isWriteFirstBlock && isWriteNewBlock) {
                     lockLastBlock = fileChannel.tryLock(currentBlockPosition + 8, 8, false);
-                    lockMetadata = fileChannel.tryLock(firstBlockPosition + 8 * 2, 8 * 2, false);
+                    lockMetadata = fileChannel.tryLock(firstBlockPosition + BLOCK_HEADER_SIZE, META_INFORMATION_SIZE, false);
                 }
             } catch (OverlappingFileLockException exception) {
-                lockCurrentBlock.release();
+                if (lockCurrentBlock != null) lockCurrentBlock.release();
+                cancelBlock(writePosition);
 
                 if (lockLastBlock != null) {
                     lockLastBlock.release();
@@ -389,6 +588,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         if (!isWriteNewBlock) {
             // Записываем в старый блок
             fileChannel.write(ByteBuffer.wrap(buffer), writePosition);
+            fileChannel.write(longToByteArray(computeChecksum(buffer, 0)), currentBlockPosition + 8 * 2);
 
             //изменяем "ссылку" на конец в блоке, если записываем данные сверх
             sourceFile.seek(currentBlockPosition);
@@ -402,7 +602,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
             if (!isWriteFirstBlock) {
                 //изменяем в meta информации ссылку на последний блок
                 // если пишем первый блок, то этого делать не надо, т.к. в буфер перезатрет эти изменения
-                fileChannel.write(longToByteArray(saveWritingPosition), firstBlockPosition + 8 * 3);
+                fileChannel.write(longToByteArray(saveWritingPosition), firstBlockPosition + BLOCK_HEADER_SIZE + 8);
             }
 
             if (!isWriteFirstBlock) {
@@ -413,33 +613,48 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
             }
 
             // Записываем начало блока. Первые 8 байт - long "ссылка" на конец данных в этом блоке
-            fileChannel.write(longToByteArray(saveWritingPosition + 8 * 2 + bufferPosition - 1), writePosition);
+            fileChannel.write(longToByteArray(saveWritingPosition + BLOCK_HEADER_SIZE + bufferPosition - 1), writePosition);
             writePosition += 8;
 
             // Записываем следующие 8 байт - long "ссылка" на сл блок, если блок последний, то пишем -1
             fileChannel.write(longToByteArray(-1), writePosition);
             writePosition += 8;
 
+            // Записываем следующие 8 байт - контрольная сумма данных блока, мета информация первого блока не входит
+            fileChannel.write(longToByteArray(computeChecksum(buffer, isWriteFirstBlock ? META_INFORMATION_SIZE : 0)), writePosition);
+            writePosition += 8;
+
             // Пишем буфер в память
             fileChannel.write(ByteBuffer.wrap(buffer), writePosition);
 
             if (isWriteFirstBlock) {
                 // Если пишем блок, то надо поменять мета информацию, ссылку на конечный блок = первому блоку
-                fileChannel.write(longToByteArray(firstBlockPosition), firstBlockPosition + 8 * 3);
+                fileChannel.write(longToByteArray(firstBlockPosition), firstBlockPosition + BLOCK_HEADER_SIZE + 8);
             }
 
+            previousBlockPosition = isWriteFirstBlock ? -1 : currentBlockPosition;
             currentBlockPosition = saveWritingPosition;
+            nextBlockPosition = -1;
+
+            // буфер остаётся буфером записанного блока, чтобы следующая запись дописывала этот же блок
+            if (isWriteFirstBlock) {
+                buffer = Arrays.copyOfRange(buffer, META_INFORMATION_SIZE, buffer.length);
+                bufferPosition -= META_INFORMATION_SIZE;
+                bufferStartPosition = saveWritingPosition + BLOCK_HEADER_SIZE + META_INFORMATION_SIZE;
+            } else {
+                bufferStartPosition = saveWritingPosition + BLOCK_HEADER_SIZE;
+            }
         }
+        modifiedBlocks.add(currentBlockPosition);
 
         //справляем мета информацию о файле - размер файла
-        fileChannel.write(longToByteArray(size), firstBlockPosition + 8 * 2);
+        fileChannel.write(longToByteArray(size), firstBlockPosition + BLOCK_HEADER_SIZE);
 
         if (lockCurrentBlock != null) lockCurrentBlock.release();
         if (lockLastBlock != null) lockLastBlock.release();
         if (lockMetadata != null) lockMetadata.release();
 
         isWriteData = false;
-        readBlock();
     }
 
     /**
@@ -477,14 +692,18 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
      */
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        for (int idx = off; idx < len; idx++) {
-            write(b[idx]);
-        }
+        writeBytes(b, off, len);
     }
 
     @Override
     public void write(byte[] b) throws IOException {
-        write(b, 0, b.length);
+        writeBytes(b, 0, b.length);
+    }
+
+    private void writeBytes(byte[] b, int off, int len) throws IOException {
+        for (int idx = off; idx < len; idx++) {
+            writeByte(b[idx]);
+        }
     }
 
     /**
@@ -495,51 +714,80 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         if (isWriteData) {
             writeBlock();
         }
+        deduplicate();
         sourceFile.close();
-        if (onClose != null) onClose.onClose(firstBlockPosition);
+        if (onClose != null) onClose.onClose(firstBlockPosition, length(), blockCount());
         super.close();
     }
 
     /**
-     * Удаление блока
-     * Если полное удаление файла, то первые 8 байт = -2
-     * иначе ставим в последние 8 байт номер конечного байта в блоке
+     * Закрытие дескрипторов без записи данных и без вызова onClose, если открытие файла не удалось
      */
-    private void deleteBlock(long position, int newBlockSize) throws IOException {
-        if (newBlockSize == BLOCK_SIZE) return;
+    void abort() throws IOException {
+        sourceFile.close();
+        super.close();
+    }
 
+    /**
+     * Удаление блока и всех следующих за ним блоков
+     * У удалённого блока первые 8 байт = -2
+     * Общий блок не удаляется, у него только уменьшается число ссылок, следующие блоки остаются
+     */
+    private void deleteBlock(long position) throws IOException {
         FileChannel fileChannel = sourceFile.getChannel();
-        FileLock lock = fileChannel.tryLock(position, 8, false);
-
-        if (lock != null) {
-            if (newBlockSize == 0) {
-                fileChannel.write(longToByteArray(-2), position);
-                if (position == firstBlockPosition) {
-                    firstBlockPosition = -1;
-                    readFirstBlock();
-                }
-                if (emptyBlockPosition > position) {
-                    emptyBlockPosition = position;
-                }
-            } else {
-                fileChannel.write(longToByteArray(position + 8 * 2 + newBlockSize - 1), position);
+
+        while (position != -1) {
+            if (references != null && !references.release(position)) {
+                return;
             }
-        }
+            sourceFile.seek(position + 8);
+            long nextPosition = sourceFile.readLong();
 
-        assert lock != null;
-        lock.release();
-        sourceFile.seek(position + 8);
-        long nextPosition = sourceFile.readLong();
-        if (nextPosition != -1) {
-            deleteBlock(nextPosition);
+            FileLock lock = fileChannel.tryLock(position, 8, false);
+            fileChannel.write(longToByteArray(-2), position);
+            if (lock != null) lock.release();
+            if (blockIndex != null) blockIndex.remove(position);
+            if (allocator != null) allocator.free(position);
+
+            if (emptyBlockPosition > position) {
+                emptyBlockPosition = position;
+            }
+            position = nextPosition;
         }
     }
 
     /**
-     * Удаление блока информаци
+     * Обрезание цепочки блоков: в блоке position остаётся newBlockSize байт, следующие блоки удаляются
+     * Если в блоке не остаётся данных, то он удаляется, а цепочка заканчивается на предыдущем блоке
      */
-    private void deleteBlock(long position) throws IOException {
-        deleteBlock(position, 0);
+    private void truncateBlocks(long position, int newBlockSize) throws IOException {
+        if (position == firstBlockPosition && newBlockSize == 0) {
+            deleteBlock(position);
+            firstBlockPosition = -1;
+            readFirstBlock();
+            return;
+        }
+
+        FileChannel fileChannel = sourceFile.getChannel();
+        long lastBlockPosition = position;
+
+        if (newBlockSize == 0) {
+            lastBlockPosition = previousBlockPosition;
+            deleteBlock(position);
+        } else {
+            fileChannel.write(longToByteArray(position + BLOCK_HEADER_SIZE + newBlockSize - 1), position);
+            sourceFile.seek(position + 8);
+            long nextPosition = sourceFile.readLong();
+            if (nextPosition != -1) {
+                deleteBlock(nextPosition);
+            }
+        }
+
+        // последний оставшийся блок больше не ссылается на удалённые блоки
+        if (blockIndex != null) blockIndex.remove(lastBlockPosition);
+        modifiedBlocks.add(lastBlockPosition);
+        fileChannel.write(longToByteArray(-1), lastBlockPosition + 8);
+        fileChannel.write(longToByteArray(lastBlockPosition), firstBlockPosition + BLOCK_HEADER_SIZE + 8);
     }
 
     /**
@@ -552,18 +800,250 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         }
 
         if (newLength > size) {
-            seek(size);
-            write(new byte[(int) (newLength - size)]);
+            seekPosition(size);
+            writeBytes(new byte[(int) (newLength - size)], 0, (int) (newLength - size));
             if (isWriteData) {
                 writeBlock();
             }
             if (onClose != null) onClose.onModify();
-            seek(size);
+            seekPosition(size);
         } else {
-            seek(newLength);
-            deleteBlock(currentBlockPosition, bufferPosition);
+            seekPosition(newLength);
+            if (newLength > 0) {
+                prepareCurrentBlock();
+            }
+            truncateBlocks(currentBlockPosition, bufferPosition);
             if (onClose != null) onClose.onModify();
             size = newLength;
+            if (firstBlockPosition != -1) {
+                sourceFile.getChannel().write(longToByteArray(size), firstBlockPosition + BLOCK_HEADER_SIZE);
+            }
+            seekPosition(size);
+        }
+    }
+
+    /**
+     * Подготовка текущего блока к изменению на месте
+     * Блок и мета информация удаляются из индекса дедупликации, общие блоки пути до текущего блока копируются
+     */
+    private void prepareCurrentBlock() throws IOException {
+        if (blockIndex != null && currentBlockPosition != -1) {
+            blockIndex.remove(firstBlockPosition);
+            // на блок могла появиться ссылка при дедупликации другого файла
+            if (!blockIndex.detach(currentBlockPosition, references)) {
+                isPathExclusive = false;
+            }
+            modifiedBlocks.add(firstBlockPosition);
+            modifiedBlocks.add(currentBlockPosition);
+        }
+        if (!isPathExclusive) {
+            copySharedPath();
+        }
+    }
+
+    private boolean isSharedBlock(long position) {
+        return references != null && position != -1 && references.isShared(position);
+    }
+
+    /**
+     * Копирование общих блоков от первого до текущего, после копирования их можно изменять
+     * Блоки после текущего остаются общими, на следующий блок добавляется ссылка из копии текущего
+     */
+    private void copySharedPath() throws IOException {
+        List<Long> path = new ArrayList<>();
+        long position = firstBlockPosition;
+        while (true) {
+            path.add(position);
+            if (position == currentBlockPosition) {
+                break;
+            }
+            sourceFile.seek(position + 8);
+            position = sourceFile.readLong();
+        }
+
+        int firstShared = 0;
+        while (firstShared < path.size() && !isSharedBlock(path.get(firstShared))) {
+            firstShared++;
+        }
+        isPathExclusive = true;
+        if (firstShared == path.size()) {
+            return;
+        }
+
+        FileChannel fileChannel = sourceFile.getChannel();
+        int last = path.size() - 1;
+        long[] copies = new long[path.size()];
+        for (int i = firstShared; i <= last; i++) {
+            copies[i] = copyBlock(path.get(i));
+        }
+        for (int i = firstShared; i < last; i++) {
+            fileChannel.write(longToByteArray(copies[i + 1]), copies[i] + 8);
+        }
+        // копия текущего блока ссылается на тот же следующий блок
+        sourceFile.seek(path.get(last) + 8);
+        long successorPosition = sourceFile.readLong();
+        if (successorPosition != -1) {
+            references.retain(successorPosition);
+        }
+
+        if (firstShared == 0) {
+            firstBlockPosition = copies[0];
+        } else {
+            if (blockIndex != null) blockIndex.remove(path.get(firstShared - 1));
+            modifiedBlocks.add(path.get(firstShared - 1));
+            fileChannel.write(longToByteArray(copies[firstShared]), path.get(firstShared - 1) + 8);
+        }
+        for (int i = firstShared; i <= last; i++) {
+            modifiedBlocks.add(copies[i]);
+        }
+        if (successorPosition == -1) {
+            fileChannel.write(longToByteArray(copies[last]), firstBlockPosition + BLOCK_HEADER_SIZE + 8);
+        }
+        // старая цепочка теряет одну ссылку, если ссылок не осталось, то блоки удаляются
+        deleteBlock(path.get(firstShared));
+
+        if (bufferStartPosition != -1) {
+            bufferStartPosition += copies[last] - path.get(last);
+        }
+        if (last > 0) {
+            previousBlockPosition = last - 1 >= firstShared ? copies[last - 1] : path.get(last - 1);
+        }
+        currentBlockPosition = copies[last];
+    }
+
+    /**
+     * Дедупликация изменённых блоков при закрытии файла
+     * Блоки проходятся с конца цепочки: если в индексе есть такой же блок с тем же следующим блоком,
+     * то цепочка переключается на него, а свой блок удаляется. Неизменённые блоки пропускаются,
+     * если их следующий блок остался прежним.
+     */
+    private void deduplicate() throws IOException {
+        if (blockIndex == null || !blockIndex.isEnabled() || firstBlockPosition == -1 || modifiedBlocks.isEmpty()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        // общие блоки уже дедуплицированы или скопированы другим файлом
+        List<Long> path = new ArrayList<>();
+        long position = firstBlockPosition;
+        while (position != -1 && !isSharedBlock(position)) {
+            path.add(position);
+            sourceFile.seek(position + 8);
+            position = sourceFile.readLong();
+        }
+
+        long nextPosition = position;
+        boolean isNextReplaced = false;
+        FileChannel fileChannel = sourceFile.getChannel();
+        for (int i = path.size() - 1; i >= 0; i--) {
+            long blockPosition = path.get(i);
+            if (i > 0 && !isNextReplaced && !modifiedBlocks.contains(blockPosition)) {
+                nextPosition = blockPosition;
+                continue;
+            }
+
+            boolean isFirstBlock = i == 0;
+            long fileSize = isFirstBlock ? size : -1;
+            byte[] data = readBlockData(blockPosition, isFirstBlock);
+            long next = nextPosition;
+            // подставить можно только блок, продолжение которого уже общее
+            boolean isNextShared = next == -1 || isSharedBlock(next);
+            VirtualBlockIndex.Key key = new VirtualBlockIndex.Key(digest.digest(data), next, fileSize);
+            long sharedPosition = blockIndex.share(key, blockPosition,
+                    candidate -> isNextShared && isSameBlock(candidate, data, next, fileSize), references);
+
+            isNextReplaced = sharedPosition != blockPosition;
+            if (isNextReplaced) {
+                if (isFirstBlock) {
+                    firstBlockPosition = sharedPosition;
+                } else {
+                    fileChannel.write(longToByteArray(sharedPosition), path.get(i - 1) + 8);
+                    if (next == -1) {
+                        fileChannel.write(longToByteArray(sharedPosition), firstBlockPosition + BLOCK_HEADER_SIZE + 8);
+                    }
+                }
+                deleteBlock(blockPosition);
+            }
+            nextPosition = sharedPosition;
+        }
+        modifiedBlocks.clear();
+        blockIndex.addPass(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Чтение данных блока без заголовка, у первого блока без мета информации
+     */
+    private byte[] readBlockData(long position, boolean isFirstBlock) throws IOException {
+        sourceFile.seek(position);
+        long lastByte = sourceFile.readLong();
+        long dataPosition = position + BLOCK_HEADER_SIZE + (isFirstBlock ? META_INFORMATION_SIZE : 0);
+        byte[] data = new byte[(int) Math.max(0, Math.min(lastByte - dataPosition + 1, BLOCK_SIZE))];
+        sourceFile.seek(dataPosition);
+        sourceFile.readFully(data);
+        return data;
+    }
+
+    /**
+     * Сравнение блока candidate с данными блока, который ищется в индексе
+     */
+    private boolean isSameBlock(long candidate, byte[] data, long nextPosition, long fileSize) throws IOException {
+        if (candidate + BLOCK_HEADER_SIZE + BLOCK_SIZE > sourceFile.length() || isEmptyBlock(candidate)) {
+            return false;
+        }
+        sourceFile.seek(candidate + 8);
+        if (sourceFile.readLong() != nextPosition) {
+            return false;
+        }
+        if (fileSize != -1) {
+            sourceFile.seek(candidate + BLOCK_HEADER_SIZE);
+            if (sourceFile.readLong() != fileSize) {
+                return false;
+            }
+        }
+        return Arrays.equals(readBlockData(candidate, fileSize != -1), data);
+    }
+
+    /**
+     * Копирование блока в свободный блок
+     *
+     * @return позиция копии
+     */
+    private long copyBlock(long position) throws IOException {
+        FileChannel fileChannel = sourceFile.getChannel();
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE + BLOCK_HEADER_SIZE);
+        fileChannel.read(block, position);
+
+        while (true) {
+            long copyPosition;
+            FileLock lock;
+            try {
+                copyPosition = allocateBlock();
+            } catch (OverlappingFileLockException exception) {
+                continue;
+            }
+            try {
+                lock = fileChannel.tryLock(copyPosition, BLOCK_SIZE + BLOCK_HEADER_SIZE, false);
+            } catch (OverlappingFileLockException exception) {
+                cancelBlock(copyPosition);
+                continue;
+            }
+            if (!isEmptyBlock(copyPosition)) {
+                if (lock != null) lock.release();
+                continue;
+            }
+
+            // ссылка на конец данных в блоке абсолютная
+            block.putLong(0, block.getLong(0) - position + copyPosition);
+            block.rewind();
+            fileChannel.write(block, copyPosition);
+            if (lock != null) lock.release();
+            return copyPosition;
         }
     }
 
@@ -572,6 +1052,10 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
      */
     @Override
     public void seek(long pos) throws IOException {
+        seekPosition(pos);
+    }
+
+    private void seekPosition(long pos) throws IOException {
         if (isWriteData) {
             writeBlock();
         }
@@ -579,7 +1063,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
         if (pos < 0) throw new IOException();
 
         if (pos > size) {
-            seek(size);
+            seekPosition(size);
             return;
         }
 
@@ -589,7 +1073,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
             readBlock();
             long bufferLength = buffer.length;
             if (currentBlockPosition == firstBlockPosition) {
-                if (bufferLength == BLOCK_SIZE) bufferLength -= 8 * 2;
+                if (bufferLength == BLOCK_SIZE) bufferLength -= META_INFORMATION_SIZE;
             }
             if (bufferLength + position <= pos) {
                 position += bufferLength;
@@ -597,8 +1081,8 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
                 bufferPosition = (int) (pos - position);
                 if (currentBlockPosition == firstBlockPosition) {
                     if (buffer.length == BLOCK_SIZE) {
-                        bufferPosition += 8 * 2;
-                        position -= 8 * 2;
+                        bufferPosition += META_INFORMATION_SIZE;
+                        position -= META_INFORMATION_SIZE;
                     }
                 }
                 position += bufferPosition;
@@ -619,6 +1103,7 @@ public class VirtualRandomAccessFile extends RandomAccessFile {
     private static class VirtualBlockInfo {
         public long lastByteInBlockPosition;
         public long nextBlockPosition;
+        public long checksum;
     }
 
     private static class VirtualFileMetaInformation {
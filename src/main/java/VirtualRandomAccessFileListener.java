@@ -4,4 +4,18 @@ public interface VirtualRandomAccessFileListener {
 
     default void onClose(long firstBlockPosition) {
     }
+
+    /**
+     * Закрытие файла с размером данных size
+     */
+    default void onClose(long firstBlockPosition, long size) {
+        onClose(firstBlockPosition);
+    }
+
+    /**
+     * Закрытие файла с размером данных size, занимающего blockCount блоков
+     */
+    default void onClose(long firstBlockPosition, long size, long blockCount) {
+        onClose(firstBlockPosition, size);
+    }
 }
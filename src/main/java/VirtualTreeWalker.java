@@ -0,0 +1,98 @@
+import exceptions.VFSException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Обход дерева директории без рекурсии
+ * Вместо стека вызовов используются массивы по глубине: директория, снимок её поддиректорий и номер следующей
+ * поддиректории. Массивы растут до наибольшей глубины дерева и переиспользуются, для узлов ничего не создаётся,
+ * списки файлов и поддиректорий - неизменяемые снимки директорий.
+ */
+class VirtualTreeWalker {
+    private static final int INITIAL_DEPTH = 16;
+
+    private final VirtualFSVisitor visitor;
+    private final int maxDepth;
+    private VirtualDirectory[] directories = new VirtualDirectory[INITIAL_DEPTH];
+    private List<VirtualDirectory>[] children = newChildren(INITIAL_DEPTH);
+    private int[] childIdx = new int[INITIAL_DEPTH];
+    private int top = -1;
+
+    /**
+     * @param maxDepth наибольшая глубина обхода: директории на этой глубине посещаются, но в них обход не заходит
+     */
+    VirtualTreeWalker(@NotNull VirtualFSVisitor visitor, int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth < 0");
+        }
+        this.visitor = visitor;
+        this.maxDepth = maxDepth;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<VirtualDirectory>[] newChildren(int length) {
+        return (List<VirtualDirectory>[]) new List[length];
+    }
+
+    /**
+     * Обход директории directory и всех её поддиректорий не глубже maxDepth
+     */
+    void walk(@NotNull VirtualDirectory directory) throws VFSException, IOException {
+        if (enter(directory) == VirtualFSVisitor.Result.TERMINATE) {
+            return;
+        }
+        while (top >= 0) {
+            List<VirtualDirectory> subdirectories = children[top];
+            if (childIdx[top] < subdirectories.size()) {
+                VirtualDirectory child = subdirectories.get(childIdx[top]++);
+                if (enter(child) == VirtualFSVisitor.Result.TERMINATE) {
+                    return;
+                }
+                continue;
+            }
+
+            VirtualDirectory finished = directories[top];
+            directories[top] = null;
+            children[top] = null;
+            top--;
+            if (visitor.postVisitDirectory(finished, top + 1) == VirtualFSVisitor.Result.TERMINATE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Посещение директории и её файлов, директория становится вершиной стека, если в неё нужно заходить
+     */
+    private VirtualFSVisitor.Result enter(@NotNull VirtualDirectory directory) throws VFSException, IOException {
+        int depth = top + 1;
+        VirtualFSVisitor.Result result = visitor.preVisitDirectory(directory, depth);
+        if (result != VirtualFSVisitor.Result.CONTINUE) {
+            return result;
+        }
+
+        List<VirtualDirectory> subdirectories = List.of();
+        if (depth < maxDepth) {
+            for (VirtualFile file : directory.filesSnapshot()) {
+                if (visitor.visitFile(file, depth + 1) == VirtualFSVisitor.Result.TERMINATE) {
+                    return VirtualFSVisitor.Result.TERMINATE;
+                }
+            }
+            subdirectories = directory.directoriesSnapshot();
+        }
+
+        if (depth == directories.length) {
+            directories = Arrays.copyOf(directories, depth * 2);
+            children = Arrays.copyOf(children, depth * 2);
+            childIdx = Arrays.copyOf(childIdx, depth * 2);
+        }
+        top = depth;
+        directories[top] = directory;
+        children[top] = subdirectories;
+        childIdx[top] = 0;
+        return VirtualFSVisitor.Result.CONTINUE;
+    }
+}
@@ -0,0 +1,187 @@
+import exceptions.LockedVirtualFSNodeException;
+import exceptions.NullVirtualFSException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Итоги директорий VFS: размер данных, число файлов и число директорий во всём поддереве директории
+ * Итоги меняются на разницу при вставке и удалении узлов и при закрытии файла, открытого на запись,
+ * изменение передаётся всем директориям на пути до root. Учитываются только директории, вставленные
+ * в директории с итогами, итоги поддерева, собранного вне дерева (например, при копировании),
+ * подсчитываются при его вставке.
+ */
+class VirtualUsageIndex {
+    private static final int SIZE = 0;
+    private static final int FILES = 1;
+    private static final int DIRECTORIES = 2;
+
+    private final Map<VirtualDirectory, long[]> usages = new IdentityHashMap<>();
+
+    private VirtualUsageIndex() {
+    }
+
+    /**
+     * Итоги, загруженные из сохранённых метаданных
+     */
+    VirtualUsageIndex(@NotNull Map<VirtualDirectory, long[]> usages) {
+        this.usages.putAll(usages);
+    }
+
+    /**
+     * Построение итогов директории и всех её поддиректорий, директория уже заблокирована на чтение
+     * Размер файла, которого нет в памяти, читается из его первого блока
+     */
+    static VirtualUsageIndex build(@NotNull VirtualDirectory directory) throws IOException, NullVirtualFSException {
+        VirtualUsageIndex index = new VirtualUsageIndex();
+        index.count(directory);
+        return index;
+    }
+
+    /**
+     * Подсчёт итогов директории обходом, размер файла, которого нет в памяти, читается под его блокировкой на чтение
+     */
+    static VirtualDirectoryUsage measure(@NotNull VirtualDirectory directory) throws IOException,
+            NullVirtualFSException, LockedVirtualFSNodeException {
+        long size = 0;
+        long files = 0;
+        long directories = 0;
+        Deque<VirtualDirectory> pending = new ArrayDeque<>();
+        pending.push(directory);
+        while (!pending.isEmpty()) {
+            VirtualDirectory current = pending.pop();
+            for (VirtualFile file : current.filesSnapshot()) {
+                size += file.length();
+                files++;
+            }
+            for (VirtualDirectory child : current.directoriesSnapshot()) {
+                pending.push(child);
+                directories++;
+            }
+        }
+        return new VirtualDirectoryUsage(size, files, directories);
+    }
+
+    /**
+     * Подсчёт и запись итогов директории и её поддиректорий, дочерние директории считаются раньше родительских
+     */
+    private long[] count(@NotNull VirtualDirectory directory) throws IOException, NullVirtualFSException {
+        List<VirtualDirectory> order = new ArrayList<>();
+        order.add(directory);
+        for (int i = 0; i < order.size(); i++) {
+            order.addAll(order.get(i).getDirectoriesLocked());
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            VirtualDirectory current = order.get(i);
+            long[] usage = new long[3];
+            for (VirtualFile file : current.getFilesLocked()) {
+                usage[SIZE] += file.readLengthLocked();
+                usage[FILES]++;
+            }
+            for (VirtualDirectory child : current.getDirectoriesLocked()) {
+                long[] childUsage = usages.get(child);
+                usage[SIZE] += childUsage[SIZE];
+                usage[FILES] += childUsage[FILES];
+                usage[DIRECTORIES] += childUsage[DIRECTORIES] + 1;
+            }
+            usages.put(current, usage);
+        }
+        return usages.get(directory);
+    }
+
+    /**
+     * Изменение итогов директории directory и всех директорий на пути от неё до root
+     * Если у directory нет итогов, она не вставлена в дерево с итогами, и ничего не меняется
+     */
+    private void propagate(VirtualDirectory directory, long size, long files, long directories) {
+        for (VirtualDirectory current = directory; current != null; current = current.getRootDirectory()) {
+            long[] usage = usages.get(current);
+            if (usage == null) {
+                return;
+            }
+            usage[SIZE] += size;
+            usage[FILES] += files;
+            usage[DIRECTORIES] += directories;
+        }
+    }
+
+    /**
+     * Учёт файла с размером size, вставленного в директорию directory
+     */
+    synchronized void addFile(@NotNull VirtualDirectory directory, long size) {
+        propagate(directory, size, 1, 0);
+    }
+
+    /**
+     * Учёт файла с размером size, удалённого из директории directory
+     */
+    synchronized void removeFile(@NotNull VirtualDirectory directory, long size) {
+        propagate(directory, -size, -1, 0);
+    }
+
+    /**
+     * Учёт изменения размера файла директории directory на delta байт
+     */
+    synchronized void resize(VirtualDirectory directory, long delta) {
+        if (delta != 0) {
+            propagate(directory, delta, 0, 0);
+        }
+    }
+
+    /**
+     * Учёт директории child, вставленной в директорию directory
+     * Итоги директории, которой ещё нет в индексе, подсчитываются обходом её поддерева
+     */
+    synchronized void addDirectory(@NotNull VirtualDirectory directory, @NotNull VirtualDirectory child)
+            throws IOException, NullVirtualFSException {
+        if (!usages.containsKey(directory)) {
+            return;
+        }
+        long[] usage = usages.get(child);
+        if (usage == null) {
+            usage = count(child);
+        }
+        propagate(directory, usage[SIZE], usage[FILES], usage[DIRECTORIES] + 1);
+    }
+
+    /**
+     * Учёт директории child, удалённой из директории directory, итоги child остаются для обратной вставки
+     */
+    synchronized void removeDirectory(@NotNull VirtualDirectory directory, @NotNull VirtualDirectory child) {
+        long[] usage = usages.get(child);
+        if (usage != null) {
+            propagate(directory, -usage[SIZE], -usage[FILES], -usage[DIRECTORIES] - 1);
+        }
+    }
+
+    /**
+     * Удаление итогов удалённой директории
+     */
+    synchronized void discard(@NotNull VirtualDirectory directory) {
+        usages.remove(directory);
+    }
+
+    /**
+     * Итоги директории, null если директории нет в индексе
+     */
+    synchronized VirtualDirectoryUsage usage(@NotNull VirtualDirectory directory) {
+        long[] usage = usages.get(directory);
+        return usage == null ? null : new VirtualDirectoryUsage(usage[SIZE], usage[FILES], usage[DIRECTORIES]);
+    }
+
+    /**
+     * Итоги директорий для сохранения, удалённые и перенесённые в другую VFS директории не сохраняются
+     *
+     * @param root root директория VFS
+     */
+    synchronized IdentityHashMap<VirtualDirectory, long[]> snapshot(@NotNull VirtualDirectory root) {
+        IdentityHashMap<VirtualDirectory, long[]> snapshot = new IdentityHashMap<>();
+        usages.forEach((directory, usage) -> {
+            if (directory.isInside(root)) {
+                snapshot.put(directory, usage.clone());
+            }
+        });
+        return snapshot;
+    }
+}
@@ -0,0 +1,9 @@
+package exceptions;
+
+import java.io.IOException;
+
+public class CorruptedVirtualBlockException extends IOException {
+    public CorruptedVirtualBlockException(long blockPosition) {
+        super("Checksum mismatch in block at position " + blockPosition);
+    }
+}
@@ -0,0 +1,7 @@
+package exceptions;
+
+public class NamespaceNotFoundException extends VFSException {
+    public NamespaceNotFoundException(String name) {
+        super("Namespace \"" + name + "\" not found");
+    }
+}
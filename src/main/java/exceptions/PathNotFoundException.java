@@ -0,0 +1,7 @@
+package exceptions;
+
+public class PathNotFoundException extends VFSException {
+    public PathNotFoundException(String path) {
+        super("Path \"" + path + "\" not found");
+    }
+}
@@ -0,0 +1,11 @@
+package exceptions;
+
+import java.io.File;
+import java.io.IOException;
+
+public class UnsupportedVirtualFSFormatException extends IOException {
+    public UnsupportedVirtualFSFormatException(File file, int version, int expectedVersion) {
+        super("Unsupported VFS format version " + version + " in " + file + ", expected version " + expectedVersion
+                + (version == 0 ? " (file was created before block checksums were added)" : ""));
+    }
+}
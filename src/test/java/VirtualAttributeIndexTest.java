@@ -0,0 +1,127 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualAttributeIndexTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+    private File sourceFile;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    private static void waitNextMillisecond(long time) throws InterruptedException {
+        while (System.currentTimeMillis() <= time) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void findLargerThan() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualFile small = VirtualFSTestUtils.createFile(directory, name + 1, 10);
+        VirtualFile medium = VirtualFSTestUtils.createFile(directory, name + 2, 100);
+        VirtualFile large = VirtualFSTestUtils.createFile(directory.mkdir(name), name + 3, 5000);
+        virtualFS.touch(name);
+
+        Set<VirtualFile> expected = new HashSet<>(virtualFS.findLargerThan(50));
+        assertEquals(Set.of(medium, large), expected);
+        virtualFS.setAttributeIndexEnabled(true);
+        assertTrue(virtualFS.isAttributeIndexEnabled());
+        assertEquals(expected, new HashSet<>(virtualFS.findLargerThan(50)));
+        assertEquals(4, virtualFS.findLargerThan(-1).size());
+
+        VirtualFSTestUtils.write(small, 200);
+        assertEquals(Set.of(small, large), new HashSet<>(virtualFS.findLargerThan(150)));
+
+        VirtualFile copiedFile = large.copy(virtualFS.getRootDirectory());
+        medium.move(virtualFS.mkdir(newName));
+        large.remove();
+        assertEquals(Set.of(small, medium, copiedFile), new HashSet<>(virtualFS.findLargerThan(50)));
+
+        virtualFS.setAttributeIndexEnabled(false);
+        assertEquals(Set.of(small, medium, copiedFile), new HashSet<>(virtualFS.findLargerThan(50)));
+    }
+
+    @Test
+    void findModifiedAfter() throws IOException, VFSException, InterruptedException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        List<VirtualFile> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            files.add(VirtualFSTestUtils.createFile(directory, name + i, i));
+        }
+        virtualFS.setAttributeIndexEnabled(true);
+        long time = System.currentTimeMillis();
+        waitNextMillisecond(time);
+
+        VirtualFSTestUtils.write(files.get(3), 10);
+        files.get(5).rename(newName);
+        VirtualFile createdFile = directory.touch(newName + 1);
+
+        Set<VirtualFile> expected = Set.of(files.get(3), files.get(5), createdFile);
+        assertEquals(expected, new HashSet<>(virtualFS.findModifiedAfter(new Date(time))));
+        assertEquals(11, virtualFS.findModifiedAfter(new Date(0)).size());
+
+        virtualFS.setAttributeIndexEnabled(false);
+        assertEquals(expected, new HashSet<>(virtualFS.findModifiedAfter(new Date(time))));
+    }
+
+    @Test
+    void indexIsSaved() throws IOException, VFSException, ClassNotFoundException {
+        virtualFS.setAttributeIndexEnabled(true);
+        VirtualFSTestUtils.createFile(virtualFS.mkdir(name), name, 1000);
+        VirtualFSTestUtils.createFile(virtualFS.getRootDirectory(), newName, 10);
+        virtualFS.save();
+        virtualFS.close();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertTrue(vfs.isAttributeIndexEnabled());
+        List<VirtualFile> found = vfs.findLargerThan(100);
+        assertEquals(1, found.size());
+        assertSame(vfs.resolve("/" + name + "/" + name), found.get(0));
+        assertEquals(2, vfs.findModifiedAfter(new Date(0)).size());
+    }
+
+    @Test
+    void writeIsSaved() throws IOException, VFSException, ClassNotFoundException {
+        virtualFS.setAttributeIndexEnabled(true);
+        VirtualFile file = VirtualFSTestUtils.createFile(virtualFS.mkdir(name), name, 3000);
+        VirtualFSTestUtils.write(file, 4000);
+        virtualFS.close();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        VirtualFile loadedFile = vfs.getRootDirectory().getDirectory(name).getFile(name);
+        assertEquals(List.of(loadedFile), vfs.findLargerThan(3500));
+    }
+
+    @Test
+    void buildWithOpenFile() throws IOException, VFSException {
+        VirtualFile file = VirtualFSTestUtils.createFile(virtualFS.getRootDirectory(), name, 100);
+        VirtualRandomAccessFile randomAccessFile = file.open("rw");
+        assertThrows(LockedVirtualFSNodeException.class, () -> virtualFS.setAttributeIndexEnabled(true));
+        assertFalse(virtualFS.isAttributeIndexEnabled());
+        randomAccessFile.close();
+
+        VirtualRandomAccessFile readFile = file.open("r");
+        virtualFS.setAttributeIndexEnabled(true);
+        readFile.close();
+        assertEquals(List.of(file), virtualFS.findLargerThan(10));
+    }
+}
@@ -0,0 +1,212 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualCompressedRandomAccessFileTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+    private File sourceFile;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    private static byte[] text(int size) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append("line ").append(i % 100).append(": the quick brown fox jumps over the lazy dog\n");
+        }
+        return Arrays.copyOf(builder.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+
+    private static void write(VirtualFile virtualFile, byte[] content) throws IOException, VFSException {
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.write(content);
+        randomAccessFile.close();
+    }
+
+    private static byte[] readContent(VirtualFile virtualFile) throws IOException, VFSException {
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("r");
+        byte[] bytes = new byte[(int) randomAccessFile.length()];
+        randomAccessFile.readFully(bytes);
+        randomAccessFile.close();
+        return bytes;
+    }
+
+    private long storedLength(VirtualFile virtualFile) throws IOException {
+        VirtualRandomAccessFile randomAccessFile = new VirtualRandomAccessFile(sourceFile, "r", virtualFile.getContentPosition());
+        long length = randomAccessFile.length();
+        randomAccessFile.close();
+        return length;
+    }
+
+    @Test
+    void randomAccess() throws IOException, VFSException, ClassNotFoundException {
+        byte[] content = text(100_000);
+        VirtualFile virtualFile = virtualFS.touch(name);
+        virtualFile.setCompressed(true);
+        write(virtualFile, content);
+
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        assertEquals(content.length, randomAccessFile.length());
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            int position = random.nextInt(content.length);
+            randomAccessFile.seek(position);
+            assertEquals(content[position] & 0xFF, randomAccessFile.read());
+        }
+        randomAccessFile.seek(50_000);
+        randomAccessFile.write(new byte[]{1, 2, 3});
+        content[50_000] = 1;
+        content[50_001] = 2;
+        content[50_002] = 3;
+        assertEquals(50_003, randomAccessFile.getFilePointer());
+        randomAccessFile.close();
+        virtualFS.save();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        VirtualFile loadedFile = vfs.getFiles().get(0);
+        assertTrue(loadedFile.isCompressed());
+        assertArrayEquals(content, readContent(loadedFile));
+        assertTrue(vfs.check(true).isConsistent(), vfs.check(true).getProblems().toString());
+    }
+
+    @Test
+    void fewerBytesStored() throws IOException, VFSException {
+        byte[] content = text(200_000);
+        VirtualFile virtualFile = virtualFS.touch(name);
+        virtualFile.setCompressed(true);
+        write(virtualFile, content);
+
+        assertTrue(storedLength(virtualFile) * 4 < content.length);
+        assertArrayEquals(content, readContent(virtualFile));
+    }
+
+    @Test
+    void convertExistingContent() throws IOException, VFSException {
+        byte[] content = text(60_000);
+        VirtualFile virtualFile = virtualFS.touch(name);
+        write(virtualFile, content);
+        assertEquals(content.length, storedLength(virtualFile));
+
+        virtualFile.setCompressed(true);
+        assertTrue(virtualFile.isCompressed());
+        assertTrue(storedLength(virtualFile) < content.length);
+        assertArrayEquals(content, readContent(virtualFile));
+
+        virtualFile.setCompressed(false);
+        assertEquals(content.length, storedLength(virtualFile));
+        assertArrayEquals(content, readContent(virtualFile));
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+
+    @Test
+    void compressedDirectory() throws IOException, VFSException {
+        byte[] content = text(40_000);
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualDirectory subDirectory = directory.mkdir(name);
+        VirtualFile virtualFile = subDirectory.touch(name);
+        write(virtualFile, content);
+
+        directory.setCompressed(true);
+        assertTrue(subDirectory.isCompressed());
+        assertTrue(virtualFile.isCompressed());
+        assertArrayEquals(content, readContent(virtualFile));
+
+        VirtualFile newFile = subDirectory.touch(newName);
+        assertTrue(newFile.isCompressed());
+        assertTrue(directory.mkdir(newName).isCompressed());
+        assertFalse(virtualFS.touch(newName).isCompressed());
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+
+    @Test
+    void copyOnWrite() throws IOException, VFSException {
+        byte[] content = text(40_000);
+        VirtualFile virtualFile = virtualFS.touch(name);
+        virtualFile.setCompressed(true);
+        write(virtualFile, content);
+
+        VirtualDirectory directory = virtualFS.mkdir(newName);
+        VirtualFile copiedFile = virtualFile.copy(directory);
+        assertTrue(copiedFile.isCompressed());
+        assertEquals(virtualFile.getContentPosition(), copiedFile.getContentPosition());
+
+        VirtualRandomAccessFile randomAccessFile = copiedFile.open("rw");
+        randomAccessFile.seek(20_000);
+        randomAccessFile.write(42);
+        randomAccessFile.close();
+
+        assertArrayEquals(content, readContent(virtualFile));
+        content[20_000] = 42;
+        assertArrayEquals(content, readContent(copiedFile));
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+
+    @Test
+    void setLength() throws IOException, VFSException {
+        byte[] content = text(50_000);
+        VirtualFile virtualFile = virtualFS.touch(name);
+        virtualFile.setCompressed(true);
+        write(virtualFile, content);
+
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.setLength(20_000);
+        randomAccessFile.setLength(30_000);
+        randomAccessFile.close();
+
+        byte[] expected = new byte[30_000];
+        System.arraycopy(content, 0, expected, 0, 20_000);
+        assertArrayEquals(expected, readContent(virtualFile));
+
+        randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.setLength(0);
+        randomAccessFile.close();
+        assertEquals(-1, virtualFile.getContentPosition());
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+
+    @Test
+    void growingChunks() throws IOException, VFSException, ClassNotFoundException {
+        byte[] content = text(100_000);
+        VirtualFile virtualFile = virtualFS.touch(name);
+        virtualFile.setCompressed(true);
+        write(virtualFile, content);
+        long compressedLength = storedLength(virtualFile);
+
+        // случайные данные не сжимаются, куски переносятся в конец
+        byte[] noise = new byte[10_000];
+        new Random(2).nextBytes(noise);
+        for (int i = 0; i < 3; i++) {
+            VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+            randomAccessFile.seek(i * 30_000);
+            randomAccessFile.write(noise);
+            randomAccessFile.close();
+            System.arraycopy(noise, 0, content, i * 30_000, noise.length);
+        }
+        virtualFS.save();
+
+        assertTrue(storedLength(virtualFile) < compressedLength + 2 * 3 * noise.length);
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertArrayEquals(content, readContent(vfs.getFiles().get(0)));
+        assertTrue(vfs.check(true).isConsistent(), vfs.check(true).getProblems().toString());
+    }
+}
@@ -7,10 +7,19 @@ import org.junit.rules.TemporaryFolder;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ConcurrentModificationException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -248,6 +257,52 @@ class VirtualDirectoryTest {
         assertEquals(destinationDirectory, virtualDirectory.getRootDirectory());
     }
 
+    @Test
+    void moveIntoItself() throws VFSException {
+        VirtualDirectory rootDirectory = new VirtualDirectory(name);
+        VirtualDirectory virtualDirectory = rootDirectory.mkdir(name);
+        VirtualDirectory childDirectory = virtualDirectory.mkdir(name);
+        VirtualDirectory nestedDirectory = childDirectory.mkdir("nested");
+
+        assertThrows(IllegalArgumentException.class, () -> virtualDirectory.move(virtualDirectory));
+        assertThrows(IllegalArgumentException.class, () -> virtualDirectory.move(childDirectory));
+        assertThrows(IllegalArgumentException.class, () -> virtualDirectory.move(nestedDirectory));
+
+        assertEquals(rootDirectory, virtualDirectory.getRootDirectory());
+        assertArrayEquals(new VirtualDirectory[]{virtualDirectory}, rootDirectory.getDirectories().toArray());
+        assertArrayEquals(new VirtualDirectory[]{}, nestedDirectory.getDirectories().toArray());
+        assertEquals("/" + name + "/" + name + "/nested", nestedDirectory.getPath());
+
+        // после отказа блокировки сняты
+        nestedDirectory.move(rootDirectory);
+        assertEquals(rootDirectory, nestedDirectory.getRootDirectory());
+    }
+
+    @Test
+    void copyIntoItself() throws VFSException, IOException {
+        VirtualDirectory rootDirectory = new VirtualDirectory(name);
+        VirtualDirectory virtualDirectory = rootDirectory.mkdir(name);
+        VirtualDirectory childDirectory = virtualDirectory.mkdir(name);
+
+        assertThrows(IllegalArgumentException.class, () -> virtualDirectory.copy(virtualDirectory));
+        assertThrows(IllegalArgumentException.class, () -> virtualDirectory.copy(childDirectory));
+
+        assertArrayEquals(new VirtualDirectory[]{childDirectory}, virtualDirectory.getDirectories().toArray());
+        assertArrayEquals(new VirtualDirectory[]{}, childDirectory.getDirectories().toArray());
+        assertNotNull(virtualDirectory.copy(rootDirectory.mkdir("copy")));
+    }
+
+    @Test
+    void copyNotUniqueName() throws VFSException, IOException {
+        VirtualDirectory rootDirectory = new VirtualDirectory(name);
+        VirtualDirectory virtualDirectory = rootDirectory.mkdir(name);
+
+        assertThrows(NotUniqueNameException.class, () -> virtualDirectory.copy(rootDirectory));
+        assertArrayEquals(new VirtualDirectory[]{virtualDirectory}, rootDirectory.getDirectories().toArray());
+        assertSame(virtualDirectory, rootDirectory.getDirectory(name));
+        assertThrows(NotUniqueNameException.class, () -> rootDirectory.mkdir(name));
+    }
+
     @Test
     void copy() throws VFSException, IOException {
         VirtualDirectory rootDirectory = new VirtualDirectory(name);
@@ -401,13 +456,84 @@ class VirtualDirectoryTest {
     }
 
     @Test
-    void crashIterator() throws VFSException, IOException {
+    void findParallel() throws VFSException {
+        Pattern pattern = Pattern.compile("^test.*\\.java$");
+        VirtualDirectory rootDirectory = new VirtualDirectory(name);
+        for (int i = 0; i < 20; i++) {
+            VirtualDirectory directory = rootDirectory.mkdir(name + i);
+            for (int j = 0; j < 200; j++) {
+                directory.touch("test" + j + ".java");
+                directory.touch("test" + j + ".kt");
+            }
+            directory.mkdir(name).touch("test.java");
+        }
+        rootDirectory.touch("test.java");
+
+        Set<VirtualFile> expected = new HashSet<>();
+        rootDirectory.find(pattern, true).forEachRemaining(expected::add);
+        List<VirtualFile> found = rootDirectory.findParallel(pattern);
+
+        assertEquals(20 * 201 + 1, expected.size());
+        assertEquals(expected.size(), found.size());
+        assertEquals(expected, new HashSet<>(found));
+
+        found = rootDirectory.findParallel(ForkJoinPool.commonPool(), file -> file.getName().endsWith(".kt"), 10);
+        assertEquals(10, found.size());
+        assertTrue(found.stream().allMatch(file -> file.getName().endsWith(".kt")));
+        assertTrue(rootDirectory.findParallel(ForkJoinPool.commonPool(), file -> true, 0).isEmpty());
+    }
+
+    @Test
+    void stream() throws VFSException {
+        VirtualDirectory rootDirectory = new VirtualDirectory(name);
+        for (int i = 0; i < 10; i++) {
+            VirtualDirectory directory = rootDirectory.mkdir(name + i);
+            for (int j = 0; j < 300; j++) {
+                directory.touch("test" + j + ".java");
+            }
+            directory.mkdir(name).mkdir(name).touch("test.java");
+        }
+        for (int i = 0; i < 3000; i++) {
+            rootDirectory.touch("test" + i + ".kt");
+        }
+
+        List<VirtualFile> expected = new ArrayList<>();
+        rootDirectory.find(file -> true, true).forEachRemaining(expected::add);
+        assertEquals(3000 + 10 * 301, expected.size());
+        assertEquals(expected, rootDirectory.stream(true).collect(Collectors.toList()));
+        assertEquals(new HashSet<>(expected), rootDirectory.stream(true).parallel().collect(Collectors.toSet()));
+        assertEquals(10 * 300, rootDirectory.stream(true).parallel()
+                .filter(file -> file.getName().matches("test\\d+\\.java")).count());
+
+        Spliterator<VirtualFile> spliterator = rootDirectory.stream(false).spliterator();
+        assertEquals(3000, spliterator.getExactSizeIfKnown());
+        Spliterator<VirtualFile> split = spliterator.trySplit();
+        assertEquals(3000, split.getExactSizeIfKnown() + spliterator.getExactSizeIfKnown());
+
+        // деление до конца не теряет и не повторяет файлы
+        List<Spliterator<VirtualFile>> parts = new ArrayList<>(List.of(rootDirectory.stream(true).spliterator()));
+        Set<VirtualFile> found = new HashSet<>();
+        while (!parts.isEmpty()) {
+            Spliterator<VirtualFile> part = parts.remove(parts.size() - 1);
+            Spliterator<VirtualFile> prefix = part.trySplit();
+            if (prefix != null) {
+                parts.add(prefix);
+                parts.add(part);
+            } else {
+                part.forEachRemaining(file -> assertTrue(found.add(file)));
+            }
+        }
+        assertEquals(expected.size(), found.size());
+    }
+
+    @Test
+    void iteratorWithOpenFile() throws VFSException, IOException {
         VirtualFile file = virtualFS.touch(name);
         VirtualRandomAccessFile randomAccessFile = file.open("rw");
 
         Iterator<VirtualFile> iterator = virtualFS.find(name);
 
-        assertThrows(ConcurrentModificationException.class, iterator::next);
+        assertSame(file, iterator.next());
 
         randomAccessFile.close();
 
@@ -416,6 +542,50 @@ class VirtualDirectoryTest {
         assertDoesNotThrow(iterator_1::next);
     }
 
+    @Test
+    void iterateDuringChanges() throws Throwable {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        for (int i = 0; i < 100; i++) {
+            directory.mkdir(name + i).touch(name);
+            directory.touch(name + i);
+        }
+        List<VirtualFile> listedFiles = directory.getFiles();
+
+        // обход по снимкам списков не завершается ошибкой, пока другие потоки изменяют директорию
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> writer = executor.submit(() -> {
+            for (int i = 0; i < 200; i++) {
+                try {
+                    directory.touch(name + "_" + i).remove();
+                    directory.mkdir(name + "_" + i).remove();
+                } catch (VFSException | IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return null;
+        });
+        Future<?> reader = executor.submit(() -> {
+            while (!writer.isDone()) {
+                int count = 0;
+                Iterator<VirtualFile> iterator = directory.find(name, true);
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    count++;
+                }
+                assertTrue(count >= 200);
+            }
+            return null;
+        });
+        writer.get();
+        reader.get();
+        executor.shutdown();
+
+        assertEquals(100, listedFiles.size());
+        assertThrows(UnsupportedOperationException.class, () -> listedFiles.add(null));
+        assertEquals(100, directory.getFiles().size());
+        assertEquals(100, directory.getDirectories().size());
+    }
+
     @Test
     void testWriteLock() throws IOException, VFSException {
         String destinationDirectoryName = "destinationDirectoryName";
@@ -536,4 +706,83 @@ class VirtualDirectoryTest {
 
         assertEquals(content, virtualRandomAccessFile.readLine());
     }
-}
\ No newline at end of file
+
+    @Test
+    void getChildByName() throws VFSException, IOException, ClassNotFoundException {
+        String newName = name + name;
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualFile file = virtualFS.touch(name);
+
+        VirtualDirectory root = virtualFS.getRootDirectory();
+        assertSame(directory, root.getDirectory(name));
+        assertSame(file, root.getFile(name));
+        assertNull(root.getFile(newName));
+
+        directory.rename(newName);
+        file.rename(newName);
+        assertNull(root.getDirectory(name));
+        assertSame(directory, root.getDirectory(newName));
+        assertSame(file, root.getFile(newName));
+        assertThrows(NotUniqueNameException.class, () -> virtualFS.touch(newName));
+        virtualFS.touch(name);
+
+        VirtualDirectory destination = virtualFS.mkdir(name);
+        file.move(destination);
+        assertSame(file, destination.getFile(newName));
+        assertNotSame(file, root.getFile(newName));
+
+        directory.remove();
+        assertNull(root.getDirectory(newName));
+        virtualFS.mkdir(newName);
+
+        virtualFS.save();
+        VirtualFS vfs = new VirtualFS(virtualFS.sourceFile);
+        assertNotNull(vfs.getRootDirectory().getDirectory(name).getFile(newName));
+        assertNotNull(vfs.getRootDirectory().getFile(name));
+    }
+
+    @Test
+    void manyChildren() throws VFSException {
+        // директория вне VFS не сохраняет метаданные после каждого создания файла
+        VirtualDirectory directory = new VirtualDirectory(name);
+        for (int i = 0; i < 100_000; i++) {
+            directory.touch(name + i);
+        }
+        assertThrows(NotUniqueNameException.class, () -> directory.touch(name + 12_345));
+        assertEquals(name + 99_999, directory.getFile(name + 99_999).getName());
+    }
+
+    @Test
+    void listPages() throws VFSException {
+        VirtualDirectory directory = new VirtualDirectory(name);
+        for (int i = 999; i >= 0; i--) {
+            directory.touch(String.format("%s%03d", name, i));
+            directory.mkdir(String.format("%s%03d", i % 2 == 0 ? "even" : "odd", i));
+        }
+
+        List<String> names = new ArrayList<>();
+        String fromName = null;
+        for (List<VirtualFile> page = directory.listFiles(fromName, 300); !page.isEmpty();
+             page = directory.listFiles(fromName, 300)) {
+            assertTrue(page.size() <= 300);
+            for (VirtualFile file : page) {
+                names.add(file.getName());
+            }
+            fromName = page.get(page.size() - 1).getName();
+        }
+        assertEquals(1000, names.size());
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(String.format("%s%03d", name, i), names.get(i));
+        }
+
+        List<VirtualDirectory> page = directory.listDirectories("odd", null, 10);
+        assertEquals(10, page.size());
+        assertEquals("odd001", page.get(0).getName());
+        assertEquals("odd019", page.get(9).getName());
+        page = directory.listDirectories("odd", "odd993", 10);
+        assertEquals(3, page.size());
+        assertEquals("odd999", page.get(2).getName());
+        assertTrue(directory.listDirectories("odd", "zzz", 10).isEmpty());
+        assertTrue(directory.listFiles("none", null, 10).isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Замеры памяти и скорости запускаются отдельной задачей gradle benchmark, в обычный прогон тестов они не входят
+ */
+class VirtualFSBenchmarkTest {
+    final String name = "test_name";
+
+    // Целевой объём кучи на один узел вместе с именем (имя вида "test_name123456"),
+    // узел файла хранит размер и число блоков своих данных
+    private static final long FILE_HEAP_TARGET = 176;
+    private static final long DIRECTORY_HEAP_TARGET = 224;
+    // погрешность замера кучи: сборка мусора не освобождает всё, что могла бы
+    private static final long HEAP_TOLERANCE = 16;
+    private static final int NODES_COUNT = 200_000;
+    private static final int CONTENT_SIZE = 1 << 20;
+    private static final int READ_ROUNDS = 5;
+    // допустимое замедление чтения из-за проверки контрольных сумм
+    private static final double CHECKSUM_OVERHEAD_LIMIT = 0.5;
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(20);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    @Test
+    @Tag("benchmark")
+    void heapPerFile(TestReporter reporter) throws VFSException, InterruptedException {
+        VirtualDirectory directory = new VirtualDirectory(name);
+
+        long before = usedHeap();
+        for (int i = 0; i < NODES_COUNT; i++) {
+            directory.paste(new VirtualFile(name + i, directory));
+        }
+        long after = usedHeap();
+
+        long perNode = (after - before) / NODES_COUNT;
+        reporter.publishEntry("heap per file, bytes", String.valueOf(perNode));
+
+        assertEquals(NODES_COUNT, directory.getFiles().size());
+        assertTrue(perNode <= FILE_HEAP_TARGET + HEAP_TOLERANCE, "heap per file " + perNode + " > " + FILE_HEAP_TARGET);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void heapPerDirectory(TestReporter reporter) throws VFSException, InterruptedException {
+        VirtualDirectory directory = new VirtualDirectory(name);
+
+        long before = usedHeap();
+        for (int i = 0; i < NODES_COUNT; i++) {
+            directory.paste(new VirtualDirectory(name + i, directory));
+        }
+        long after = usedHeap();
+
+        long perNode = (after - before) / NODES_COUNT;
+        reporter.publishEntry("heap per directory, bytes", String.valueOf(perNode));
+
+        assertEquals(NODES_COUNT, directory.getDirectories().size());
+        assertTrue(perNode <= DIRECTORY_HEAP_TARGET + HEAP_TOLERANCE,
+                "heap per directory " + perNode + " > " + DIRECTORY_HEAP_TARGET);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void checksumOverhead(TestReporter reporter) throws IOException {
+        folder.create();
+        File sourceFile = folder.newFile(name);
+
+        byte[] content = new byte[CONTENT_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        VirtualRandomAccessFile randomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw");
+        randomAccessFile.write(content);
+        randomAccessFile.close();
+        long position = randomAccessFile.getFirstBlockPosition();
+
+        // прогрев
+        readContent(sourceFile, position, true);
+        readContent(sourceFile, position, false);
+
+        long verified = 0;
+        long unverified = 0;
+        for (int i = 0; i < READ_ROUNDS; i++) {
+            verified += readContent(sourceFile, position, true);
+            unverified += readContent(sourceFile, position, false);
+        }
+
+        double overhead = (double) (verified - unverified) / unverified;
+        reporter.publishEntry("read " + CONTENT_SIZE + " bytes with checksums, ms",
+                String.format("%.2f", verified / 1e6 / READ_ROUNDS));
+        reporter.publishEntry("read " + CONTENT_SIZE + " bytes without checksums, ms",
+                String.format("%.2f", unverified / 1e6 / READ_ROUNDS));
+
+        assertTrue(overhead <= CHECKSUM_OVERHEAD_LIMIT, String.format("checksum overhead %.1f%% > %.1f%%",
+                overhead * 100, CHECKSUM_OVERHEAD_LIMIT * 100));
+    }
+
+    private long readContent(File sourceFile, long position, boolean verifyChecksums) throws IOException {
+        byte[] readContent = new byte[CONTENT_SIZE];
+        long start = System.nanoTime();
+        VirtualRandomAccessFile randomAccessFile = new VirtualRandomAccessFile(sourceFile, "r", position, null, verifyChecksums);
+        randomAccessFile.read(readContent);
+        randomAccessFile.close();
+        long time = System.nanoTime() - start;
+        assertEquals((byte) 31, readContent[1]);
+        return time;
+    }
+}
@@ -0,0 +1,187 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualFSCheckerTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+    private File sourceFile;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    private VirtualFile createFile(String name, int size) throws IOException, VFSException {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) i;
+        }
+        randomAccessFile.write(content);
+        randomAccessFile.close();
+        return virtualFile;
+    }
+
+    private static boolean hasProblem(VirtualFSCheckReport report, VirtualFSCheckReport.ProblemType type, long position) {
+        return report.getProblems().stream()
+                .anyMatch(problem -> problem.getType() == type && problem.getBlockPosition() == position);
+    }
+
+    private static boolean hasRepair(VirtualFSCheckReport report, VirtualFSCheckReport.RepairType type, long position) {
+        return report.getRepairPlan().stream()
+                .anyMatch(action -> action.getType() == type && action.getBlockPosition() == position);
+    }
+
+    @Test
+    void consistent() throws IOException, VFSException {
+        createFile(name, 5000);
+        VirtualFile truncatedFile = createFile(newName, 5000);
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        directory.touch(name);
+
+        VirtualRandomAccessFile randomAccessFile = truncatedFile.open("rw");
+        randomAccessFile.setLength(100);
+        randomAccessFile.close();
+        virtualFS.getFiles().get(0).remove();
+
+        VirtualFSCheckReport report = virtualFS.check(new ForkJoinPool(4), true);
+
+        assertTrue(report.isConsistent(), report.getProblems().toString());
+        assertTrue(report.getRepairPlan().isEmpty());
+    }
+
+    @Test
+    void checksumMismatch() throws IOException, VFSException {
+        VirtualFile virtualFile = createFile(name, 10);
+
+        RandomAccessFile physicalFile = new RandomAccessFile(sourceFile, "rw");
+        physicalFile.seek(virtualFile.getContentPosition() + VirtualRandomAccessFile.BLOCK_HEADER_SIZE
+                + VirtualRandomAccessFile.META_INFORMATION_SIZE);
+        physicalFile.write(42);
+        physicalFile.close();
+
+        VirtualFSCheckReport report = virtualFS.check(true);
+
+        assertEquals(1, report.getProblems().size());
+        VirtualFSCheckReport.Problem problem = report.getProblems().get(0);
+        assertEquals(VirtualFSCheckReport.ProblemType.CHECKSUM_MISMATCH, problem.getType());
+        assertEquals(virtualFile, problem.getFile());
+        assertTrue(virtualFS.check(false).isConsistent());
+    }
+
+    @Test
+    void orphanedBlock() throws IOException, VFSException {
+        createFile(name, 10);
+
+        long position = sourceFile.length();
+        RandomAccessFile physicalFile = new RandomAccessFile(sourceFile, "rw");
+        physicalFile.setLength(position + VirtualRandomAccessFile.BLOCK_HEADER_SIZE
+                + VirtualRandomAccessFile.getBlockSize());
+        physicalFile.close();
+
+        VirtualFSCheckReport report = virtualFS.check(true);
+
+        assertEquals(1, report.getProblems().size());
+        assertTrue(hasProblem(report, VirtualFSCheckReport.ProblemType.ORPHANED_BLOCK, position));
+        assertTrue(hasRepair(report, VirtualFSCheckReport.RepairType.FREE_BLOCK, position));
+    }
+
+    @Test
+    void trailingGarbage() throws IOException, VFSException {
+        createFile(name, 10);
+
+        long position = sourceFile.length();
+        RandomAccessFile physicalFile = new RandomAccessFile(sourceFile, "rw");
+        physicalFile.setLength(position + 5);
+        physicalFile.close();
+
+        VirtualFSCheckReport report = virtualFS.check(true);
+
+        assertEquals(1, report.getProblems().size());
+        assertTrue(hasProblem(report, VirtualFSCheckReport.ProblemType.TRAILING_GARBAGE, position));
+        assertTrue(hasRepair(report, VirtualFSCheckReport.RepairType.TRUNCATE_CONTAINER, position));
+    }
+
+    @Test
+    void invalidPointer() throws IOException, VFSException {
+        VirtualFile virtualFile = createFile(name, 3000);
+        long position = virtualFile.getContentPosition();
+
+        RandomAccessFile physicalFile = new RandomAccessFile(sourceFile, "rw");
+        physicalFile.seek(position + 8);
+        physicalFile.writeLong(12345);
+        physicalFile.close();
+
+        VirtualFSCheckReport report = virtualFS.check(true);
+
+        assertTrue(hasProblem(report, VirtualFSCheckReport.ProblemType.INVALID_POINTER, 12345));
+        assertTrue(hasProblem(report, VirtualFSCheckReport.ProblemType.SIZE_MISMATCH, position));
+        assertTrue(hasProblem(report, VirtualFSCheckReport.ProblemType.ORPHANED_BLOCK,
+                position + VirtualRandomAccessFile.BLOCK_HEADER_SIZE + VirtualRandomAccessFile.getBlockSize()));
+        assertTrue(hasRepair(report, VirtualFSCheckReport.RepairType.TRUNCATE_CHAIN, position));
+        assertTrue(hasRepair(report, VirtualFSCheckReport.RepairType.SET_SIZE, position));
+    }
+
+    @Test
+    void crossLinkedBlock() throws IOException, VFSException {
+        VirtualFile firstFile = createFile(name, 10);
+        VirtualFile secondFile = createFile(newName, 3000);
+        long secondBlock = secondFile.getContentPosition() + VirtualRandomAccessFile.BLOCK_HEADER_SIZE
+                + VirtualRandomAccessFile.getBlockSize();
+
+        RandomAccessFile physicalFile = new RandomAccessFile(sourceFile, "rw");
+        physicalFile.seek(firstFile.getContentPosition() + 8);
+        physicalFile.writeLong(secondBlock);
+        physicalFile.close();
+
+        VirtualFSCheckReport report = virtualFS.check(false);
+
+        assertTrue(hasProblem(report, VirtualFSCheckReport.ProblemType.CROSS_LINKED_BLOCK, secondBlock));
+        assertTrue(hasRepair(report, VirtualFSCheckReport.RepairType.TRUNCATE_CHAIN, secondFile.getContentPosition()));
+    }
+
+    @Test
+    void referenceCountMismatch() throws IOException, VFSException {
+        VirtualFile virtualFile = createFile(name, 3000);
+        virtualFile.copy(virtualFS.mkdir(name));
+        long position = virtualFile.getContentPosition();
+
+        assertTrue(virtualFS.check(true).isConsistent());
+
+        virtualFS.getBlockReferences().retain(position);
+        VirtualFSCheckReport report = virtualFS.check(true);
+
+        assertEquals(1, report.getProblems().size());
+        assertTrue(hasProblem(report, VirtualFSCheckReport.ProblemType.REFERENCE_COUNT_MISMATCH, position));
+        assertTrue(hasRepair(report, VirtualFSCheckReport.RepairType.SET_REFERENCE_COUNT, position));
+    }
+
+    @Test
+    void lockedByOpenedFile() throws IOException, VFSException {
+        VirtualFile virtualFile = createFile(name, 10);
+
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        assertThrows(LockedVirtualFSNodeException.class, () -> virtualFS.check(true));
+        randomAccessFile.close();
+
+        assertTrue(virtualFS.check(true).isConsistent());
+    }
+}
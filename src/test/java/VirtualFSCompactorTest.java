@@ -0,0 +1,192 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualFSCompactorTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+    final String otherName = "other_name";
+
+    private static final int BLOCKS_COUNT = 5;
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+    private File sourceFile;
+    private VirtualFile[] files;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+
+        // блоки трёх файлов записываются вперемешку
+        files = new VirtualFile[]{virtualFS.touch(name), virtualFS.touch(newName), virtualFS.touch(otherName)};
+        VirtualRandomAccessFile[] randomAccessFiles = new VirtualRandomAccessFile[files.length];
+        for (int i = 0; i < files.length; i++) {
+            randomAccessFiles[i] = files[i].open("rw");
+        }
+        for (int block = 0; block < BLOCKS_COUNT; block++) {
+            for (int i = 0; i < files.length; i++) {
+                randomAccessFiles[i].write(content(i, block));
+                randomAccessFiles[i].flush();
+            }
+        }
+        for (VirtualRandomAccessFile randomAccessFile : randomAccessFiles) {
+            randomAccessFile.close();
+        }
+        virtualFS.save();
+    }
+
+    /**
+     * Данные, занимающие ровно один блок файла
+     */
+    private static byte[] content(int file, int block) {
+        int size = VirtualRandomAccessFile.getBlockSize();
+        byte[] content = new byte[block == 0 ? size - VirtualRandomAccessFile.META_INFORMATION_SIZE : size];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (file * 31 + block * 7 + i);
+        }
+        return content;
+    }
+
+    private static void assertContent(VirtualFile virtualFile, int file) throws IOException, VFSException {
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("r");
+        for (int block = 0; block < BLOCKS_COUNT; block++) {
+            byte[] readContent = new byte[content(file, block).length];
+            randomAccessFile.read(readContent);
+            assertArrayEquals(content(file, block), readContent);
+        }
+        randomAccessFile.close();
+    }
+
+    private boolean isContiguous(VirtualFile virtualFile) throws IOException {
+        long slotSize = VirtualRandomAccessFile.getBlockSize() + VirtualRandomAccessFile.BLOCK_HEADER_SIZE;
+        RandomAccessFile physicalFile = new RandomAccessFile(sourceFile, "r");
+        long position = virtualFile.getContentPosition();
+        boolean isContiguous = true;
+        while (true) {
+            physicalFile.seek(position + 8);
+            long nextPosition = physicalFile.readLong();
+            if (nextPosition == -1) {
+                break;
+            }
+            isContiguous &= nextPosition == position + slotSize;
+            position = nextPosition;
+        }
+        physicalFile.close();
+        return isContiguous;
+    }
+
+    @Test
+    void compact() throws IOException, VFSException, ClassNotFoundException {
+        assertFalse(isContiguous(files[0]));
+        virtualFS.remove(files[1]);
+        long length = sourceFile.length();
+
+        virtualFS.compact();
+
+        assertTrue(isContiguous(files[0]));
+        assertTrue(isContiguous(files[2]));
+        assertTrue(sourceFile.length() < length);
+        assertContent(files[0], 0);
+        assertContent(files[2], 2);
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertContent(vfs.getFiles().get(0), 0);
+        assertContent(vfs.getFiles().get(1), 2);
+    }
+
+    @Test
+    void openedFileStaysInPlace() throws IOException, VFSException {
+        virtualFS.remove(files[0]);
+        VirtualRandomAccessFile randomAccessFile = files[1].open("r");
+        long contentPosition = files[1].getContentPosition();
+        long length = sourceFile.length();
+
+        virtualFS.compact();
+
+        assertEquals(contentPosition, files[1].getContentPosition());
+        assertTrue(sourceFile.length() <= length);
+        for (int block = 0; block < BLOCKS_COUNT; block++) {
+            byte[] readContent = new byte[content(1, block).length];
+            randomAccessFile.read(readContent);
+            assertArrayEquals(content(1, block), readContent);
+        }
+        randomAccessFile.close();
+
+        assertContent(files[2], 2);
+        assertTrue(virtualFS.check(true).isConsistent());
+    }
+
+    @Test
+    void steps() throws IOException, VFSException {
+        virtualFS.remove(files[0]);
+        VirtualFSCompactor compactor = virtualFS.compactor();
+
+        int steps = 0;
+        while (compactor.step(1)) {
+            steps++;
+            assertTrue(virtualFS.check(true).isConsistent());
+        }
+
+        assertTrue(steps > 1);
+        assertTrue(isContiguous(files[1]));
+        assertTrue(isContiguous(files[2]));
+        assertContent(files[1], 1);
+        assertContent(files[2], 2);
+        assertTrue(virtualFS.check(true).isConsistent());
+    }
+
+    @Test
+    void writeAfterCompact() throws IOException, VFSException {
+        virtualFS.remove(files[1]);
+        virtualFS.compact();
+
+        VirtualFile virtualFile = virtualFS.touch(newName);
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.write(content(1, 0));
+        randomAccessFile.close();
+
+        assertContent(files[0], 0);
+        assertContent(files[2], 2);
+        assertTrue(virtualFS.check(true).isConsistent());
+    }
+
+    @Test
+    void writeDuringCompaction() throws IOException, VFSException {
+        virtualFS.remove(files[1]);
+        VirtualFile virtualFile = virtualFS.touch(newName);
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.write(content(1, 0));
+
+        VirtualFSCompactor compactor = virtualFS.compactor();
+        int block = 1;
+        while (compactor.step(2)) {
+            if (block < BLOCKS_COUNT) {
+                randomAccessFile.write(content(1, block++));
+            }
+        }
+        while (block < BLOCKS_COUNT) {
+            randomAccessFile.write(content(1, block++));
+        }
+        randomAccessFile.close();
+        virtualFS.compact();
+
+        assertContent(files[0], 0);
+        assertContent(virtualFile, 1);
+        assertContent(files[2], 2);
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+}
@@ -0,0 +1,171 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualFSContainerTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private File sourceFile;
+    private VirtualFSContainer container;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException {
+        folder.create();
+        sourceFile = folder.newFile(name);
+        container = new VirtualFSContainer(sourceFile);
+    }
+
+    @Test
+    void namespaces() throws IOException, VFSException, ClassNotFoundException {
+        VirtualFS first = container.createNamespace(name);
+        VirtualFS second = container.createNamespace(newName);
+        assertSame(first, container.getNamespace(name));
+
+        byte[] firstContent = VirtualFSTestUtils.content(3000, 1);
+        byte[] secondContent = VirtualFSTestUtils.content(5000, 2);
+        VirtualFSTestUtils.createFile(first, name, firstContent);
+        VirtualFSTestUtils.createFile(second, name, secondContent);
+        second.mkdir(newName);
+        first.save();
+        second.save();
+        container.close();
+
+        VirtualFSContainer loadedContainer = new VirtualFSContainer(sourceFile);
+        assertEquals(Arrays.asList(newName, name), new ArrayList<>(loadedContainer.getNamespaces()));
+        VirtualFS loadedFirst = loadedContainer.getNamespace(name);
+        VirtualFS loadedSecond = loadedContainer.getNamespace(newName);
+        assertArrayEquals(firstContent, VirtualFSTestUtils.readContent(loadedFirst.getFiles().get(0)));
+        assertArrayEquals(secondContent, VirtualFSTestUtils.readContent(loadedSecond.getFiles().get(0)));
+        assertEquals(0, loadedFirst.getDirectories().size());
+        assertEquals(1, loadedSecond.getDirectories().size());
+        assertTrue(loadedContainer.check(true).isConsistent(), loadedContainer.check(true).getProblems().toString());
+    }
+
+    @Test
+    void namespaceErrors() throws IOException, VFSException {
+        container.createNamespace(name);
+        assertThrows(NotUniqueNameException.class, () -> container.createNamespace(name));
+        assertThrows(EmptyNodeNameException.class, () -> container.createNamespace(""));
+        assertThrows(NamespaceNotFoundException.class, () -> container.getNamespace(newName));
+    }
+
+    @Test
+    void notContainer() throws IOException, ClassNotFoundException, VFSException {
+        File vfsFile = folder.newFile(newName);
+        new VirtualFS(vfsFile).close();
+        assertThrows(IOException.class, () -> new VirtualFSContainer(vfsFile));
+    }
+
+    @Test
+    void sharedFreeBlocks() throws IOException, VFSException {
+        VirtualFS first = container.createNamespace(name);
+        VirtualFS second = container.createNamespace(newName);
+
+        VirtualFile virtualFile = VirtualFSTestUtils.createFile(first, name, VirtualFSTestUtils.content(10_000, 1));
+        long length = sourceFile.length();
+        virtualFile.remove();
+
+        // блоки, освобождённые в одном пространстве имён, занимает другое
+        VirtualFSTestUtils.createFile(second, name, VirtualFSTestUtils.content(10_000, 2));
+        assertEquals(length, sourceFile.length());
+        assertTrue(container.check(true).isConsistent(), container.check(true).getProblems().toString());
+        assertTrue(first.check(true).isConsistent());
+    }
+
+    @Test
+    void concurrentNamespaces() throws Throwable {
+        int namespacesCount = 8;
+        List<VirtualFS> virtualFSs = new ArrayList<>();
+        for (int i = 0; i < namespacesCount; i++) {
+            virtualFSs.add(container.createNamespace(name + i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(namespacesCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < namespacesCount; i++) {
+            VirtualFS virtualFS = virtualFSs.get(i);
+            int seed = i;
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 5; j++) {
+                    try {
+                        VirtualFSTestUtils.createFile(virtualFS, name + j,
+                                VirtualFSTestUtils.content(3000 + j * 500, seed));
+                    } catch (VFSException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        for (int i = 0; i < namespacesCount; i++) {
+            for (VirtualFile virtualFile : virtualFSs.get(i).getFiles()) {
+                int j = Integer.parseInt(virtualFile.getName().substring(name.length()));
+                assertArrayEquals(VirtualFSTestUtils.content(3000 + j * 500, i),
+                        VirtualFSTestUtils.readContent(virtualFile));
+            }
+        }
+        assertTrue(container.check(true).isConsistent(), container.check(true).getProblems().toString());
+    }
+
+    @Test
+    void removeNamespace() throws IOException, VFSException, ClassNotFoundException {
+        VirtualFS first = container.createNamespace(name);
+        VirtualFS second = container.createNamespace(newName);
+        VirtualFSTestUtils.createFile(first, name, VirtualFSTestUtils.content(10_000, 1));
+        first.mkdir(name);
+        long length = sourceFile.length();
+
+        container.removeNamespace(name);
+        assertThrows(NamespaceNotFoundException.class, () -> container.getNamespace(name));
+        VirtualFSTestUtils.createFile(second, name, VirtualFSTestUtils.content(10_000, 2));
+        assertEquals(length, sourceFile.length());
+        assertTrue(container.check(true).isConsistent(), container.check(true).getProblems().toString());
+
+        second.save();
+        container.close();
+        assertEquals(1, new VirtualFSContainer(sourceFile).getNamespaces().size());
+    }
+
+    @Test
+    void compactNamespace() throws IOException, VFSException {
+        VirtualFS first = container.createNamespace(name);
+        VirtualFS second = container.createNamespace(newName);
+        List<VirtualFile> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            files.add(VirtualFSTestUtils.createFile(first, name + i, VirtualFSTestUtils.content(3000, i)));
+            VirtualFSTestUtils.createFile(second, name + i, VirtualFSTestUtils.content(3000, i + 10));
+        }
+        files.get(0).remove();
+        files.get(2).remove();
+
+        first.compact();
+        second.compact();
+
+        assertArrayEquals(VirtualFSTestUtils.content(3000, 1), VirtualFSTestUtils.readContent(files.get(1)));
+        assertArrayEquals(VirtualFSTestUtils.content(3000, 13),
+                VirtualFSTestUtils.readContent(second.getFiles().get(3)));
+        assertTrue(container.check(true).isConsistent(), container.check(true).getProblems().toString());
+    }
+}
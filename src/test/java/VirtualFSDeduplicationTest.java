@@ -0,0 +1,161 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualFSDeduplicationTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+    final String otherName = "other_name";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+    private File sourceFile;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+        virtualFS.setDeduplicationEnabled(true);
+    }
+
+    private int freeBlocksCount() throws IOException {
+        long slotSize = VirtualRandomAccessFile.getBlockSize() + VirtualRandomAccessFile.BLOCK_HEADER_SIZE;
+        RandomAccessFile physicalFile = new RandomAccessFile(sourceFile, "r");
+        int count = 0;
+        for (long position = 8; position + slotSize <= physicalFile.length(); position += slotSize) {
+            physicalFile.seek(position);
+            if (physicalFile.readLong() == -2) {
+                count++;
+            }
+        }
+        physicalFile.close();
+        return count;
+    }
+
+    private long nextBlockPosition(long position) throws IOException {
+        RandomAccessFile physicalFile = new RandomAccessFile(sourceFile, "r");
+        physicalFile.seek(position + 8);
+        long nextPosition = physicalFile.readLong();
+        physicalFile.close();
+        return nextPosition;
+    }
+
+    /**
+     * Число блоков цепочки метаданных VFS, она начинается с первого блока физического файла
+     */
+    private int metadataBlocksCount() throws IOException {
+        int count = 0;
+        for (long position = 8; position != -1; position = nextBlockPosition(position)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    void identicalFiles() throws IOException, VFSException {
+        byte[] content = VirtualFSTestUtils.content(3000, 1);
+        VirtualFile virtualFile = VirtualFSTestUtils.createFile(virtualFS, name, content);
+        int metadataBlocks = metadataBlocksCount();
+        VirtualFile duplicateFile = VirtualFSTestUtils.createFile(virtualFS, newName, content);
+
+        assertEquals(virtualFile.getContentPosition(), duplicateFile.getContentPosition());
+        assertEquals(3, virtualFS.getDeduplicationStats().getDeduplicatedBlocks());
+        assertArrayEquals(content, VirtualFSTestUtils.readContent(duplicateFile));
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+
+        // блоки дубликата освобождены, часть из них могла занять выросшая цепочка метаданных
+        assertEquals(3, freeBlocksCount() + metadataBlocksCount() - metadataBlocks);
+    }
+
+    @Test
+    void sharedSuffix() throws IOException, VFSException {
+        byte[] content = VirtualFSTestUtils.content(3000, 1);
+        VirtualFile virtualFile = VirtualFSTestUtils.createFile(virtualFS, name, content);
+        content[0] = 42;
+        VirtualFile changedFile = VirtualFSTestUtils.createFile(virtualFS, newName, content);
+
+        assertNotEquals(virtualFile.getContentPosition(), changedFile.getContentPosition());
+        assertEquals(nextBlockPosition(virtualFile.getContentPosition()), nextBlockPosition(changedFile.getContentPosition()));
+        assertEquals(2, virtualFS.getDeduplicationStats().getDeduplicatedBlocks());
+        assertArrayEquals(content, VirtualFSTestUtils.readContent(changedFile));
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+
+    @Test
+    void writeAfterDeduplication() throws IOException, VFSException {
+        byte[] content = VirtualFSTestUtils.content(3000, 1);
+        VirtualFile virtualFile = VirtualFSTestUtils.createFile(virtualFS, name, content);
+        VirtualFile duplicateFile = VirtualFSTestUtils.createFile(virtualFS, newName, content);
+
+        VirtualRandomAccessFile randomAccessFile = duplicateFile.open("rw");
+        randomAccessFile.seek(2500);
+        randomAccessFile.write(42);
+        randomAccessFile.close();
+
+        assertArrayEquals(content, VirtualFSTestUtils.readContent(virtualFile));
+        assertEquals(42, VirtualFSTestUtils.readContent(duplicateFile)[2500]);
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+
+        virtualFile.remove();
+        duplicateFile.remove();
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+
+    @Test
+    void disabled() throws IOException, VFSException {
+        virtualFS.setDeduplicationEnabled(false);
+        byte[] content = VirtualFSTestUtils.content(3000, 1);
+        VirtualFile virtualFile = VirtualFSTestUtils.createFile(virtualFS, name, content);
+        VirtualFile duplicateFile = VirtualFSTestUtils.createFile(virtualFS, newName, content);
+
+        assertNotEquals(virtualFile.getContentPosition(), duplicateFile.getContentPosition());
+        assertEquals(0, virtualFS.getDeduplicationStats().getHashedBlocks());
+    }
+
+    @Test
+    void indexIsSaved() throws IOException, VFSException, ClassNotFoundException {
+        byte[] content = VirtualFSTestUtils.content(3000, 1);
+        VirtualFile virtualFile = VirtualFSTestUtils.createFile(virtualFS, name, content);
+        virtualFS.save();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        vfs.setDeduplicationEnabled(true);
+        VirtualFile duplicateFile = VirtualFSTestUtils.createFile(vfs, newName, content);
+
+        assertEquals(virtualFile.getContentPosition(), duplicateFile.getContentPosition());
+        assertTrue(vfs.check(true).isConsistent(), vfs.check(true).getProblems().toString());
+    }
+
+    @Test
+    void importFiles() throws IOException, VFSException {
+        File importFolder = folder.newFolder();
+        byte[] content = VirtualFSTestUtils.content(5000, 3);
+        for (String fileName : new String[]{name, newName}) {
+            FileOutputStream out = new FileOutputStream(new File(importFolder, fileName));
+            out.write(content);
+            out.close();
+        }
+
+        virtualFS.importContent(importFolder);
+
+        VirtualFSDeduplicationStats stats = virtualFS.getDeduplicationStats();
+        assertEquals(5, stats.getDeduplicatedBlocks());
+        assertEquals(0.5, stats.getDeduplicationRatio());
+        assertEquals(2, stats.getPasses());
+        assertEquals(virtualFS.getFiles().get(0).getContentPosition(), virtualFS.getFiles().get(1).getContentPosition());
+        assertArrayEquals(content, VirtualFSTestUtils.readContent(virtualFS.getFiles().get(1)));
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+}
@@ -0,0 +1,122 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualFSLockPolicyTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        File sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    @Test
+    void waitForLock() throws Throwable {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("r");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> future = executor.submit(() -> {
+            try {
+                return virtualFS.withLockPolicy(VirtualFSLockPolicy.waiting(10, TimeUnit.SECONDS), () -> {
+                    virtualFile.remove();
+                    return null;
+                });
+            } catch (VFSException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(future.isDone());
+        randomAccessFile.close();
+
+        future.get();
+        executor.shutdown();
+        assertEquals(0, virtualFS.getFiles().size());
+    }
+
+    @Test
+    void timeout() throws IOException, VFSException {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        VirtualDirectory destinationDirectory = virtualFS.mkdir(name);
+        virtualFS.setLockPolicy(VirtualFSLockPolicy.waiting(100, TimeUnit.MILLISECONDS));
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("r");
+
+        long start = System.nanoTime();
+        assertThrows(LockedVirtualFSNodeException.class, () -> virtualFile.move(destinationDirectory));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        randomAccessFile.close();
+        virtualFile.move(destinationDirectory);
+        assertSame(virtualFile, destinationDirectory.getFile(name));
+    }
+
+    @Test
+    void failFastByDefault() throws IOException, VFSException {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        assertSame(VirtualFSLockPolicy.FAIL_FAST, virtualFS.getLockPolicy());
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("r");
+
+        long start = System.nanoTime();
+        assertThrows(LockedVirtualFSNodeException.class, virtualFile::remove);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        randomAccessFile.close();
+    }
+
+    @Test
+    void contendedMoves() throws Throwable {
+        virtualFS.setLockPolicy(VirtualFSLockPolicy.waiting(30, TimeUnit.SECONDS));
+        VirtualDirectory first = virtualFS.mkdir(name);
+        VirtualDirectory second = virtualFS.mkdir(newName);
+        int threadsCount = 8;
+        List<VirtualFSNode> nodes = new ArrayList<>();
+        for (int i = 0; i < threadsCount; i++) {
+            VirtualDirectory directory = i % 2 == 0 ? first : second;
+            nodes.add(i % 4 < 2 ? directory.touch(name + i) : directory.mkdir(name + i));
+        }
+
+        // встречные перемещения между двумя директориями ждут блокировок, а не завершаются ошибкой
+        ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (VirtualFSNode node : nodes) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 50; j++) {
+                    try {
+                        node.move(node.getRootDirectory() == first ? second : first);
+                    } catch (VFSException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threadsCount / 2, first.getFiles().size() + first.getDirectories().size());
+        assertEquals(threadsCount / 2, second.getFiles().size() + second.getDirectories().size());
+    }
+}
@@ -10,6 +10,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -299,4 +304,121 @@ class VirtualFSTest {
 
         assertEquals(fileName2, dir2.getFiles().get(0).getName());
     }
-}
\ No newline at end of file
+
+    @Test
+    void saveWithOpenWriter() throws IOException, VFSException, ClassNotFoundException {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.write(new byte[]{1, 2, 3});
+
+        virtualFS.mkdir(name);
+        assertDoesNotThrow(() -> virtualFS.save());
+        randomAccessFile.close();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertEquals(1, vfs.getDirectories().size());
+        assertEquals(1, vfs.getFiles().size());
+    }
+
+    @Test
+    void saveDuringChanges() throws Throwable {
+        int threadsCount = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threadsCount + 1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threadsCount; i++) {
+            VirtualDirectory directory = virtualFS.mkdir(name + i);
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 200; j++) {
+                    try {
+                        directory.touch(name + j);
+                    } catch (VFSException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return null;
+            }));
+        }
+        Future<?> saver = executor.submit(() -> {
+            try {
+                while (futures.stream().anyMatch(future -> !future.isDone())) {
+                    virtualFS.save();
+                }
+            } catch (VFSException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        });
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        saver.get();
+        executor.shutdown();
+        virtualFS.save();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        for (VirtualDirectory directory : vfs.getDirectories()) {
+            assertEquals(200, directory.getFiles().size());
+        }
+    }
+
+    @Test
+    void writeDuringTransaction() throws Throwable {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        CountDownLatch isStarted = new CountDownLatch(1);
+        CountDownLatch isWritten = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> transaction = executor.submit(() -> {
+            try {
+                virtualFS.transaction(body -> {
+                    body.touch(directory, name);
+                    isStarted.countDown();
+                    try {
+                        isWritten.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                });
+            } catch (VFSException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        });
+        isStarted.await();
+
+        // запись не ждёт конца транзакции, метаданные остаются несохранёнными
+        long start = System.nanoTime();
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.write(new byte[]{1, 2, 3});
+        randomAccessFile.close();
+        assertTrue(System.nanoTime() - start < VirtualFS.CHECKPOINT_TIMEOUT_NANOS);
+        assertTrue(virtualFS.isDirty());
+        // сохранение ждёт конца транзакции ограниченное время
+        assertThrows(LockedVirtualFSNodeException.class, () -> virtualFS.save());
+
+        isWritten.countDown();
+        transaction.get();
+        executor.shutdown();
+        assertFalse(virtualFS.isDirty());
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertEquals(3, vfs.getRootDirectory().getFile(name).length());
+        assertEquals(1, vfs.getRootDirectory().getDirectory(name).getFiles().size());
+    }
+
+    @Test
+    void closeSavesDirtyMetadata() throws IOException, VFSException, ClassNotFoundException {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        // изменение структуры в этом потоке не даёт сохранить запись
+        Lock lock = virtualFS.beginChange();
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.write(new byte[]{1, 2, 3});
+        randomAccessFile.close();
+        lock.unlock();
+        assertTrue(virtualFS.isDirty());
+
+        virtualFS.close();
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertEquals(3, vfs.getRootDirectory().getFile(name).length());
+    }
+}
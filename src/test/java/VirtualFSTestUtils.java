@@ -0,0 +1,59 @@
+import exceptions.VFSException;
+
+import java.io.IOException;
+
+/**
+ * Общие для тестов операции с данными файлов VFS
+ */
+final class VirtualFSTestUtils {
+    private VirtualFSTestUtils() {
+    }
+
+    /**
+     * Данные размера size, разные для разных seed
+     */
+    static byte[] content(int size, int seed) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (seed + i * 7);
+        }
+        return content;
+    }
+
+    /**
+     * Создание файла name в root директории VFS с данными content
+     */
+    static VirtualFile createFile(VirtualFS virtualFS, String name, byte[] content) throws IOException, VFSException {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.write(content);
+        randomAccessFile.close();
+        return virtualFile;
+    }
+
+    /**
+     * Создание файла name в директории directory с size нулевыми байтами
+     */
+    static VirtualFile createFile(VirtualDirectory directory, String name, int size) throws IOException, VFSException {
+        VirtualFile file = directory.touch(name);
+        write(file, size);
+        return file;
+    }
+
+    /**
+     * Запись size нулевых байт в начало файла
+     */
+    static void write(VirtualFile file, int size) throws IOException, VFSException {
+        VirtualRandomAccessFile randomAccessFile = file.open("rw");
+        randomAccessFile.write(new byte[size]);
+        randomAccessFile.close();
+    }
+
+    static byte[] readContent(VirtualFile virtualFile) throws IOException, VFSException {
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("r");
+        byte[] bytes = new byte[(int) randomAccessFile.length()];
+        randomAccessFile.read(bytes);
+        randomAccessFile.close();
+        return bytes;
+    }
+}
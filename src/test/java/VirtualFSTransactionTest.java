@@ -0,0 +1,165 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualFSTransactionTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+    private File sourceFile;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    @Test
+    void commit() throws IOException, VFSException, ClassNotFoundException {
+        VirtualFile movedFile = virtualFS.touch(newName);
+
+        virtualFS.transaction(transaction -> {
+            VirtualDirectory directory = transaction.mkdir(name);
+            transaction.touch(directory, name);
+            transaction.move(movedFile, directory);
+            transaction.rename(directory, newName);
+        });
+
+        assertEquals(0, virtualFS.getFiles().size());
+        assertEquals(1, virtualFS.getDirectories().size());
+
+        VirtualDirectory directory = virtualFS.getDirectories().get(0);
+        assertEquals(newName, directory.getName());
+        assertEquals(2, directory.getFiles().size());
+        assertEquals(directory, movedFile.getRootDirectory());
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        VirtualDirectory savedDirectory = vfs.getDirectories().get(0);
+        assertEquals(newName, savedDirectory.getName());
+        assertEquals(name, savedDirectory.getFiles().get(0).getName());
+        assertEquals(newName, savedDirectory.getFiles().get(1).getName());
+    }
+
+    @Test
+    void rollback() throws VFSException {
+        VirtualFile firstFile = virtualFS.touch(name);
+        VirtualFile secondFile = virtualFS.touch(newName);
+        VirtualDirectory directory = virtualFS.mkdir(name);
+
+        assertThrows(NotUniqueNameException.class, () -> virtualFS.transaction(transaction -> {
+            transaction.move(firstFile, directory);
+            transaction.rename(directory, newName);
+            transaction.remove(secondFile);
+            transaction.touch(name);
+            transaction.touch(name);
+        }));
+
+        assertArrayEquals(new VirtualFile[]{firstFile, secondFile}, virtualFS.getFiles().toArray());
+        assertArrayEquals(new VirtualDirectory[]{directory}, virtualFS.getDirectories().toArray());
+        assertEquals(name, directory.getName());
+        assertEquals(0, directory.getFiles().size());
+        assertEquals(virtualFS.getRootDirectory(), secondFile.getRootDirectory());
+    }
+
+    @Test
+    void rollbackKeepsContent() throws IOException, VFSException {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.write("hello".getBytes());
+        randomAccessFile.close();
+
+        assertThrows(NotUniqueNameException.class, () -> virtualFS.transaction(transaction -> {
+            transaction.remove(virtualFile);
+            transaction.mkdir(name);
+            transaction.mkdir(name);
+        }));
+
+        randomAccessFile = virtualFile.open("r");
+        assertEquals("hello", randomAccessFile.readLine());
+        randomAccessFile.close();
+    }
+
+    @Test
+    void removeDirectory() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualFile virtualFile = directory.touch(name);
+
+        virtualFS.transaction(transaction -> transaction.remove(directory));
+
+        assertEquals(0, virtualFS.getDirectories().size());
+        assertThrows(VirtualFSNodeIsDeletedException.class, () -> virtualFile.rename(newName));
+    }
+
+    @Test
+    void lockedByOpenedFile() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualDirectory destinationDirectory = virtualFS.mkdir(newName);
+        VirtualFile virtualFile = directory.touch(name);
+
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("r");
+
+        assertThrows(LockedVirtualFSNodeException.class, () -> virtualFS.transaction(transaction -> {
+            transaction.touch(newName);
+            transaction.move(directory, destinationDirectory);
+        }));
+
+        randomAccessFile.close();
+
+        assertEquals(0, virtualFS.getFiles().size());
+        assertEquals(virtualFS.getRootDirectory(), directory.getRootDirectory());
+        assertDoesNotThrow(() -> virtualFS.transaction(transaction -> transaction.move(directory, destinationDirectory)));
+        assertEquals(destinationDirectory, directory.getRootDirectory());
+    }
+
+    @Test
+    void finishedTransaction() throws IOException, VFSException {
+        VirtualFSTransaction[] transactions = new VirtualFSTransaction[1];
+        virtualFS.transaction(transaction -> transactions[0] = transaction);
+
+        assertThrows(IllegalStateException.class, () -> transactions[0].touch(name));
+    }
+
+    @Test
+    void commitWhileSaveIsLocked() throws IOException, VFSException, ClassNotFoundException, InterruptedException {
+        CountDownLatch isLocked = new CountDownLatch(1);
+        CountDownLatch isCommitted = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            Lock lock = virtualFS.beginChange();
+            isLocked.countDown();
+            try {
+                isCommitted.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+        thread.start();
+        isLocked.await();
+
+        // сохранение не дождалось изменения другого потока, но метаданные остались помечены несохранёнными
+        virtualFS.transaction(transaction -> transaction.mkdir(name));
+        assertTrue(virtualFS.isDirty());
+        isCommitted.countDown();
+        thread.join();
+
+        virtualFS.close();
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertEquals(1, vfs.getDirectories().size());
+        assertEquals(name, vfs.getDirectories().get(0).getName());
+    }
+}
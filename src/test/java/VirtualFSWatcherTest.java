@@ -0,0 +1,237 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualFSWatcherTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        File sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    private static void assertEvent(VirtualFSWatchEvent event, VirtualFSWatchEvent.Kind kind, VirtualFSNode node,
+                                    String path, String oldPath) {
+        assertNotNull(event);
+        assertEquals(kind, event.getKind());
+        assertSame(node, event.getNode());
+        assertEquals(path, event.getPath());
+        assertEquals(oldPath, event.getOldPath());
+    }
+
+    @Test
+    void events() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualFSWatcher watcher = virtualFS.watch(directory, true, EnumSet.allOf(VirtualFSWatchEvent.Kind.class));
+        assertNull(watcher.poll());
+
+        VirtualFile file = directory.touch(name);
+        assertEvent(watcher.poll(), VirtualFSWatchEvent.Kind.CREATE, file, "/test_name/test_name", "/test_name/test_name");
+        VirtualDirectory nested = directory.mkdir(newName);
+        assertEvent(watcher.poll(), VirtualFSWatchEvent.Kind.CREATE, nested, "/test_name/name_test", "/test_name/name_test");
+
+        VirtualFSTestUtils.write(file, 100);
+        file.open("r").close();
+        assertEvent(watcher.poll(), VirtualFSWatchEvent.Kind.MODIFY, file, "/test_name/test_name", "/test_name/test_name");
+        assertNull(watcher.poll());
+
+        file.rename(newName);
+        assertEvent(watcher.poll(), VirtualFSWatchEvent.Kind.RENAME, file, "/test_name/name_test", "/test_name/test_name");
+        file.move(nested);
+        assertEvent(watcher.poll(), VirtualFSWatchEvent.Kind.MOVE, file, "/test_name/name_test/name_test", "/test_name/name_test");
+
+        VirtualFile copiedFile = file.copy(directory);
+        assertEvent(watcher.poll(), VirtualFSWatchEvent.Kind.CREATE, copiedFile, "/test_name/name_test", "/test_name/name_test");
+
+        file.move(virtualFS.getRootDirectory());
+        assertEvent(watcher.poll(), VirtualFSWatchEvent.Kind.MOVE, file, "/name_test", "/test_name/name_test/name_test");
+        file.remove();
+        assertNull(watcher.poll());
+
+        nested.remove();
+        assertEvent(watcher.poll(), VirtualFSWatchEvent.Kind.DELETE, nested, "/test_name/name_test", "/test_name/name_test");
+        assertNull(watcher.poll());
+
+        watcher.close();
+        directory.touch(name);
+        assertNull(watcher.poll());
+    }
+
+    @Test
+    void recursiveAndKinds() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualDirectory nested = directory.mkdir(name);
+        VirtualFSWatcher watcher = virtualFS.watch(directory, false, EnumSet.allOf(VirtualFSWatchEvent.Kind.class));
+        VirtualFSWatcher recursiveWatcher = virtualFS.watch(directory, true,
+                EnumSet.of(VirtualFSWatchEvent.Kind.DELETE));
+
+        VirtualFile file = nested.touch(name);
+        VirtualFSTestUtils.write(file, 10);
+        assertTrue(watcher.pollEvents().isEmpty());
+        assertTrue(recursiveWatcher.pollEvents().isEmpty());
+
+        file.remove();
+        assertNull(watcher.poll());
+        assertEvent(recursiveWatcher.poll(), VirtualFSWatchEvent.Kind.DELETE, file, "/test_name/test_name/test_name", "/test_name/test_name/test_name");
+
+        nested.rename(newName);
+        assertEvent(watcher.poll(), VirtualFSWatchEvent.Kind.RENAME, nested, "/test_name/name_test", "/test_name/test_name");
+        assertNull(recursiveWatcher.poll());
+
+        assertThrows(IllegalArgumentException.class, () -> virtualFS.watch(new VirtualDirectory(name), true,
+                EnumSet.allOf(VirtualFSWatchEvent.Kind.class)));
+    }
+
+    @Test
+    void coalesceAndOverflow() throws IOException, VFSException {
+        VirtualFSWatcher watcher = virtualFS.watch(virtualFS.getRootDirectory(), true,
+                EnumSet.allOf(VirtualFSWatchEvent.Kind.class), 4);
+        VirtualFile file = virtualFS.touch(name);
+        for (int i = 0; i < 10; i++) {
+            VirtualFSTestUtils.write(file, 10);
+        }
+        List<VirtualFSWatchEvent> events = watcher.pollEvents();
+        assertEquals(2, events.size());
+        assertEquals(VirtualFSWatchEvent.Kind.CREATE, events.get(0).getKind());
+        assertEquals(VirtualFSWatchEvent.Kind.MODIFY, events.get(1).getKind());
+
+        VirtualFSTestUtils.write(file, 10);
+        assertEquals(VirtualFSWatchEvent.Kind.MODIFY, watcher.poll().getKind());
+
+        for (int i = 0; i < 6; i++) {
+            virtualFS.mkdir(name + i);
+        }
+        assertEquals(2, watcher.getLostEvents());
+        VirtualFSTestUtils.write(file, 10);
+        events = watcher.pollEvents();
+        assertEquals(5, events.size());
+        assertEquals(VirtualFSWatchEvent.Kind.OVERFLOW, events.get(0).getKind());
+        assertSame(virtualFS.getRootDirectory(), events.get(0).getNode());
+        for (int i = 1; i < 5; i++) {
+            assertEquals(VirtualFSWatchEvent.Kind.CREATE, events.get(i).getKind());
+        }
+
+        // MODIFY, отброшенный при переполнении, не мешает следующему
+        VirtualFSTestUtils.write(file, 10);
+        assertEquals(VirtualFSWatchEvent.Kind.MODIFY, watcher.poll().getKind());
+        assertNull(watcher.poll());
+    }
+
+    @Test
+    void transaction() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualFSWatcher watcher = virtualFS.watch(virtualFS.getRootDirectory(), true,
+                EnumSet.allOf(VirtualFSWatchEvent.Kind.class));
+
+        assertThrows(IOException.class, () -> virtualFS.transaction(transaction -> {
+            transaction.touch(directory, name);
+            throw new IOException();
+        }));
+        assertNull(watcher.poll());
+
+        virtualFS.transaction(transaction -> {
+            VirtualFile file = transaction.touch(directory, name);
+            assertNull(watcher.poll());
+            transaction.rename(file, newName);
+            transaction.move(file, virtualFS.getRootDirectory());
+            transaction.remove(directory);
+        });
+        List<VirtualFSWatchEvent> events = watcher.pollEvents();
+        assertEquals(4, events.size());
+        assertEquals(VirtualFSWatchEvent.Kind.CREATE, events.get(0).getKind());
+        assertEquals(VirtualFSWatchEvent.Kind.RENAME, events.get(1).getKind());
+        assertEquals("/test_name/name_test", events.get(1).getPath());
+        assertEquals(VirtualFSWatchEvent.Kind.MOVE, events.get(2).getKind());
+        assertEquals("/name_test", events.get(2).getPath());
+        assertEquals("/test_name/name_test", events.get(2).getOldPath());
+        assertEquals(VirtualFSWatchEvent.Kind.DELETE, events.get(3).getKind());
+        assertEquals("/test_name", events.get(3).getPath());
+    }
+
+    @Test
+    void concurrentPublishers() throws InterruptedException, VFSException {
+        int threadCount = 4;
+        int eventCount = 2000;
+        VirtualFSWatcher watcher = virtualFS.watch(virtualFS.getRootDirectory(), true,
+                EnumSet.allOf(VirtualFSWatchEvent.Kind.class), 256);
+        VirtualFile file = new VirtualFile(name, virtualFS.getRootDirectory());
+        AtomicInteger received = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < eventCount; j++) {
+                    file.publish(VirtualFSWatchEvent.Kind.CREATE, virtualFS.getRootDirectory());
+                }
+            }));
+        }
+        Thread consumer = new Thread(() -> {
+            while (received.get() + watcher.getLostEvents() < (long) threadCount * eventCount) {
+                VirtualFSWatchEvent event = watcher.poll();
+                if (event != null && event.getKind() == VirtualFSWatchEvent.Kind.CREATE) {
+                    received.incrementAndGet();
+                }
+            }
+        });
+        consumer.start();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        consumer.join(10_000);
+        assertFalse(consumer.isAlive());
+        assertEquals((long) threadCount * eventCount, received.get() + watcher.getLostEvents());
+    }
+
+    @Test
+    void concurrentModifications() throws InterruptedException, VFSException {
+        int modificationCount = 20000;
+        VirtualFSWatcher watcher = virtualFS.watch(virtualFS.getRootDirectory(), true,
+                EnumSet.of(VirtualFSWatchEvent.Kind.MODIFY), 4);
+        VirtualFile file = new VirtualFile(name, virtualFS.getRootDirectory());
+        AtomicInteger modified = new AtomicInteger(-1);
+        AtomicInteger seen = new AtomicInteger(-1);
+        AtomicBoolean isDone = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < modificationCount; i++) {
+                modified.set(i);
+                file.publish(VirtualFSWatchEvent.Kind.MODIFY, virtualFS.getRootDirectory());
+            }
+            isDone.set(true);
+        });
+        Thread consumer = new Thread(() -> {
+            boolean isFinished = false;
+            while (!isFinished) {
+                isFinished = isDone.get();
+                for (VirtualFSWatchEvent event = watcher.poll(); event != null; event = watcher.poll()) {
+                    seen.set(modified.get());
+                }
+            }
+        });
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join(10_000);
+        assertFalse(consumer.isAlive());
+        // последнее изменение не склеилось с событием, которое читатель уже получил
+        assertEquals(modificationCount - 1, seen.get());
+        assertEquals(0, watcher.getLostEvents());
+    }
+}
@@ -456,4 +456,250 @@ class VirtualFileTest {
         assertThrows(LockedVirtualFSNodeException.class, () -> virtualFile.open("rw"));
         assertThrows(LockedVirtualFSNodeException.class, () -> virtualFile.copy(destinationDirectory));
     }
-}
\ No newline at end of file
+
+    /**
+     * Данные, занимающие ровно blocks блоков файла
+     */
+    private static byte[] blocksContent(int blocks, int seed) {
+        byte[] content = new byte[blocks * VirtualRandomAccessFile.getBlockSize() - VirtualRandomAccessFile.META_INFORMATION_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (seed + i);
+        }
+        return content;
+    }
+
+    private static byte[] readContent(VirtualFile virtualFile) throws IOException, VFSException {
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("r");
+        byte[] bytes = new byte[(int) randomAccessFile.length()];
+        randomAccessFile.read(bytes);
+        randomAccessFile.close();
+        return bytes;
+    }
+
+    private VirtualFile createFile(byte[] content) throws IOException, VFSException {
+        VirtualFile virtualFile = virtualFS.touch(name);
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.write(content);
+        randomAccessFile.close();
+        return virtualFile;
+    }
+
+    @Test
+    void copyOnWrite() throws IOException, VFSException {
+        byte[] content = blocksContent(3, 0);
+        VirtualFile virtualFile = createFile(content);
+        VirtualDirectory destinationDirectory = virtualFS.mkdir(name);
+        long length = sourceFile.length();
+
+        VirtualFile copiedFile = virtualFile.copy(destinationDirectory);
+
+        assertEquals(length, sourceFile.length());
+        assertArrayEquals(content, readContent(copiedFile));
+
+        VirtualRandomAccessFile randomAccessFile = copiedFile.open("rw");
+        randomAccessFile.write(42);
+        randomAccessFile.close();
+
+        // копируется только изменённый первый блок
+        assertEquals(length + VirtualRandomAccessFile.getBlockSize() + VirtualRandomAccessFile.BLOCK_HEADER_SIZE,
+                sourceFile.length());
+        assertArrayEquals(content, readContent(virtualFile));
+        byte[] copiedContent = readContent(copiedFile);
+        assertEquals(42, copiedContent[0]);
+        assertEquals(content[1], copiedContent[1]);
+        assertEquals(content.length, copiedContent.length);
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+
+    @Test
+    void copyOnWriteIsSaved() throws IOException, VFSException, ClassNotFoundException {
+        byte[] content = blocksContent(2, 3);
+        VirtualFile virtualFile = createFile(content);
+        VirtualFile copiedFile = virtualFile.copy(virtualFS.mkdir(name));
+
+        VirtualRandomAccessFile randomAccessFile = copiedFile.open("rw");
+        randomAccessFile.write(42);
+        randomAccessFile.close();
+        virtualFS.close();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertArrayEquals(content, readContent(vfs.getRootDirectory().getFile(name)));
+        byte[] copiedContent = readContent(vfs.getRootDirectory().getDirectory(name).getFile(name));
+        assertEquals(42, copiedContent[0]);
+        assertEquals(content[1], copiedContent[1]);
+        VirtualFSCheckReport report = vfs.check(true);
+        assertTrue(report.isConsistent(), report.getProblems().toString());
+    }
+
+    @Test
+    void copyOnWriteAppend() throws IOException, VFSException {
+        byte[] content = blocksContent(2, 0);
+        VirtualFile virtualFile = createFile(content);
+        VirtualDirectory destinationDirectory = virtualFS.mkdir(name);
+        VirtualFile copiedFile = virtualFile.copy(destinationDirectory);
+
+        byte[] appendedContent = new byte[VirtualRandomAccessFile.getBlockSize()];
+        VirtualRandomAccessFile randomAccessFile = virtualFile.open("rw");
+        randomAccessFile.seek(randomAccessFile.length());
+        randomAccessFile.write(appendedContent);
+        randomAccessFile.close();
+
+        randomAccessFile = copiedFile.open("rw");
+        randomAccessFile.setLength(10);
+        randomAccessFile.close();
+
+        assertEquals(content.length + appendedContent.length, readContent(virtualFile).length);
+        byte[] copiedContent = readContent(copiedFile);
+        assertEquals(10, copiedContent.length);
+        assertEquals(content[9], copiedContent[9]);
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+    }
+
+    @Test
+    void removeAfterCopy() throws IOException, VFSException {
+        byte[] content = blocksContent(3, 5);
+        VirtualFile virtualFile = createFile(content);
+        VirtualFile copiedFile = virtualFile.copy(virtualFS.mkdir(name));
+        VirtualFile secondCopiedFile = virtualFile.copy(virtualFS.mkdir(newName));
+
+        virtualFile.remove();
+
+        assertArrayEquals(content, readContent(copiedFile));
+        assertTrue(virtualFS.check(true).isConsistent(), virtualFS.check(true).getProblems().toString());
+
+        copiedFile.remove();
+        secondCopiedFile.remove();
+
+        VirtualFSCheckReport report = virtualFS.check(true);
+        assertTrue(report.isConsistent(), report.getProblems().toString());
+    }
+
+    @Test
+    void copyDirectoryOnWrite() throws IOException, VFSException, ClassNotFoundException {
+        byte[] content = blocksContent(2, 7);
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualRandomAccessFile randomAccessFile = directory.touch(name).open("rw");
+        randomAccessFile.write(content);
+        randomAccessFile.close();
+        long length = sourceFile.length();
+
+        VirtualDirectory copiedDirectory = directory.copy(virtualFS.mkdir(newName));
+        assertEquals(length, sourceFile.length());
+
+        randomAccessFile = copiedDirectory.getFiles().get(0).open("rw");
+        randomAccessFile.seek(content.length - 1);
+        randomAccessFile.write(42);
+        randomAccessFile.close();
+        virtualFS.save();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        VirtualFile originalFile = vfs.getDirectories().get(0).getFiles().get(0);
+        VirtualFile copiedFile = vfs.getDirectories().get(1).getDirectories().get(0).getFiles().get(0);
+        assertArrayEquals(content, readContent(originalFile));
+        assertEquals(42, readContent(copiedFile)[content.length - 1]);
+        assertTrue(vfs.check(true).isConsistent(), vfs.check(true).getProblems().toString());
+    }
+
+    @Test
+    void lengthAndBlockCount() throws IOException, VFSException {
+        int blockSize = VirtualRandomAccessFile.getBlockSize();
+        VirtualFile file = virtualFS.touch(name);
+        assertEquals(0, file.length());
+        assertEquals(0, file.blockCount());
+
+        VirtualRandomAccessFile randomAccessFile = file.open("rw");
+        randomAccessFile.write(new byte[5 * blockSize]);
+        randomAccessFile.close();
+        assertEquals(5L * blockSize, file.length());
+        assertEquals(6, file.blockCount());
+
+        randomAccessFile = file.open("rw");
+        randomAccessFile.setLength(blockSize - VirtualRandomAccessFile.META_INFORMATION_SIZE);
+        randomAccessFile.close();
+        assertEquals(blockSize - VirtualRandomAccessFile.META_INFORMATION_SIZE, file.length());
+        assertEquals(1, file.blockCount());
+
+        VirtualFile copiedFile = file.copy(virtualFS.mkdir(name));
+        assertEquals(file.length(), copiedFile.length());
+        assertEquals(1, copiedFile.blockCount());
+
+        file.setCompressed(true);
+        assertEquals(blockSize - VirtualRandomAccessFile.META_INFORMATION_SIZE, file.length());
+        assertEquals(1, file.blockCount());
+
+        randomAccessFile = file.open("rw");
+        randomAccessFile.setLength(0);
+        randomAccessFile.close();
+        assertEquals(0, file.length());
+        assertEquals(0, file.blockCount());
+    }
+
+    @Test
+    void compressedBlockCountFromMemory() throws IOException, VFSException, InterruptedException {
+        VirtualFile file = virtualFS.touch(name);
+        file.setCompressed(true);
+        VirtualRandomAccessFile randomAccessFile = file.open("rw");
+        randomAccessFile.write(VirtualFSTestUtils.content(100_000, 1));
+        randomAccessFile.close();
+        long blockCount = file.blockCount();
+        assertTrue(blockCount > 0);
+
+        // число блоков берётся из узла, файл, открытый на запись, не нужно блокировать на чтение
+        randomAccessFile = file.open("rw");
+        long[] result = new long[1];
+        Thread thread = new Thread(() -> {
+            try {
+                result[0] = file.blockCount();
+            } catch (IOException | VFSException e) {
+                result[0] = -1;
+            }
+        });
+        thread.start();
+        thread.join();
+        randomAccessFile.close();
+        assertEquals(blockCount, result[0]);
+    }
+
+    @Test
+    void lengthIsSaved() throws IOException, VFSException, ClassNotFoundException {
+        VirtualRandomAccessFile randomAccessFile = virtualFS.touch(name).open("rw");
+        randomAccessFile.write(new byte[3000]);
+        randomAccessFile.close();
+        virtualFS.save();
+        virtualFS.close();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        VirtualFile file = vfs.getFiles().get(0);
+        randomAccessFile = file.open("rw");
+        // размер берётся из памяти, блокировка файла на чтение не нужна
+        assertEquals(3000, file.length());
+        randomAccessFile.write(new byte[4000]);
+        randomAccessFile.close();
+        assertEquals(4000, file.length());
+    }
+
+    @Test
+    void openFailureReleasesLocks() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualFile file = directory.touch(name);
+        VirtualRandomAccessFile randomAccessFile = file.open("rw");
+        randomAccessFile.write(new byte[100]);
+        randomAccessFile.close();
+        file.setCompressed(true);
+
+        // число частей в заголовке сжатых данных становится отрицательным, контрольные суммы остаются верными
+        randomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw", file.getContentPosition(), null);
+        randomAccessFile.seek(8 * 2 + 4);
+        randomAccessFile.writeInt(-1);
+        randomAccessFile.close();
+
+        assertThrows(NegativeArraySizeException.class, () -> file.open("r"));
+        assertThrows(NegativeArraySizeException.class, () -> file.open("rw"));
+
+        // ни файл, ни директории на пути до него не остались заблокированы
+        file.rename(newName);
+        directory.rename(newName);
+        file.remove();
+        assertTrue(directory.getFiles().isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualGlobTest {
+    final String name = "test_name";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        File sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    private static Set<String> paths(List<VirtualFile> files) {
+        return files.stream().map(VirtualFSNode::getPath).collect(Collectors.toSet());
+    }
+
+    @Test
+    void glob() throws VFSException {
+        VirtualDirectory data = virtualFS.mkdir("data");
+        for (String date : new String[]{"2025-12", "2026-01", "2026-02"}) {
+            VirtualDirectory partition = data.mkdir(date);
+            partition.touch("part-0");
+            partition.touch("part-1");
+            partition.touch("index");
+            partition.mkdir("logs").touch("app.log.gz");
+        }
+        VirtualDirectory logs = virtualFS.mkdir("logs");
+        logs.touch("root.gz");
+        logs.touch("root.txt");
+        logs.mkdir("logs").touch("nested.gz");
+
+        assertEquals(Set.of("/data/2026-01/part-0", "/data/2026-01/part-1", "/data/2026-02/part-0",
+                "/data/2026-02/part-1"), paths(virtualFS.glob("/data/2026-*/part-*")));
+        assertEquals(Set.of("/data/2025-12/logs/app.log.gz", "/data/2026-01/logs/app.log.gz",
+                        "/data/2026-02/logs/app.log.gz", "/logs/root.gz", "/logs/logs/nested.gz"),
+                paths(virtualFS.glob("**/logs/*.gz")));
+        assertEquals(Set.of("/data/2026-02/index"), paths(virtualFS.glob("data/2026-02/index")));
+        assertEquals(Set.of("/data/2025-12/part-1", "/data/2026-01/part-1", "/data/2026-02/part-1"),
+                paths(virtualFS.glob("/data/*/part-[!0]")));
+        assertEquals(Set.of("/logs/root.gz", "/logs/root.txt"), paths(virtualFS.glob("/logs/root.{gz,txt}")));
+        assertEquals(Set.of("/logs/root.gz", "/logs/logs/nested.gz"), paths(logs.glob("**/*.gz")));
+        assertEquals(15, virtualFS.glob("**").size());
+        assertEquals(List.of(), virtualFS.glob("/data/2027-*/part-?"));
+        assertEquals(List.of(), virtualFS.glob("/"));
+        assertThrows(IllegalArgumentException.class, () -> virtualFS.glob("/data/{a,b"));
+        assertThrows(IllegalArgumentException.class, () -> virtualFS.glob("/data/[ab"));
+    }
+}
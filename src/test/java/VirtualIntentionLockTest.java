@@ -0,0 +1,119 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualIntentionLockTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        File sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    @Test
+    void compatibility() {
+        VirtualIntentionLock lock = new VirtualIntentionLock(false);
+        Lock intentionRead = lock.lock(VirtualIntentionLock.Mode.IS, null);
+        Lock intentionWrite = lock.lock(VirtualIntentionLock.Mode.IX, null);
+        Lock read = lock.lock(VirtualIntentionLock.Mode.S, null);
+        Lock write = lock.lock(VirtualIntentionLock.Mode.X, null);
+
+        assertTrue(intentionRead.tryLock());
+        assertTrue(intentionWrite.tryLock());
+        assertFalse(read.tryLock());
+        assertFalse(write.tryLock());
+        intentionWrite.unlock();
+
+        assertTrue(read.tryLock());
+        assertFalse(intentionWrite.tryLock());
+        intentionRead.unlock();
+        read.unlock();
+
+        assertTrue(write.tryLock());
+        assertFalse(intentionRead.tryLock());
+        write.unlock();
+        assertEquals(0, lock.getHoldCount(VirtualIntentionLock.Mode.X));
+        assertThrows(UnsupportedOperationException.class, write::newCondition);
+    }
+
+    @Test
+    void ownerLocksDoNotConflict() {
+        VirtualIntentionLock lock = new VirtualIntentionLock(false);
+        Object owner = new Object();
+        Lock intentionWrite = lock.lock(VirtualIntentionLock.Mode.IX, owner);
+        Lock write = lock.lock(VirtualIntentionLock.Mode.X, owner);
+
+        assertTrue(intentionWrite.tryLock());
+        assertTrue(write.tryLock());
+        assertFalse(lock.lock(VirtualIntentionLock.Mode.IS, null).tryLock());
+        write.unlock();
+        intentionWrite.unlock();
+        assertTrue(lock.lock(VirtualIntentionLock.Mode.X, null).tryLock());
+    }
+
+    @Test
+    void combine() {
+        assertEquals(VirtualIntentionLock.Mode.IX, VirtualIntentionLock.Mode.IS.combine(VirtualIntentionLock.Mode.IX));
+        assertEquals(VirtualIntentionLock.Mode.S, VirtualIntentionLock.Mode.S.combine(VirtualIntentionLock.Mode.IS));
+        assertEquals(VirtualIntentionLock.Mode.X, VirtualIntentionLock.Mode.IX.combine(VirtualIntentionLock.Mode.S));
+        assertEquals(VirtualIntentionLock.Mode.X, VirtualIntentionLock.Mode.IS.combine(VirtualIntentionLock.Mode.X));
+    }
+
+    @Test
+    void subtreeLockedByRoot() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualDirectory child = directory.mkdir(name).mkdir(name);
+        VirtualFile file = child.touch(name);
+        VirtualDirectory sibling = virtualFS.mkdir(newName);
+
+        // вложенные узлы не блокируются, занятость поддерева видна по намерениям на его корне
+        List<Lock> locks = directory.tryWriteLockDown();
+        assertThrows(LockedVirtualFSNodeException.class, () -> child.touch(newName));
+        assertThrows(LockedVirtualFSNodeException.class, () -> file.open("r"));
+        assertThrows(LockedVirtualFSNodeException.class, () -> file.rename(newName));
+        assertDoesNotThrow(() -> sibling.touch(name));
+        locks.forEach(Lock::unlock);
+
+        VirtualRandomAccessFile randomAccessFile = file.open("r");
+        assertThrows(LockedVirtualFSNodeException.class, () -> directory.move(sibling));
+        assertThrows(LockedVirtualFSNodeException.class, directory::remove);
+        VirtualDirectory copiedDirectory = directory.copy(sibling);
+        child.touch(newName);
+        randomAccessFile.close();
+
+        VirtualDirectory destination = sibling.mkdir(newName);
+        directory.move(destination);
+        assertSame(child, virtualFS.resolve("/" + newName + "/" + newName + "/" + name + "/" + name + "/" + name));
+        assertEquals(1, copiedDirectory.getDirectories().get(0).getDirectories().get(0).getFiles().size());
+    }
+
+    @Test
+    void transactionUpgradesOwnLocks() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualDirectory child = directory.mkdir(name);
+
+        virtualFS.transaction(tx -> {
+            tx.touch(child, name);
+            tx.remove(directory);
+        });
+        assertTrue(virtualFS.getDirectories().isEmpty());
+        assertDoesNotThrow(() -> virtualFS.mkdir(name).tryWriteLockDown().forEach(Lock::unlock));
+    }
+}
@@ -0,0 +1,131 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualNameIndexTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+    private File sourceFile;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    private static Set<VirtualFile> toSet(Iterator<VirtualFile> iterator) {
+        Set<VirtualFile> files = new HashSet<>();
+        iterator.forEachRemaining(files::add);
+        return files;
+    }
+
+    @Test
+    void findBySubName() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        for (int i = 0; i < 20; i++) {
+            directory.touch(name + i);
+            directory.mkdir(newName + i).touch(i + newName);
+        }
+        virtualFS.touch("abc");
+
+        Set<VirtualFile> expected = toSet(virtualFS.find("name"));
+        virtualFS.setNameIndexEnabled(true);
+        assertTrue(virtualFS.isNameIndexEnabled());
+        assertEquals(expected, toSet(virtualFS.find("name")));
+        assertEquals(20, toSet(virtualFS.find("test_name")).size());
+        assertEquals(1, toSet(virtualFS.find("abc")).size());
+        assertTrue(toSet(virtualFS.find("xyz")).isEmpty());
+
+        virtualFS.setNameIndexEnabled(false);
+        assertFalse(virtualFS.isNameIndexEnabled());
+        assertEquals(expected, toSet(virtualFS.find("name")));
+    }
+
+    @Test
+    void changesAreIndexed() throws IOException, VFSException {
+        virtualFS.setNameIndexEnabled(true);
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualDirectory destination = virtualFS.mkdir(newName);
+        VirtualFile file = directory.touch(name);
+        VirtualFile removedFile = directory.touch(name + 1);
+        assertEquals(Set.of(file, removedFile), toSet(virtualFS.find(name)));
+
+        file.rename(newName);
+        assertEquals(Set.of(removedFile), toSet(virtualFS.find(name)));
+        assertEquals(Set.of(file), toSet(virtualFS.find(newName)));
+
+        file.move(destination);
+        VirtualFile copiedFile = file.copy(directory);
+        assertEquals(Set.of(file, copiedFile), toSet(virtualFS.find(newName)));
+
+        removedFile.remove();
+        directory.remove();
+        assertTrue(toSet(virtualFS.find(name)).isEmpty());
+        assertEquals(Set.of(file), toSet(virtualFS.find(newName)));
+
+        virtualFS.transaction(tx -> tx.remove(file));
+        assertTrue(toSet(virtualFS.find(newName)).isEmpty());
+    }
+
+    @Test
+    void findByPattern() throws IOException, VFSException {
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        for (int i = 0; i < 20; i++) {
+            directory.touch("report_" + i + ".txt");
+            directory.touch("report_" + i + ".csv");
+        }
+        Pattern pattern = Pattern.compile("report_1\\d*\\.txt");
+        Set<VirtualFile> expected = toSet(virtualFS.find(pattern));
+        assertEquals(11, expected.size());
+
+        virtualFS.setNameIndexEnabled(true);
+        assertEquals(expected, toSet(virtualFS.find(pattern)));
+        assertEquals(20, toSet(virtualFS.find(Pattern.compile(".*\\.csv"))).size());
+        assertEquals(40, toSet(virtualFS.find(Pattern.compile("rep.*"))).size());
+    }
+
+    @Test
+    void indexIsSaved() throws IOException, VFSException, ClassNotFoundException {
+        virtualFS.setNameIndexEnabled(true);
+        assertTrue(new VirtualFS(sourceFile).isNameIndexEnabled());
+        virtualFS.mkdir(name).touch(name);
+        virtualFS.touch(newName).remove();
+        virtualFS.save();
+        virtualFS.close();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertTrue(vfs.isNameIndexEnabled());
+        Set<VirtualFile> found = toSet(vfs.find(name));
+        assertEquals(1, found.size());
+        assertSame(vfs.resolve("/" + name + "/" + name), found.iterator().next());
+        assertTrue(toSet(vfs.find(newName)).isEmpty());
+    }
+
+    @Test
+    void literals() {
+        assertEquals(List.of("report_", ".txt"), VirtualNameIndex.literals(Pattern.compile("report_\\d+\\.txt")));
+        assertEquals(List.of("abc"), VirtualNameIndex.literals(Pattern.compile("abcd?e")));
+        assertEquals(List.of("abcd", "efg"), VirtualNameIndex.literals(Pattern.compile("abcd+efg")));
+        assertEquals(List.of("xyz"), VirtualNameIndex.literals(Pattern.compile("[abc]+xyz(def)*")));
+        assertEquals(List.of("abc"), VirtualNameIndex.literals(Pattern.compile("a{2,3}abc")));
+        assertTrue(VirtualNameIndex.literals(Pattern.compile("abc|def")).isEmpty());
+        assertTrue(VirtualNameIndex.literals(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)).isEmpty());
+        assertTrue(VirtualNameIndex.literals(Pattern.compile("(?i)abc")).isEmpty());
+        assertTrue(VirtualNameIndex.literals(Pattern.compile(".*ab")).isEmpty());
+    }
+}
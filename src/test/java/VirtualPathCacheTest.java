@@ -0,0 +1,114 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualPathCacheTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        File sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    @Test
+    void resolve() throws IOException, VFSException {
+        VirtualDirectory a = virtualFS.mkdir("a");
+        VirtualDirectory b = a.mkdir("b");
+        VirtualFile file = b.touch("c.txt");
+        VirtualRandomAccessFile randomAccessFile = file.open("rw");
+        randomAccessFile.write(new byte[]{1, 2, 3});
+        randomAccessFile.close();
+
+        assertSame(virtualFS.getRootDirectory(), virtualFS.resolve("/"));
+        assertSame(b, virtualFS.resolve("/a/b"));
+        assertSame(b, virtualFS.resolve("a//b/"));
+        assertSame(file, virtualFS.resolve("/a/b/c.txt"));
+        assertEquals("/a/b/c.txt", file.getPath());
+
+        randomAccessFile = virtualFS.openPath("/a/b/c.txt", "r");
+        assertEquals(3, randomAccessFile.length());
+        randomAccessFile.close();
+
+        assertThrows(PathNotFoundException.class, () -> virtualFS.resolve("/a/x/c.txt"));
+        assertThrows(PathNotFoundException.class, () -> virtualFS.resolve("/a/b/x"));
+        assertThrows(PathNotFoundException.class, () -> virtualFS.openPath("/a/b", "r"));
+        assertThrows(PathNotFoundException.class, () -> virtualFS.openPath("/", "r"));
+    }
+
+    @Test
+    void invalidateOnRename() throws VFSException {
+        VirtualDirectory a = virtualFS.mkdir("a");
+        VirtualFile file = a.mkdir("b").touch(name);
+        assertSame(file, virtualFS.resolve("/a/b/" + name));
+
+        a.rename(newName);
+        assertThrows(PathNotFoundException.class, () -> virtualFS.resolve("/a/b/" + name));
+        assertSame(file, virtualFS.resolve("/" + newName + "/b/" + name));
+
+        VirtualDirectory other = virtualFS.mkdir("a");
+        VirtualFile otherFile = other.mkdir("b").touch(name);
+        assertSame(otherFile, virtualFS.resolve("/a/b/" + name));
+    }
+
+    @Test
+    void invalidateOnMoveAndRemove() throws IOException, VFSException {
+        VirtualDirectory a = virtualFS.mkdir("a");
+        VirtualDirectory b = a.mkdir("b");
+        VirtualFile file = b.touch(name);
+        VirtualDirectory destination = virtualFS.mkdir(newName);
+        assertSame(file, virtualFS.resolve("/a/b/" + name));
+
+        b.move(destination);
+        assertThrows(PathNotFoundException.class, () -> virtualFS.resolve("/a/b"));
+        assertSame(file, virtualFS.resolve("/" + newName + "/b/" + name));
+
+        destination.remove();
+        assertThrows(PathNotFoundException.class, () -> virtualFS.resolve("/" + newName + "/b/" + name));
+        assertNull(virtualFS.getPathCache().get("/" + newName));
+        assertNull(virtualFS.getPathCache().get("/" + newName + "/b"));
+        assertSame(a, virtualFS.getPathCache().get("/a"));
+    }
+
+    @Test
+    void invalidateOnRollback() throws VFSException {
+        VirtualDirectory a = virtualFS.mkdir("a");
+        VirtualFile file = a.touch(name);
+        assertSame(file, virtualFS.resolve("/a/" + name));
+
+        assertThrows(NotUniqueNameException.class, () -> virtualFS.transaction(tx -> {
+            tx.rename(a, newName);
+            tx.mkdir(newName);
+        }));
+        assertThrows(PathNotFoundException.class, () -> virtualFS.resolve("/" + newName + "/" + name));
+        assertSame(file, virtualFS.resolve("/a/" + name));
+    }
+
+    @Test
+    void bounded() throws VFSException {
+        VirtualDirectory directory = virtualFS.getRootDirectory();
+        for (int i = 0; i < VirtualFS.PATH_CACHE_SIZE + 100; i++) {
+            VirtualDirectory child = new VirtualDirectory(name + i, directory);
+            directory.paste(child);
+            child.paste(new VirtualFile(name, child));
+        }
+        for (int i = 0; i < VirtualFS.PATH_CACHE_SIZE + 100; i++) {
+            virtualFS.resolve("/" + name + i + "/" + name);
+        }
+        assertEquals(VirtualFS.PATH_CACHE_SIZE, virtualFS.getPathCache().size());
+    }
+}
@@ -1,3 +1,5 @@
+import exceptions.CorruptedVirtualBlockException;
+import exceptions.UnsupportedVirtualFSFormatException;
 import org.junit.Rule;
 import org.junit.jupiter.api.Test;
 import org.junit.rules.TemporaryFolder;
@@ -6,6 +8,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -22,20 +27,26 @@ class VirtualRandomAccessFileTest {
 
         OutputStream out = new FileOutputStream(sourceFile);
 
-        byte[] data = new byte[] {
-                0, 0, 0, 0, 0, 0, 0, 32, // Размер блока = 32
-                0, 0, 0, 0, 0, 0, 0, (byte) 0x2f,
-                -1, -1, -1, -1, -1, -1, -1, -1, // Конец данных
-                0, 0, 0, 0, 0, 0, 0, 8, // Размер данных
-                0, 0, 0, 0, 0, 0, 0, 8, // Последний блок
+        byte[] blockData = new byte[]{
                 1, 2, 3, 4, 5, 6, 7, 8,
                 0, 0, 0, 0, 0, 0, 0, 0
         };
+        CRC32C checksum = new CRC32C();
+        checksum.update(blockData);
+
+        ByteBuffer data = ByteBuffer.allocate(8 * 6 + blockData.length);
+        data.putLong(VirtualRandomAccessFile.fileHeader(32)); // Размер блока = 32
+        data.putLong(0x37); // Конец данных
+        data.putLong(-1); // Следующий блок
+        data.putLong(checksum.getValue()); // Контрольная сумма
+        data.putLong(8); // Размер данных
+        data.putLong(8); // Последний блок
+        data.put(blockData);
 
         byte[] content = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
         byte[] readContent = new byte[content.length];
 
-        out.write(data);
+        out.write(data.array());
         out.close();
 
         VirtualRandomAccessFile randomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw", 8);
@@ -44,6 +55,103 @@ class VirtualRandomAccessFileTest {
         assertArrayEquals(content, readContent);
     }
 
+    @Test
+    void readOldFormat() throws IOException {
+        folder.create();
+        File sourceFile = folder.newFile(fileName);
+
+        // файл формата без контрольных сумм: размер блока без версии, заголовок блока из 2 чисел
+        ByteBuffer data = ByteBuffer.allocate(8 * 5 + 8);
+        data.putLong(1024); // Размер блока = 1024, версия 0
+        data.putLong(0x2F); // Конец данных
+        data.putLong(-1); // Следующий блок
+        data.putLong(8); // Размер данных
+        data.putLong(8); // Последний блок
+        data.put(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        try (OutputStream out = new FileOutputStream(sourceFile)) {
+            out.write(data.array());
+        }
+
+        UnsupportedVirtualFSFormatException exception = assertThrows(UnsupportedVirtualFSFormatException.class,
+                () -> new VirtualRandomAccessFile(sourceFile, "r", 8));
+        assertTrue(exception.getMessage().contains("version 0"), exception.getMessage());
+        assertThrows(UnsupportedVirtualFSFormatException.class, () -> new VirtualFS(sourceFile));
+        assertThrows(UnsupportedVirtualFSFormatException.class, () -> new VirtualFSContainer(sourceFile));
+        assertEquals(data.array().length, sourceFile.length());
+    }
+
+    @Test
+    void readCorruptedBlock() throws IOException {
+        folder.create();
+        File sourceFile = folder.newFile(fileName);
+
+        VirtualRandomAccessFile randomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw");
+        randomAccessFile.write("hello".getBytes());
+        randomAccessFile.close();
+        long startPosition = randomAccessFile.getFirstBlockPosition();
+
+        RandomAccessFile physicalFile = new RandomAccessFile(sourceFile, "rw");
+        physicalFile.seek(startPosition + VirtualRandomAccessFile.BLOCK_HEADER_SIZE
+                + VirtualRandomAccessFile.META_INFORMATION_SIZE);
+        physicalFile.write('j');
+        physicalFile.close();
+
+        VirtualRandomAccessFile verifiedFile = new VirtualRandomAccessFile(sourceFile, "r", startPosition);
+        assertThrows(CorruptedVirtualBlockException.class, verifiedFile::readLine);
+        verifiedFile.close();
+
+        VirtualRandomAccessFile unverifiedFile = new VirtualRandomAccessFile(sourceFile, "r", startPosition, null, false);
+        assertEquals("jello", unverifiedFile.readLine());
+        unverifiedFile.close();
+    }
+
+    @Test
+    void rewriteUpdatesChecksum() throws IOException {
+        folder.create();
+        File sourceFile = folder.newFile(fileName);
+
+        byte[] content = new byte[VirtualRandomAccessFile.getBlockSize() * 3];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        VirtualRandomAccessFile randomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw");
+        randomAccessFile.write(content);
+        randomAccessFile.seek(10);
+        randomAccessFile.write(new byte[]{42});
+        randomAccessFile.seek(VirtualRandomAccessFile.getBlockSize() + 10);
+        randomAccessFile.write(new byte[]{42});
+        randomAccessFile.close();
+        content[10] = 42;
+        content[VirtualRandomAccessFile.getBlockSize() + 10] = 42;
+
+        randomAccessFile = new VirtualRandomAccessFile(sourceFile, "r", randomAccessFile.getFirstBlockPosition());
+        byte[] readContent = new byte[content.length];
+        randomAccessFile.read(readContent);
+        randomAccessFile.close();
+
+        assertArrayEquals(content, readContent);
+    }
+
+    @Test
+    void newFileBlockSize() throws IOException {
+        folder.create();
+        File oldFile = folder.newFile(fileName);
+        RandomAccessFile out = new RandomAccessFile(oldFile, "rw");
+        out.writeLong(VirtualRandomAccessFile.fileHeader(32));
+        out.close();
+        new VirtualRandomAccessFile(oldFile, "r").close();
+        assertEquals(32, VirtualRandomAccessFile.getBlockSize());
+
+        File sourceFile = folder.newFile();
+        new VirtualRandomAccessFile(sourceFile, "rw").close();
+
+        RandomAccessFile in = new RandomAccessFile(sourceFile, "r");
+        assertEquals(VirtualRandomAccessFile.fileHeader(VirtualRandomAccessFile.DEFAULT_BLOCK_SIZE), in.readLong());
+        in.close();
+        assertEquals(VirtualRandomAccessFile.DEFAULT_BLOCK_SIZE, VirtualRandomAccessFile.getBlockSize());
+    }
+
     @Test
     void write() throws IOException {
         folder.create();
@@ -203,6 +311,33 @@ class VirtualRandomAccessFileTest {
         assertEquals(newContent, randomAccessFile.readLine());
     }
 
+    @Test
+    void writeAfterFlush() throws IOException {
+        folder.create();
+        File sourceFile = folder.newFile(fileName);
+
+        VirtualRandomAccessFile randomAccessFile = new VirtualRandomAccessFile(sourceFile, "rw");
+        byte[] content = new byte[3000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+            randomAccessFile.write(content[i]);
+            if (i % 700 == 0) {
+                randomAccessFile.flush();
+            }
+        }
+        randomAccessFile.close();
+
+        // после записи не с начала блока данные дописываются в тот же блок
+        int blockSize = VirtualRandomAccessFile.getBlockSize();
+        int blocksCount = (content.length + VirtualRandomAccessFile.META_INFORMATION_SIZE + blockSize - 1) / blockSize;
+        assertEquals(8 + blocksCount * (blockSize + VirtualRandomAccessFile.BLOCK_HEADER_SIZE), sourceFile.length());
+
+        randomAccessFile = new VirtualRandomAccessFile(sourceFile, "r", randomAccessFile.getFirstBlockPosition());
+        byte[] readContent = new byte[content.length];
+        randomAccessFile.read(readContent);
+        assertArrayEquals(content, readContent);
+    }
+
     @Test
     void writeTwoFiles() throws IOException {
         folder.create();
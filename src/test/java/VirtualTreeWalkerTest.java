@@ -0,0 +1,188 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualTreeWalkerTest {
+    final String name = "test_name";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        File sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    /**
+     * Обработчик, который записывает события обхода
+     */
+    private static class Recorder implements VirtualFSVisitor {
+        final List<String> events = new ArrayList<>();
+
+        Result result(String event) {
+            return Result.CONTINUE;
+        }
+
+        @Override
+        public Result preVisitDirectory(VirtualDirectory directory, int depth) {
+            String event = "pre " + directory.getName() + " " + depth;
+            events.add(event);
+            return result(event);
+        }
+
+        @Override
+        public Result visitFile(VirtualFile file, int depth) {
+            String event = "file " + file.getName() + " " + depth;
+            events.add(event);
+            return result(event);
+        }
+
+        @Override
+        public Result postVisitDirectory(VirtualDirectory directory, int depth) {
+            String event = "post " + directory.getName() + " " + depth;
+            events.add(event);
+            return result(event);
+        }
+    }
+
+    private void createTree() throws VFSException {
+        VirtualDirectory a = virtualFS.mkdir("a");
+        a.touch("a1");
+        a.mkdir("b").touch("b1");
+        virtualFS.mkdir("c").touch("c1");
+        virtualFS.touch("r1");
+    }
+
+    @Test
+    void walkOrder() throws VFSException, IOException {
+        createTree();
+        Recorder recorder = new Recorder();
+        virtualFS.walkTree(recorder);
+        assertEquals(List.of("pre root 0", "file r1 1", "pre a 1", "file a1 2", "pre b 2", "file b1 3", "post b 2",
+                "post a 1", "pre c 1", "file c1 2", "post c 1", "post root 0"), recorder.events);
+    }
+
+    @Test
+    void skipAndTerminate() throws VFSException, IOException {
+        createTree();
+        Recorder skipping = new Recorder() {
+            @Override
+            Result result(String event) {
+                return event.equals("pre a 1") ? Result.SKIP_SUBTREE : Result.CONTINUE;
+            }
+        };
+        virtualFS.walkTree(skipping);
+        assertEquals(List.of("pre root 0", "file r1 1", "pre a 1", "pre c 1", "file c1 2", "post c 1",
+                "post root 0"), skipping.events);
+
+        Recorder terminating = new Recorder() {
+            @Override
+            Result result(String event) {
+                return event.equals("file b1 3") ? Result.TERMINATE : Result.CONTINUE;
+            }
+        };
+        virtualFS.walkTree(terminating);
+        assertEquals(List.of("pre root 0", "file r1 1", "pre a 1", "file a1 2", "pre b 2", "file b1 3"),
+                terminating.events);
+    }
+
+    @Test
+    void maxDepth() throws VFSException, IOException {
+        createTree();
+        Recorder recorder = new Recorder();
+        virtualFS.walkTree(recorder, 1);
+        assertEquals(List.of("pre root 0", "file r1 1", "pre a 1", "post a 1", "pre c 1", "post c 1",
+                "post root 0"), recorder.events);
+
+        recorder = new Recorder();
+        virtualFS.walkTree(recorder, 0);
+        assertEquals(List.of("pre root 0", "post root 0"), recorder.events);
+        assertThrows(IllegalArgumentException.class, () -> virtualFS.walkTree(new Recorder(), -1));
+    }
+
+    @Test
+    void deepTree() throws VFSException, IOException {
+        int depth = 10_000;
+        VirtualDirectory rootDirectory = new VirtualDirectory(name);
+        VirtualDirectory directory = rootDirectory;
+        for (int i = 0; i < depth; i++) {
+            VirtualDirectory child = new VirtualDirectory(name);
+            directory.paste(child);
+            directory = child;
+        }
+        directory.paste(new VirtualFile(name));
+
+        int[] counts = new int[3];
+        rootDirectory.walkTree(new VirtualFSVisitor() {
+            @Override
+            public Result preVisitDirectory(VirtualDirectory directory, int depth) {
+                counts[0]++;
+                return Result.CONTINUE;
+            }
+
+            @Override
+            public Result visitFile(VirtualFile file, int depth) {
+                counts[1] = depth;
+                return Result.CONTINUE;
+            }
+
+            @Override
+            public Result postVisitDirectory(VirtualDirectory directory, int depth) {
+                counts[2]++;
+                return Result.CONTINUE;
+            }
+        });
+        assertArrayEquals(new int[]{depth + 1, depth + 1, depth + 1}, counts);
+
+        // рекурсивный поиск тоже не ограничен глубиной стека
+        Iterator<VirtualFile> iterator = rootDirectory.find(name, true);
+        assertTrue(iterator.hasNext());
+        assertSame(directory.getFiles().get(0), iterator.next());
+        assertFalse(iterator.hasNext());
+
+        // и клонирование поддерева при копировании
+        VirtualDirectory destinationDirectory = new VirtualDirectory(name);
+        VirtualDirectory clonedDirectory = rootDirectory.clone(destinationDirectory);
+        assertSame(destinationDirectory, clonedDirectory.getRootDirectory());
+        for (int i = 0; i < depth; i++) {
+            assertEquals(1, clonedDirectory.getDirectories().size());
+            clonedDirectory = clonedDirectory.getDirectories().get(0);
+        }
+        assertEquals(1, clonedDirectory.getFiles().size());
+        assertNotSame(directory.getFiles().get(0), clonedDirectory.getFiles().get(0));
+    }
+
+    @Test
+    void exportContent() throws VFSException, IOException {
+        createTree();
+        VirtualRandomAccessFile randomAccessFile = virtualFS.getRootDirectory().getDirectories().get(0)
+                .getDirectories().get(0).getFiles().get(0).open("rw");
+        randomAccessFile.write(new byte[]{1, 2, 3});
+        randomAccessFile.close();
+
+        File exportFolder = folder.newFolder("export");
+        virtualFS.exportContent(exportFolder);
+        assertTrue(new File(exportFolder, "r1").isFile());
+        assertTrue(new File(exportFolder, "a/a1").isFile());
+        assertTrue(new File(exportFolder, "c/c1").isFile());
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(new File(exportFolder, "a/b/b1").toPath()));
+
+        // директории экспорта не остались заблокированы
+        virtualFS.mkdir("d");
+    }
+}
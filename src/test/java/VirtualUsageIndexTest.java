@@ -0,0 +1,141 @@
+import exceptions.*;
+import org.junit.Rule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualUsageIndexTest {
+    final String name = "test_name";
+    final String newName = "name_test";
+
+    @Rule
+    public TemporaryFolder folder = TemporaryFolder.builder().assureDeletion().build();
+
+    private VirtualFS virtualFS;
+    private File sourceFile;
+
+    @BeforeEach
+    public void setup() throws IOException, ClassNotFoundException, VFSException {
+        folder.create();
+        sourceFile = folder.newFile(name);
+        virtualFS = new VirtualFS(sourceFile);
+    }
+
+    /**
+     * Проверка итогов директории и их совпадения с итогами, подсчитанными обходом
+     */
+    private static void assertUsage(VirtualDirectory directory, long size, long files, long directories)
+            throws IOException, VFSException {
+        VirtualDirectoryUsage usage = directory.getUsage();
+        assertEquals(size, usage.getSize());
+        assertEquals(files, usage.getFileCount());
+        assertEquals(directories, usage.getDirectoryCount());
+
+        VirtualDirectoryUsage measured = VirtualUsageIndex.measure(directory);
+        assertEquals(measured.getSize(), usage.getSize());
+        assertEquals(measured.getFileCount(), usage.getFileCount());
+        assertEquals(measured.getDirectoryCount(), usage.getDirectoryCount());
+    }
+
+    @Test
+    void usage() throws IOException, VFSException {
+        VirtualDirectory root = virtualFS.getRootDirectory();
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualFSTestUtils.createFile(directory, name, 100);
+        VirtualDirectory nested = directory.mkdir(name);
+        VirtualFile file = VirtualFSTestUtils.createFile(nested, name, 5000);
+        assertUsage(root, 5100, 2, 2);
+
+        virtualFS.setUsageIndexEnabled(true);
+        assertTrue(virtualFS.isUsageIndexEnabled());
+        assertUsage(root, 5100, 2, 2);
+        assertUsage(directory, 5100, 2, 1);
+
+        VirtualFSTestUtils.write(file, 6000);
+        VirtualFSTestUtils.createFile(root, newName, 10);
+        assertUsage(root, 6110, 3, 2);
+        assertUsage(nested, 6000, 1, 0);
+
+        VirtualRandomAccessFile randomAccessFile = file.open("rw");
+        randomAccessFile.setLength(1000);
+        randomAccessFile.close();
+        assertUsage(directory, 1100, 2, 1);
+
+        VirtualDirectory other = virtualFS.mkdir(newName);
+        nested.move(other);
+        assertUsage(directory, 100, 1, 0);
+        assertUsage(other, 1000, 1, 1);
+        file.move(other);
+        assertUsage(nested, 0, 0, 0);
+        assertUsage(other, 1000, 1, 1);
+        assertUsage(root, 1110, 3, 3);
+
+        virtualFS.setUsageIndexEnabled(false);
+        assertUsage(root, 1110, 3, 3);
+    }
+
+    @Test
+    void copyAndRemove() throws IOException, VFSException, ClassNotFoundException {
+        virtualFS.setUsageIndexEnabled(true);
+        VirtualDirectory root = virtualFS.getRootDirectory();
+        VirtualDirectory directory = virtualFS.mkdir(name);
+        VirtualFSTestUtils.createFile(directory, name, 300);
+        VirtualFSTestUtils.createFile(directory.mkdir(name), name, 700);
+
+        VirtualDirectory copiedDirectory = directory.copy(virtualFS.mkdir(newName));
+        assertUsage(copiedDirectory, 1000, 2, 1);
+        assertUsage(root, 2000, 4, 5);
+
+        VirtualFS otherFS = new VirtualFS(folder.newFile(newName));
+        otherFS.setUsageIndexEnabled(true);
+        VirtualFSTestUtils.createFile(otherFS.getRootDirectory(), newName, 50).copy(directory);
+        assertUsage(directory, 1050, 3, 1);
+        otherFS.close();
+
+        copiedDirectory.remove();
+        assertUsage(root, 1050, 3, 3);
+        directory.getFile(name).remove();
+        assertUsage(root, 750, 2, 3);
+
+        virtualFS.transaction(transaction -> transaction.remove(directory));
+        assertUsage(root, 0, 0, 1);
+        assertThrows(IOException.class, () -> virtualFS.transaction(transaction -> {
+            transaction.remove(root.getDirectory(newName));
+            throw new IOException();
+        }));
+        assertUsage(root, 0, 0, 1);
+    }
+
+    @Test
+    void usageIsSaved() throws IOException, VFSException, ClassNotFoundException {
+        virtualFS.setUsageIndexEnabled(true);
+        VirtualFSTestUtils.createFile(virtualFS.mkdir(name).mkdir(name), name, 1000);
+        VirtualFSTestUtils.createFile(virtualFS.getRootDirectory(), newName, 10);
+        virtualFS.save();
+        virtualFS.close();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertTrue(vfs.isUsageIndexEnabled());
+        assertUsage(vfs.getRootDirectory(), 1010, 2, 2);
+        VirtualFSTestUtils.createFile(vfs.getRootDirectory().getDirectory(name), newName, 90);
+        assertUsage(vfs.getRootDirectory(), 1100, 3, 2);
+    }
+
+    @Test
+    void writeIsSaved() throws IOException, VFSException, ClassNotFoundException {
+        virtualFS.setUsageIndexEnabled(true);
+        VirtualFile file = VirtualFSTestUtils.createFile(virtualFS.mkdir(name), name, 3000);
+        VirtualFSTestUtils.write(file, 4000);
+        virtualFS.close();
+
+        VirtualFS vfs = new VirtualFS(sourceFile);
+        assertUsage(vfs.getRootDirectory(), 4000, 1, 1);
+        VirtualFSTestUtils.write(vfs.getRootDirectory().getDirectory(name).getFile(name), 5000);
+        assertUsage(vfs.getRootDirectory(), 5000, 1, 1);
+    }
+}